@@ -68,12 +68,15 @@ public class Composited implements RenderTree.Node, EquipTarget {
 	}
 
 	private void rebuild() {
-	    pose.reset();
-	    for(PoseMod m : mods)
-		m.apply(pose);
-	    if(ipold > 0.0f)
+	    if(ipold > 0.0f) {
+		pose.reset();
+		for(PoseMod m : mods)
+		    m.apply(pose);
 		pose.blend(old, ipold);
-	    pose.gbuild();
+		pose.gbuild();
+	    } else {
+		pose.build(mods);
+	    }
 	}
 
 	public void set(float ipol) {
@@ -39,13 +39,13 @@ public class Connection {
     public static final Config.Variable<Boolean> encrypt = Config.Variable.propb("haven.hcrypt", false);
     private static final double ACK_HOLD = 0.030;
     private static final double OBJACK_HOLD = 0.08, OBJACK_HOLD_MAX = 0.5;
+    private static final int MAXREL = 1000;
     public final SocketAddress server;
     private final Collection<Callback> cbs = new ArrayList<>();
     private final DatagramChannel sk;
     private final Selector sel;
     private final SelectionKey key;
     private Worker worker;
-    private int tseq;
     private boolean alive = true;
     private Crypto crypt;
 
@@ -69,6 +69,20 @@ public class Connection {
 	}
     }
 
+    private Connection() {
+	this.server = null;
+	this.sk = null;
+	this.sel = null;
+	this.key = null;
+    }
+
+    /* A connection without a socket, whose receive path can be
+     * driven by feed() for benchmarking and replaying recorded
+     * traffic. */
+    public static Connection offline() {
+	return(new Connection());
+    }
+
     public static interface Callback {
 	public default void closed() {};
 	public default void handle(PMessage msg) {};
@@ -114,8 +128,8 @@ public class Connection {
 		if(msg.rem) fl += "d";
 		printf(" %s %d %d", (fl == "") ? "n" : fl, msg.id, msg.frame);
 		if(msg.initframe > 0) printf(" %d", msg.initframe);
-		for(OCache.AttrDelta attr : msg.attrs)
-		    printf(" %d:%s", attr.type, Utils.bprint.enc(attr.bytes()));
+		for(int i = 0; i < msg.nattrs; i++)
+		    printf(" %d:%s", msg.type(i), Utils.bprint.enc(msg.attr(i).bytes()));
 		printf("\n");
 	    }
 
@@ -123,6 +137,190 @@ public class Connection {
 		printf("%4.6f map %s\n", Utils.rtime() - epoch, Utils.b64.enc(msg.bytes()));
 	    }
 	}
+
+	/*
+	 * Binary counterpart of the Dumper, which a Player can read
+	 * back. Each record is a kind byte, the time since recording
+	 * began and the payload, with object deltas kept in their
+	 * decoded form. Recording stops with a warning on I/O errors
+	 * rather than taking the connection down.
+	 */
+	public static class Recorder implements Callback {
+	    public static final byte[] MAGIC = "Haven session 1\n".getBytes(Utils.ascii);
+	    public static final int REC_REL = 1, REC_OBJD = 2, REC_MAP = 3, REC_CLOSE = 4;
+	    private final DataOutputStream out;
+	    private final double epoch;
+	    private boolean broken = false;
+
+	    public Recorder(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new java.util.zip.GZIPOutputStream(out), 65536));
+		this.out.write(MAGIC);
+		this.epoch = Utils.rtime();
+	    }
+
+	    private void head(int kind) throws IOException {
+		out.writeByte(kind);
+		out.writeDouble(Utils.rtime() - epoch);
+	    }
+
+	    private void blob(byte[] data) throws IOException {
+		out.writeInt(data.length);
+		out.write(data);
+	    }
+
+	    private void fail(IOException e) {
+		broken = true;
+		new Warning(e, "session recording stopped").issue();
+		try {
+		    out.close();
+		} catch(IOException e2) {
+		}
+	    }
+
+	    public synchronized void closed() {
+		if(broken)
+		    return;
+		try {
+		    head(REC_CLOSE);
+		    out.close();
+		    broken = true;
+		} catch(IOException e) {
+		    fail(e);
+		}
+	    }
+
+	    public synchronized void handle(PMessage msg) {
+		if(broken)
+		    return;
+		try {
+		    head(REC_REL);
+		    out.writeByte(msg.type);
+		    blob(msg.bytes());
+		} catch(IOException e) {
+		    fail(e);
+		}
+	    }
+
+	    public synchronized void handle(OCache.ObjDelta msg) {
+		if(broken)
+		    return;
+		try {
+		    head(REC_OBJD);
+		    out.writeByte(msg.fl);
+		    out.writeLong(msg.id);
+		    out.writeInt(msg.frame);
+		    out.writeInt(msg.initframe);
+		    out.writeBoolean(msg.rem);
+		    out.writeShort(msg.nattrs);
+		    for(int i = 0; i < msg.nattrs; i++) {
+			out.writeByte(msg.type(i));
+			out.writeInt(msg.len(i));
+			out.write(msg.buf, msg.off(i), msg.len(i));
+		    }
+		} catch(IOException e) {
+		    fail(e);
+		}
+	    }
+
+	    public synchronized void mapdata(Message msg) {
+		if(broken)
+		    return;
+		try {
+		    head(REC_MAP);
+		    blob(msg.bytes());
+		} catch(IOException e) {
+		    fail(e);
+		}
+	    }
+	}
+
+	/*
+	 * Reads a Recorder's output back and delivers it to a callback,
+	 * either paced by the recorded timestamps scaled by some speed,
+	 * or as fast as possible when the speed is zero. A truncated
+	 * recording, as left by a client that never closed its
+	 * connection, simply ends at the last complete record.
+	 */
+	public static class Player {
+	    private final DataInputStream in;
+	    private final double speed;
+	    private double start = -1;
+	    public int nrel, nobjd, nmap;
+	    public double time;
+
+	    public Player(InputStream in, double speed) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(new java.util.zip.GZIPInputStream(in), 65536));
+		this.speed = speed;
+		byte[] magic = new byte[Recorder.MAGIC.length];
+		this.in.readFully(magic);
+		if(!Arrays.equals(magic, Recorder.MAGIC))
+		    throw(new IOException("not a session recording"));
+	    }
+
+	    private byte[] blob() throws IOException {
+		byte[] ret = new byte[in.readInt()];
+		in.readFully(ret);
+		return(ret);
+	    }
+
+	    /* Delivers the next record, returning false at the end of the recording. */
+	    public boolean step(Callback cb) throws IOException, InterruptedException {
+		int kind;
+		try {
+		    kind = in.readByte();
+		    time = in.readDouble();
+		    if(speed > 0) {
+			double now = Utils.rtime();
+			if(start < 0)
+			    start = now - (time / speed);
+			double wait = start + (time / speed) - now;
+			if(wait > 0)
+			    Thread.sleep((long)(wait * 1000));
+		    }
+		    switch(kind) {
+		    case Recorder.REC_REL: {
+			int type = in.readUnsignedByte();
+			byte[] data = blob();
+			nrel++;
+			cb.handle(new PMessage(type, data));
+			break;
+		    }
+		    case Recorder.REC_OBJD: {
+			int fl = in.readUnsignedByte();
+			long id = in.readLong();
+			OCache.ObjDelta delta = new OCache.ObjDelta(fl, id, in.readInt());
+			delta.initframe = in.readInt();
+			delta.rem = in.readBoolean();
+			MessageBuf data = new MessageBuf();
+			for(int i = in.readUnsignedShort(); i > 0; i--) {
+			    int type = in.readUnsignedByte();
+			    byte[] attr = blob();
+			    delta.add(type, data.wh, attr.length);
+			    data.addbytes(attr);
+			}
+			delta.buf = data.fin();
+			nobjd++;
+			cb.handle(delta);
+			break;
+		    }
+		    case Recorder.REC_MAP: {
+			byte[] data = blob();
+			nmap++;
+			cb.mapdata(new MessageBuf(data));
+			break;
+		    }
+		    case Recorder.REC_CLOSE:
+			cb.closed();
+			return(false);
+		    default:
+			throw(new IOException("unknown record kind: " + kind));
+		    }
+		} catch(EOFException e) {
+		    return(false);
+		}
+		return(true);
+	    }
+	}
     }
 
     public Connection add(Callback cb) {
@@ -130,6 +328,38 @@ public class Connection {
 	return(this);
     }
 
+    /* Fans out to the added callbacks in the same way received
+     * traffic is, for delivering traffic that did not arrive over the
+     * network, such as a replayed recording. */
+    public Callback callbacks() {
+	return(new Callback() {
+		public void closed() {
+		    for(Callback cb : cbs)
+			cb.closed();
+		}
+
+		public void handle(PMessage msg) {
+		    for(Iterator<Callback> i = cbs.iterator(); i.hasNext();) {
+			Callback cb = i.next();
+			cb.handle(i.hasNext() ? msg.clone() : msg);
+		    }
+		}
+
+		public void handle(OCache.ObjDelta delta) {
+		    for(Callback cb : cbs)
+			cb.handle(delta);
+		}
+
+		public void mapdata(Message msg) {
+		    MessageBuf buf = (msg instanceof MessageBuf) ? (MessageBuf)msg : new MessageBuf(msg.bytes());
+		    for(Iterator<Callback> i = cbs.iterator(); i.hasNext();) {
+			Callback cb = i.next();
+			cb.mapdata(i.hasNext() ? buf.clone() : buf);
+		    }
+		}
+	    });
+    }
+
     public static class DecryptException extends Exception {
 	public DecryptException(String msg, Throwable cause) {super(msg, cause);}
 	public DecryptException(String msg) {super(msg);}
@@ -144,90 +374,170 @@ public class Connection {
 	}
     }
 
-    private class Crypto {
-	private final Cipher cipher;
+    /*
+     * Packet encryption with AES-GCM, using the 24 low bits of a
+     * per-direction packet counter as the explicit nonce. Each
+     * direction has its own cipher instance, which also serves as the
+     * lock for that direction, so sending and receiving never block
+     * each other. Received packets are decrypted in place, and sent
+     * packets are built and encrypted in a reused buffer.
+     */
+    public static class Crypto {
+	private final Cipher tcipher, rcipher;
 	private final Key tkey, rkey;
-	private final NavigableSet<Long> rseqs = new TreeSet<>();
+	private final byte[] tiv = new byte[8], riv = new byte[8];
+	private byte[] tbuf = new byte[65536];
+	private ByteBuffer tbb = ByteBuffer.wrap(tbuf);
+	private final PMessage rview = new PMessage(0);
+	/* Replay window: rmax is the highest sequence number seen, and
+	 * bit n of (rwhi:rwlo) is set if rmax - n has been seen. */
+	private long rmax = -1, rwlo = 1, rwhi = 0;
 	private long tseq;
 
-	private Crypto(byte[] cookie, byte[] salt) {
+	/* With peer set, the key directions are swapped to give the
+	 * server's view of the session, which is only useful for
+	 * testing. */
+	public Crypto(byte[] cookie, byte[] salt, boolean peer) {
 	    try {
-		this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		this.tcipher = Cipher.getInstance("AES/GCM/NoPadding");
+		this.rcipher = Cipher.getInstance("AES/GCM/NoPadding");
 	    } catch(Exception e) {
 		throw(new UnsupportedOperationException(e));
 	    }
-	    rseqs.add(-1L);
-	    tkey = new SecretKeySpec(Digest.hkdf(Digest.SHA256, salt, cookie, "client".getBytes(Utils.ascii), 16), "AES");
-	    rkey = new SecretKeySpec(Digest.hkdf(Digest.SHA256, salt, cookie, "server".getBytes(Utils.ascii), 16), "AES");
+	    Key ckey = new SecretKeySpec(Digest.hkdf(Digest.SHA256, salt, cookie, "client".getBytes(Utils.ascii), 16), "AES");
+	    Key skey = new SecretKeySpec(Digest.hkdf(Digest.SHA256, salt, cookie, "server".getBytes(Utils.ascii), 16), "AES");
+	    tkey = peer ? skey : ckey;
+	    rkey = peer ? ckey : skey;
 	}
 
-	public synchronized byte[] encrypt(byte[] msg) {
+	public Crypto(byte[] cookie, byte[] salt) {
+	    this(cookie, salt, false);
+	}
+
+	/* Encrypts buf[off..off+len) in place, and writes the framing
+	 * sequence number into the three bytes before it. Returns the
+	 * length of the ciphertext. Must hold tcipher. */
+	private int encrypt(byte[] buf, int off, int len) {
 	    long seq = tseq++;
-	    byte[] iv = new byte[8];
-	    Utils.int64e(seq, iv, 0);
+	    Utils.int64e(seq, tiv, 0);
 	    try {
-		cipher.init(Cipher.ENCRYPT_MODE, tkey, new GCMParameterSpec(128, iv));
-	    } catch(InvalidKeyException | InvalidAlgorithmParameterException e) {
+		tcipher.init(Cipher.ENCRYPT_MODE, tkey, new GCMParameterSpec(128, tiv));
+		len = tcipher.doFinal(buf, off, len, buf, off);
+	    } catch(InvalidKeyException | InvalidAlgorithmParameterException |
+		    IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
 		throw(new AssertionError(e));
 	    }
-	    byte[] ct;
-	    try {
-		ct = cipher.doFinal(msg);
-	    } catch(IllegalBlockSizeException | BadPaddingException e) {
-		throw(new AssertionError(e));
+	    buf[off - 3] = (byte)((seq >>  0) & 0xff);
+	    buf[off - 2] = (byte)((seq >>  8) & 0xff);
+	    buf[off - 1] = (byte)((seq >> 16) & 0xff);
+	    return(len);
+	}
+
+	public byte[] encrypt(byte[] msg) {
+	    byte[] ret = new byte[msg.length + 3 + 16];
+	    System.arraycopy(msg, 0, ret, 3, msg.length);
+	    synchronized(tcipher) {
+		encrypt(ret, 3, msg.length);
 	    }
-	    byte[] ret = new byte[ct.length + 3];
-	    System.arraycopy(ct, 0, ret, 3, ct.length);
-	    ret[0] = (byte)((seq >>  0) & 0xff);
-	    ret[1] = (byte)((seq >>  8) & 0xff);
-	    ret[2] = (byte)((seq >> 16) & 0xff);
 	    return(ret);
 	}
 
-	public synchronized byte[] decrypt(byte[] msg) throws DecryptException {
-	    long mseq = rseqs.last();
-	    long loseq = (msg[0] & 0xff) | ((msg[1] & 0xff) << 8) | ((msg[2] & 0xff) << 16);
-	    long seq = (mseq & ~0xffffffL) | loseq;
-	    if((Utils.sb(seq - mseq, 24) > 0) && (seq < mseq))
-		seq += 0x1000000L;
-	    else if((Utils.sb(loseq - mseq, 24) < 0) && (seq > mseq))
-		seq -= 0x1000000L;
-	    if(seq <= rseqs.first())
-		throw(new DecryptException("duplicated packet"));
-	    byte[] iv = new byte[8];
-	    Utils.int64e(seq, iv, 0);
-	    try {
-		cipher.init(Cipher.DECRYPT_MODE, rkey, new GCMParameterSpec(128, iv));
-	    } catch(InvalidKeyException | InvalidAlgorithmParameterException e) {
-		throw(new AssertionError(e));
+	/* Returns the finished MSG_CRYPT datagram in a buffer that is
+	 * reused by the next call, so the caller has to hold the lock
+	 * returned by txlock() until it has been sent. */
+	public ByteBuffer encrypt(PMessage msg) {
+	    int len = 1 + msg.size();
+	    if(tbuf.length < 4 + len + 16) {
+		tbuf = new byte[Integer.highestOneBit(4 + len + 16) * 2];
+		tbb = ByteBuffer.wrap(tbuf);
 	    }
-	    byte[] ret;
-	    try {
-		ret = cipher.doFinal(msg, 3, msg.length - 3);
-	    } catch(IllegalBlockSizeException e) {
-		throw(new AssertionError(e));
-	    } catch(BadPaddingException e) {
-		throw(new DecryptException("decryption failed", e));
+	    tbuf[0] = (byte)Session.MSG_CRYPT;
+	    tbuf[4] = (byte)msg.type;
+	    msg.fin(tbuf, 5);
+	    int clen = encrypt(tbuf, 4, len);
+	    tbb.clear();
+	    tbb.limit(4 + clen);
+	    return(tbb);
+	}
+
+	public Object txlock() {
+	    return(tcipher);
+	}
+
+	private boolean seen(long seq) {
+	    long d = rmax - seq;
+	    if(d < 0)
+		return(false);
+	    if(d >= 128)
+		return(true);
+	    return((((d < 64) ? (rwlo >>> d) : (rwhi >>> (d - 64))) & 1) != 0);
+	}
+
+	private void see(long seq) {
+	    long d = seq - rmax;
+	    if(d > 0) {
+		if(d >= 128) {
+		    rwlo = rwhi = 0;
+		} else if(d >= 64) {
+		    rwhi = rwlo << (d - 64);
+		    rwlo = 0;
+		} else {
+		    rwhi = (rwhi << d) | (rwlo >>> (64 - d));
+		    rwlo <<= d;
+		}
+		rmax = seq;
+		rwlo |= 1;
+	    } else {
+		d = -d;
+		if(d < 64)
+		    rwlo |= 1L << d;
+		else
+		    rwhi |= 1L << (d - 64);
 	    }
-	    if(!rseqs.add(seq))
-		throw(new DecryptException("duplicated packet"));
-	    while(rseqs.size() > 128)
-		rseqs.pollFirst();
-	    return(ret);
 	}
 
-	public PMessage encrypt(PMessage msg) {
-	    byte[] buf = new byte[1 + msg.size()];
-	    buf[0] = (byte)msg.type;
-	    msg.fin(buf, 1);
-	    PMessage ret = new PMessage(Session.MSG_CRYPT);
-	    ret.addbytes(encrypt(buf));
-	    return(ret);
+	/* Decrypts buf[off..off+len) in place. Returns the length of
+	 * the plaintext, which starts at off + 3. */
+	private int decrypt(byte[] buf, int off, int len) throws DecryptException {
+	    if(len < 3 + 16)
+		throw(new DecryptException("truncated packet"));
+	    long loseq = (buf[off] & 0xff) | ((buf[off + 1] & 0xff) << 8) | ((buf[off + 2] & 0xff) << 16);
+	    synchronized(rcipher) {
+		long mseq = rmax;
+		long seq = (mseq & ~0xffffffL) | loseq;
+		if((Utils.sb(seq - mseq, 24) > 0) && (seq < mseq))
+		    seq += 0x1000000L;
+		else if((Utils.sb(loseq - mseq, 24) < 0) && (seq > mseq))
+		    seq -= 0x1000000L;
+		if(seen(seq))
+		    throw(new DecryptException("duplicated packet"));
+		Utils.int64e(seq, riv, 0);
+		int ret;
+		try {
+		    rcipher.init(Cipher.DECRYPT_MODE, rkey, new GCMParameterSpec(128, riv));
+		    ret = rcipher.doFinal(buf, off + 3, len - 3, buf, off + 3);
+		} catch(InvalidKeyException | InvalidAlgorithmParameterException |
+			IllegalBlockSizeException | ShortBufferException e) {
+		    throw(new AssertionError(e));
+		} catch(BadPaddingException e) {
+		    throw(new DecryptException("decryption failed", e));
+		}
+		see(seq);
+		return(ret);
+	    }
 	}
 
+	/* Decrypts the remainder of msg in place in its buffer. The
+	 * returned message is a view that is reused by the next
+	 * call. */
 	public PMessage decrypt(MessageBuf msg) throws DecryptException {
-	    byte[] dec = decrypt(msg.bytes());
-	    return(new PMessage(dec[0], dec, 1, dec.length - 1));
+	    int off = msg.rh, len = decrypt(msg.rbuf, off, msg.rt - off);
+	    if(len < 1)
+		throw(new DecryptException("empty packet"));
+	    msg.rh = msg.rt;
+	    rview.type = msg.rbuf[off + 3];
+	    rview.reset(msg.rbuf, off + 4, len - 1);
+	    return(rview);
 	}
     }
 
@@ -282,6 +592,10 @@ public class Connection {
     }
 
     private final ByteBuffer recvbuf = ByteBuffer.allocate(65536);
+    private final PMessage recvmsg = new PMessage(0, recvbuf.array(), 0, 0);
+    /* The returned message is a view over the receive buffer and is
+     * only valid until the next call. Anything that keeps message
+     * data past the callbacks has to copy it out. */
     private PMessage recv() throws IOException {
 	recvbuf.clear();
 	int ret = sk.read(recvbuf);
@@ -290,15 +604,15 @@ public class Connection {
 	} else if(ret == 0) {
 	    return(null);
 	} else {
-	    recvbuf.flip();
-	    byte type = recvbuf.get();
-	    byte[] buf = new byte[recvbuf.remaining()];
-	    recvbuf.get(buf);
-	    return(new PMessage(type, buf));
+	    recvmsg.type = recvbuf.get(0);
+	    recvmsg.reset(recvbuf.array(), 1, ret - 1);
+	    return(recvmsg);
 	}
     }
 
     public void send(ByteBuffer msg) {
+	if(sk == null)
+	    return;
 	try {
 	    sk.write(msg);
 	} catch(IOException e) {
@@ -309,8 +623,12 @@ public class Connection {
     }
 
     public void send(PMessage msg) {
-	if((crypt != null) && (msg.type != Session.MSG_CRYPT))
-	    msg = crypt.encrypt(msg);
+	if((crypt != null) && (msg.type != Session.MSG_CRYPT)) {
+	    synchronized(crypt.txlock()) {
+		send(crypt.encrypt(msg));
+	    }
+	    return;
+	}
 	ByteBuffer buf = ByteBuffer.allocate(msg.size() + 1);
 	buf.put((byte)msg.type);
 	msg.fin(buf);
@@ -334,7 +652,124 @@ public class Connection {
 	sel.wakeup();
     }
 
-    private final List<RMessage> pending = new LinkedList<>();
+    /*
+     * Unacknowledged reliable messages, kept in a ring indexed by
+     * sequence number. Retransmit deadlines are kept in a timer wheel
+     * whose entries are dropped lazily once their message has been
+     * acknowledged, so acks never have to search the wheel.
+     */
+    private static class RelQueue {
+	static final double TICK = 0.01;
+	static final int WHEEL = 256;
+	RMessage[] ring = new RMessage[64];
+	/* Counters of queued messages, where the sequence number is
+	 * the low 16 bits: [first, sent) have been sent at least
+	 * once, and [sent, next) are waiting for their first send. */
+	int first, sent, next;
+	final int[][] wheel = new int[WHEEL][];
+	final int[] wheeln = new int[WHEEL];
+	long wtick = -1;
+	int[] due = new int[16];
+	int ndue;
+
+	static double txdelay(int retx) {
+	    if(retx == 0)
+		return(0);
+	    else if(retx <= 1)
+		return(0.08);
+	    else if(retx <= 3)
+		return(0.20);
+	    else if(retx <= 9)
+		return(0.62);
+	    else
+		return(2.00);
+	}
+
+	RMessage get(int idx) {
+	    return(ring[idx & (ring.length - 1)]);
+	}
+
+	int add(RMessage msg) {
+	    if(next - first == ring.length) {
+		RMessage[] n = new RMessage[ring.length * 2];
+		for(int i = first; i < next; i++)
+		    n[i & (n.length - 1)] = get(i);
+		ring = n;
+	    }
+	    msg.seq = next & 0xffff;
+	    ring[next & (ring.length - 1)] = msg;
+	    return(next++);
+	}
+
+	void ack(short seq) {
+	    while(first < next) {
+		RMessage msg = get(first);
+		if((short)(msg.seq - seq) > 0)
+		    break;
+		ring[first & (ring.length - 1)] = null;
+		first++;
+	    }
+	    if(sent < first)
+		sent = first;
+	}
+
+	void schedule(int idx, double time) {
+	    long tick = (long)Math.ceil(time / TICK);
+	    if(tick <= wtick)
+		tick = wtick + 1;
+	    int slot = (int)(tick % WHEEL);
+	    int[] e = wheel[slot];
+	    if(e == null)
+		e = wheel[slot] = new int[8];
+	    else if(wheeln[slot] == e.length)
+		e = wheel[slot] = Arrays.copyOf(e, e.length * 2);
+	    e[wheeln[slot]++] = idx;
+	}
+
+	private void adddue(int idx) {
+	    if(ndue == due.length)
+		due = Arrays.copyOf(due, due.length * 2);
+	    due[ndue++] = idx;
+	}
+
+	/* Collects the messages that are due for (re)transmission
+	 * into due[0..ndue), in sequence order. */
+	void collect(double now) {
+	    ndue = 0;
+	    long ctick = (long)Math.floor(now / TICK);
+	    if(wtick < 0)
+		wtick = ctick - 1;
+	    for(long t = Math.max(wtick + 1, ctick - WHEEL + 1); t <= ctick; t++) {
+		int slot = (int)(t % WHEEL);
+		int[] e = wheel[slot];
+		for(int i = 0; i < wheeln[slot]; i++) {
+		    if(e[i] >= first)
+			adddue(e[i]);
+		}
+		wheeln[slot] = 0;
+	    }
+	    wtick = Math.max(wtick, ctick);
+	    for(; sent < next; sent++)
+		adddue(sent);
+	    Arrays.sort(due, 0, ndue);
+	}
+
+	/* Returns the time of the next retransmit deadline, or a
+	 * negative number if nothing is scheduled. */
+	double nextdue() {
+	    for(int i = 1; i <= WHEEL; i++) {
+		long t = wtick + i;
+		int slot = (int)(t % WHEEL);
+		int[] e = wheel[slot];
+		for(int o = 0; o < wheeln[slot]; o++) {
+		    if(e[o] >= first)
+			return(t * TICK);
+		}
+	    }
+	    return(-1);
+	}
+    }
+    private final RelQueue pending = new RelQueue();
 
     private class Connect implements Task {
 	private final PMessage msg;
@@ -445,33 +880,45 @@ public class Connection {
     }
 
     private class Main implements Task {
+	private static final int FRAGBUF_KEEP = 1 << 20;
 	private final Map<Short, RMessage> waiting = new HashMap<>();
 	private final Map<Long, ObjAck> objacks = new HashMap<>();
+	private final RMessage relview = new RMessage(0, recvmsg.rbuf, 0, 0);
 	private double now, lasttx;
 	private short rseq, ackseq;
 	private double acktime = -1;
-	private byte[] fragbuf = null;
-	private int fragtype;
+	private MessageBuf fragbuf = new MessageBuf();
+	private int fragtype = -1;
+
+	/* Sub-messages are first handled as a view into the received
+	 * datagram, and are only copied once something keeps them. */
+	private RMessage own(RMessage msg) {
+	    if(msg != relview)
+		return(msg);
+	    RMessage ret = new RMessage(msg.type, msg.bytes());
+	    ret.seq = msg.seq;
+	    return(ret);
+	}
 
 	private void handlerel(PMessage msg) {
 	    if(msg.type == RMessage.RMSG_FRAGMENT) {
 		int head = msg.uint8();
 		if((head & 0x80) == 0) {
-		    if(fragbuf != null)
+		    if(fragtype >= 0)
 			throw(new Session.MessageException("Got start fragment while still defragmenting", msg));
-		    fragbuf = msg.bytes();
+		    fragbuf.wh = 0;
+		    fragbuf.addbytes(msg.rbuf, msg.rh, msg.rt - msg.rh);
 		    fragtype = head;
 		} else {
 		    if((head == 0x80) || (head == 0x81)) {
-			byte[] frag = msg.bytes();
-			byte[] curbuf = fragbuf;
-			byte[] newbuf = new byte[curbuf.length + frag.length];
-			System.arraycopy(curbuf, 0, newbuf, 0, curbuf.length);
-			System.arraycopy(frag, 0, newbuf, curbuf.length, frag.length);
-			fragbuf = newbuf;
+			if(fragtype < 0)
+			    throw(new Session.MessageException("Got continued fragment without start fragment", msg));
+			fragbuf.addbytes(msg.rbuf, msg.rh, msg.rt - msg.rh);
 			if(head == 0x81) {
-			    PMessage nmsg = new PMessage(fragtype, fragbuf);
-			    fragbuf = null;
+			    PMessage nmsg = new PMessage(fragtype, fragbuf.fin());
+			    fragtype = -1;
+			    if(fragbuf.wt > FRAGBUF_KEEP)
+				fragbuf = new MessageBuf();
 			    handlerel(nmsg);
 			}
 		    } else {
@@ -479,6 +926,8 @@ public class Connection {
 		    }
 		}
 	    } else {
+		if(msg == relview)
+		    msg = own(relview);
 		for(Iterator<Callback> i = cbs.iterator(); i.hasNext();) {
 		    Callback cb = i.next();
 		    cb.handle(i.hasNext() ? msg.clone() : msg);
@@ -497,7 +946,7 @@ public class Connection {
 		} while(msg != null);
 		sendack(lastack);
 	    } else if(sd > 0) {
-		waiting.put((short)msg.seq, msg);
+		waiting.put((short)msg.seq, own(msg));
 	    }
 	}
 
@@ -509,14 +958,7 @@ public class Connection {
 
 	private void gotack(short seq) {
 	    synchronized(pending) {
-		for(Iterator<RMessage> i = pending.iterator(); i.hasNext();) {
-		    RMessage msg = i.next();
-		    short sd = (short)(msg.seq - seq);
-		    if(sd <= 0)
-			i.remove();
-		    else
-			break;
-		}
+		pending.ack(seq);
 	    }
 	}
 
@@ -527,16 +969,25 @@ public class Connection {
 	    }
 	}
 
+	/* Attribute slices of the delta being decoded, reused between deltas. */
+	private int[] attrbuf = new int[48];
+
+	/* The datagram is copied out of the receive buffer once, and
+	 * every attribute of every delta in it is a slice of that copy. */
 	private void gotobjdata(Message msg) {
+	    byte[] buf = Arrays.copyOfRange(msg.rbuf, msg.rh, msg.rt);
+	    msg = new MessageBuf(buf);
 	    while(!msg.eom()) {
 		int fl = msg.uint8();
 		long id = msg.uint32();
 		int fr = msg.int32();
 		OCache.ObjDelta delta = new OCache.ObjDelta(fl, id, fr);
+		delta.buf = buf;
 		if((fl & 1) != 0)
 		    delta.initframe = fr;
 		if((fl & 8) != 0)
 		    delta.initframe = msg.int32();
+		int na = 0;
 		while(true) {
 		    int afl = 0, len, type = msg.uint8();
 		    if(type == OCache.OD_END)
@@ -555,17 +1006,24 @@ public class Connection {
 			    len = msg.uint16();
 			}
 		    }
-		    OCache.AttrDelta attr = new OCache.AttrDelta(delta, type, msg, len);
+		    int off = msg.rh;
+		    msg.skip(len);
 		    if(type == OCache.OD_REM) {
 			delta.rem = true;
 		    } else {
-			delta.attrs.add(attr);
+			if(na + 3 > attrbuf.length)
+			    attrbuf = Arrays.copyOf(attrbuf, attrbuf.length * 2);
+			attrbuf[na++] = type;
+			attrbuf[na++] = off;
+			attrbuf[na++] = len;
 		    }
 		}
-		for(Iterator<Callback> i = cbs.iterator(); i.hasNext();) {
-		    Callback cb = i.next();
-		    cb.handle(i.hasNext() ? delta.clone() : delta);
+		if(na > 0) {
+		    delta.attrs = Arrays.copyOf(attrbuf, na);
+		    delta.nattrs = na / 3;
 		}
+		for(Callback cb : cbs)
+		    cb.handle(delta);
 		ObjAck ack = objacks.get(id);
 		if(ack == null) {
 		    objacks.put(id, ack = new ObjAck(id, fr, now));
@@ -586,15 +1044,18 @@ public class Connection {
 	    case Session.MSG_REL: {
 		int seq = msg.uint16();
 		while(!msg.eom()) {
-		    int type = msg.uint8();
-		    RMessage rmsg;
+		    int type = msg.uint8(), len;
 		    if((type & 0x80) != 0) {
-			rmsg = new RMessage(type & 0x7f, msg.bytes(msg.uint16()));
+			type &= 0x7f;
+			len = msg.uint16();
 		    } else {
-			rmsg = new RMessage(type, msg.bytes());
+			len = msg.rt - msg.rh;
 		    }
-		    rmsg.seq = seq++;
-		    gotrel(rmsg);
+		    msg.skip(len);
+		    relview.type = type;
+		    relview.reset(msg.rbuf, msg.rh - len, len);
+		    relview.seq = seq++;
+		    gotrel(relview);
 		}
 		break;
 	    }
@@ -617,35 +1078,38 @@ public class Connection {
 	    return((a < 0) ? b : Math.min(a, b));
 	}
 
+	/* Consecutive due messages are packed into the same MSG_REL
+	 * datagram, each with an explicit length, as far as MAXREL
+	 * allows. */
 	private double sendpending() {
-	    double mint = -1;
 	    synchronized(pending) {
-		for(RMessage msg : pending) {
-		    double txtime;
-		    if(msg.retx == 0)
-			txtime = 0;
-		    else if(msg.retx <= 1)
-			txtime = 0.08;
-		    else if(msg.retx <= 3)
-			txtime = 0.20;
-		    else if(msg.retx <= 9)
-			txtime = 0.62;
-		    else
-			txtime = 2.00;
-		    txtime = msg.last + txtime;
-		    if(now >= txtime) {
-			PMessage rmsg = new PMessage(Session.MSG_REL);
-			rmsg.adduint16(msg.seq).adduint8(msg.type).addbytes(msg.fin());
+		pending.collect(now);
+		PMessage rmsg = null;
+		int last = -1;
+		for(int i = 0; i < pending.ndue; i++) {
+		    int idx = pending.due[i];
+		    RMessage msg = pending.get(idx);
+		    int len = msg.size();
+		    if((rmsg != null) && ((idx != last + 1) || (rmsg.size() + 3 + len > MAXREL))) {
 			send(rmsg);
-			msg.last = now;
-			msg.retx++;
-			lasttx = now;
-		    } else {
-			mint = min2(mint, txtime);
+			rmsg = null;
 		    }
+		    if(rmsg == null) {
+			rmsg = new PMessage(Session.MSG_REL);
+			rmsg.adduint16(msg.seq);
+		    }
+		    rmsg.adduint8(msg.type | 0x80).adduint16(len).addbytes(msg.wbuf, 0, len);
+		    msg.last = now;
+		    msg.retx++;
+		    pending.schedule(idx, now + RelQueue.txdelay(msg.retx));
+		    last = idx;
+		}
+		if(rmsg != null) {
+		    send(rmsg);
+		    lasttx = now;
 		}
+		return(pending.nextdue());
 	    }
-	    return(mint);
 	}
 
 	private double sendobjacks() {
@@ -775,11 +1239,21 @@ public class Connection {
 	}
     }
 
+    private Main offmain = null;
+    /* Runs one datagram through the receive path of an offline
+     * connection, as if it had been read from the socket. */
+    public void feed(PMessage msg) {
+	if(sk != null)
+	    throw(new IllegalStateException("not an offline connection"));
+	if(offmain == null)
+	    offmain = new Main();
+	offmain.now = Utils.rtime();
+	offmain.handlemsg(msg);
+    }
+
     public void queuemsg(PMessage pmsg) {
 	RMessage msg = new RMessage(pmsg);
 	synchronized(pending) {
-	    msg.seq = tseq;
-	    tseq = (tseq + 1) & 0xffff;
 	    pending.add(msg);
 	}
 	wake();
@@ -31,11 +31,11 @@ import java.util.function.*;
 import java.security.*;
 import java.util.concurrent.atomic.*;
 
-public class Defer extends ThreadGroup {
+public class Defer {
     private static final Map<ThreadGroup, Defer> groups = new WeakHashMap<ThreadGroup, Defer>();
-    private final Queue<Future<?>> queue = new PrioQueue<Future<?>>();
-    private final Collection<Thread> pool = new LinkedList<Thread>();
-    private final int maxthreads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+    private static final ThreadLocal<Defer> current = new ThreadLocal<>();
+    private final Scheduler sched;
+    private final AtomicInteger queued = new AtomicInteger(0);
     private final AtomicInteger busy = new AtomicInteger(0);
     
     public interface Callable<T> {
@@ -109,7 +109,7 @@ public class Defer extends ThreadGroup {
 	}
     }
 
-    public class Future<T> implements Runnable, Prioritized, haven.Future<T> {
+    public class Future<T> implements Runnable, Scheduler.Task, haven.Future<T> {
 	public final Callable<T> task;
 	private final Waitable.Queue wq = new Waitable.Queue();
 	private int prio = -1;
@@ -142,11 +142,15 @@ public class Defer extends ThreadGroup {
 	}
 
 	public void run() {
+	    queued.getAndDecrement();
 	    synchronized(this) {
 		if(state == "done")
 		    return;
 		running = Thread.currentThread();
 	    }
+	    Loading waiting = null;
+	    Defer prev = current.get();
+	    current.set(Defer.this);
 	    try {
 		busy.getAndIncrement();
 		val = task.call();;
@@ -157,7 +161,7 @@ public class Defer extends ThreadGroup {
 		chstate("done");
 	    } catch(Loading exc) {
 		exc.boostprio(prio);
-		lastload = exc;
+		lastload = waiting = exc;
 	    } catch(Throwable exc) {
 		this.exc = exc;
 		chstate("done");
@@ -168,6 +172,7 @@ public class Defer extends ThreadGroup {
 		    running = null;
 		}
 		busy.getAndDecrement();
+		current.set(prev);
 		/* XXX: This is a race; a cancelling thread could have
 		 * gotten the thread reference via running and then
 		 * interrupt this thread after interrupted()
@@ -176,6 +181,26 @@ public class Defer extends ThreadGroup {
 		 * possible. */
 		Thread.interrupted();
 	    }
+	    if(waiting != null)
+		rewait(waiting);
+	}
+
+	/* Runs the task again as soon as what it was waiting for is
+	 * done, rather than only when next polled. */
+	private void rewait(Loading l) {
+	    try {
+		l.waitfor(this::resched, wait -> {});
+	    } catch(Loading.UnwaitableEvent e) {
+	    }
+	}
+
+	private void resched() {
+	    synchronized(this) {
+		if(state != "resched")
+		    return;
+		state = "";
+	    }
+	    defer(this);
 	}
 	
 	public T get(int prio) {
@@ -225,61 +250,13 @@ public class Defer extends ThreadGroup {
 	}
     }
 
-    private static final AtomicInteger threadno = new AtomicInteger(0);
-    private class Worker extends HackThread {
-	private Worker() {
-	    super(Defer.this, null, "Worker thread #" + threadno.getAndIncrement());
-	    setDaemon(true);
-	    setPriority((Thread.NORM_PRIORITY + Thread.MIN_PRIORITY) / 2);
-	}
-	
-	public void run() {
-	    try {
-		while(true) {
-		    Future<?> f;
-		    try {
-			long start = System.currentTimeMillis();
-			synchronized(queue) {
-			    while((f = queue.poll()) == null) {
-				if(System.currentTimeMillis() - start > 5000)
-				    return;
-				queue.wait(1000);
-			    }
-			}
-		    } catch(InterruptedException e) {
-			return;
-		    }
-		    f.run();
-		    f = null;
-		}
-	    } finally {
-		synchronized(queue) {
-		    pool.remove(this);
-		    if((pool.size() < 1) && !queue.isEmpty()) {
-			Thread n = new Worker();
-			n.start();
-			pool.add(n);
-		    }
-		}
-	    }
-	}
-    }
-
-    public Defer(ThreadGroup parent) {
-	super(parent, "DPC threads");
+    public Defer(Scheduler sched) {
+	this.sched = sched;
     }
 
     private void defer(final Future<?> f) {
-	synchronized(queue) {
-	    boolean e = queue.isEmpty();
-	    queue.add(f);
-	    queue.notify();
-	    if((pool.isEmpty() || !e) && (pool.size() < maxthreads)) {
-		Thread n = new Worker();
-		n.start();
-		pool.add(n);
-	    }
-	}
+	queued.getAndIncrement();
+	sched.submit(f);
     }
 
     public <T> Future<T> defer(Callable<T> task) {
@@ -288,14 +265,18 @@ public class Defer extends ThreadGroup {
 	return(f);
     }
 
+    /* Each thread group still gets a Defer of its own, all of them
+     * running on the shared scheduler. Its workers belong to no
+     * particular group, so work deferred from within a running
+     * future stays with the Defer that future came from. */
     private static Defer getgroup() {
+	Defer d = current.get();
+	if(d != null)
+	    return(d);
 	ThreadGroup tg = Thread.currentThread().getThreadGroup();
-	if(tg instanceof Defer)
-	    return((Defer)tg);
-	Defer d;
 	synchronized(groups) {
 	    if((d = groups.get(tg)) == null)
-		groups.put(tg, d = new Defer(tg));
+		groups.put(tg, d = new Defer(Scheduler.get()));
 	}
 	return(d);
     }
@@ -313,9 +294,7 @@ public class Defer extends ThreadGroup {
     }
 
     public String stats() {
-	synchronized(queue) {
-	    return(String.format("%d %d/%d", queue.size(), busy.get(), pool.size()));
-	}
+	return(String.format("%d %d", queued.get(), busy.get()));
     }
 
     public static String gstats() {
@@ -52,6 +52,9 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
     private boolean hoverset;
     private GSprite spr;
     private ItemInfo.Raw rawinfo;
+    /* Built from rawinfo alone; info adds what the contents
+     * contribute. */
+    private List<ItemInfo> binfo = null;
     public List<ItemInfo> info = Collections.emptyList();
 	public boolean sendttupdate = false;
 	public long meterUpdated = 0; // ND: last time meter was updated, ms
@@ -213,7 +216,9 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
 
     public List<ItemInfo> info() {
 	if(this.info == null) {
-	    List<ItemInfo> info = ItemInfo.buildinfo(this, rawinfo);
+	    if(binfo == null)
+		binfo = ItemInfo.Shared.buildinfo(this, rawinfo);
+	    List<ItemInfo> info = new ArrayList<>(binfo);
 	    addcontinfo(info);
 	    Resource.Pagina pg = res.get().layer(Resource.pagina);
 	    if(pg != null)
@@ -260,10 +265,15 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
 		res = ui.sess.getresv(args[0]);
 		sdt = (args.length > 1) ? new MessageBuf((byte[])args[1]) : MessageBuf.nil;
 		spr = null;
+		binfo = null;
 	    }
+	    if(parent instanceof Inventory)
+		((Inventory)parent).iteminfo(this);
 	} else if(name == "tt") {
-	    info = null;
+	    info = binfo = null;
 	    rawinfo = new ItemInfo.Raw(args);
+	    if(parent instanceof Inventory)
+		((Inventory)parent).iteminfo(this);
 		if (sendttupdate) {
 			wdgmsg("ttupdate");
 		}
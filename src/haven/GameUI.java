@@ -1116,6 +1116,8 @@ public class GameUI extends ConsoleHost implements Console.Directory, UI.Notice.
 		mapfile = new MapWnd(file, map, Utils.getprefc("smallmapsz", new Coord(300,300)), "Map");
 		mapfile.show(true);
 		add(mapfile, Utils.getprefc("smallmapc", new Coord(0, 150)));
+		if(file.readonly)
+		    msg("The map is open in another client. Changes to it will not be saved.", Color.YELLOW);
 	    }
 		if (trackingToggled) {
 			buffs.addchild(new Buff(Bufflist.bufftrack.indir()));
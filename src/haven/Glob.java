@@ -82,6 +82,13 @@ public class Glob {
 	party = new Party(this);
     }
 
+    private haven.automated.pathfinder.ObstacleField obstacles = null;
+    public synchronized haven.automated.pathfinder.ObstacleField obstacles() {
+	if(obstacles == null)
+	    obstacles = new haven.automated.pathfinder.ObstacleField(oc, map);
+	return(obstacles);
+    }
+
     public static interface Weather {
 	public default Pipe.Op state() {return(null);}
 	public default void update(Object... args) {}
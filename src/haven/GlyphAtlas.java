@@ -0,0 +1,403 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.FontMetrics;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import haven.render.*;
+import haven.render.Texture2D.Sampler2D;
+
+/*
+ * A single texture holding rasterized glyphs, each both plain and as
+ * the stroke around it, as white coverage masks, so that text in any
+ * colors can be drawn from it as tinted quads without rasterizing or
+ * uploading anything per string. Small images can be kept in it as
+ * well. Only to be used from the drawing thread.
+ */
+public class GlyphAtlas {
+    public static final VertexArray.Layout vf = new VertexArray.Layout(new VertexArray.Layout.Input(Ortho2D.pos,       new VectorFormat(2, NumberFormat.FLOAT32), 0,  0, 20),
+								      new VertexArray.Layout.Input(ColorTex.texc,     new VectorFormat(2, NumberFormat.FLOAT32), 0,  8, 20),
+								      new VertexArray.Layout.Input(VertexColor.color, new VectorFormat(4, NumberFormat.UNORM8),  0, 16, 20));
+    public static final GlyphAtlas labels = new GlyphAtlas(Coord.of(512, 512));
+    public final Coord sz;
+    private final byte[] data;
+    private final Texture2D tex;
+    private final ColorTex st;
+    private final Map<Object, Glyph> glyphs = new HashMap<>();
+    private int px, py, rowh;
+    private boolean dirty = true;
+    private int gen = 0;
+
+    public static class Cell {
+	public final int x, y, w, h;
+
+	public Cell(int x, int y, int w, int h) {
+	    this.x = x; this.y = y;
+	    this.w = w; this.h = h;
+	}
+    }
+
+    public static class Glyph {
+	/* Either may be null if empty. */
+	public final Cell fill, stroke;
+	public final int adv, pad;
+
+	public Glyph(Cell fill, Cell stroke, int adv, int pad) {
+	    this.fill = fill;
+	    this.stroke = stroke;
+	    this.adv = adv;
+	    this.pad = pad;
+	}
+    }
+
+    /* A line of text, or a single image, to be drawn from an atlas.
+     * Creating one is cheap; glyphs are looked up the first time it
+     * is drawn. */
+    public static class Label {
+	public final String text;
+	public final Text.Foundry fnd;
+	public final Color col, scol;
+	public final int stroke;
+	public final BufferedImage img;
+	private GlyphAtlas atlas = null;
+	private int gen;
+	private Glyph[] cglyphs;
+	private Coord sz;
+
+	public Label(String text, Text.Foundry fnd, Color col, Color scol, int stroke) {
+	    this.text = text;
+	    this.fnd = fnd;
+	    this.col = col;
+	    this.scol = scol;
+	    this.stroke = stroke;
+	    this.img = null;
+	}
+
+	public Label(BufferedImage img) {
+	    this.text = null;
+	    this.fnd = null;
+	    this.col = Color.WHITE;
+	    this.scol = null;
+	    this.stroke = 0;
+	    this.img = img;
+	}
+
+	public Coord sz() {
+	    if(sz == null) {
+		if(img != null)
+		    sz = Utils.imgsz(img);
+		else
+		    sz = fnd.strsize(text).add(stroke * 2, stroke * 2);
+	    }
+	    return(sz);
+	}
+    }
+
+    public GlyphAtlas(Coord sz) {
+	this.sz = sz;
+	this.data = new byte[sz.x * sz.y * 4];
+	this.tex = new Texture2D(sz, DataBuffer.Usage.STREAM, new VectorFormat(4, NumberFormat.UNORM8), null);
+	Sampler2D smp = new Sampler2D(tex);
+	smp.magfilter(Texture.Filter.NEAREST).minfilter(Texture.Filter.NEAREST);
+	this.st = new ColorTex(smp);
+    }
+
+    private Cell alloc(int w, int h) {
+	if(px + w > sz.x) {
+	    py += rowh;
+	    px = rowh = 0;
+	}
+	if((w > sz.x) || (py + h > sz.y))
+	    return(null);
+	Cell ret = new Cell(px, py, w, h);
+	px += w + 1;
+	rowh = Math.max(rowh, h + 1);
+	return(ret);
+    }
+
+    private void clear() {
+	glyphs.clear();
+	Arrays.fill(data, (byte)0);
+	px = py = rowh = 0;
+	gen++;
+	dirty = true;
+    }
+
+    private static boolean empty(int[] alpha) {
+	for(int a : alpha) {
+	    if(a != 0)
+		return(false);
+	}
+	return(true);
+    }
+
+    private static int[] dilate(int[] alpha, int w, int h, int r) {
+	int[] ret = new int[alpha.length];
+	int lim = (r * r) + r - 1;
+	for(int y = 0; y < h; y++) {
+	    for(int x = 0; x < w; x++) {
+		int m = 0;
+		for(int dy = -r; dy <= r; dy++) {
+		    int sy = y + dy;
+		    if((sy < 0) || (sy >= h))
+			continue;
+		    for(int dx = -r; dx <= r; dx++) {
+			int sx = x + dx;
+			if((sx < 0) || (sx >= w) || ((dx * dx) + (dy * dy) > lim))
+			    continue;
+			m = Math.max(m, alpha[sx + (sy * w)]);
+		    }
+		}
+		ret[x + (y * w)] = m;
+	    }
+	}
+	return(ret);
+    }
+
+    /* Returns null if it does not fit. */
+    private Cell putmask(int[] alpha, int w, int h) {
+	Cell c = alloc(w, h);
+	if(c == null)
+	    return(null);
+	for(int y = 0; y < h; y++) {
+	    for(int x = 0, o = ((c.x + ((c.y + y) * sz.x)) * 4); x < w; x++, o += 4) {
+		data[o] = data[o + 1] = data[o + 2] = (byte)255;
+		data[o + 3] = (byte)alpha[x + (y * w)];
+	    }
+	}
+	dirty = true;
+	return(c);
+    }
+
+    private Cell putimg(BufferedImage img) {
+	int w = img.getWidth(), h = img.getHeight();
+	Cell c = alloc(w, h);
+	if(c == null)
+	    return(null);
+	int[] argb = img.getRGB(0, 0, w, h, null, 0, w);
+	for(int y = 0; y < h; y++) {
+	    for(int x = 0, o = ((c.x + ((c.y + y) * sz.x)) * 4); x < w; x++, o += 4) {
+		int p = argb[x + (y * w)];
+		data[o    ] = (byte)(p >>> 16);
+		data[o + 1] = (byte)(p >>>  8);
+		data[o + 2] = (byte)(p >>>  0);
+		data[o + 3] = (byte)(p >>> 24);
+	    }
+	}
+	dirty = true;
+	return(c);
+    }
+
+    private static final Glyph full = new Glyph(null, null, 0, 0);
+    private Glyph mkglyph(Text.Foundry fnd, char ch, int stroke) {
+	String str = String.valueOf(ch);
+	Coord csz = fnd.strsize(str);
+	/* One extra pixel for glyphs overhanging their advance. */
+	int pad = stroke + 1;
+	int w = csz.x + (pad * 2), h = csz.y + (pad * 2);
+	BufferedImage img = TexI.mkbuf(Coord.of(w, h));
+	Graphics2D g = img.createGraphics();
+	if(fnd.aa)
+	    Utils.AA(g);
+	g.setFont(fnd.font);
+	g.setColor(Color.WHITE);
+	FontMetrics m = g.getFontMetrics();
+	g.drawString(str, pad, pad + m.getAscent());
+	g.dispose();
+	int[] alpha = img.getRaster().getSamples(0, 0, w, h, 3, (int[])null);
+	Cell fill = null, scell = null;
+	if(!empty(alpha)) {
+	    if((fill = putmask(alpha, w, h)) == null)
+		return(full);
+	    if(stroke > 0) {
+		if((scell = putmask(dilate(alpha, w, h, stroke), w, h)) == null)
+		    return(full);
+	    }
+	}
+	return(new Glyph(fill, scell, csz.x, pad));
+    }
+
+    private Glyph glyph(Text.Foundry fnd, char ch, int stroke) {
+	List<Object> key = Arrays.asList(fnd, ch, stroke);
+	Glyph ret = glyphs.get(key);
+	if(ret == null) {
+	    ret = mkglyph(fnd, ch, stroke);
+	    if(ret == full)
+		return(null);
+	    glyphs.put(key, ret);
+	}
+	return(ret);
+    }
+
+    private Glyph image(BufferedImage img) {
+	Glyph ret = glyphs.get(img);
+	if(ret == null) {
+	    Cell c = putimg(img);
+	    if(c == null)
+		return(null);
+	    glyphs.put(img, ret = new Glyph(c, null, img.getWidth(), 0));
+	}
+	return(ret);
+    }
+
+    /* Returns false if the atlas is full. */
+    private boolean resolve(Label l) {
+	if((l.atlas == this) && (l.gen == gen))
+	    return(true);
+	Glyph[] buf;
+	if(l.img != null) {
+	    Glyph g = image(l.img);
+	    if(g == null)
+		return(false);
+	    buf = new Glyph[] {g};
+	} else {
+	    buf = new Glyph[l.text.length()];
+	    for(int i = 0; i < buf.length; i++) {
+		if((buf[i] = glyph(l.fnd, l.text.charAt(i), l.stroke)) == null)
+		    return(false);
+	    }
+	}
+	l.cglyphs = buf;
+	l.atlas = this;
+	l.gen = gen;
+	return(true);
+    }
+
+    private void upload(Render out) {
+	if(!dirty)
+	    return;
+	/* Filled when the command is executed, possibly after
+	 * further glyphs have been added. */
+	byte[] snap = data.clone();
+	out.update(tex.image(0), (img, env) -> {
+		FillBuffer buf = env.fillbuf(img);
+		buf.pull(ByteBuffer.wrap(snap));
+		return(buf);
+	    });
+	dirty = false;
+    }
+
+    private static int rgba(Color c) {
+	return((c.getRed() << 24) | (c.getGreen() << 16) | (c.getBlue() << 8) | c.getAlpha());
+    }
+
+    public Batch batch(GOut g) {
+	return(new Batch(g));
+    }
+
+    /* Collects labels to be drawn in as few calls as possible. The
+     * stroke of every label is drawn before its fill, but labels
+     * are otherwise drawn in the order added. */
+    public class Batch {
+	public final GOut g;
+	private float[] vp = new float[256];
+	private int[] vc = new int[64];
+	private int n = 0;
+
+	private Batch(GOut g) {
+	    this.g = g;
+	}
+
+	private void quad(Cell c, float x, float y, int col) {
+	    if(n + 6 > vc.length) {
+		vc = Arrays.copyOf(vc, vc.length * 2);
+		vp = Arrays.copyOf(vp, vc.length * 4);
+	    }
+	    float l = x, t = y, r = x + c.w, b = y + c.h;
+	    float ix = 1.0f / sz.x, iy = 1.0f / sz.y;
+	    float tl = c.x * ix, tt = c.y * iy, tr = (c.x + c.w) * ix, tb = (c.y + c.h) * iy;
+	    float[] v = {
+		l, t, tl, tt,  r, t, tr, tt,  r, b, tr, tb,
+		l, t, tl, tt,  r, b, tr, tb,  l, b, tl, tb,
+	    };
+	    System.arraycopy(v, 0, vp, n * 4, v.length);
+	    for(int i = 0; i < 6; i++)
+		vc[n++] = col;
+	}
+
+	public void add(Label l, Coord c, double ax, double ay) {
+	    if(!resolve(l)) {
+		flush();
+		clear();
+		if(!resolve(l))
+		    return;
+	    }
+	    Coord lsz = l.sz();
+	    float x = c.x + g.tx.x - (int)(lsz.x * ax) + l.stroke;
+	    float y = c.y + g.tx.y - (int)(lsz.y * ay) + l.stroke;
+	    if(l.stroke > 0) {
+		int col = rgba(l.scol);
+		float cx = x;
+		for(Glyph gl : l.cglyphs) {
+		    if(gl.stroke != null)
+			quad(gl.stroke, cx - gl.pad, y - gl.pad, col);
+		    cx += gl.adv;
+		}
+	    }
+	    int col = rgba(l.col);
+	    float cx = x;
+	    for(Glyph gl : l.cglyphs) {
+		if(gl.fill != null)
+		    quad(gl.fill, cx - gl.pad, y - gl.pad, col);
+		cx += gl.adv;
+	    }
+	}
+
+	public void flush() {
+	    if(n == 0)
+		return;
+	    upload(g.out);
+	    float[] vp = this.vp;
+	    int[] vc = this.vc;
+	    int n = this.n;
+	    this.vp = new float[vp.length];
+	    this.vc = new int[vc.length];
+	    this.n = 0;
+	    VertexArray.Buffer buf = new VertexArray.Buffer(n * 20, DataBuffer.Usage.EPHEMERAL, (tgt, env) -> {
+		    FillBuffer ret = env.fillbuf(tgt);
+		    ByteBuffer bb = ret.push();
+		    for(int i = 0; i < n; i++) {
+			bb.putFloat(vp[(i * 4)    ]).putFloat(vp[(i * 4) + 1]);
+			bb.putFloat(vp[(i * 4) + 2]).putFloat(vp[(i * 4) + 3]);
+			int c = vc[i];
+			bb.put((byte)(c >>> 24)).put((byte)(c >>> 16)).put((byte)(c >>> 8)).put((byte)c);
+		    }
+		    return(ret);
+		});
+	    g.usestate(st);
+	    g.usestate(VertexColor.instance);
+	    g.out.draw1(g.state(), new Model(Model.Mode.TRIANGLES, new VertexArray(vf, buf), null, 0, n));
+	    g.usestate(VertexColor.slot);
+	    g.usestate(ColorTex.slot);
+	}
+    }
+}
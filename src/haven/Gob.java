@@ -56,6 +56,10 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
     public Coord2d rc;
     public double a;
     public boolean virtual = false;
+    /* Position in OCache's spatial index while the object is added to it. */
+    GridIndex.Entry<Gob> spidx = null;
+    /* Name group in OCache's search index while added to it. */
+    ObjectSearchIndex.Name sname = null;
     int clprio = 0;
     public long id;
     public boolean removed = false;
@@ -109,7 +113,6 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 	public Boolean imInCoracle = false;
 	public Boolean imOnSkis = false;
 	public Boolean imOnHorseback = false;
-	List<String> onWaterAnimations = List.of("coracleidle", "coraclerowan", "dugout", "rowboat", "rowing", "snekkja", "knarr");
 	private Overlay archeryVector;
 	private Overlay archeryRadius;
 	BarrelContentsGobInfo barrelContentsGobInfo;
@@ -655,7 +658,8 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
     public void addol(Overlay ol, boolean async) {
 	if (getres() != null) {
-		if(OptWnd.disableIndustrialSmokeCheckBox.a && !getres().name.equals("gfx/terobjs/clue")) {
+		long tags = getres().tags();
+		if(OptWnd.disableIndustrialSmokeCheckBox.a && (tags & ResTags.CLUE) == 0) {
 			try {
 				Resource res = null;
 				if(ol.sm instanceof OCache.OlSprite) {
@@ -665,11 +669,11 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 				} else if(ol.spr != null) {
 					res = ol.spr.res;
 				}
-				if(res != null && res.name.contains("ismoke"))
+				if(ResTags.is(res, ResTags.SMOKE))
 					return;
 			} catch(Loading ignored) {}
 		}
-		if(OptWnd.disableScentSmokeCheckBox.a && getres().name.equals("gfx/terobjs/clue")) {
+		if(OptWnd.disableScentSmokeCheckBox.a && (tags & ResTags.CLUE) != 0) {
 			return;
 		}
 	}
@@ -686,7 +690,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 			Resource res = spr.res;
 			if(res != null) {
 				MessageBuf sdt = spr.sdt;
-				if(sdt != null && res.name.equals("gfx/fx/floatimg")) {
+				if(sdt != null && (res.tags() & ResTags.FLOATIMG) != 0) {
 					processDmg(sdt.clone());
 				}
 			}
@@ -745,6 +749,8 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 		}
 	this.rc = c;
 	this.a = a;
+	if(spidx != null)
+	    glob.oc.moved(this);
     }
 
     public Placer placer() {
@@ -1246,34 +1252,32 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 						alarmPlayed.add(id);
 				}
 			}
-			if (res.name.startsWith("gfx/terobjs/barrel") && barrelContentsGobInfo == null) {
+			long tags = res.tags();
+			if ((tags & ResTags.BARREL) != 0 && barrelContentsGobInfo == null) {
 				barrelContentsGobInfo = new BarrelContentsGobInfo(this);
 				setattr(BarrelContentsGobInfo.class, barrelContentsGobInfo);
 			}
-			if (res.name.startsWith("gfx/terobjs/iconsign") && iconSignGobInfo == null) {
+			if ((tags & ResTags.ICONSIGN) != 0 && iconSignGobInfo == null) {
 				iconSignGobInfo = new IconSignGobInfo(this);
 				setattr(IconSignGobInfo.class, iconSignGobInfo);
 			}
-			if (res.name.startsWith("gfx/terobjs/cheeserack") && cheeseRackInfo == null) {
+			if ((tags & ResTags.CHEESERACK) != 0 && cheeseRackInfo == null) {
 				cheeseRackInfo = new GobCheeseRackInfo(this);
 				setattr(GobCheeseRackInfo.class, cheeseRackInfo);
 			}
-			if(((res.name.contains("gfx/terobjs/trees") && !res.name.endsWith("log") && !res.name.endsWith("oldtrunk"))
-			|| (res.name.contains("gfx/terobjs/bushes"))
-			|| (res.name.contains("gfx/terobjs/plants") && !res.name.endsWith("trellis"))) && growthInfo == null){
+			if((tags & ResTags.GROWS) != 0 && growthInfo == null){
 				growthInfo = new GobGrowthInfo(this);
 				setattr(GobGrowthInfo.class, growthInfo);
 			}
-			if(((res.name.contains("gfx/terobjs/trees") && !res.name.endsWith("log") && !res.name.endsWith("oldtrunk"))
-			|| (res.name.contains("gfx/terobjs/bushes"))) && readyForHarvestInfo == null){
+			if((tags & (ResTags.TREE | ResTags.BUSH)) != 0 && readyForHarvestInfo == null){
 				readyForHarvestInfo = new GobReadyForHarvestInfo(this);
 				setattr(GobReadyForHarvestInfo.class, readyForHarvestInfo);
 			}
-			if ((res.name.equals("gfx/terobjs/chickencoop") || res.name.equals("gfx/terobjs/rabbithutch")) && foodWaterInfo == null) {
+			if ((tags & ResTags.COOP) != 0 && foodWaterInfo == null) {
 				foodWaterInfo = new GobFoodWaterInfo(this);
 				setattr(GobFoodWaterInfo.class, foodWaterInfo);
 			}
-			if (res.name.equals("gfx/terobjs/beehive") && beeskepHarvestInfo == null) {
+			if ((tags & ResTags.BEEHIVE) != 0 && beeskepHarvestInfo == null) {
 				beeskepHarvestInfo = new GobBeeskepHarvestInfo(this);
 				setattr(GobBeeskepHarvestInfo.class, beeskepHarvestInfo);
 			}
@@ -1303,41 +1307,33 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void updPose(HashSet<String> poses) {
 		isComposite = true;
-		Iterator<String> iter = poses.iterator();
-		while (iter.hasNext()) { // ND: Some animals have stupid names for the knock or dead pose, like "chicken-knock". Doing it this way is easier than manually adding every single one.
-			String s = iter.next();
-			if (s.contains("knock") || s.contains("dead") || s.contains("waterdead") || s.contains("banzai")) {
-				knocked = true;
-				break;
-			} else {
-				knocked = false;
-			}
-		}
-		if (this.getres().name.equals("gfx/borka/body")) {
-			isMannequin = (poses.contains("mannequinlift"));
-			isSkeleton = (poses.contains("deadskeletonpose"));
+		int pm = ResTags.poses(poses);
+		if (!poses.isEmpty())
+			knocked = (pm & ResTags.P_KNOCK) != 0;
+		boolean body = (getres().tags() & ResTags.BODY) != 0;
+		if (body) {
+			isMannequin = (pm & ResTags.P_MANNEQUIN) != 0;
+			isSkeleton = (pm & ResTags.P_SKELETON) != 0;
 		}
 		updateCritterAuras();
 		updateDangerousBeastRadii();
-		if (this.getres().name.equals("gfx/borka/body") && isSkeleton != null && !isSkeleton){
+		if (body && isSkeleton != null && !isSkeleton){
 			checkIfPlayerOrMannequin();
 			if  (!isDeadPlayer){
-				checkIfPlayerIsDead(poses);
+				checkIfPlayerIsDead(pm);
 				if (playerPoseUpdatedCounter >= 2) { // ND: Do this to prevent the sounds from being played if you load in an already knocked/killed hearthling.
-					knockedOrDeadPlayerSoundEfect(poses);
+					knockedOrDeadPlayerSoundEfect(pm);
 				}
 				playerPoseUpdatedCounter = playerPoseUpdatedCounter + 1;
 			}
-			imDrinking = (poses.contains("drinkan"));
-			imInCoracle = (poses.contains("coracleidle") || poses.contains("coraclerowan"));
-			imOnSkis = (poses.contains("skian-idle") || poses.contains("skian-walk") || poses.contains("skian-run"));
-			imOnHorseback = (poses.contains("riding-idle"));
-			boolean imOnWater = onWaterAnimations.stream().anyMatch(target -> poses.stream().anyMatch(s -> s.contains(target)));
-			if (poses.contains("spear-ready")) {
+			imDrinking = (pm & ResTags.P_DRINK) != 0;
+			imInCoracle = (pm & ResTags.P_CORACLE) != 0;
+			imOnSkis = (pm & ResTags.P_SKIS) != 0;
+			imOnHorseback = (pm & ResTags.P_RIDING) != 0;
+			boolean imOnWater = (pm & ResTags.P_ONWATER) != 0;
+			if ((pm & (ResTags.P_SPEAR | ResTags.P_SLING)) != 0) {
 				archeryIndicator(155, !imOnWater);
-			} else if (poses.contains("sling-aim")) {
-				archeryIndicator(155, !imOnWater);
-			} else if (poses.contains("drawbow")) {
+			} else if ((pm & ResTags.P_DRAWBOW) != 0) {
 				for (GAttrib g : this.attr.values()) {
 					if (g instanceof Drawable) {
 						if (g instanceof Composite) {
@@ -1360,11 +1356,11 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 				archeryRadius = null;
 			}
 			if (isMe != null && isMe) {
-				if (poses.contains("fishidle") || poses.contains("napp1")) {
+				if ((pm & ResTags.P_FISH) != 0) {
 					GameUI.playingPoseSong = true;
 					GameUI.backgroundPoseSong = "fishing";
 					GameUI.delayedMusicStopTime = System.currentTimeMillis();
-				} else if (poses.contains("hookah-sittan") || poses.contains("hookah-puffin")) {
+				} else if ((pm & ResTags.P_HOOKAH) != 0) {
 					GameUI.playingPoseSong = true;
 					GameUI.backgroundPoseSong = "hookah";
 				} else {
@@ -1384,7 +1380,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 	public void reloadTreeScale(){
 		TreeScale treeScale = null;
 		if (getres() != null) {
-			if ((getres().name.startsWith("gfx/terobjs/trees") && !getres().name.endsWith("log") && !getres().name.endsWith("oldtrunk")) || getres().name.startsWith("gfx/terobjs/bushes")) {
+			if ((getres().tags() & (ResTags.TREE | ResTags.BUSH)) != 0) {
 				treeScale = getattr(TreeScale.class);
 				if (treeScale != null) {
 					float scale = treeScale.originalScale;
@@ -1398,7 +1394,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 	public void reloadTreeSwaying(){
 		GobSvaj gobSvaj = null;
 		if (getres() != null) {
-			if ((getres().name.startsWith("gfx/terobjs/trees") && !getres().name.endsWith("log") && !getres().name.endsWith("oldtrunk") && !getres().name.endsWith("trombonechantrelle") && !getres().name.endsWith("towercap")) || getres().name.startsWith("gfx/terobjs/bushes")) {
+			if ((getres().tags() & ResTags.SWAYS) != 0) {
 				gobSvaj = getattr(GobSvaj.class);
 				if (gobSvaj != null && (OptWnd.disableTreeAndBushSwayingCheckBox.a)) {
 					delattr(GobSvaj.class);
@@ -1514,32 +1510,32 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 		boolean doShowHidingBox = false;
 		Resource res = Gob.this.getres();
 		if (res != null) {
-			String resName = res.name;
-			if (OptWnd.hideTreesCheckbox.a && resName.startsWith("gfx/terobjs/trees") && !resName.endsWith("log") && !resName.endsWith("oldtrunk")) {
+			long tags = res.tags();
+			if (OptWnd.hideTreesCheckbox.a && (tags & ResTags.TREE) != 0) {
 				doHide = OptWnd.toggleGobHidingCheckBox.a;
 				doShowHidingBox = true;
-			} else if (OptWnd.hideBushesCheckbox.a && resName.startsWith("gfx/terobjs/bushes")) {
+			} else if (OptWnd.hideBushesCheckbox.a && (tags & ResTags.BUSH) != 0) {
 				doHide = OptWnd.toggleGobHidingCheckBox.a;
 				doShowHidingBox = true;
-			} else if (OptWnd.hideBouldersCheckbox.a && resName.startsWith("gfx/terobjs/bumlings")) {
+			} else if (OptWnd.hideBouldersCheckbox.a && (tags & ResTags.BOULDER) != 0) {
 				doHide = OptWnd.toggleGobHidingCheckBox.a;
 				doShowHidingBox = true;
-			} else if (OptWnd.hideTreeLogsCheckbox.a && resName.startsWith("gfx/terobjs/trees") && (resName.endsWith("log") || resName.endsWith("oldtrunk"))) {
+			} else if (OptWnd.hideTreeLogsCheckbox.a && (tags & ResTags.TREELOG) != 0) {
 				doHide = OptWnd.toggleGobHidingCheckBox.a;
 				doShowHidingBox = true;
-			} else if (OptWnd.hideWallsCheckbox.a && (resName.startsWith("gfx/terobjs/arch/palisade") || resName.startsWith("gfx/terobjs/arch/brickwall")) && !resName.endsWith("gate")) {
+			} else if (OptWnd.hideWallsCheckbox.a && (tags & ResTags.WALL) != 0) {
 				doHide = OptWnd.toggleGobHidingCheckBox.a;
 				doShowHidingBox = true;
-			} else if (OptWnd.hideHousesCheckbox.a && Arrays.asList(Config.housesResPaths).contains(resName)) {
+			} else if (OptWnd.hideHousesCheckbox.a && (tags & ResTags.HOUSE) != 0) {
 				doHide = OptWnd.toggleGobHidingCheckBox.a;
 				doShowHidingBox = true;
-			} else if (OptWnd.hideStockpilesCheckbox.a && resName.startsWith("gfx/terobjs/stockpile")) {
+			} else if (OptWnd.hideStockpilesCheckbox.a && (tags & ResTags.STOCKPILE) != 0) {
 				doHide = OptWnd.toggleGobHidingCheckBox.a;
 				doShowHidingBox = true;
-			} else if (OptWnd.hideCropsCheckbox.a && resName.startsWith("gfx/terobjs/plants") && !resName.endsWith("trellis")) {
+			} else if (OptWnd.hideCropsCheckbox.a && (tags & ResTags.CROP) != 0) {
 				doHide = OptWnd.toggleGobHidingCheckBox.a;
 				doShowHidingBox = false; // ND: You can walk through them anyway, so it doesn't matter. Their resource doesn't have an actual hitbox layer and we'll have an endless lag loop of trying to draw one.
-			} else if (OptWnd.hideTrellisCheckbox.a && resName.endsWith("trellis")) {
+			} else if (OptWnd.hideTrellisCheckbox.a && (tags & ResTags.TRELLIS) != 0) {
 				doHide = OptWnd.toggleGobHidingCheckBox.a;
 				doShowHidingBox = true;
 			}
@@ -1639,7 +1635,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 	public void updateContainerFullnessHighlight() {
 		if (getres() != null) {
 			String resName = getres().name;
-			if (Arrays.stream(Config.containersResPaths).anyMatch(resName::matches)) {
+			if ((getres().tags() & ResTags.CONTAINER) != 0) {
 				Drawable dr = getattr(Drawable.class);
 				ResDrawable d = (dr instanceof ResDrawable) ? (ResDrawable) dr : null;
 				if (d != null) {
@@ -1891,7 +1887,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 	public void updateWorkstationProgressHighlight() {
 		if (getres() != null) {
 			String resName = getres().name;
-			if (Arrays.stream(Config.workstationsResPaths).anyMatch(resName::matches)) {
+			if ((getres().tags() & ResTags.WORKSTATION) != 0) {
 				setWorkstationProgressHighlight(resName);
 			}
 		}
@@ -1899,11 +1895,10 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void setGobSearchOverlay() {
 		if (getres() == null) return;
-		String resourceName = getres().basename().toLowerCase().replace("stockpile", "");
 		String searchKeyword = ObjectSearchWindow.objectSearchString.toLowerCase();
-		boolean result = searchKeyword.length() > 1 && Fuzzy.fuzzyContains(resourceName, searchKeyword);
+		boolean result = glob.oc.search.matches(this);
 		String barterStandOverlays = null;
-		if (resourceName.contains("barter")) {
+		if (!result && (getres().tags() & ResTags.BARTER) != 0 && searchKeyword.startsWith("@") && searchKeyword.length() > 2) {
 			try {
 				barterStandOverlays = this.ols.stream()
 						.map(ol -> {
@@ -1925,7 +1920,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 			}
 		}
 		if (barterStandOverlays != null) {
-			if (searchKeyword.startsWith("@") && Fuzzy.fuzzyContains(barterStandOverlays, searchKeyword.replaceAll("@", "")) && searchKeyword.length() > 2) {
+			if (Fuzzy.fuzzyContains(barterStandOverlays, searchKeyword.replaceAll("@", ""))) {
 				result = true;
 			}
 		}
@@ -1951,21 +1946,21 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void updateCritterAuras() {
 		if (getres() != null) {
-			String resourceName = getres().name;
+			long tags = getres().tags();
 			if (knocked != null && !knocked) {
-				if (Arrays.stream(Config.critterResPaths).anyMatch(resourceName::matches)) {
+				if ((tags & ResTags.CRITTER) != 0) {
 					setAuraCircleOverlay(OptWnd.showCritterAurasCheckBox.a, OptWnd.genericCritterAuraColorOptionWidget.currentColor);
-				} else if (resourceName.matches(".*(rabbit|bunny)$")) {
+				} else if ((tags & ResTags.RABBIT) != 0) {
 					setAuraCircleOverlay(OptWnd.showCritterAurasCheckBox.a, OptWnd.rabbitAuraColorOptionWidget.currentColor);
 				}
 			} else if (knocked != null && knocked) {
-				if (Arrays.stream(Config.critterResPaths).anyMatch(resourceName::matches)) {
+				if ((tags & ResTags.CRITTER) != 0) {
 					setAuraCircleOverlay(false, OptWnd.genericCritterAuraColorOptionWidget.currentColor);
-				} else if (resourceName.matches(".*(rabbit|bunny)$")) {
+				} else if ((tags & ResTags.RABBIT) != 0) {
 					setAuraCircleOverlay(false, OptWnd.rabbitAuraColorOptionWidget.currentColor);
 				}
 			} else if (!isComposite) { // ND: For critters that can't have a knocked status, like insects.
-				if (Arrays.stream(Config.critterResPaths).anyMatch(resourceName::matches)) {
+				if ((tags & ResTags.CRITTER) != 0) {
 					setAuraCircleOverlay(OptWnd.showCritterAurasCheckBox.a, OptWnd.genericCritterAuraColorOptionWidget.currentColor);
 				}
 			}
@@ -2011,8 +2006,9 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 	public void updateDangerousBeastRadii() {
 		if (getres() != null) {
 			String resourceName = getres().name;
+			long tags = getres().tags();
 			if (knocked != null && knocked == false) {
-				if (Arrays.stream(Config.beastResPaths).anyMatch(resourceName::endsWith)) {
+				if ((tags & ResTags.BEAST) != 0) {
 					if (resourceName.endsWith("/bat")) {
 						if (nightQueenDefeated || batWingCapeEquipped) {
 							setRadiusOverlay(false, null, 0f);
@@ -2024,12 +2020,12 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 					}
 				}
 			} else if (knocked != null && knocked == true) {
-				if (Arrays.stream(Config.beastResPaths).anyMatch(resourceName::endsWith)) {
+				if ((tags & ResTags.BEAST) != 0) {
 					setRadiusOverlay(false, null, 0f);
 				}
 			}
 			else if (isComposite && knocked == null) { // ND: Workaround. Some of these animals have no animation when standing still, so knocked stays null. I think they have no poses to load or something. Didn't look too much into it.
-				if (Arrays.stream(Config.beastResPaths).anyMatch(resourceName::endsWith)) {
+				if ((tags & ResTags.BEAST) != 0) {
 					if (resourceName.endsWith("/bat")) {
 						if (nightQueenDefeated || batWingCapeEquipped) {
 							setRadiusOverlay(false, null, 0f);
@@ -2117,17 +2113,17 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 		} catch (Exception ignored){}
 	}
 
-	public void checkIfPlayerIsDead(HashSet<String> poses){
+	public void checkIfPlayerIsDead(int pm){
 		Gob hearthling = this;
 		final Timer timer = new Timer(); // ND: Need to do this with a timer cause the knocked out birds get loaded a few miliseconds later. I hope 100 is enough to prevent any issues.
 		timer.schedule(new TimerTask(){
 			@Override
 			public void run() {
-				if (poses.contains("rigormortis")) {
+				if ((pm & ResTags.P_RIGOR) != 0) {
 					isDeadPlayer = true;
 					return;
 				}
-				if (poses.contains("knock") || poses.contains("drowned")) {
+				if ((pm & ResTags.P_DOWN) != 0) {
 					isDeadPlayer = true;
 					for (GAttrib g : hearthling.attr.values()) {
 						if (g instanceof Drawable) {
@@ -2150,7 +2146,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 		}, 100);
 	}
 
-	public void knockedOrDeadPlayerSoundEfect(HashSet<String> poses){
+	public void knockedOrDeadPlayerSoundEfect(int pm){
 		Gob hearthling = this;
 		final Timer timer = new Timer(); // ND: Need to do this with a timer cause the knocked out birds get loaded a few miliseconds later. I hope 100 is enough to prevent any issues.
 		timer.schedule(new TimerTask(){
@@ -2179,7 +2175,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 							}
 						}
 					}
-					if (poses.contains("knock") || poses.contains("drowned")) {
+					if ((pm & ResTags.P_DOWN) != 0) {
 						if (!imDead) {
 							File file = new File(haven.MainFrame.gameDir + "res/customclient/sfx/PlayerKnockedOut.wav");
 							if (file.exists()) {
@@ -2535,6 +2531,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 		if (barrelContentsGobInfo != null) barrelContentsGobInfo.clear();
 		if (cheeseRackInfo != null) cheeseRackInfo.clear();
 		if (iconSignGobInfo != null) iconSignGobInfo.clear();
+		glob.oc.search.rekey(this);
 		setGobSearchOverlay();
 	}
 
@@ -2,36 +2,21 @@ package haven;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 public class GobGrowthInfo extends GobInfo {
     public static final int TREE_START = 10;
 	public static final int BUSH_START = 30;
 	public static final double TREE_MULT = 100.0 / (100.0 - TREE_START);
 	public static final double BUSH_MULT = 100.0 / (100.0 - BUSH_START);
-	private static final Map<String, Tex> stageTextCache = new HashMap<>();
+	public static final Color STAGE_COLOR = new Color(255, 243, 180,255);
 	public static final BufferedImage SEEDS_STAGE_DOT = drawDot(new Color(0, 102, 255,255));
 	public static final BufferedImage FINAL_STAGE_DOT = drawDot(new Color(189, 0, 0,255));
-	public static final Tex SEEDS_STAGE_DOT_TEX = new TexI(ItemInfo.catimgsh(3, 0, null, SEEDS_STAGE_DOT));
-	public static final Tex FINAL_STAGE_DOT_TEX = new TexI(ItemInfo.catimgsh(3, 0, null, FINAL_STAGE_DOT));
+	public static final GlyphAtlas.Label SEEDS_STAGE_LABEL = new GlyphAtlas.Label(SEEDS_STAGE_DOT);
+	public static final GlyphAtlas.Label FINAL_STAGE_LABEL = new GlyphAtlas.Label(FINAL_STAGE_DOT);
 
 
-	public static Tex getStageTex(int stage, int maxStage) {
-		String key = String.valueOf(stage);
-		if (!stageTextCache.containsKey(key)) {
-			BufferedImage stageImage = renderStageText(key);
-			stageTextCache.put(key, new TexI(ItemInfo.catimgsh(3, 0, null, stageImage)));
-		}
-		return stageTextCache.get(key);
-	}
-
-
-
-	private static BufferedImage renderStageText(String stage) {
-		return Text.std.renderstroked(stage, new Color(255, 243, 180,255), Color.BLACK).img;
+	public static GlyphAtlas.Label getStageLabel(int stage, int maxStage) {
+		return new GlyphAtlas.Label(String.valueOf(stage), Text.std, STAGE_COLOR, Color.BLACK, 1);
 	}
 
 
@@ -45,16 +30,10 @@ public class GobGrowthInfo extends GobInfo {
 	}
 
     @Override
-    protected Tex render() {
+    protected GlyphAtlas.Label layout() {
 	if(gob == null || gob.getres() == null) { return null;}
 
-	Tex growth = growth();
-
-	if(growth == null) {
-	    return null;
-	}
-
-	return growth;
+	return growth();
     }
     
     @Override
@@ -62,8 +41,7 @@ public class GobGrowthInfo extends GobInfo {
 	super.dispose();
     }
 
-    private Tex growth() {
-	Text.Line line = null;
+    private GlyphAtlas.Label growth() {
 	Resource res = gob.getres();
 	if(Utils.isSpriteKind(gob, "GrowingPlant", "TrellisPlant") && !(OptWnd.toggleGobHidingCheckBox.a && OptWnd.hideCropsCheckbox.a)) {
 	    int maxStage = 0;
@@ -78,25 +56,25 @@ public class GobGrowthInfo extends GobInfo {
 		if(stage > maxStage) {stage = maxStage;}
 		if(res != null && (res.name.contains("carrot"))) {
 			if (stage == maxStage - 1) {
-				return SEEDS_STAGE_DOT_TEX;
+				return SEEDS_STAGE_LABEL;
 			} else if (stage == maxStage) {
-				return FINAL_STAGE_DOT_TEX;
+				return FINAL_STAGE_LABEL;
 			} else {
-				return getStageTex(stage, maxStage);
+				return getStageLabel(stage, maxStage);
 			}
 		} else if (res != null && (res.name.contains("turnip") || res.name.contains("leek"))){
 			if (stage == maxStage - 2) {
-				return SEEDS_STAGE_DOT_TEX;
+				return SEEDS_STAGE_LABEL;
 			} else if (stage == maxStage) {
-				return FINAL_STAGE_DOT_TEX;
+				return FINAL_STAGE_LABEL;
 			} else {
-				return getStageTex(stage, maxStage);
+				return getStageLabel(stage, maxStage);
 			}
 		} else {
 			if (stage == maxStage){
-				return FINAL_STAGE_DOT_TEX;
+				return FINAL_STAGE_LABEL;
 			} else {
-				return getStageTex(stage, maxStage);
+				return getStageLabel(stage, maxStage);
 			}
 
 		}
@@ -121,15 +99,12 @@ public class GobGrowthInfo extends GobInfo {
 		    }
 			if (!isHidden) {
 				Color c = Utils.blendcol(growth / 100.0, Color.RED, Color.ORANGE, Color.YELLOW, Color.GREEN);
-				line = Text.std.renderstroked(String.format("%d%%", growth), c, Color.BLACK);
+				return new GlyphAtlas.Label(String.format("%d%%", growth), Text.std, c, Color.BLACK, 1);
 			}
 		}
 	    }
 	}
 
-	if(line != null) {
-	    return new TexI(ItemInfo.catimgsh(3, 0, null, line.img));
-	}
 	return null;
     }
 
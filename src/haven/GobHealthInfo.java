@@ -1,7 +1,6 @@
 package haven;
 
 import java.awt.*;
-import java.awt.image.BufferedImage;
 
 public class GobHealthInfo extends GobInfo {
     private static final Text.Foundry gobhpf = new Text.Foundry(Text.sans.deriveFont(Font.BOLD), 12);
@@ -18,16 +17,10 @@ public class GobHealthInfo extends GobInfo {
     }
 
     @Override
-    protected Tex render() {
+    protected GlyphAtlas.Label layout() {
         if(gob == null || gob.getres() == null) { return null;}
 
-        BufferedImage health = health();
-
-        if(health == null) {
-            return null;
-        }
-
-        return new TexI(ItemInfo.catimgsh(3, 0, null, health));
+        return health();
     }
 
     @Override
@@ -36,7 +29,7 @@ public class GobHealthInfo extends GobInfo {
         super.dispose();
     }
 
-    private BufferedImage health() {
+    private GlyphAtlas.Label health() {
         health = gob.getattr(GobHealth.class);
         if(health != null) {
             return text();
@@ -51,10 +44,10 @@ public class GobHealthInfo extends GobInfo {
         return String.format("GobInfo<%s>", res != null ? res.name : "<loading>");
     }
 
-    public BufferedImage text() {
+    public GlyphAtlas.Label text() {
         if(health.hp < 1) {
             int c = 15 + (int) Math.floor(health.hp * 240);
-            return Utils.outline2(Text.renderstroked(String.format("%d%%", Math.round(100 * health.hp)), new Color(255, c, c), Color.BLACK, gobhpf).img, Color.BLACK, true);
+            return new GlyphAtlas.Label(String.format("%d%%", Math.round(100 * health.hp)), gobhpf, new Color(255, c, c), Color.BLACK, 2);
         }
         return null;
     }
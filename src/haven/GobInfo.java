@@ -4,11 +4,13 @@ import haven.render.Homo3D;
 import haven.render.Pipe;
 import haven.render.RenderTree;
 
-public abstract class GobInfo extends GAttrib implements RenderTree.Node, PView.Render2D {
+public abstract class GobInfo extends GAttrib implements RenderTree.Node, PView.Label2D {
     protected Tex tex;
+    protected GlyphAtlas.Label label;
     public Coord3f pos = new Coord3f(0, 0, 1);
     protected final Object texLock = new Object();
     protected Pair<Double, Double> center = new Pair<>(0.5, 1.0);
+    protected int yoff = UI.scale(17);
     protected boolean dirty = true;
 
     public GobInfo(Gob owner) {
@@ -24,30 +26,65 @@ public abstract class GobInfo extends GAttrib implements RenderTree.Node, PView.
     @Override
     public void ctick(double dt) {
         synchronized (texLock) {
-            if(enabled() && dirty && tex == null) {
-                tex = render();
+            if(enabled() && dirty && tex == null && label == null) {
+                label = layout();
+                if(label == null)
+                    tex = render();
                 dirty = false;
             }
         }
     }
 
+    protected Coord sc(GOut g, Pipe state) {
+        Coord sc = Homo3D.obj2sc(pos, state, Area.sized(g.sz()));
+        if(sc == null)
+            return null;
+        sc.y = sc.y + yoff;
+        return sc.isect(Coord.z, g.sz()) ? sc : null;
+    }
+
     @Override
     public void draw(GOut g, Pipe state) {
         if (!GameUI.showUI)
             return;
         synchronized (texLock) {
             if(enabled() && tex != null) {
-                Coord sc = Homo3D.obj2sc(pos, state, Area.sized(g.sz()));
-                if(sc == null) {return;}
-                sc.y = sc.y + UI.scale(17);
-                if(sc.isect(Coord.z, g.sz())) {
+                Coord sc = sc(g, state);
+                if(sc != null)
                     g.aimage(tex, sc, center.a, center.b);
-                }
+            } else if(enabled() && label != null) {
+                PView.Label2D.super.draw(g, state);
             }
         }
     }
 
-    protected abstract Tex render();
+    @Override
+    public void draw(GlyphAtlas.Batch batch, Pipe state) {
+        GlyphAtlas.Label label;
+        synchronized (texLock) {
+            label = this.label;
+        }
+        if(label == null) {
+            batch.flush();
+            draw(batch.g, state);
+            return;
+        }
+        if (!GameUI.showUI || !enabled())
+            return;
+        Coord sc = sc(batch.g, state);
+        if(sc != null)
+            batch.add(label, sc, center.a, center.b);
+    }
+
+    /* Infos that are plain text or a small image should return it
+     * here, to be drawn from the shared label atlas. */
+    protected GlyphAtlas.Label layout() {
+        return null;
+    }
+
+    protected Tex render() {
+        return null;
+    }
 
     public void clear() {
         synchronized(texLock) {
@@ -55,6 +92,7 @@ public abstract class GobInfo extends GAttrib implements RenderTree.Node, PView.
                 tex.dispose();
                 tex = null;
             }
+            label = null;
         }
         dirty = true;
     }
@@ -1,10 +1,6 @@
 package haven;
 
-import haven.render.Homo3D;
-import haven.render.Pipe;
-
 import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -21,6 +17,7 @@ public class GobQualityInfo extends GobInfo {
 
     protected GobQualityInfo(Gob owner) {
 	super(owner);
+	yoff = UI.scale(4);
 	q = gobQ.getOrDefault(gob.id, 0);
     }
     
@@ -36,16 +33,9 @@ public class GobQualityInfo extends GobInfo {
 	}
 
     @Override
-    protected Tex render() {
-	if(gob == null || gob.getres() == null) { return null;}
-
-	BufferedImage quality = quality();
-
-	if(quality == null) {
-	    return null;
-	}
-
-	return new TexI(ItemInfo.catimgsh(3, 0, null, quality));
+    protected GlyphAtlas.Label layout() {
+	if(gob == null || gob.getres() == null || q == 0) { return null;}
+	return new GlyphAtlas.Label(String.format("Q: %d", q), Text.num12boldFnd, Color.white, Color.BLACK, 1);
     }
     
     @Override
@@ -53,31 +43,10 @@ public class GobQualityInfo extends GobInfo {
 	super.dispose();
     }
 
-    private BufferedImage quality() {
-	if(q != 0) {
-		return Text.renderstroked(String.format("Q: %d", q), Color.white, Color.BLACK, Text.num12boldFnd).img;
-	}
-	return null;
-    }
-
     @Override
     public String toString() {
 	Resource res = gob.getres();
 	return String.format("GobInfo<%s>", res != null ? res.name : "<loading>");
     }
 
-	@Override
-	public void draw(GOut g, Pipe state) {
-		synchronized (texLock) {
-			if(enabled() && tex != null) {
-				Coord sc = Homo3D.obj2sc(pos, state, Area.sized(g.sz()));
-				if(sc == null) {return;}
-				sc.y = sc.y + UI.scale(4);
-				if(sc.isect(Coord.z, g.sz())) {
-					g.aimage(tex, sc, center.a, center.b);
-				}
-			}
-		}
-	}
-
 }
\ No newline at end of file
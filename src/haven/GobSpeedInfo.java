@@ -1,10 +1,6 @@
 package haven;
 
-import haven.render.Homo3D;
-import haven.render.Pipe;
-
 import java.awt.*;
-import java.awt.image.BufferedImage;
 
 
 public class GobSpeedInfo extends GobInfo {
@@ -14,6 +10,7 @@ public class GobSpeedInfo extends GobInfo {
         super(owner);
         up(-2); // ND: Default was 12.0 // ND: For each 3.4 added here, add 1.0 at "b:" in the pair below. It's probably not 100% correct, but it's super close.
         center = new Pair<>(0.5, 0.0); // Default was 0.5, 1.0
+        yoff = 0;
     }
 
     @Override
@@ -23,23 +20,8 @@ public class GobSpeedInfo extends GobInfo {
 
 
     @Override
-    public void draw(GOut g, Pipe state) {
-        if (!GameUI.showUI)
-            return;
-        synchronized (texLock) {
-            if(enabled() && tex != null) {
-                Coord sc = Homo3D.obj2sc(pos, state, Area.sized(g.sz()));
-                if(sc == null) {return;}
-                if(sc.isect(Coord.z, g.sz())) {
-                    g.aimage(tex, sc, center.a, center.b);
-                }
-            }
-        }
-    }
-
-    @Override
-    protected Tex render() {
-        return PUtils.strokeTex(Text.renderstroked(String.format("%.2f u/s", gob.gobSpeed)));
+    protected GlyphAtlas.Label layout() {
+        return new GlyphAtlas.Label(String.format("%.2f u/s", gob.gobSpeed), Text.std, Color.WHITE, Color.BLACK, 2);
     }
 
     @Override
@@ -49,8 +31,8 @@ public class GobSpeedInfo extends GobInfo {
                 savedSpeed = gob.gobSpeed;
                 clear();
             }
-            if(enabled() && dirty && tex == null) {
-                tex = render();
+            if(enabled() && dirty && label == null) {
+                label = layout();
                 dirty = false;
             }
         }
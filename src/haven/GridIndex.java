@@ -0,0 +1,278 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.util.function.*;
+
+/*
+ * A uniform grid of square cells over the plane, for finding the
+ * objects within some distance of a point or inside an area without
+ * visiting all of them. Each object is held through an Entry, which
+ * the owner keeps so that moving and removing it need no search.
+ * Cells are found through an open-addressed table keyed on packed
+ * cell coordinates, and empty cells are dropped.
+ *
+ * Not thread-safe; the owner is expected to lock around it.
+ */
+public class GridIndex<T> {
+    public final double csz;
+    private Cell<T>[] table;
+    private int ncells = 0, size = 0;
+    /* Bounds of the cells ever occupied, which limit the queries. */
+    private int minx = Integer.MAX_VALUE, miny = Integer.MAX_VALUE, maxx = Integer.MIN_VALUE, maxy = Integer.MIN_VALUE;
+
+    public static class Entry<T> {
+	public final T obj;
+	private double x, y;
+	private Cell<T> cell;
+	private int idx;
+
+	private Entry(T obj) {
+	    this.obj = obj;
+	}
+
+	public Coord2d c() {
+	    return(Coord2d.of(x, y));
+	}
+    }
+
+    private static class Cell<T> {
+	final int cx, cy;
+	Entry<?>[] e = new Entry<?>[4];
+	int n = 0;
+
+	Cell(int cx, int cy) {
+	    this.cx = cx;
+	    this.cy = cy;
+	}
+
+	@SuppressWarnings("unchecked")
+	Entry<T> get(int i) {
+	    return((Entry<T>)e[i]);
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    public GridIndex(double csz) {
+	this.csz = csz;
+	this.table = (Cell<T>[])new Cell<?>[64];
+    }
+
+    public int size() {
+	return(size);
+    }
+
+    private int cellc(double v) {
+	return((int)Math.floor(v / csz));
+    }
+
+    private static int hash(int cx, int cy) {
+	int h = (cx * 0x9e3779b1) ^ (cy * 0x85ebca6b);
+	return(h ^ (h >>> 16));
+    }
+
+    private Cell<T> cell(int cx, int cy) {
+	int m = table.length - 1;
+	for(int i = hash(cx, cy) & m; table[i] != null; i = (i + 1) & m) {
+	    Cell<T> c = table[i];
+	    if((c.cx == cx) && (c.cy == cy))
+		return(c);
+	}
+	return(null);
+    }
+
+    private void insert(Cell<T>[] table, Cell<T> c) {
+	int m = table.length - 1;
+	int i = hash(c.cx, c.cy) & m;
+	while(table[i] != null)
+	    i = (i + 1) & m;
+	table[i] = c;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cell<T> mkcell(int cx, int cy) {
+	Cell<T> c = cell(cx, cy);
+	if(c != null)
+	    return(c);
+	if((ncells + 1) * 2 > table.length) {
+	    Cell<T>[] nt = (Cell<T>[])new Cell<?>[table.length * 2];
+	    for(Cell<T> o : table) {
+		if(o != null)
+		    insert(nt, o);
+	    }
+	    table = nt;
+	}
+	insert(table, c = new Cell<T>(cx, cy));
+	ncells++;
+	minx = Math.min(minx, cx); maxx = Math.max(maxx, cx);
+	miny = Math.min(miny, cy); maxy = Math.max(maxy, cy);
+	return(c);
+    }
+
+    /* Linear-probing deletion, moving later entries of the same run
+     * back into the gap. */
+    private void rmcell(Cell<T> c) {
+	int m = table.length - 1;
+	int i = hash(c.cx, c.cy) & m;
+	while(table[i] != c)
+	    i = (i + 1) & m;
+	table[i] = null;
+	for(int j = (i + 1) & m; table[j] != null; j = (j + 1) & m) {
+	    Cell<T> o = table[j];
+	    table[j] = null;
+	    insert(table, o);
+	}
+	ncells--;
+    }
+
+    private void link(Entry<T> e, Cell<T> c) {
+	if(c.n == c.e.length)
+	    c.e = Arrays.copyOf(c.e, c.n * 2);
+	e.cell = c;
+	e.idx = c.n;
+	c.e[c.n++] = e;
+    }
+
+    private void unlink(Entry<T> e) {
+	Cell<T> c = e.cell;
+	Entry<T> last = c.get(--c.n);
+	c.e[e.idx] = last;
+	last.idx = e.idx;
+	c.e[c.n] = null;
+	e.cell = null;
+	if(c.n == 0)
+	    rmcell(c);
+    }
+
+    public Entry<T> add(T obj, Coord2d c) {
+	Entry<T> e = new Entry<>(obj);
+	e.x = c.x; e.y = c.y;
+	link(e, mkcell(cellc(c.x), cellc(c.y)));
+	size++;
+	return(e);
+    }
+
+    public void move(Entry<T> e, Coord2d c) {
+	e.x = c.x; e.y = c.y;
+	int cx = cellc(c.x), cy = cellc(c.y);
+	if((e.cell.cx != cx) || (e.cell.cy != cy)) {
+	    unlink(e);
+	    link(e, mkcell(cx, cy));
+	}
+    }
+
+    public void remove(Entry<T> e) {
+	if(e.cell == null)
+	    return;
+	unlink(e);
+	size--;
+    }
+
+    /* Every object no further than r from c, in no particular order. */
+    public <C extends Collection<? super T>> C within(Coord2d c, double r, Predicate<? super T> p, C dst) {
+	double r2 = r * r;
+	int x0 = cellc(c.x - r), x1 = cellc(c.x + r), y0 = cellc(c.y - r), y1 = cellc(c.y + r);
+	for(int cy = Math.max(y0, miny); cy <= Math.min(y1, maxy); cy++) {
+	    for(int cx = Math.max(x0, minx); cx <= Math.min(x1, maxx); cx++) {
+		Cell<T> cell = cell(cx, cy);
+		if(cell == null)
+		    continue;
+		for(int i = 0; i < cell.n; i++) {
+		    Entry<T> e = cell.get(i);
+		    double dx = e.x - c.x, dy = e.y - c.y;
+		    if(((dx * dx) + (dy * dy) <= r2) && ((p == null) || p.test(e.obj)))
+			dst.add(e.obj);
+		}
+	    }
+	}
+	return(dst);
+    }
+
+    /* Every object with its position inside a, by the same rule as
+     * Area.contains(). */
+    public <C extends Collection<? super T>> C inArea(Area a, Predicate<? super T> p, C dst) {
+	int x0 = cellc(a.ul.x), x1 = cellc(a.br.x), y0 = cellc(a.ul.y), y1 = cellc(a.br.y);
+	for(int cy = Math.max(y0, miny); cy <= Math.min(y1, maxy); cy++) {
+	    for(int cx = Math.max(x0, minx); cx <= Math.min(x1, maxx); cx++) {
+		Cell<T> cell = cell(cx, cy);
+		if(cell == null)
+		    continue;
+		for(int i = 0; i < cell.n; i++) {
+		    Entry<T> e = cell.get(i);
+		    if((e.x >= a.ul.x) && (e.y >= a.ul.y) && (e.x < a.br.x) && (e.y < a.br.y) &&
+		       ((p == null) || p.test(e.obj)))
+			dst.add(e.obj);
+		}
+	    }
+	}
+	return(dst);
+    }
+
+    /* Adds every object in the cells exactly k cells out from the one
+     * containing c, for searching outward a ring at a time, and
+     * returns whether there may be more further out. Everything in
+     * ring k is at least ringdist(k) from c. Once the rings would
+     * cover more cells than there are, all the remaining ones are
+     * added at once instead. */
+    public boolean ring(Coord2d c, int k, Collection<? super T> dst) {
+	if(size == 0)
+	    return(false);
+	int ox = cellc(c.x), oy = cellc(c.y);
+	int kmax = Math.max(Math.max(ox - minx, maxx - ox), Math.max(oy - miny, maxy - oy));
+	if(k > kmax)
+	    return(false);
+	if((long)(2 * k + 1) * (2 * k + 1) > 4L * ncells) {
+	    for(Cell<T> cell : table) {
+		if((cell != null) && (Math.max(Math.abs(cell.cx - ox), Math.abs(cell.cy - oy)) >= k))
+		    addall(cell, dst);
+	    }
+	    return(false);
+	}
+	for(int cy = oy - k; cy <= oy + k; cy++) {
+	    boolean edge = (cy == oy - k) || (cy == oy + k);
+	    for(int cx = ox - k; cx <= ox + k; cx += edge ? 1 : (2 * k)) {
+		Cell<T> cell = cell(cx, cy);
+		if(cell != null)
+		    addall(cell, dst);
+		if(k == 0)
+		    break;
+	    }
+	}
+	return(k < kmax);
+    }
+
+    public double ringdist(int k) {
+	return(Math.max(k - 1, 0) * csz);
+    }
+
+    private void addall(Cell<T> cell, Collection<? super T> dst) {
+	for(int i = 0; i < cell.n; i++)
+	    dst.add(cell.get(i).obj);
+    }
+}
@@ -340,6 +340,12 @@ public class HashDirCache implements ResCache {
 	    });
     }
 
+    /* A path beside the cache files for storing name in some other
+     * format, which list() will not mistake for a cache file. */
+    public Path sidefile(String name, String ext) {
+	return(pj(base, String.format("%016x.%s", namehash(idhash, name), ext)));
+    }
+
     public InputStream fetch(String name) throws IOException {
 	try(CacheFile cf = lookup(name, false)) {
 	    if(cf == null)
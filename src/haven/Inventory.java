@@ -41,18 +41,22 @@ public class Inventory extends Widget implements DTarget {
     public Coord isz;
     public boolean[] sqmask = null;
     public Map<GItem, WItem> wmap = new HashMap<GItem, WItem>();
+    public final InventoryIndex index = new InventoryIndex(this);
 	public static Set<String> PLAYER_INVENTORY_NAMES = new HashSet<>(Arrays.asList("Inventory", "Belt", "Equipment", "Character Sheet", "Study"));
 
 	public static final Comparator<WItem> ITEM_COMPARATOR_ASC = new Comparator<WItem>() {
 		@Override
 		public int compare(WItem o1, WItem o2) {
 
-			double q1 = o1.item.getQBuff() != null ? o1.item.getQBuff().q : 0;
-			double q2 = o2.item.getQBuff() != null ? o2.item.getQBuff().q : 0;
-
-			return Double.compare(q1, q2);
+			return Double.compare(quality(o1), quality(o2));
 		}
 	};
+	public static double quality(WItem w) {
+		if (w.parent instanceof Inventory)
+			return ((Inventory)w.parent).index.quality(w);
+		return w.item.getQBuff() != null ? w.item.getQBuff().q : 0;
+	}
+
 	public static final Comparator<WItem> ITEM_COMPARATOR_DESC = new Comparator<WItem>() {
 		@Override
 		public int compare(WItem o1, WItem o2) {
@@ -128,7 +132,9 @@ public class Inventory extends Widget implements DTarget {
 	Coord c = (Coord)args[0];
 	if(child instanceof GItem) {
 	    GItem i = (GItem)child;
-	    wmap.put(i, add(new WItem(i), c.mul(sqsz).add(1, 1)));
+	    WItem w = add(new WItem(i), c.mul(sqsz).add(1, 1));
+	    wmap.put(i, w);
+	    index.add(w);
 	}
     }
     
@@ -136,9 +142,24 @@ public class Inventory extends Widget implements DTarget {
 	super.cdestroy(w);
 	if(w instanceof GItem) {
 	    GItem i = (GItem)w;
-	    ui.destroy(wmap.remove(i));
+	    WItem wi = wmap.remove(i);
+	    if(wi != null)
+		index.remove(wi);
+	    ui.destroy(wi);
 	}
     }
+
+    void iteminfo(GItem i) {
+	WItem w = wmap.get(i);
+	if(w != null)
+	    index.invalidate(w);
+    }
+
+    public void cresize(Widget ch) {
+	super.cresize(ch);
+	if(ch instanceof WItem)
+	    index.relayout();
+    }
     
     public boolean drop(Coord cc, Coord ul) {
 	Coord dc;
@@ -159,6 +180,7 @@ public class Inventory extends Widget implements DTarget {
 	    isz = (Coord)args[0];
 	    resize(invsq.sz().add(UI.scale(new Coord(-1, -1))).mul(isz).add(UI.scale(new Coord(1, 1))));
 	    sqmask = null;
+	    index.relayout();
 	} else if(msg == "mask") {
 	    boolean[] nmask;
 	    if(args[0] == null) {
@@ -188,45 +210,19 @@ public class Inventory extends Widget implements DTarget {
 	}
 
 	public List<WItem> getItemsExact(String... names) {
-		List<WItem> items = new ArrayList<WItem>();
-		for (Widget wdg = child; wdg != null; wdg = wdg.next) {
-			if (wdg instanceof WItem) {
-				String wdgname = ((WItem)wdg).item.getname();
-				for (String name : names) {
-					if (wdgname.equals(name)) {
-						items.add((WItem) wdg);
-						break;
-					}
-				}
-			}
-		}
-		return items;
+		return index.exact(names);
 	}
 
 	public WItem getItemPrecise(String name) {
 		if (name == null)
 			return null;
-		for (Widget wdg = child; wdg != null; wdg = wdg.next) {
-			if (wdg instanceof WItem) {
-				String wdgname = ((WItem)wdg).item.getname();
-				if (wdgname.equals(name))
-					return (WItem) wdg;
-			}
-		}
-		return null;
+		return index.exact(name);
 	}
 
 	public WItem getItemPartial(String name) {
 		if (name == null)
 			return null;
-		for (Widget wdg = child; wdg != null; wdg = wdg.next) {
-			if (wdg instanceof WItem) {
-				String wdgname = ((WItem)wdg).item.getname();
-				if (wdgname.contains(name))
-					return (WItem) wdg;
-			}
-		}
-		return null;
+		return index.partial(name);
 	}
 
 	@Override
@@ -345,70 +341,14 @@ public class Inventory extends Widget implements DTarget {
 
 	public Coord isRoom(int x, int y) {
 		//check if there is a space for an x times y item, return coordinate where.
-		Coord freespot = null;
-		boolean[][] occumap = new boolean[isz.x][isz.y];
-		for (Widget wdg = child; wdg != null; wdg = wdg.next) {
-			if (wdg instanceof WItem) {
-				for (int i = 0; i < wdg.sz.x; i++) {
-					for (int j = 0; j < wdg.sz.y; j++) {
-						occumap[(wdg.c.x/sqsz.x+i/sqsz.x)][(wdg.c.y/sqsz.y+j/sqsz.y)] = true;
-					}
-				}
-			}
-		}
-		//(NICE LOOPS)
-		//Iterate through all spots in inventory
-		superloop:
-		for (int i = 0; i < isz.x; i++) {
-			for (int j = 0; j < isz.y; j++) {
-				boolean itsclear = true;
-				//Check if there is X times Y free slots
-				try {
-					for (int k = 0; k < x; k++) {
-						for (int l = 0; l < y; l++) {
-							if (occumap[i+k][j+l] == true) {
-								itsclear = false;
-							}
-						}
-					}
-				} catch (IndexOutOfBoundsException e) {
-					itsclear = false;
-				}
-
-				if (itsclear) {
-					freespot = new Coord(i,j);
-					break superloop;
-				}
-			}
-		}
-
-		return freespot;
+		return index.room(x, y);
 	}
 
 	public int getFreeSpace() {
-		int feespace = isz.x * isz.y;
-		for (Widget wdg = child; wdg != null; wdg = wdg.next) {
-			if (wdg instanceof WItem)
-				feespace -= (wdg.sz.x * wdg.sz.y) / (sqsz.x * sqsz.y);
-		}
-		return feespace;
+		return index.free();
 	}
 
 	public List<WItem> getItemsPartial(String... names) {
-		List<WItem> items = new ArrayList<WItem>();
-		for (Widget wdg = child; wdg != null; wdg = wdg.next) {
-			if (wdg instanceof WItem) {
-				String wdgname = ((WItem)wdg).item.getname();
-				for (String name : names) {
-					if (name == null)
-						continue;
-					if (wdgname.contains(name)) {
-						items.add((WItem) wdg);
-						break;
-					}
-				}
-			}
-		}
-		return items;
+		return index.partial(names);
 	}
 }
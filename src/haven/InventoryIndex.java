@@ -0,0 +1,314 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import haven.res.ui.tt.q.qbuff.QBuff;
+
+/*
+ * Side index over the items of an Inventory, so that lookups by name
+ * and free-space queries need not walk the widget tree and resolve
+ * every item's name each time. Names are resolved lazily, once per
+ * tooltip update of an item, and outside the index lock, since the
+ * lookups are made from bot threads as well as the UI thread.
+ */
+public class InventoryIndex {
+    private final Inventory inv;
+    private final Map<WItem, Entry> entries = new HashMap<>();
+    private final Map<String, List<Entry>> byname = new HashMap<>();
+    private final Set<Entry> dirty = new LinkedHashSet<>();
+    private int seq = 0;
+    private boolean layout = true;
+    private Coord lsz = Coord.z;
+    private long[] occ = new long[0];
+    private WItem[] cells = new WItem[0];
+    private int nfree;
+
+    static class Entry {
+	final WItem w;
+	final int seq;
+	int infoseq;
+	String name, lname;
+	double q = Double.NaN;
+
+	Entry(WItem w, int seq) {
+	    this.w = w;
+	    this.seq = seq;
+	}
+    }
+
+    private static final Comparator<Entry> order = Comparator.comparingInt(e -> e.seq);
+
+    public InventoryIndex(Inventory inv) {
+	this.inv = inv;
+    }
+
+    public synchronized void add(WItem w) {
+	Entry e = new Entry(w, seq++);
+	entries.put(w, e);
+	dirty.add(e);
+	layout = true;
+    }
+
+    public synchronized void remove(WItem w) {
+	Entry e = entries.remove(w);
+	if(e != null) {
+	    unname(e);
+	    dirty.remove(e);
+	    layout = true;
+	}
+    }
+
+    /* Called when an item's info changed, which may rename it. */
+    public synchronized void invalidate(WItem w) {
+	Entry e = entries.get(w);
+	if(e != null) {
+	    dirty.add(e);
+	    e.q = Double.NaN;
+	}
+    }
+
+    /* Called when an item or the inventory itself was resized. */
+    public synchronized void relayout() {
+	layout = true;
+    }
+
+    private void unname(Entry e) {
+	if(e.name == null)
+	    return;
+	List<Entry> l = byname.get(e.name);
+	if((l != null) && l.remove(e) && l.isEmpty())
+	    byname.remove(e.name);
+	e.name = e.lname = null;
+    }
+
+    private void name(Entry e, String name) {
+	if(name.equals(e.name))
+	    return;
+	unname(e);
+	e.name = name;
+	e.lname = name.toLowerCase();
+	List<Entry> l = byname.computeIfAbsent(name, k -> new ArrayList<>(1));
+	/* Keep each list in inventory order. */
+	int i = l.size();
+	while((i > 0) && (l.get(i - 1).seq > e.seq))
+	    i--;
+	l.add(i, e);
+    }
+
+    private void refresh() {
+	List<Entry> todo;
+	synchronized(this) {
+	    if(dirty.isEmpty())
+		return;
+	    todo = new ArrayList<>(dirty);
+	}
+	String[] names = new String[todo.size()];
+	int[] seqs = new int[todo.size()];
+	for(int i = 0; i < names.length; i++) {
+	    GItem item = todo.get(i).w.item;
+	    seqs[i] = item.infoseq;
+	    names[i] = item.getname();
+	}
+	synchronized(this) {
+	    for(int i = 0; i < names.length; i++) {
+		Entry e = todo.get(i);
+		if(entries.get(e.w) != e)
+		    continue;
+		name(e, names[i]);
+		/* GItem.getname() reports a failure to build the info,
+		 * typically for want of a resource, as "exception". */
+		if((e.w.item.infoseq == seqs[i]) && !names[i].equals("exception"))
+		    dirty.remove(e);
+	    }
+	}
+    }
+
+    private static List<WItem> items(List<Entry> l) {
+	List<WItem> ret = new ArrayList<>(l.size());
+	for(Entry e : l)
+	    ret.add(e.w);
+	return(ret);
+    }
+
+    public List<WItem> exact(String... names) {
+	refresh();
+	synchronized(this) {
+	    List<Entry> ret = new ArrayList<>();
+	    Set<String> seen = new HashSet<>();
+	    for(String name : names) {
+		List<Entry> l = byname.get(name);
+		if((l != null) && seen.add(name))
+		    ret.addAll(l);
+	    }
+	    if(seen.size() > 1)
+		ret.sort(order);
+	    return(items(ret));
+	}
+    }
+
+    public WItem exact(String name) {
+	refresh();
+	synchronized(this) {
+	    List<Entry> l = byname.get(name);
+	    return((l == null) ? null : l.get(0).w);
+	}
+    }
+
+    /* Substring lookups still need to look at every distinct name,
+     * but not at every item. */
+    public List<WItem> partial(String... names) {
+	refresh();
+	synchronized(this) {
+	    List<Entry> ret = new ArrayList<>();
+	    int nl = 0;
+	    for(Map.Entry<String, List<Entry>> ent : byname.entrySet()) {
+		for(String name : names) {
+		    if((name != null) && ent.getKey().contains(name)) {
+			ret.addAll(ent.getValue());
+			nl++;
+			break;
+		    }
+		}
+	    }
+	    if(nl > 1)
+		ret.sort(order);
+	    return(items(ret));
+	}
+    }
+
+    public WItem partial(String name) {
+	refresh();
+	synchronized(this) {
+	    Entry ret = null;
+	    for(Map.Entry<String, List<Entry>> ent : byname.entrySet()) {
+		if(ent.getKey().contains(name)) {
+		    Entry e = ent.getValue().get(0);
+		    if((ret == null) || (e.seq < ret.seq))
+			ret = e;
+		}
+	    }
+	    return((ret == null) ? null : ret.w);
+	}
+    }
+
+    public double quality(WItem w) {
+	Entry e;
+	synchronized(this) {
+	    e = entries.get(w);
+	    if((e != null) && !Double.isNaN(e.q))
+		return(e.q);
+	}
+	QBuff qb = w.item.getQBuff();
+	if(qb == null)
+	    return(0);
+	synchronized(this) {
+	    if(entries.get(w) == e)
+		e.q = qb.q;
+	}
+	return(qb.q);
+    }
+
+    /* Fuzzy match against the lowercased name, for InventorySearchWindow. */
+    public boolean search(WItem w, String q) {
+	refresh();
+	synchronized(this) {
+	    Entry e = entries.get(w);
+	    return((e != null) && (e.lname != null) && Fuzzy.fuzzyContains(e.lname, q));
+	}
+    }
+
+    private void layout() {
+	Coord isz = inv.isz, sqsz = Inventory.sqsz;
+	int n = isz.x * isz.y;
+	if(!isz.equals(lsz)) {
+	    occ = new long[(n + 63) >> 6];
+	    cells = new WItem[n];
+	    lsz = isz;
+	} else {
+	    Arrays.fill(occ, 0);
+	    Arrays.fill(cells, null);
+	}
+	int used = 0;
+	for(Entry e : entries.values()) {
+	    WItem w = e.w;
+	    int x0 = w.c.x / sqsz.x, y0 = w.c.y / sqsz.y;
+	    int x1 = Math.min(isz.x, x0 + (w.sz.x + sqsz.x - 1) / sqsz.x);
+	    int y1 = Math.min(isz.y, y0 + (w.sz.y + sqsz.y - 1) / sqsz.y);
+	    for(int y = Math.max(y0, 0); y < y1; y++) {
+		for(int x = Math.max(x0, 0); x < x1; x++) {
+		    int i = (y * isz.x) + x;
+		    if((occ[i >> 6] & (1L << i)) == 0)
+			used++;
+		    occ[i >> 6] |= 1L << i;
+		    cells[i] = w;
+		}
+	    }
+	}
+	nfree = n - used;
+	layout = false;
+    }
+
+    private boolean occupied(int x, int y) {
+	int i = (y * lsz.x) + x;
+	return((occ[i >> 6] & (1L << i)) != 0);
+    }
+
+    /* Finds the first free w by h spot, scanning columns first. */
+    public synchronized Coord room(int w, int h) {
+	if(layout)
+	    layout();
+	for(int x = 0; x + w <= lsz.x; x++) {
+	    spot: for(int y = 0; y + h <= lsz.y; y++) {
+		for(int i = 0; i < w; i++) {
+		    for(int o = 0; o < h; o++) {
+			if(occupied(x + i, y + o))
+			    continue spot;
+		    }
+		}
+		return(Coord.of(x, y));
+	    }
+	}
+	return(null);
+    }
+
+    public synchronized int free() {
+	if(layout)
+	    layout();
+	return(nfree);
+    }
+
+    /* The item covering the given inventory slot, if any. */
+    public synchronized WItem at(Coord slot) {
+	if(layout)
+	    layout();
+	if((slot.x < 0) || (slot.y < 0) || (slot.x >= lsz.x) || (slot.y >= lsz.y))
+	    return(null);
+	return(cells[(slot.y * lsz.x) + slot.x]);
+    }
+}
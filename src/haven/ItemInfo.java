@@ -170,12 +170,20 @@ public abstract class ItemInfo {
 	public int order() {return(100);}
     }
 
-    public static class AdHoc extends Tip {
+    public static class AdHoc extends Tip implements Shareable {
 	public final Text str;
 
-	public AdHoc(Owner owner, String str) {
+	public AdHoc(Owner owner, Text str) {
 	    super(owner);
-	    this.str = Text.render(str);
+	    this.str = str;
+	}
+
+	public AdHoc(Owner owner, String str) {
+	    this(owner, Text.render(str));
+	}
+
+	public ItemInfo rebind(Owner owner) {
+	    return(new AdHoc(owner, str));
 	}
 
 	public BufferedImage tipimg() {
@@ -457,40 +465,143 @@ public abstract class ItemInfo {
 	return(null);
     }
 
+    private static ItemInfo build(Owner owner, Resource.Resolver rr, Raw raw, Object o) {
+	if(o instanceof Object[]) {
+	    Object[] a = (Object[])o;
+	    if(a[0] instanceof InfoFactory)
+		return(((InfoFactory)a[0]).build(owner, raw, a));
+	    Resource ttres;
+	    if(a[0] instanceof Resource) {
+		ttres = (Resource)a[0];
+	    } else if(a[0] instanceof Indir) {
+		ttres = (Resource)((Indir)a[0]).get();
+	    } else {
+		ttres = rr.getresv(a[0]).get();
+	    }
+	    InfoFactory f = ttres.getcode(InfoFactory.class, true);
+	    return(f.build(owner, raw, a));
+	} else if(o instanceof String) {
+	    return(new AdHoc(owner, (String)o));
+	} else {
+	    throw(new ClassCastException("Unexpected object type " + o.getClass() + " in item info array."));
+	}
+    }
+
     public static List<ItemInfo> buildinfo(Owner owner, Raw raw) {
 	List<ItemInfo> ret = new ArrayList<ItemInfo>();
 	Resource.Resolver rr = owner.context(Resource.Resolver.class);
 	for(Object o : raw.data) {
-	    if(o instanceof Object[]) {
-		Object[] a = (Object[])o;
+	    ItemInfo inf = build(owner, rr, raw, o);
+	    if(inf != null)
+		ret.add(inf);
+	}
+	return(ret);
+    }
+
+    public static List<ItemInfo> buildinfo(Owner owner, Object[] rawinfo) {
+	return(buildinfo(owner, new Raw(rawinfo)));
+    }
+
+    /*
+     * An info that keeps nothing of the owner it was built for, such
+     * as one made from its arguments alone, and that therefore can be
+     * copied to another owner instead of being built again.
+     */
+    public interface Shareable {
+	public ItemInfo rebind(Owner owner);
+    }
+
+    /*
+     * Identical items, such as the hundreds in a stack, are sent
+     * identical raw info. Shareable infos built for one of them are
+     * kept here, keyed by their raw entry, and copied for the others.
+     * Kept infos are bound to a stand-in owner, so that they hold on
+     * to no item. Anything else is built for each item as usual.
+     */
+    public static class Shared {
+	private static final int MAX = 1024;
+	private static final Owner nobody = new Owner() {
+		public <T> T context(Class<T> cl) {throw(new NoContext(cl));}
+		public List<ItemInfo> info() {return(Collections.emptyList());}
+	    };
+	private static final Map<Key, ItemInfo> cache = new LinkedHashMap<Key, ItemInfo>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Key, ItemInfo> e) {
+		    return(size() > MAX);
+		}
+	    };
+	private static long nbuilt, nshared;
+	private static double lastt = 0;
+	private static long lastbuilt, lastshared;
+	private static String stats = "";
+
+	private static class Key {
+	    final java.lang.ref.Reference<Object> rr;
+	    final Object data;
+	    final int hash;
+
+	    Key(Object rr, Object data) {
+		this.rr = new java.lang.ref.WeakReference<>(rr);
+		this.data = data;
+		this.hash = (System.identityHashCode(rr) * 31) + Arrays.deepHashCode(new Object[] {data});
+	    }
+
+	    public int hashCode() {
+		return(hash);
+	    }
+
+	    public boolean equals(Object o) {
+		if(!(o instanceof Key))
+		    return(false);
+		Key k = (Key)o;
+		Object rr = this.rr.get();
+		return((k.hash == hash) && (rr != null) && (k.rr.get() == rr) && Objects.deepEquals(k.data, data));
+	    }
+	}
+
+	public static List<ItemInfo> buildinfo(Owner owner, Raw raw) {
+	    List<ItemInfo> ret = new ArrayList<ItemInfo>();
+	    Resource.Resolver rr = owner.context(Resource.Resolver.class);
+	    for(Object o : raw.data) {
+		Key key = new Key(rr, o);
+		ItemInfo proto;
+		synchronized(cache) {
+		    proto = cache.get(key);
+		}
 		ItemInfo inf;
-		if(a[0] instanceof InfoFactory) {
-		    inf = ((InfoFactory)a[0]).build(owner, raw, a);
+		if(proto != null) {
+		    inf = ((Shareable)proto).rebind(owner);
+		    synchronized(cache) {
+			nshared++;
+		    }
 		} else {
-		    Resource ttres;
-		    if(a[0] instanceof Resource) {
-			ttres = (Resource)a[0];
-		    } else if(a[0] instanceof Indir) {
-			ttres = (Resource)((Indir)a[0]).get();
-		    } else {
-			ttres = rr.getresv(a[0]).get();
+		    inf = build(owner, rr, raw, o);
+		    synchronized(cache) {
+			if(inf instanceof Shareable)
+			    cache.put(key, ((Shareable)inf).rebind(nobody));
+			nbuilt++;
 		    }
-		    InfoFactory f = ttres.getcode(InfoFactory.class, true);
-		    inf = f.build(owner, raw, a);
 		}
 		if(inf != null)
 		    ret.add(inf);
-	    } else if(o instanceof String) {
-		ret.add(new AdHoc(owner, (String)o));
-	    } else {
-		throw(new ClassCastException("Unexpected object type " + o.getClass() + " in item info array."));
 	    }
+	    return(ret);
 	}
-	return(ret);
-    }
 
-    public static List<ItemInfo> buildinfo(Owner owner, Object[] rawinfo) {
-	return(buildinfo(owner, new Raw(rawinfo)));
+	/* Builds and shares per second, for the debug display. */
+	public static String stats() {
+	    synchronized(cache) {
+		double now = Utils.rtime();
+		if(now - lastt >= 1.0) {
+		    double dt = now - lastt;
+		    stats = String.format("%.0f built/s, %.0f shared/s, %d cached",
+					  (nbuilt - lastbuilt) / dt, (nshared - lastshared) / dt, cache.size());
+		    lastt = now;
+		    lastbuilt = nbuilt;
+		    lastshared = nshared;
+		}
+		return(stats);
+	    }
+	}
     }
     
     private static String dump(Object arg) {
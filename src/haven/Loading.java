@@ -99,12 +99,14 @@ public class Loading extends RuntimeException implements Waitable {
 		}
 	    },
 	    wait -> wbuf[0] = wait);
+	Scheduler.waiting(true);
 	try {
 	    synchronized(buf) {
 		while(!buf[0])
 		    buf.wait();
 	    }
 	} finally {
+	    Scheduler.waiting(false);
 	    wbuf[0].cancel();
 	}
     }
@@ -93,6 +93,9 @@ public class MCache implements MapSource {
     private static class Request {
 	private long lastreq = 0;
 	private int reqs = 0;
+	/* Only map data received after this point satisfies the
+	 * request; see mapdata2(). */
+	private long since = 0;
     }
 
     public static interface ZSurface {
@@ -269,12 +272,137 @@ public class MCache implements MapSource {
 	}
     }
 
+    private void settileset(int id, Resource.Spec spec) {
+	synchronized(setmon) {
+	    cktileid(id);
+	    nsets[id] = spec;
+	}
+    }
+
+    /* The decoded contents of a grid. These are never modified once
+     * constructed, so a Grid is updated by replacing its data as a
+     * whole. Tile ids are kept as shorts, heights in the quantized
+     * format they were sent in, and each overlay as a bitset with one
+     * bit per tile. */
+    public static class GridData {
+	public static final int OLWORDS = ((cmaps.x * cmaps.y) + 63) / 64;
+	public final long id;
+	public final Indir<Resource>[] ols;
+	private final short[] tiles;
+	private final ZMap z;
+	private final long[][] ol;
+
+	public GridData(long id, short[] tiles, ZMap z, Indir<Resource>[] ols, long[][] ol) {
+	    this.id = id;
+	    this.tiles = tiles;
+	    this.z = z;
+	    this.ols = ols;
+	    this.ol = ol;
+	}
+
+	public static class ZMap {
+	    private final float min, q;
+	    private final byte[] b;
+	    private final short[] s;
+	    private final float[] f;
+
+	    private ZMap(float min, float q, byte[] b, short[] s, float[] f) {
+		this.min = min;
+		this.q = q;
+		this.b = b;
+		this.s = s;
+		this.f = f;
+	    }
+
+	    public static ZMap flat(float z) {return(new ZMap(z, 0, null, null, null));}
+	    public static ZMap q8(float min, float q, byte[] b) {return(new ZMap(min, q, b, null, null));}
+	    public static ZMap q16(float min, float q, short[] s) {return(new ZMap(min, q, null, s, null));}
+	    public static ZMap full(float[] f) {return(new ZMap(0, 0, null, null, f));}
+
+	    public float get(int i) {
+		if(f != null)
+		    return(f[i]);
+		if(s != null)
+		    return(min + ((s[i] & 0xffff) * q));
+		if(b != null)
+		    return(min + ((b[i] & 0xff) * q));
+		return(min);
+	    }
+	}
+
+	public int tile(int i) {
+	    return(tiles[i] & 0xffff);
+	}
+
+	public float z(int i) {
+	    return(z.get(i));
+	}
+
+	public boolean ol(int oi, int i) {
+	    return(((ol[oi][i >>> 6] >>> (i & 63)) & 1) != 0);
+	}
+
+	private static long lomask(int n) {
+	    return((n == 64) ? -1L : ((1L << n) - 1));
+	}
+
+	static void setbits(long[] bits, int from, int to) {
+	    for(int i = from; i < to;) {
+		int b = i & 63, n = Math.min(64 - b, to - i);
+		bits[i >>> 6] |= lomask(n) << b;
+		i += n;
+	    }
+	}
+
+	/* Writes the tiles of a (in grid-local coordinates) that are
+	 * covered by overlay oi into buf, row by row, starting at off
+	 * and advancing stride elements per row. With oi < 0, the area
+	 * is cleared. */
+	public void getol(int oi, Area a, boolean[] buf, int off, int stride) {
+	    long[] bits = (oi < 0) ? null : ol[oi];
+	    int w = a.br.x - a.ul.x;
+	    for(int y = a.ul.y; y < a.br.y; y++, off += stride) {
+		if(bits == null) {
+		    Arrays.fill(buf, off, off + w, false);
+		    continue;
+		}
+		for(int i = a.ul.x + (y * cmaps.x), e = i + w, o = off; i < e;) {
+		    int b = i & 63, n = Math.min(64 - b, e - i);
+		    long m = lomask(n), word = (bits[i >>> 6] >>> b) & m;
+		    if(word == 0) {
+			Arrays.fill(buf, o, o + n, false);
+		    } else if(word == m) {
+			Arrays.fill(buf, o, o + n, true);
+		    } else {
+			for(int k = 0; k < n; k++)
+			    buf[o + k] = ((word >>> k) & 1) != 0;
+		    }
+		    i += n;
+		    o += n;
+		}
+	    }
+	}
+
+	/* Whether overlay oi covers any tile of a, in grid-local
+	 * coordinates. */
+	public boolean olin(int oi, Area a) {
+	    long[] bits = ol[oi];
+	    int w = a.br.x - a.ul.x;
+	    for(int y = a.ul.y; y < a.br.y; y++) {
+		for(int i = a.ul.x + (y * cmaps.x), e = i + w; i < e;) {
+		    int b = i & 63, n = Math.min(64 - b, e - i);
+		    if(((bits[i >>> 6] >>> b) & lomask(n)) != 0)
+			return(true);
+		    i += n;
+		}
+	    }
+	    return(false);
+	}
+    }
+
     public class Grid implements MapSource {
 	public final Coord gc, ul;
-	public final int tiles[] = new int[cmaps.x * cmaps.y];
-	public final float z[] = new float[cmaps.x * cmaps.y];
-	public Indir<Resource> ols[];
-	public boolean ol[][];
+	public volatile GridData data;
 	public long id;
 	public int seq = -1;
 	public boolean removed = false;
@@ -421,24 +549,27 @@ public class MCache implements MapSource {
 	}
 
 	public int gettile(Coord tc) {
-	    return(tiles[tc.x + (tc.y * cmaps.x)]);
+	    return(data.tile(tc.x + (tc.y * cmaps.x)));
 	}
 
 	public double getz(Coord tc) {
-	    return(z[tc.x + (tc.y * cmaps.x)]);
+	    return(data.z(tc.x + (tc.y * cmaps.x)));
 	}
 
-	public void getol(OverlayInfo id, Area a, boolean[] buf) {
-	    for(int i = 0; i < ols.length; i++) {
-		if(ols[i].get().layer(ResOverlay.class) == id) {
-		    int o = 0;
-		    for(Coord c : a)
-			buf[o++] = ol[i][c.x + (c.y * cmaps.x)];
-		    return;
+	public void getol(OverlayInfo id, Area a, boolean[] buf, int off, int stride) {
+	    GridData data = this.data;
+	    int oi = -1;
+	    for(int i = 0; i < data.ols.length; i++) {
+		if(data.ols[i].get().layer(ResOverlay.class) == id) {
+		    oi = i;
+		    break;
 		}
 	    }
-	    for(int o = 0; o < buf.length; o++)
-		buf[o] = false;
+	    data.getol(oi, a, buf, off, stride);
+	}
+
+	public void getol(OverlayInfo id, Area a, boolean[] buf) {
+	    getol(id, a, buf, 0, a.br.x - a.ul.x);
 	}
 
 	private class Flavobjs implements RenderTree.Node {
@@ -493,11 +624,12 @@ public class MCache implements MapSource {
 	    int[] ids = new int[16];
 	    int nids = 0;
 	    {
+		GridData data = this.data;
 		boolean[] uids = new boolean[nsets.length];
 		int i = area.ul.x + (area.ul.y * cmaps.x);
 		for(int y = 0; y < cutsz.y; y++, i += (cmaps.x - cutsz.x)) {
 		    for(int x = 0; x < cutsz.x; x++, i++) {
-			int id = tiles[i];
+			int id = data.tile(i);
 			if(!uids[id]) {
 			    uids[id] = true;
 			    if(nids >= ids.length)
@@ -643,24 +775,64 @@ public class MCache implements MapSource {
 		cut.dispose();
 	}
 
-	private void filltiles(Message buf) {
+	private void set(GridData data) {
+	    this.data = data;
+	    this.id = data.id;
+	    invalidate();
+	    seq++;
+	}
+
+	public double getfz(Coord c) {return(getz(c));}
+	public Tileset tileset(int i) {return(MCache.this.tileset(i));}
+	public Tiler tiler(int i) {return(MCache.this.tiler(i));}
+    }
+
+    /* Decodes a grid payload into a fresh GridData, starting from the
+     * grid's previous data for sections that the payload leaves
+     * out. Only touches state of its own, so that grids can be
+     * decoded in parallel. */
+    private class Decoder {
+	private long id;
+	private short[] tiles;
+	private GridData.ZMap z;
+	private Indir<Resource>[] ols;
+	private long[][] ol;
+
+	Decoder(GridData prev) {
+	    if(prev != null) {
+		id = prev.id;
+		tiles = prev.tiles;
+		z = prev.z;
+		ols = prev.ols;
+		ol = prev.ol;
+	    } else {
+		tiles = new short[cmaps.x * cmaps.y];
+		z = GridData.ZMap.flat(0);
+		@SuppressWarnings("unchecked") Indir<Resource>[] none = new Indir[0];
+		ols = none;
+		ol = new long[0][];
+	    }
+	}
+
+	void filltiles(Message buf) {
 	    while(true) {
 		int tileid = buf.uint8();
 		if(tileid == 255)
 		    break;
 		String resnm = buf.string();
 		int resver = buf.uint16();
-		cktileid(tileid);
-		nsets[tileid] = new Resource.Spec(Resource.remote(), resnm, resver);
+		settileset(tileid, new Resource.Spec(Resource.remote(), resnm, resver));
 	    }
+	    short[] tiles = this.tiles = new short[cmaps.x * cmaps.y];
 	    for(int i = 0; i < tiles.length; i++) {
-		tiles[i] = buf.uint8();
-		if(nsets[tiles[i]] == null)
-		    throw(new Message.FormatError(String.format("Got undefined tile: " + tiles[i])));
+		int t = buf.uint8();
+		if(nsets[t] == null)
+		    throw(new Message.FormatError(String.format("Got undefined tile: " + t)));
+		tiles[i] = (short)t;
 	    }
 	}
 
-	private void filltiles2(Message buf) {
+	void filltiles2(Message buf) {
 	    int[] tileids = new int[1];
 	    int maxid = 0;
 	    while(true) {
@@ -674,41 +846,46 @@ public class MCache implements MapSource {
 		tileids[encid] = tileid;
 		String resnm = buf.string();
 		int resver = buf.uint16();
-		cktileid(tileid);
-		nsets[tileid] = new Resource.Spec(Resource.remote(), resnm, resver);
+		settileset(tileid, new Resource.Spec(Resource.remote(), resnm, resver));
 	    }
 	    boolean lg = maxid >= 256;
+	    short[] tiles = this.tiles = new short[cmaps.x * cmaps.y];
 	    for(int i = 0; i < tiles.length; i++) {
-		tiles[i] = tileids[lg ? buf.uint16() : buf.uint8()];
-		if(nsets[tiles[i]] == null)
-		    throw(new Message.FormatError(String.format("Got undefined tile: " + tiles[i])));
+		int t = tileids[lg ? buf.uint16() : buf.uint8()];
+		if(nsets[t] == null)
+		    throw(new Message.FormatError(String.format("Got undefined tile: " + t)));
+		tiles[i] = (short)t;
 	    }
 	}
 
-	private void fillz(Message buf) {
+	void fillz(Message buf) {
+	    int n = cmaps.x * cmaps.y;
 	    int fmt = buf.uint8();
 	    if(fmt == 0) {
-		float z = buf.float32() * 11;
-		for(int i = 0; i < this.z.length; i++)
-		    this.z[i] = z;
+		z = GridData.ZMap.flat(buf.float32() * 11);
 	    } else if(fmt == 1) {
 		float min = buf.float32() * 11, q = buf.float32() * 11;
-		for(int i = 0; i < z.length; i++)
-		    z[i] = min + (buf.uint8() * q);
+		byte[] b = new byte[n];
+		buf.bytes(b);
+		z = GridData.ZMap.q8(min, q, b);
 	    } else if(fmt == 2) {
 		float min = buf.float32() * 11, q = buf.float32() * 11;
-		for(int i = 0; i < z.length; i++)
-		    z[i] = min + (buf.uint16() * q);
+		short[] v = new short[n];
+		for(int i = 0; i < n; i++)
+		    v[i] = (short)buf.uint16();
+		z = GridData.ZMap.q16(min, q, v);
 	    } else if(fmt == 3) {
-		for(int i = 0; i < z.length; i++)
-		    z[i] = buf.float32() * 11;
+		float[] v = new float[n];
+		for(int i = 0; i < n; i++)
+		    v[i] = buf.float32() * 11;
+		z = GridData.ZMap.full(v);
 	    } else {
 		throw(new Message.FormatError(String.format("Unknown z-map format: %d", fmt)));
 	    }
 	}
 
 	private Indir<Resource>[] fill_plots;
-	private void decplots(Message buf) {
+	void decplots(Message buf) {
 	    @SuppressWarnings("unchecked") Indir<Resource>[] pt = new Indir[256];
 	    while(!buf.eom()) {
 		int pidx = buf.uint8();
@@ -719,11 +896,11 @@ public class MCache implements MapSource {
 	    fill_plots = pt;
 	}
 
-	private void fillplots(Message buf) {
+	void fillplots(Message buf) {
 	    if(fill_plots == null)
 		return;
 	    @SuppressWarnings("unchecked") Indir<Resource>[] olids = new Indir[0];
-	    boolean[][] ols = {};
+	    long[][] ols = {};
 	    while(!buf.eom()) {
 		int pidx = buf.uint8();
 		if(pidx == 255)
@@ -731,41 +908,42 @@ public class MCache implements MapSource {
 		int fl = buf.uint8();
 		Coord c1 = Coord.of(buf.uint8(), buf.uint8());
 		Coord c2 = Coord.of(buf.uint8(), buf.uint8());
-		boolean[] mask = new boolean[(c2.x - c1.x) * (c2.y - c1.y)];
-		if((fl & 1) != 0) {
-		    for(int i = 0, l = 0, m = buf.uint8(); i < mask.length; i++) {
-			if(l >= 8) {
-			    m = buf.uint8();
-			    l = 0;
-			}
-			mask[i] = (m & 1) != 0;
-			m >>= 1;
-			l++;
-		    }
-		} else {
-		    for(int i = 0; i < mask.length; i++)
-			mask[i] = true;
-		}
 		Indir<Resource> olid = fill_plots[pidx];
-		if(olid == null)
-		    continue;
-		int oi;
-		find: {
-		    for(oi = 0; oi < olids.length; oi++) {
-			if(olids[oi] == olid)
-			    break find;
+		long[] ol = null;
+		if(olid != null) {
+		    int oi;
+		    find: {
+			for(oi = 0; oi < olids.length; oi++) {
+			    if(olids[oi] == olid)
+				break find;
+			}
+			olids = Arrays.copyOf(olids, oi + 1);
+			ols = Arrays.copyOf(ols, oi + 1);
+			olids[oi] = olid;
+			ols[oi] = new long[GridData.OLWORDS];
 		    }
-		    olids = Arrays.copyOf(olids, oi + 1);
-		    ols = Arrays.copyOf(ols, oi + 1);
-		    olids[oi] = olid;
+		    ol = ols[oi];
 		}
-		boolean[] ol = ols[oi];
-		if(ol == null)
-		    ols[oi] = ol = new boolean[cmaps.x * cmaps.y];
-		for(int y = c1.y, mi = 0; y < c2.y; y++) {
-		    for(int x = c1.x; x < c2.x; x++) {
-			ol[x + (y * cmaps.x)] |= mask[mi++];
+		/* The mask has to be consumed even for unknown plots. */
+		if((fl & 1) != 0) {
+		    int m = buf.uint8(), l = 0;
+		    for(int y = c1.y; y < c2.y; y++) {
+			for(int x = c1.x; x < c2.x; x++) {
+			    if(l >= 8) {
+				m = buf.uint8();
+				l = 0;
+			    }
+			    if(((m & 1) != 0) && (ol != null)) {
+				int i = x + (y * cmaps.x);
+				ol[i >>> 6] |= 1L << (i & 63);
+			    }
+			    m >>= 1;
+			    l++;
+			}
 		    }
+		} else if(ol != null) {
+		    for(int y = c1.y; y < c2.y; y++)
+			GridData.setbits(ol, c1.x + (y * cmaps.x), c2.x + (y * cmaps.x));
 		}
 	    }
 	    this.ols = olids;
@@ -773,7 +951,7 @@ public class MCache implements MapSource {
 	    fill_plots = null;
 	}
 
-	private void subfill(Message msg) {
+	void subfill(Message msg) {
 	    while(!msg.eom()) {
 		String lnm = msg.string();
 		int len = msg.uint8();
@@ -807,20 +985,15 @@ public class MCache implements MapSource {
 	    }
 	}
 
-	public void fill(Message msg) {
+	GridData decode(Message msg) {
 	    int ver = msg.uint8();
 	    if(ver == 1) {
 		subfill(msg);
 	    } else {
 		throw(new RuntimeException("Unknown map data version " + ver));
 	    }
-	    invalidate();
-	    seq++;
+	    return(new GridData(id, tiles, z, ols, ol));
 	}
-
-	public double getfz(Coord c) {return(getz(c));}
-	public Tileset tileset(int i) {return(MCache.this.tileset(i));}
-	public Tiler tiler(int i) {return(MCache.this.tiler(i));}
     }
 
     public MCache(Session sess) {
@@ -847,8 +1020,10 @@ public class MCache implements MapSource {
 
     public void invalidate(Coord cc) {
 	synchronized(req) {
-	    if(req.get(cc) == null)
-		req.put(cc, new Request());
+	    Request r = req.get(cc);
+	    if(r == null)
+		req.put(cc, r = new Request());
+	    r.since = dataseq + 1;
 	}
     }
 
@@ -970,10 +1145,12 @@ public class MCache implements MapSource {
 	Collection<OverlayInfo> ret = new ArrayList<>();
 	for(Coord gc : a.div(cmaps)) {
 	    Grid g = getgrid(gc);
-	    if(g.ols == null)
-		continue;
-	    for(Indir<Resource> res : g.ols) {
-		OverlayInfo id = res.get().flayer(ResOverlay.class);
+	    GridData data = g.data;
+	    Area la = a.overlap(Area.sized(g.ul, cmaps)).xl(g.ul.inv());
+	    for(int i = 0; i < data.ols.length; i++) {
+		if(!data.olin(i, la))
+		    continue;
+		OverlayInfo id = data.ols[i].get().flayer(ResOverlay.class);
 		if(!ret.contains(id))
 		    ret.add(id);
 	    }
@@ -986,19 +1163,11 @@ public class MCache implements MapSource {
     }
 
     public void getol(OverlayInfo id, Area a, boolean[] buf) {
-	Area ga = a.div(cmaps);
-	if(ga.area() == 1) {
-	    Grid g = getgrid(ga.ul);
-	    g.getol(id, a.xl(g.ul.inv()), buf);
-	} else {
-	    boolean[] gbuf = new boolean[cmaps.x * cmaps.y];
-	    for(Coord gc : ga) {
-		Grid g = getgrid(gc);
-		Area gt = Area.sized(g.ul, cmaps);
-		g.getol(id, Area.sized(Coord.z, cmaps), gbuf);
-		for(Coord tc : a.overlap(gt))
-		    buf[a.ri(tc)] = gbuf[(tc.x - gt.ul.x) + ((tc.y - gt.ul.y) * cmaps.x)];
-	    }
+	int stride = a.br.x - a.ul.x;
+	for(Coord gc : a.div(cmaps)) {
+	    Grid g = getgrid(gc);
+	    Area la = a.overlap(Area.sized(g.ul, cmaps));
+	    g.getol(id, la.xl(g.ul.inv()), buf, a.ri(la.ul), stride);
 	}
 	for(Overlay lol : ols) {
 	    if(lol.id != id)
@@ -1033,20 +1202,54 @@ public class MCache implements MapSource {
 	}
     }
 
+    private long dataseq = 0;
+
+    /* Grid payloads are decoded on the Defer pool, so that several
+     * grids arriving at once decode in parallel and the grid locks
+     * are only held to publish the result. Since payloads may finish
+     * decoding out of order, each is tagged with its arrival order,
+     * and a payload that arrived before its grid was last invalidated
+     * is discarded. */
     public void mapdata2(Message msg) {
 	Coord c = msg.coord();
+	long seq;
+	synchronized(req) {
+	    if(!req.containsKey(c))
+		return;
+	    seq = ++dataseq;
+	}
+	GridData prev;
 	synchronized(grids) {
-	    synchronized(req) {
-		if(req.containsKey(c)) {
-		    Grid g = grids.get(c);
-		    if(g == null)
-			grids.put(c, g = new Grid(c));
-		    g.fill(msg);
-		    req.remove(c);
-		    olseq++;
-		    chseq++;
-		    gridwait.wnotify();
+	    Grid g = grids.get(c);
+	    prev = (g == null) ? null : g.data;
+	}
+	Defer.later(() -> {
+		GridData data;
+		try {
+		    data = new Decoder(prev).decode(msg);
+		} catch(RuntimeException e) {
+		    new Warning(e, "could not decode map data for " + c).issue();
+		    return(null);
 		}
+		publish(c, seq, data);
+		return(null);
+	    }).boostprio(5);
+    }
+
+    private void publish(Coord c, long seq, GridData data) {
+	synchronized(grids) {
+	    synchronized(req) {
+		Request r = req.get(c);
+		if((r == null) || (seq < r.since))
+		    return;
+		Grid g = grids.get(c);
+		if(g == null)
+		    grids.put(c, g = new Grid(c));
+		g.set(data);
+		req.remove(c);
+		olseq++;
+		chseq++;
+		gridwait.wnotify();
 	    }
 	}
     }
@@ -27,12 +27,15 @@
 package haven;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.locks.*;
 import java.util.function.Function;
 import java.io.*;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
+import java.awt.image.DataBufferByte;
+import javax.imageio.ImageIO;
 import haven.render.*;
 import haven.Defer.Future;
 import static haven.MCache.cmaps;
@@ -48,10 +51,15 @@ public class MapFile {
     public int markerseq = 0;
     public final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private final Random rnd = new Random();
+    private volatile ResCache data;
+    private PackCache pack = null;
+    private volatile Collection<String> migdirty = null;
+    public boolean readonly = false;
 
     public MapFile(ResCache store, String filename) {
 	this.store = store;
 	this.filename = filename;
+	this.data = store;
     }
 
     private void checklock() {
@@ -70,10 +78,31 @@ public class MapFile {
 	return(buf.toString());
     }
     private InputStream sfetch(String ctl, Object... args) throws IOException {
-	return(store.fetch(mangle(String.format(ctl, args))));
+	return(data.fetch(mangle(String.format(ctl, args))));
+    }
+    /* The pack can answer this from its index, without reading the
+     * data itself. */
+    private boolean shas(String ctl, Object... args) throws IOException {
+	String name = mangle(String.format(ctl, args));
+	ResCache data = this.data;
+	if(data instanceof PackCache)
+	    return(((PackCache)data).has(name));
+	try {
+	    data.fetch(name).close();
+	} catch(FileNotFoundException e) {
+	    return(false);
+	}
+	return(true);
     }
     private OutputStream sstore(String ctl, Object... args) throws IOException {
-	return(store.store(mangle(String.format(ctl, args))));
+	String name = mangle(String.format(ctl, args));
+	Collection<String> md = migdirty;
+	if(md != null) {
+	    synchronized(md) {
+		md.add(name);
+	    }
+	}
+	return(data.store(name));
     }
 
     public static void warn(Throwable cause, String msg) {
@@ -87,24 +116,23 @@ public class MapFile {
 	warn(null, fmt, args);
     }
 
-    public static MapFile load(ResCache store, String filename) throws IOException {
-	MapFile file = new MapFile(store, filename);
+    private void loadindex() throws IOException {
 	InputStream fp;
 	try {
-	    fp = file.sfetch("index");
+	    fp = sfetch("index");
 	} catch(FileNotFoundException e) {
-	    return(file);
+	    return;
 	}
 	try(StreamMessage data = new StreamMessage(fp)) {
 	    int ver = data.uint8();
 	    if(ver == 1) {
 		for(int i = 0, no = data.int32(); i < no; i++)
-		    file.knownsegs.add(data.int64());
+		    knownsegs.add(data.int64());
 		for(int i = 0, no = data.int32(); i < no; i++) {
 		    Marker mark = loadmarker(data);
-		    file.markers.add(mark);
+		    markers.add(mark);
 		    if((mark instanceof SMarker) && (((SMarker)mark).oid != 0))
-			file.smarkers.put(((SMarker)mark).oid, (SMarker)mark);
+			smarkers.put(((SMarker)mark).oid, (SMarker)mark);
 		}
 	    } else {
 		throw(new IOException(String.format("unknown mapfile index version: %d", ver)));
@@ -112,9 +140,187 @@ public class MapFile {
 	} catch(Message.BinError e) {
 	    throw(new IOException(String.format("error when loading index: %s", e), e));
 	}
+    }
+
+    public static MapFile load(ResCache store, String filename) throws IOException {
+	MapFile file = new MapFile(store, filename);
+	PackCache pack = null;
+	if(store instanceof HashDirCache) {
+	    java.nio.file.Path path = ((HashDirCache)store).sidefile(file.mangle("pack"), "pack");
+	    try {
+		pack = PackCache.get(path);
+	    } catch(PackCache.InUseException e) {
+		file.useshared(path);
+	    } catch(IOException e) {
+		warn(e, "could not open map pack, using separate files: %s", e);
+	    }
+	}
+	if((pack != null) && pack.has(file.mangle("index")))
+	    file.usepack(pack);
+	file.loadindex();
+	if((pack != null) && (file.pack == null))
+	    file.startmigrate(pack);
 	return(file);
     }
 
+    /* Another client owns the pack, and whatever this one wrote
+     * would either be lost or go into separate files which that
+     * client never reads again once it has migrated. Read from a
+     * snapshot of the pack instead, or from the separate files if
+     * it has not been migrated yet, and keep everything stored in
+     * memory only. */
+    private void useshared(java.nio.file.Path path) {
+	ResCache back = store;
+	try {
+	    PackCache snap = PackCache.snapshot(path);
+	    if(snap.has(mangle("index")))
+		back = snap;
+	} catch(IOException e) {
+	    warn(e, "could not read map pack, using separate files: %s", e);
+	}
+	this.data = new MemOverlay(back);
+	readonly = true;
+	warn("map file is in use by another client, opening it read-only");
+    }
+
+    private static class MemOverlay implements ResCache {
+	private final ResCache back;
+	private final Map<String, byte[]> data = new HashMap<>();
+
+	MemOverlay(ResCache back) {
+	    this.back = back;
+	}
+
+	public InputStream fetch(String name) throws IOException {
+	    byte[] buf;
+	    synchronized(data) {
+		buf = data.get(name);
+	    }
+	    if(buf != null)
+		return(new ByteArrayInputStream(buf));
+	    return(back.fetch(name));
+	}
+
+	public OutputStream store(String name) {
+	    return(new ByteArrayOutputStream() {
+		    public void close() {
+			synchronized(data) {
+			    data.put(name, toByteArray());
+			}
+		    }
+		});
+	}
+    }
+
+    private void usepack(PackCache pack) {
+	this.data = this.pack = pack;
+	pack.dirtycb = this::process;
+    }
+
+    private boolean copyraw(PackCache pack, String name) throws IOException {
+	byte[] buf;
+	try(InputStream fp = store.fetch(name)) {
+	    buf = Utils.readall(fp);
+	} catch(FileNotFoundException e) {
+	    return(false);
+	}
+	try(OutputStream fp = pack.store(name)) {
+	    fp.write(buf);
+	}
+	return(true);
+    }
+
+    private boolean copy(PackCache pack, String ctl, Object... args) throws IOException {
+	return(copyraw(pack, mangle(String.format(ctl, args))));
+    }
+
+    private void startmigrate(PackCache pack) {
+	migdirty = new HashSet<>();
+	Thread th = new HackThread(() -> migrate(pack), "Mapfile migrator");
+	th.setDaemon(true);
+	th.start();
+    }
+
+    /* Copies everything reachable from the index out of the separate
+     * cache files into the pack, in the background and one segment
+     * at a time, while the map keeps using the separate files. Data
+     * stored meanwhile is copied again at the end, under the write
+     * lock, right before switching over. The index goes last, so
+     * that an interrupted migration is simply redone. The old files
+     * are left in place. */
+    private void migrate(PackCache pack) {
+	int n = 0;
+	try {
+	    Collection<Long> segs;
+	    lock.readLock().lock();
+	    try {
+		segs = new ArrayList<>(knownsegs);
+	    } finally {
+		lock.readLock().unlock();
+	    }
+	    for(Long id : segs) {
+		lock.readLock().lock();
+		try {
+		    if(copy(pack, "seg-%x", id))
+			n++;
+		    Segment seg = segments.get(id);
+		    if(seg == null)
+			continue;
+		    for(Long gid : seg.map.values()) {
+			if(copy(pack, "grid-%x", gid))
+			    n++;
+			if(copy(pack, "gi-%x", gid))
+			    n++;
+		    }
+		    Collection<Coord> lc = seg.map.keySet();
+		    for(int lvl = 1; lvl < 31; lvl++) {
+			Collection<Coord> zc = new HashSet<>();
+			int m = ~((1 << lvl) - 1);
+			for(Coord sc : lc)
+			    zc.add(Coord.of(sc.x & m, sc.y & m));
+			boolean found = false;
+			for(Coord sc : zc) {
+			    if(copy(pack, "zgrid-%x-%d-%d-%d", id, lvl, sc.x, sc.y)) {
+				found = true;
+				n++;
+			    }
+			}
+			if(!found)
+			    break;
+			lc = zc;
+		    }
+		} finally {
+		    lock.readLock().unlock();
+		}
+	    }
+	    pack.flush();
+	    lock.writeLock().lock();
+	    try {
+		Collection<String> redo;
+		synchronized(migdirty) {
+		    redo = new ArrayList<>(migdirty);
+		}
+		for(String name : redo) {
+		    if(!name.equals(mangle("index")))
+			copyraw(pack, name);
+		}
+		if(copy(pack, "index"))
+		    n++;
+		pack.flush();
+		migdirty = null;
+		usepack(pack);
+	    } finally {
+		lock.writeLock().unlock();
+	    }
+	} catch(IOException | RuntimeException e) {
+	    migdirty = null;
+	    warn(e, "could not migrate map data into pack, using separate files: %s", e);
+	    return;
+	}
+	if(n > 0)
+	    Debug.log.printf("mapfile: migrated %d entries into %s\n", n, pack);
+    }
+
     private void save() {
 	checklock();
 	OutputStream fp;
@@ -212,6 +418,15 @@ public class MapFile {
     private final Collection<Pair<MCache, Collection<MCache.Grid>>> updqueue = new HashSet<>();
     private final Collection<Segment> dirty = new HashSet<>();
     private boolean gdirty = false;
+    private long flushfail = 0;
+    private void flushpack() {
+	try {
+	    pack.flush();
+	} catch(IOException e) {
+	    flushfail = System.currentTimeMillis();
+	    warn(e, "could not write map data: %s", e);
+	}
+    }
     private class Processor extends HackThread {
 	Processor() {
 	    super("Mapfile processor");
@@ -234,6 +449,10 @@ public class MapFile {
 			} else if(gdirty) {
 			    task = locked(MapFile.this::save, lock.readLock());
 			    gdirty = false;
+			} else if((pack != null) && pack.dirty() && (now - flushfail > 5000)) {
+			    /* Everything queued so far has been stored,
+			     * so write it out in one go. */
+			    task = MapFile.this::flushpack;
 			} else {
 			    if(now - last > 10000) {
 				processor = null;
@@ -456,41 +675,99 @@ public class MapFile {
 	    return(texes[t]);
 	}
 
+	/* Tileset images are read in bulk once and kept for as long as
+	 * the image itself, rather than read pixel by pixel per grid. */
+	private static final Map<BufferedImage, int[]> texpx = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private static int[] texpixels(BufferedImage tex) {
+	    int[] ret = texpx.get(tex);
+	    if(ret == null) {
+		int w = tex.getWidth(), h = tex.getHeight();
+		ret = tex.getRGB(0, 0, w, h, null, 0, w);
+		texpx.put(tex, ret);
+	    }
+	    return(ret);
+	}
+
+	/* Writes tile colours with black borders where a neighbour has
+	 * higher priority into an RGBA byte buffer, in one pass. */
+	public static void rasterize(byte[] dst, int[] tiles, int[] prio, BufferedImage[] texes, Coord off) {
+	    int w = cmaps.x, h = cmaps.y, nt = texes.length;
+	    int[][] px = new int[nt][], xoff = new int[nt][];
+	    int[] tw = new int[nt], th = new int[nt], yoff = new int[nt];
+	    for(int t = 0; t < nt; t++) {
+		if(texes[t] != null) {
+		    px[t] = texpixels(texes[t]);
+		    tw[t] = texes[t].getWidth();
+		    th[t] = texes[t].getHeight();
+		    xoff[t] = new int[w];
+		    for(int x = 0; x < w; x++)
+			xoff[t][x] = Utils.floormod(x + off.x, tw[t]);
+		}
+	    }
+	    for(int y = 0, i = 0, o = 0; y < h; y++) {
+		for(int t = 0; t < nt; t++) {
+		    if(px[t] != null)
+			yoff[t] = Utils.floormod(y + off.y, th[t]) * tw[t];
+		}
+		boolean iy = (y > 0) && (y < h - 1);
+		for(int x = 0; x < w; x++, i++, o += 4) {
+		    int t = tiles[i], p = prio[t], rgb;
+		    if(iy && (x > 0) && (x < w - 1) &&
+		       ((prio[tiles[i - 1]] > p) || (prio[tiles[i + 1]] > p) ||
+			(prio[tiles[i - w]] > p) || (prio[tiles[i + w]] > p))) {
+			rgb = 0xff000000;
+		    } else if(px[t] != null) {
+			rgb = px[t][yoff[t] + xoff[t][x]];
+		    } else {
+			rgb = 0;
+		    }
+		    dst[o + 0] = (byte)(rgb >>> 16);
+		    dst[o + 1] = (byte)(rgb >>>  8);
+		    dst[o + 2] = (byte)(rgb >>>  0);
+		    dst[o + 3] = (byte)(rgb >>> 24);
+		}
+	    }
+	}
+
 	public BufferedImage render(Coord off) {
 	    BufferedImage[] texes = new BufferedImage[tilesets.length];
 	    boolean[] cached = new boolean[tilesets.length];
-	    WritableRaster buf = PUtils.imgraster(cmaps);
-	    Coord c = new Coord();
-	    for(c.y = 0; c.y < cmaps.y; c.y++) {
-		for(c.x = 0; c.x < cmaps.x; c.x++) {
-		    int t = gettile(c);
-		    BufferedImage tex = tiletex(t, texes, cached);
-		    int rgb = 0;
-		    if(tex != null)
-			rgb = tex.getRGB(Utils.floormod(c.x + off.x, tex.getWidth()),
-					 Utils.floormod(c.y + off.y, tex.getHeight()));
-		    buf.setSample(c.x, c.y, 0, (rgb & 0x00ff0000) >>> 16);
-		    buf.setSample(c.x, c.y, 1, (rgb & 0x0000ff00) >>>  8);
-		    buf.setSample(c.x, c.y, 2, (rgb & 0x000000ff) >>>  0);
-		    buf.setSample(c.x, c.y, 3, (rgb & 0xff000000) >>> 24);
-		}
+	    int[] prio = new int[tilesets.length];
+	    for(int t = 0; t < tilesets.length; t++)
+		prio[t] = tilesets[t].prio;
+	    for(int i = 0; i < tiles.length; i++) {
+		if(!cached[tiles[i]])
+		    tiletex(tiles[i], texes, cached);
 	    }
-	    for(c.y = 1; c.y < cmaps.y - 1; c.y++) {
-		for(c.x = 1; c.x < cmaps.x - 1; c.x++) {
-		    int p = tilesets[gettile(c)].prio;
-		    if((tilesets[gettile(c.add(-1, 0))].prio > p) ||
-		       (tilesets[gettile(c.add( 1, 0))].prio > p) ||
-		       (tilesets[gettile(c.add(0, -1))].prio > p) ||
-		       (tilesets[gettile(c.add(0,  1))].prio > p))
-		    {
-			buf.setSample(c.x, c.y, 0, 0);
-			buf.setSample(c.x, c.y, 1, 0);
-			buf.setSample(c.x, c.y, 2, 0);
-			buf.setSample(c.x, c.y, 3, 255);
+	    WritableRaster buf = PUtils.imgraster(cmaps);
+	    rasterize(((DataBufferByte)buf.getDataBuffer()).getData(), tiles, prio, texes, off);
+	    return(PUtils.rasterimg(buf));
+	}
+
+	/* Blends overlay colours, in order, into an RGBA byte buffer. */
+	public static void olblend(byte[] dst, boolean[][] masks, Color[] cols) {
+	    for(int l = 0; l < masks.length; l++) {
+		boolean[] mask = masks[l];
+		int cr = cols[l].getRed(), cg = cols[l].getGreen(), cb = cols[l].getBlue(), ca = cols[l].getAlpha(), na = 255 - ca;
+		byte a = (byte)ca;
+		for(int i = 0, o = 0; i < mask.length; i++, o += 4) {
+		    if(mask[i]) {
+			if(na == 0) {
+			    dst[o + 0] = (byte)cr;
+			    dst[o + 1] = (byte)cg;
+			    dst[o + 2] = (byte)cb;
+			    dst[o + 3] = a;
+			} else {
+			    dst[o + 0] = (byte)(((cr * ca) + ((dst[o + 0] & 0xff) * na)) / 255);
+			    dst[o + 1] = (byte)(((cg * ca) + ((dst[o + 1] & 0xff) * na)) / 255);
+			    dst[o + 2] = (byte)(((cb * ca) + ((dst[o + 2] & 0xff) * na)) / 255);
+			    if((dst[o + 3] & 0xff) < ca)
+				dst[o + 3] = a;
+			}
 		    }
 		}
 	    }
-	    return(PUtils.rasterimg(buf));
 	}
 
 	private static Color olcol(MCache.OverlayInfo olid) {
@@ -507,7 +784,8 @@ public class MapFile {
 	}
 
 	public BufferedImage olrender(Coord off, String tag) {
-	    WritableRaster buf = PUtils.imgraster(cmaps);
+	    List<boolean[]> masks = new ArrayList<>();
+	    List<Color> cols = new ArrayList<>();
 	    for(Overlay ol : ols) {
 		MCache.ResOverlay olid = ol.olid.get().flayer(MCache.ResOverlay.class);
 		if(!olid.tags().contains(tag))
@@ -515,18 +793,12 @@ public class MapFile {
 		Color col = olcol(olid);
 		if(col == null)
 		    continue;
-		Coord c = new Coord();
-		for(c.y = 0; c.y < cmaps.y; c.y++) {
-		    for(c.x = 0; c.x < cmaps.x; c.x++) {
-			if(ol.get(c)) {
-			    buf.setSample(c.x, c.y, 0, ((col.getRed()   * col.getAlpha()) + (buf.getSample(c.x, c.y, 1) * (255 - col.getAlpha()))) / 255);
-			    buf.setSample(c.x, c.y, 1, ((col.getGreen() * col.getAlpha()) + (buf.getSample(c.x, c.y, 1) * (255 - col.getAlpha()))) / 255);
-			    buf.setSample(c.x, c.y, 2, ((col.getBlue()  * col.getAlpha()) + (buf.getSample(c.x, c.y, 2) * (255 - col.getAlpha()))) / 255);
-			    buf.setSample(c.x, c.y, 3, Math.max(buf.getSample(c.x, c.y, 3), col.getAlpha()));
-			}
-		    }
-		}
+		masks.add(ol.ol);
+		cols.add(col);
 	    }
+	    WritableRaster buf = PUtils.imgraster(cmaps);
+	    if(!masks.isEmpty())
+		olblend(((DataBufferByte)buf.getDataBuffer()).getData(), masks.toArray(new boolean[0][]), cols.toArray(new Color[0]));
 	    return(PUtils.rasterimg(buf));
 	}
 
@@ -681,11 +953,13 @@ public class MapFile {
 
 	public static Grid from(MCache map, MCache.Grid cg) {
 	    int oseq = cg.seq;
+	    MCache.GridData cd = cg.data;
 	    int nt = 0;
 	    int[] tmap = new int[16];
 	    int[] rmap = new int[16];
 	    Arrays.fill(tmap, -1);
-	    for(int tn : cg.tiles) {
+	    for(int ti = 0; ti < cmaps.x * cmaps.y; ti++) {
+		int tn = cd.tile(ti);
 		if(tn >= tmap.length) {
 		    int pl = tmap.length;
 		    tmap = Utils.extend(tmap, Integer.highestOneBit(tn) * 2);
@@ -714,16 +988,16 @@ public class MapFile {
 	    }
 	    int[] tiles = new int[cmaps.x * cmaps.y];
 	    float[] zmap = new float[cmaps.x * cmaps.y];
-	    for(int i = 0; i < cg.tiles.length; i++) {
-		tiles[i] = tmap[cg.tiles[i]];
-		zmap[i] = cg.z[i];
+	    for(int i = 0; i < tiles.length; i++) {
+		tiles[i] = tmap[cd.tile(i)];
+		zmap[i] = cd.z(i);
 	    }
-	    Grid g = new Grid(cg.id, infos, tiles, zmap, System.currentTimeMillis());
-	    for(int i = 0; i < cg.ols.length; i++) {
-		if(cg.ol[i].length != (cmaps.x * cmaps.y))
-		    throw(new AssertionError(String.valueOf(cg.ol[i].length)));
-		Resource olres = Loading.waitfor(cg.ols[i]);
-		g.ols.add(new Overlay(new Resource.Saved(olres.pool, olres.name, olres.ver), Arrays.copyOf(cg.ol[i], cg.ol[i].length)));
+	    Grid g = new Grid(cd.id, infos, tiles, zmap, System.currentTimeMillis());
+	    for(int i = 0; i < cd.ols.length; i++) {
+		boolean[] ol = new boolean[cmaps.x * cmaps.y];
+		cd.getol(i, Area.sized(cmaps), ol, 0, cmaps.x);
+		Resource olres = Loading.waitfor(cd.ols[i]);
+		g.ols.add(new Overlay(new Resource.Saved(olres.pool, olres.name, olres.ver), ol));
 	    }
 	    g.norepl = norepl;
 	    g.useq = oseq;
@@ -1076,19 +1350,95 @@ public class MapFile {
 	    }
 	}
 
+	/* Rendered images of zoom grids are stored next to the grid
+	 * data, so that a zoomed-out map does not have to be rendered
+	 * afresh on every start. An image is current as long as the
+	 * grid's mtime and tilesets are what it was rendered from. */
+	public static class SavedImage {
+	    public final long mtime;
+	    public final int sig;
+	    public final BufferedImage img;
+
+	    public SavedImage(long mtime, int sig, BufferedImage img) {
+		this.mtime = mtime;
+		this.sig = sig;
+		this.img = img;
+	    }
+	}
+
+	public int imgsig() {
+	    int ret = 0;
+	    for(TileInfo set : tilesets)
+		ret = (ret * 31) + set.res.name.hashCode() * 17 + set.res.ver;
+	    return(ret);
+	}
+
+	public boolean current(SavedImage img) {
+	    return((img != null) && (img.mtime == mtime) && (img.sig == imgsig()));
+	}
+
+	public static SavedImage loadimg(MapFile file, long seg, int lvl, Coord sc) {
+	    byte[] data;
+	    try(InputStream fp = file.sfetch("zimg-%x-%d-%d-%d", seg, lvl, sc.x, sc.y)) {
+		data = fp.readAllBytes();
+	    } catch(FileNotFoundException e) {
+		return(null);
+	    } catch(IOException e) {
+		warn(e, "error when loading zoomgrid image (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e);
+		return(null);
+	    }
+	    if(data.length == 0)
+		return(null);
+	    try {
+		MessageBuf buf = new MessageBuf(data);
+		int ver = buf.uint8();
+		if(ver != 1)
+		    return(null);
+		long mtime = buf.int64();
+		int sig = buf.int32();
+		BufferedImage img = ImageIO.read(new ByteArrayInputStream(buf.bytes()));
+		if(img == null)
+		    return(null);
+		return(new SavedImage(mtime, sig, img));
+	    } catch(IOException | Message.BinError e) {
+		warn(e, "could not load zoomgrid image (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e);
+		return(null);
+	    }
+	}
+
+	public void saveimg(MapFile file, BufferedImage img) {
+	    ByteArrayOutputStream png = new ByteArrayOutputStream();
+	    try {
+		if(!ImageIO.write(img, "PNG", png))
+		    return;
+	    } catch(IOException e) {
+		throw(new RuntimeException(e));
+	    }
+	    MessageBuf buf = new MessageBuf();
+	    buf.adduint8(1);
+	    buf.addint64(mtime);
+	    buf.addint32(imgsig());
+	    try(OutputStream fp = file.sstore("zimg-%x-%d-%d-%d", seg, lvl, sc.x, sc.y)) {
+		fp.write(buf.fin());
+		png.writeTo(fp);
+	    } catch(IOException e) {
+		warn(e, "could not save zoomgrid image (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e);
+	    }
+	}
+
 	public static int inval(MapFile file, long seg, Coord sc) {
 	    for(int lvl = 1; true; lvl++) {
 		sc = new Coord(sc.x & ~((1 << lvl) - 1), sc.y & ~((1 << lvl) - 1));
 		try {
-		    file.sfetch("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
-		} catch(FileNotFoundException e) {
-		    return(lvl - 1);
+		    if(!file.shas("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y))
+			return(lvl - 1);
 		} catch(IOException e) {
 		    warn(e, "error when invalidating zoomgrid (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e);
 		    return(lvl - 1);
 		}
 		try {
 		    file.sstore("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
+		    file.sstore("zimg-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
 		} catch(IOException e) {
 		    throw(new StreamMessage.IOError(e));
 		}
@@ -1632,72 +1982,96 @@ public class MapFile {
     }
 
     private static final byte[] EXPORT_SIG = "Haven Mapfile 1".getBytes(Utils.ascii);
+    private static final int EXPORT_BATCH = 32;
+
+    private byte[] exportgrids(Segment seg, Collection<Pair<Coord, Long>> grids) {
+	MessageBuf out = new MessageBuf();
+	for(Pair<Coord, Long> gd : grids) {
+	    Grid grid = Grid.load(this, gd.b);
+	    if(grid == null) {
+		/* This /should/ never happen, but for unknown
+		 * reasons (crashes? reboots?) some grids can be
+		 * included but missing. It's not like they'll be
+		 * coming back by any other means, however, so
+		 * just ignore them here. */
+		continue;
+	    }
+	    MessageBuf buf = new MessageBuf();
+	    buf.adduint8(4);
+	    buf.addint64(gd.b);
+	    buf.addint64(seg.id);
+	    buf.addint64(grid.mtime);
+	    buf.addcoord(gd.a);
+	    buf.addint32(cmaps.x * cmaps.y);
+	    DataGrid.savetiles(buf, grid.tilesets, grid.tiles);
+	    DataGrid.savez(buf, grid.zmap);
+	    DataGrid.saveols(buf, grid.ols);
+	    byte[] od = buf.fin();
+	    out.addstring("grid");
+	    out.addint32(od.length);
+	    out.addbytes(od);
+	}
+	return(out.fin());
+    }
+
+    /* Grids are loaded, serialized and compressed in batches on a
+     * worker pool, and written out in order as they complete. The
+     * output is still one plain zlib stream. */
     public void export(Message out, ExportFilter filter, ExportStatus prog) throws InterruptedException {
 	if(prog == null) prog = new ExportStatus() {};
+	ExportStatus fprog = prog;
 	out.addbytes(EXPORT_SIG);
-	ZMessage zout = new ZMessage(out);
-	Collection<Long> segbuf = locked((Collection<Long> c) -> new ArrayList<>(c), lock.readLock()).apply(knownsegs);
-	int nseg = 0;
-	for(Long sid : segbuf) {
-	    if(!filter.includeseg(sid))
-		continue;
-	    Segment seg;
-	    Collection<Pair<Coord, Long>> gridbuf = new ArrayList<>();
-	    lock.readLock().lock();
-	    try {
-		seg = segments.get(sid);
-		for(Map.Entry<Coord, Long> gd : seg.map.entrySet()) {
-		    if(filter.includegrid(seg, gd.getKey(), gd.getValue()))
-			gridbuf.add(new Pair<>(gd.getKey(), gd.getValue()));
-		}
-	    } finally {
-		lock.readLock().unlock();
-	    }
-	    int ngrid = 0;
-	    for(Pair<Coord, Long> gd : gridbuf) {
-		prog.grid(nseg, segbuf.size(), ngrid++, gridbuf.size());
-		Grid grid = Grid.load(this, gd.b);
-		if(grid == null) {
-		    /* This /should/ never happen, but for unknown
-		     * reasons (crashes? reboots?) some grids can be
-		     * included but missing. It's not like they'll be
-		     * coming back by any other means, however, so
-		     * just ignore them here. */
+	int nth = ParallelDeflate.threads();
+	ExecutorService pool = ParallelDeflate.pool("Map exporter", nth);
+	ParallelDeflate zout = new ParallelDeflate(out, pool, nth * 2, 9);
+	try {
+	    Collection<Long> segbuf = locked((Collection<Long> c) -> new ArrayList<>(c), lock.readLock()).apply(knownsegs);
+	    int nseg = 0;
+	    for(Long sid : segbuf) {
+		if(!filter.includeseg(sid))
 		    continue;
+		Segment seg;
+		List<Pair<Coord, Long>> gridbuf = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+		    seg = segments.get(sid);
+		    for(Map.Entry<Coord, Long> gd : seg.map.entrySet()) {
+			if(filter.includegrid(seg, gd.getKey(), gd.getValue()))
+			    gridbuf.add(new Pair<>(gd.getKey(), gd.getValue()));
+		    }
+		} finally {
+		    lock.readLock().unlock();
 		}
+		for(int i = 0; i < gridbuf.size(); i += EXPORT_BATCH) {
+		    List<Pair<Coord, Long>> batch = gridbuf.subList(i, Math.min(i + EXPORT_BATCH, gridbuf.size()));
+		    int cs = nseg, ns = segbuf.size(), cg = i + batch.size(), ng = gridbuf.size();
+		    zout.submit(() -> exportgrids(seg, batch), () -> fprog.grid(cs, ns, cg, ng));
+		    Utils.checkirq();
+		}
+		nseg++;
+	    }
+	    Collection<Marker> markbuf = locked((Collection<Marker> c) -> new ArrayList<>(c), lock.readLock()).apply(markers);
+	    MessageBuf mout = new MessageBuf();
+	    int nmark = 0;
+	    for(Marker mark : markbuf) {
+		prog.mark(nmark++, markbuf.size());
+		if(!filter.includemark(mark))
+		    continue;
 		MessageBuf buf = new MessageBuf();
-		buf.adduint8(4);
-		buf.addint64(gd.b);
-		buf.addint64(seg.id);
-		buf.addint64(grid.mtime);
-		buf.addcoord(gd.a);
-		buf.addint32(cmaps.x * cmaps.y);
-		DataGrid.savetiles(buf, grid.tilesets, grid.tiles);
-		DataGrid.savez(buf, grid.zmap);
-		DataGrid.saveols(buf, grid.ols);
+		savemarker(buf, mark);
 		byte[] od = buf.fin();
-		zout.addstring("grid");
-		zout.addint32(od.length);
-		zout.addbytes(od);
+		mout.addstring("mark");
+		mout.addint32(od.length);
+		mout.addbytes(od);
 		Utils.checkirq();
 	    }
-	    nseg++;
-	}
-	Collection<Marker> markbuf = locked((Collection<Marker> c) -> new ArrayList<>(c), lock.readLock()).apply(markers);
-	int nmark = 0;
-	for(Marker mark : markbuf) {
-	    prog.mark(nmark++, markbuf.size());
-	    if(!filter.includemark(mark))
-		continue;
-	    MessageBuf buf = new MessageBuf();
-	    savemarker(buf, mark);
-	    byte[] od = buf.fin();
-	    zout.addstring("mark");
-	    zout.addint32(od.length);
-	    zout.addbytes(od);
-	    Utils.checkirq();
+	    byte[] marks = mout.fin();
+	    zout.submit(() -> marks, null);
+	    zout.finish();
+	} finally {
+	    zout.cancel();
+	    pool.shutdownNow();
 	}
-	zout.finish();
     }
 
     public void export(OutputStream out, ExportFilter filter, ExportStatus prog) throws InterruptedException {
@@ -1783,6 +2157,7 @@ public class MapFile {
 	    };
     }
 
+    private static final int IMPORT_BATCH = 32;
     private class Importer {
 	final Map<Long, ImportedSegment> segs = new HashMap<>();
 	final ImportFilter filter;
@@ -1822,8 +2197,7 @@ public class MapFile {
 	    return(chseg(ret));
 	}
 
-	void importgrid(Message data) {
-	    ImportedGrid grid = new ImportedGrid(data);
+	void importgrid(ImportedGrid grid, byte[] saved) {
 	    ImportedSegment seg = segs.get(grid.segid);
 	    if(seg == null) {
 		segs.put(grid.segid, seg = new ImportedSegment());
@@ -1849,7 +2223,10 @@ public class MapFile {
 		lock.writeLock().lock();
 		try {
 		    Grid rgrid = grid.togrid();
-		    rgrid.save(MapFile.this);
+		    if(saved != null)
+			savegrid(rgrid.id, saved);
+		    else
+			rgrid.save(MapFile.this);
 		    if(seg.noff == null) {
 			if(info == null) {
 			    rseg = chseg(new Segment(seg.nseg = grid.gid));
@@ -1889,6 +2266,14 @@ public class MapFile {
 	    }
 	}
 
+	void savegrid(long id, byte[] saved) {
+	    try(OutputStream fp = sstore("grid-%x", id)) {
+		fp.write(saved);
+	    } catch(IOException e) {
+		throw(new StreamMessage.IOError(e));
+	    }
+	}
+
 	Marker prevmark(Marker mark) {
 	    for(Marker pm : MapFile.this.markers) {
 		if((pm.getClass() != mark.getClass()) || !pm.nm.equals(mark.nm) || !pm.tc.equals(mark.tc))
@@ -1917,34 +2302,114 @@ public class MapFile {
 	    }
 	}
 
+	class Record {
+	    final String type;
+	    final byte[] raw;
+	    ImportedGrid grid;
+	    byte[] saved;
+	    RuntimeException err;
+
+	    Record(String type, byte[] raw) {
+		this.type = type;
+		this.raw = raw;
+	    }
+
+	    /* Runs on the import pool. Whether the grid is already
+	     * known is not settled until it is applied, so the filter
+	     * is only asked here whether it might take the grid, so
+	     * that it can be compressed ahead of time. */
+	    void parse() {
+		if(!type.equals("grid"))
+		    return;
+		try {
+		    grid = new ImportedGrid(new MessageBuf(raw));
+		    if(filter.includegrid(grid, false) || filter.includegrid(grid, true)) {
+			MessageBuf buf = new MessageBuf();
+			grid.togrid().save(buf);
+			saved = buf.fin();
+		    }
+		} catch(RuntimeException exc) {
+		    err = exc;
+		}
+	    }
+
+	    void apply() {
+		if(type.equals("grid")) {
+		    try {
+			if(err != null)
+			    throw(err);
+			importgrid(grid, saved);
+		    } catch(RuntimeException exc) {
+			filter.handleerror(exc, "grid");
+		    }
+		} else if(type.equals("mark")) {
+		    try {
+			importmark(new MessageBuf(raw));
+		    } catch(RuntimeException exc) {
+			filter.handleerror(exc, "mark");
+		    }
+		}
+	    }
+	}
+
+	/* Records are read and inflated on this thread and parsed in
+	 * batches on a worker pool, but applied strictly in file
+	 * order. Only a bounded number of batches are in flight. */
 	void reimport(Message data) throws InterruptedException {
 	    if(!Arrays.equals(EXPORT_SIG, data.bytes(EXPORT_SIG.length)))
 		throw(new Message.FormatError("Invalid map file format"));
 	    data = new ZMessage(data);
+	    int nth = ParallelDeflate.threads();
+	    ExecutorService pool = ParallelDeflate.pool("Map importer", nth);
+	    Deque<java.util.concurrent.Future<List<Record>>> pending = new ArrayDeque<>();
 	    try {
-		while(!data.eom()) {
-		    String type = data.string();
-		    int len = data.int32();
-		    Message lay = new LimitMessage(data, len);
-		    if(type.equals("grid")) {
-			try {
-			    importgrid(lay);
-			} catch(RuntimeException exc) {
-			    filter.handleerror(exc, "grid");
+		List<Record> batch = new ArrayList<>();
+		RuntimeException rerr = null;
+		try {
+		    while(!data.eom()) {
+			String type = data.string();
+			int len = data.int32();
+			if(type.equals("grid") || type.equals("mark")) {
+			    batch.add(new Record(type, data.bytes(len)));
+			} else {
+			    new LimitMessage(data, len).skip();
 			}
-		    } else if(type.equals("mark")) {
-			try {
-			    importmark(lay);
-			} catch(RuntimeException exc) {
-			    filter.handleerror(exc, "mark");
+			if(batch.size() >= IMPORT_BATCH) {
+			    while(pending.size() >= nth * 2) {
+				for(Record rec : ParallelDeflate.get(pending.removeFirst()))
+				    rec.apply();
+			    }
+			    List<Record> cur = batch;
+			    pending.addLast(pool.submit(() -> {
+					for(Record rec : cur)
+					    rec.parse();
+					return(cur);
+				    }));
+			    batch = new ArrayList<>();
 			}
+			Utils.checkirq();
 		    }
-		    lay.skip();
-		    Utils.checkirq();
+		} catch(RuntimeException exc) {
+		    /* Still apply everything read up to the error. */
+		    rerr = exc;
+		}
+		while(!pending.isEmpty()) {
+		    for(Record rec : ParallelDeflate.get(pending.removeFirst()))
+			rec.apply();
 		}
+		for(Record rec : batch) {
+		    rec.parse();
+		    rec.apply();
+		}
+		if(rerr != null)
+		    throw(rerr);
 	    } catch(InterruptedException e) {
+		for(java.util.concurrent.Future<?> f : pending)
+		    f.cancel(true);
 		flush();
 		throw(e);
+	    } finally {
+		pool.shutdownNow();
 	    }
 	    flush();
 	}
@@ -28,7 +28,7 @@ package haven;
 
 public class MessageBuf extends Message implements java.io.Serializable {
     public static final MessageBuf nil = new MessageBuf();
-    private final int oh;
+    private int oh;
 
     public MessageBuf(byte[] blob, int off, int len) {
 	if(blob == null)
@@ -102,6 +102,18 @@ public class MessageBuf extends Message implements java.io.Serializable {
 	rh = oh;
     }
 
+    /* Re-point this message at another region of a buffer, so that
+     * receive paths can reuse one message object as a view over a
+     * recycled buffer instead of allocating per packet. */
+    public MessageBuf reset(byte[] blob, int off, int len) {
+	if(blob == null)
+	    throw(new NullPointerException("blob"));
+	this.rbuf = blob;
+	this.rh = this.oh = off;
+	this.rt = off + len;
+	return(this);
+    }
+
     public MessageBuf clone() {
 	return(new MessageBuf(rbuf, oh, rt - oh));
     }
@@ -269,6 +269,92 @@ public class MiniMap extends Widget {
 		}
 		allowZooming = true;
 		ticksprites(dt);
+		prefetch(dt);
+    }
+
+    /* Display grids built ahead of the view, where it is panning to
+     * and at the level it is zooming towards, so that their images
+     * are loaded or rendered by the time they come into view. */
+    private static final int PREFETCH_MAX = 64, PREFETCH_STEP = 4;
+    private static final double PREFETCH_AHEAD = 1.0;
+    private final Map<PrefetchKey, DisplayGrid> prefetched = new LinkedHashMap<PrefetchKey, DisplayGrid>(16, 0.75f, true) {
+	    protected boolean removeEldestEntry(Map.Entry<PrefetchKey, DisplayGrid> e) {
+		return(size() > PREFETCH_MAX);
+	    }
+	};
+    private Coord2d pfpos = null, pfvel = Coord2d.z;
+    private Segment pfseg = null;
+
+    private static class PrefetchKey {
+	final long seg;
+	final int lvl;
+	final Coord c;
+
+	PrefetchKey(long seg, int lvl, Coord c) {
+	    this.seg = seg; this.lvl = lvl; this.c = c;
+	}
+
+	public int hashCode() {
+	    return((((Long.hashCode(seg) * 31) + lvl) * 31) + c.hashCode());
+	}
+
+	public boolean equals(Object o) {
+	    if(!(o instanceof PrefetchKey))
+		return(false);
+	    PrefetchKey k = (PrefetchKey)o;
+	    return((k.seg == seg) && (k.lvl == lvl) && k.c.equals(c));
+	}
+    }
+
+    private Area viewgrids(Coord tc, int scale) {
+	Coord hsz = sz.div(2);
+	return(Area.sized(tc.sub(hsz.mul(UI.unscale((scale)))).div(cmaps.mul(scale)).sub(2, 2),
+			  UI.unscale(sz).div(cmaps).add(6, 6)));
+    }
+
+    private void prefetch(double dt) {
+	Location loc = dloc;
+	if((loc == null) || (display == null) || (dt <= 0))
+	    return;
+	Coord2d pos = new Coord2d(loc.tc);
+	if((pfpos != null) && (loc.seg == pfseg))
+	    pfvel = pfvel.mul(0.8).add(pos.sub(pfpos).div(dt).mul(0.2));
+	else
+	    pfvel = Coord2d.z;
+	pfpos = pos;
+	pfseg = loc.seg;
+	int scale = dlvl;
+	if(zoomMomentum > 0.15)
+	    scale = dlvl * 2;
+	else if((zoomMomentum < -0.15) && (dlvl > 1))
+	    scale = dlvl / 2;
+	boolean panning = pfvel.abs() * PREFETCH_AHEAD >= cmaps.x * dlvl * 0.25;
+	if(!panning && (scale == dlvl))
+	    return;
+	Area want = viewgrids(pos.add(pfvel.mul(PREFETCH_AHEAD)).floor(), scale);
+	int lvl = 31 - Integer.numberOfLeadingZeros(scale);
+	if(!file.lock.readLock().tryLock())
+	    return;
+	try {
+	    int n = 0;
+	    for(Coord c : want) {
+		if((scale == dlvl) && dgext.contains(c))
+		    continue;
+		PrefetchKey key = new PrefetchKey(loc.seg.id, lvl, c);
+		if(prefetched.containsKey(key))
+		    continue;
+		DisplayGrid dg = new DisplayGrid(loc.seg, c, lvl, loc.seg.grid(lvl, c.mul(scale)));
+		prefetched.put(key, dg);
+		try {
+		    dg.img();
+		} catch(Loading l) {
+		}
+		if(++n >= PREFETCH_STEP)
+		    break;
+	    }
+	} finally {
+	    file.lock.readLock().unlock();
+	}
     }
 
     public void center(Locator loc) {
@@ -448,18 +534,57 @@ public class MiniMap extends Widget {
 	public final MapFile file;
 	public final Segment seg;
 	public final Coord sc;
+	public final int lvl;
 	public final Area mapext;
 	public final Indir<? extends DataGrid> gref;
 	private DataGrid cgrid = null;
 	private Tex img = null;
 	private Defer.Future<Tex> nextimg = null;
+	/* The image saved by an earlier session, shown until the zoom
+	 * grid itself has loaded and been checked against it. */
+	private Defer.Future<MapFile.ZoomGrid.SavedImage> saved = null;
+	private Tex savedtex = null;
 
 	public DisplayGrid(Segment seg, Coord sc, int lvl, Indir<? extends DataGrid> gref) {
 	    this.file = seg.file();
 	    this.seg = seg;
 	    this.sc = sc;
+	    this.lvl = lvl;
 	    this.gref = gref;
 	    mapext = Area.sized(sc.mul(cmaps.mul(1 << lvl)), cmaps.mul(1 << lvl));
+	    if(lvl > 0)
+		saved = Defer.later(() -> MapFile.ZoomGrid.loadimg(file, seg.id, lvl, sc.mul(1 << lvl)));
+	}
+
+	private MapFile.ZoomGrid.SavedImage saved() {
+	    if(saved == null)
+		return(null);
+	    try {
+		return(saved.get());
+	    } catch(Loading l) {
+		return(null);
+	    }
+	}
+
+	private synchronized Tex savedtex() {
+	    MapFile.ZoomGrid.SavedImage si = saved();
+	    if((si != null) && (savedtex == null))
+		savedtex = new TexI(si.img);
+	    return(savedtex);
+	}
+
+	private Tex zoomimg(MapFile.ZoomGrid grid) {
+	    MapFile.ZoomGrid.SavedImage si;
+	    try {
+		si = (saved == null) ? null : saved.get();
+	    } catch(Defer.DeferredException e) {
+		si = null;
+	    }
+	    if(grid.current(si))
+		return(savedtex());
+	    BufferedImage img = grid.render(sc.mul(cmaps));
+	    grid.saveimg(file, img);
+	    return(new TexI(img));
 	}
 
 	class CachedImage {
@@ -518,7 +643,7 @@ public class MiniMap extends Widget {
 	    if(img_c == null) {
 		img_c = new CachedImage(grid -> {
 			if(grid instanceof MapFile.ZoomGrid) {
-			    return(Defer.later(() -> new TexI(grid.render(sc.mul(cmaps)))));
+			    return(Defer.later(() -> zoomimg((MapFile.ZoomGrid)grid)));
 			} else {
 			    return(Defer.later(new Defer.Callable<Tex>() {
 				    MapFile.View view = new MapFile.View(seg);
@@ -538,7 +663,14 @@ public class MiniMap extends Widget {
 			}
 		});
 	    }
-	    return(img_c.get());
+	    Tex ret;
+	    try {
+		ret = img_c.get();
+	    } catch(Loading l) {
+		if((ret = savedtex()) == null)
+		    throw(l);
+	    }
+	    return((ret != null) ? ret : savedtex());
 	}
 
 	private final Map<String, CachedImage> olimg_c = new HashMap<>();
@@ -599,11 +731,9 @@ public class MiniMap extends Widget {
 	}
 
     private void redisplay(Location loc) {
-	Coord hsz = sz.div(2);
 	int safezoom = calcDrawLevel();
 	Coord zmaps = cmaps.mul(safezoom);
-	Area next = Area.sized(loc.tc.sub(hsz.mul(UI.unscale((safezoom)))).div(zmaps).sub(2, 2),
-	    UI.unscale(sz).div(cmaps).add(6, 6));
+	Area next = viewgrids(loc.tc, safezoom);
 	if((display == null) || (loc.seg != dseg) || (dlvl != calcDrawLevel()) || !next.equals(dgext)) {
 	    DisplayGrid[] nd = new DisplayGrid[next.rsz()];
 	    if((display != null) && (loc.seg == dseg) && (dlvl == calcDrawLevel())) {
@@ -627,8 +757,10 @@ public class MiniMap extends Widget {
 			// 31-NOLZ finds a dirty reverse power of 2, I.E turns 32 -> 5, 16 -> 4, 8 -> 3, 4 -> 2, 2 -> 1, 1 -> 0
 			int lvl = dlvl < 1f ? 0 : 31-Integer.numberOfLeadingZeros(dlvl);
 		for(Coord c : dgext) {
-		    if(display[dgext.ri(c)] == null)
-			display[dgext.ri(c)] = new DisplayGrid(dloc.seg, c, lvl, dloc.seg.grid(lvl, c.mul(dlvl)));
+		    if(display[dgext.ri(c)] == null) {
+			DisplayGrid pf = prefetched.remove(new PrefetchKey(dloc.seg.id, lvl, c));
+			display[dgext.ri(c)] = (pf != null) ? pf : new DisplayGrid(dloc.seg, c, lvl, dloc.seg.grid(lvl, c.mul(dlvl)));
+		    }
 		}
 	    } finally {
 		file.lock.readLock().unlock();
@@ -610,12 +610,15 @@ public class ModSprite extends Sprite implements Sprite.CUpd, EquipTarget {
 	}
 
 	private void rebuild() {
-	    pose.reset();
-	    for(PoseMod m : mods)
-		m.apply(pose);
-	    if(ipold > 0)
+	    if(ipold > 0) {
+		pose.reset();
+		for(PoseMod m : mods)
+		    m.apply(pose);
 		pose.blend(oldpose, Utils.smoothstep(ipold));
-	    pose.gbuild();
+		pose.gbuild();
+	    } else {
+		pose.build(mods);
+	    }
 	}
 
 	public void operate(Cons cons) {
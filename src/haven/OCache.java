@@ -28,6 +28,7 @@ package haven;
 
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.lang.annotation.*;
 import java.lang.reflect.*;
 import haven.render.*;
@@ -60,6 +61,11 @@ public class OCache implements Iterable<Gob> {
     /* XXX: Use weak refs */
     private Collection<Collection<Gob>> local = new LinkedList<Collection<Gob>>();
     private MultiMap<Long, Gob> objs = new HashMultiMap<Long, Gob>();
+    /* Positions of the added objects, for the spatial queries below.
+     * Objects in local collections are not included. */
+    private final GridIndex<Gob> index = new GridIndex<>(MCache.tilesz.x * 10);
+    /* Added objects by resource name, for ObjectSearchWindow. */
+    public final ObjectSearchIndex search = new ObjectSearchIndex();
     private Glob glob;
     private final Collection<ChangeCallback> cbs = new WeakList<ChangeCallback>();
 
@@ -91,7 +97,10 @@ public class OCache implements Iterable<Gob> {
 	    synchronized(this) {
 		cbs = new ArrayList<>(this.cbs);
 		objs.put(ob.id, ob);
+		if(ob.spidx == null)
+		    ob.spidx = index.add(ob, ob.rc);
 	    }
+	    search.add(ob);
 	    for(ChangeCallback cb : cbs)
 		cb.added(ob);
 	}
@@ -104,17 +113,93 @@ public class OCache implements Iterable<Gob> {
 	    old = objs.remove(ob.id, ob);
 	    if((old != null) && (old != ob))
 		throw(new RuntimeException(String.format("object %d removed wrong object", ob.id)));
+	    if((old != null) && (old.spidx != null)) {
+		index.remove(old.spidx);
+		old.spidx = null;
+	    }
 	    cbs = new ArrayList<>(this.cbs);
 	}
 	if(old != null) {
 	    synchronized(old) {
 		old.removed();
+		search.remove(old);
 		for(ChangeCallback cb : cbs)
 		    cb.removed(old);
 	    }
 	}
     }
 
+    synchronized void moved(Gob ob) {
+	if(ob.spidx != null)
+	    index.move(ob.spidx, ob.rc);
+    }
+
+    /* Objects whose resources are still loading never match. */
+    private static Predicate<Gob> loaded(Predicate<? super Gob> p) {
+	if(p == null)
+	    return(null);
+	return(g -> {
+		try {
+		    return(p.test(g));
+		} catch(Loading l) {
+		    return(false);
+		}
+	    });
+    }
+
+    /* Added objects within r of c that satisfy p, if given. As with
+     * inArea(), p is tested with the cache locked. */
+    public synchronized List<Gob> within(Coord2d c, double r, Predicate<? super Gob> p) {
+	return(index.within(c, r, loaded(p), new ArrayList<>()));
+    }
+
+    public List<Gob> within(Coord2d c, double r) {
+	return(within(c, r, null));
+    }
+
+    /* The added object nearest to c, within maxr, that satisfies p.
+     * The index is searched outward a ring of cells at a time, and p
+     * is only tested with the cache unlocked, so it may take other
+     * locks. */
+    public Gob nearest(Coord2d c, double maxr, Predicate<? super Gob> p) {
+	Predicate<Gob> lp = loaded(p);
+	List<Gob> cand = new ArrayList<>();
+	Gob best = null;
+	double bestd = maxr;
+	for(int k = 0; true; k++) {
+	    boolean more;
+	    synchronized(this) {
+		if((index.ringdist(k) > bestd) || ((best != null) && (index.ringdist(k) >= bestd)))
+		    break;
+		cand.clear();
+		more = index.ring(c, k, cand);
+	    }
+	    for(Gob g : cand) {
+		double d = g.rc.dist(c);
+		if((d <= bestd) && ((best == null) || (d < bestd)) && ((lp == null) || lp.test(g))) {
+		    best = g;
+		    bestd = d;
+		}
+	    }
+	    if(!more)
+		break;
+	}
+	return(best);
+    }
+
+    public Gob nearest(Coord2d c, Predicate<? super Gob> p) {
+	return(nearest(c, Double.POSITIVE_INFINITY, p));
+    }
+
+    /* Added objects positioned inside a, in world units. */
+    public synchronized List<Gob> inArea(Area a, Predicate<? super Gob> p) {
+	return(index.inArea(a, loaded(p), new ArrayList<>()));
+    }
+
+    public List<Gob> inArea(Area a) {
+	return(inArea(a, null));
+    }
+
     public void ctick(double dt) {
 	ArrayList<Gob> copy = new ArrayList<Gob>();
 	synchronized(this) {
@@ -363,7 +448,9 @@ public class OCache implements Iterable<Gob> {
 
     public class GobInfo {
 	public final long id;
-	public final LinkedList<AttrDelta> pending = new LinkedList<>();
+	/* Deltas not yet fully applied, the first from its attribute pendattr on. */
+	public final ArrayDeque<ObjDelta> pending = new ArrayDeque<>();
+	private int pendattr = 0;
 	public int frame;
 	public boolean nremoved, added, gremoved, virtual;
 	public Gob gob;
@@ -392,17 +479,24 @@ public class OCache implements Iterable<Gob> {
 		    }
 		}
 		while(true) {
-		    AttrDelta d;
+		    ObjDelta d;
+		    int i;
 		    synchronized(this) {
 			if((d = pending.peek()) == null)
 			    break;
+			if((i = pendattr) >= d.nattrs) {
+			    pending.poll();
+			    pendattr = 0;
+			    continue;
+			}
 		    }
 		    synchronized(gob) {
-			deltas.get(d.type).apply(gob, d.clone());
+			deltas.get(d.type(i)).apply(gob, d.attr(i));
 		    }
 		    synchronized(this) {
-			if((pending.poll()) != d)
+			if((pending.peek() != d) || (pendattr != i))
 			    throw(new RuntimeException());
+			pendattr++;
 		    }
 		}
 		if(!added) {
@@ -472,12 +566,20 @@ public class OCache implements Iterable<Gob> {
 	}
     }
 
+    /* An object update as decoded from the wire. Attribute payloads
+     * are slices of buf, kept as (type, offset, length) triples in
+     * attrs rather than copied out. Once handed to the connection
+     * callbacks a delta is never modified, so they all share it, and
+     * reading an attribute goes through a fresh view from attr(). */
     public static class ObjDelta {
+	private static final int[] noattrs = {};
 	public int fl, frame;
 	public int initframe;
 	public long id;
-	public final List<AttrDelta> attrs = new LinkedList<>();
 	public boolean rem = false;
+	public byte[] buf;
+	public int[] attrs = noattrs;
+	public int nattrs = 0;
 
 	public ObjDelta(int fl, long id, int frame) {
 	    this.fl = fl;
@@ -485,28 +587,32 @@ public class OCache implements Iterable<Gob> {
 	    this.frame = frame;
 	}
 
-	public ObjDelta(ObjDelta from) {
-	    this.fl = from.fl;
-	    this.id = from.id;
-	    this.frame = from.frame;
-	    this.initframe = from.initframe;
-	    this.rem = from.rem;
-	    for(AttrDelta attr : from.attrs)
-		attrs.add(attr.clone());
+	public ObjDelta() {}
+
+	public void add(int type, int off, int len) {
+	    int o = nattrs * 3;
+	    if(o + 3 > attrs.length)
+		attrs = Arrays.copyOf(attrs, Math.max(attrs.length * 2, 12));
+	    attrs[o + 0] = type;
+	    attrs[o + 1] = off;
+	    attrs[o + 2] = len;
+	    nattrs++;
 	}
 
-	public ObjDelta() {}
+	public int type(int i) {return(attrs[(i * 3) + 0]);}
+	public int off(int i)  {return(attrs[(i * 3) + 1]);}
+	public int len(int i)  {return(attrs[(i * 3) + 2]);}
 
-	public ObjDelta clone() {
-	    return(new ObjDelta(this));
+	public AttrDelta attr(int i) {
+	    return(new AttrDelta(this, i));
 	}
     }
 
     public static class AttrDelta extends PMessage {
 	public boolean old;
 
-	public AttrDelta(ObjDelta od, int type, Message blob, int len) {
-	    super(type, blob, len);
+	public AttrDelta(ObjDelta od, int i) {
+	    super(od.type(i), od.buf, od.off(i), od.len(i));
 	    this.old = ((od.fl & 4) != 0);
 	}
 
@@ -531,7 +637,8 @@ public class OCache implements Iterable<Gob> {
 		synchronized(ng) {
 		    ng.frame = delta.frame;
 		    ng.virtual = ((delta.fl & 2) != 0);
-		    ng.pending.addAll(delta.attrs);
+		    if(delta.nattrs > 0)
+			ng.pending.add(delta);
 		    ng.checkdirty(false);
 		}
 	    }
@@ -0,0 +1,206 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+
+/*
+ * Keeps the objects in an OCache grouped by their searchable resource
+ * name, with an inverted index from each character to the names
+ * containing it. A new query is only tested against the names that
+ * can possibly match it, and only objects whose name changed its
+ * match state get their search overlay updated.
+ */
+public class ObjectSearchIndex {
+    /* Marks objects that are indexed but have no resource yet. */
+    static final Name NONE = new Name(null);
+    private final Map<String, Name> names = new HashMap<>();
+    private final Map<Character, Set<Name>> postings = new HashMap<>();
+    private final Set<Name> matched = new HashSet<>();
+    private String query = "";
+
+    static class Name {
+	final String key;
+	final boolean barter;
+	final Set<Gob> gobs = new HashSet<>();
+	boolean matched;
+
+	Name(String key) {
+	    this.key = key;
+	    this.barter = (key != null) && key.contains("barter");
+	}
+    }
+
+    public static String key(Resource res) {
+	return(res.basename().toLowerCase().replace("stockpile", ""));
+    }
+
+    private static boolean namequery(String q) {
+	return(q.length() > 1);
+    }
+
+    private static boolean barterquery(String q) {
+	return(q.startsWith("@") && (q.length() > 2));
+    }
+
+    private static boolean matches(String key, String q) {
+	return(namequery(q) && Fuzzy.fuzzyContains(key, q));
+    }
+
+    private Name get(String key) {
+	Name ret = names.get(key);
+	if(ret == null) {
+	    names.put(key, ret = new Name(key));
+	    for(int i = 0; i < key.length(); i++)
+		postings.computeIfAbsent(key.charAt(i), k -> new HashSet<>()).add(ret);
+	    if(ret.matched = matches(key, query))
+		matched.add(ret);
+	}
+	return(ret);
+    }
+
+    private void put(Gob gob, Name nm) {
+	Name old = gob.sname;
+	if(old == nm)
+	    return;
+	if((old != null) && (old != NONE) && old.gobs.remove(gob) && old.gobs.isEmpty()) {
+	    names.remove(old.key);
+	    for(int i = 0; i < old.key.length(); i++) {
+		Set<Name> p = postings.get(old.key.charAt(i));
+		if((p != null) && p.remove(old) && p.isEmpty())
+		    postings.remove(old.key.charAt(i));
+	    }
+	    matched.remove(old);
+	}
+	if(nm != NONE)
+	    nm.gobs.add(gob);
+	gob.sname = nm;
+    }
+
+    private static String key(Gob gob) {
+	try {
+	    Resource res = gob.getres();
+	    return((res == null) ? null : key(res));
+	} catch(Loading l) {
+	    return(null);
+	}
+    }
+
+    public void add(Gob gob) {
+	String key = key(gob);
+	synchronized(this) {
+	    put(gob, (key == null) ? NONE : get(key));
+	}
+    }
+
+    public synchronized void remove(Gob gob) {
+	if(gob.sname != null) {
+	    put(gob, NONE);
+	    gob.sname = null;
+	}
+    }
+
+    /* Called when an object's drawable changes; objects that were not
+     * added are left alone. */
+    public void rekey(Gob gob) {
+	if(gob.sname == null)
+	    return;
+	String key = key(gob);
+	synchronized(this) {
+	    if(gob.sname != null)
+		put(gob, (key == null) ? NONE : get(key));
+	}
+    }
+
+    public boolean matches(Gob gob) {
+	synchronized(this) {
+	    Name nm = gob.sname;
+	    if(nm != null)
+		return(nm.matched);
+	}
+	String key = key(gob);
+	return((key != null) && matches(key, ObjectSearchWindow.objectSearchString.toLowerCase()));
+    }
+
+    private Collection<Name> candidates(String q, String prev) {
+	/* Anything matching q also matches every subsequence of q. */
+	if(namequery(prev) && Fuzzy.fuzzyContains(q, prev))
+	    return(new ArrayList<>(matched));
+	Set<Name> ret = null;
+	for(int i = 0; i < q.length(); i++) {
+	    Set<Name> p = postings.get(q.charAt(i));
+	    if(p == null)
+		return(Collections.emptyList());
+	    if((ret == null) || (p.size() < ret.size()))
+		ret = p;
+	}
+	return((ret == null) ? Collections.emptyList() : ret);
+    }
+
+    public void search(String q) {
+	q = q.toLowerCase();
+	Set<Gob> upd = new HashSet<>();
+	synchronized(this) {
+	    String prev = query;
+	    if(q.equals(prev))
+		return;
+	    query = q;
+	    Set<Name> nmatched = new HashSet<>();
+	    if(namequery(q)) {
+		for(Name nm : candidates(q, prev)) {
+		    if(Fuzzy.fuzzyContains(nm.key, q))
+			nmatched.add(nm);
+		}
+	    }
+	    for(Name nm : matched) {
+		if(!nmatched.contains(nm)) {
+		    nm.matched = false;
+		    upd.addAll(nm.gobs);
+		}
+	    }
+	    for(Name nm : nmatched) {
+		if(!nm.matched) {
+		    nm.matched = true;
+		    upd.addAll(nm.gobs);
+		}
+	    }
+	    matched.clear();
+	    matched.addAll(nmatched);
+	    /* Barter stands also match on what they are selling, which
+	     * is not part of their name. */
+	    if(barterquery(q) || barterquery(prev)) {
+		for(Name nm : names.values()) {
+		    if(nm.barter && !nm.matched)
+			upd.addAll(nm.gobs);
+		}
+	    }
+	}
+	for(Gob gob : upd)
+	    gob.setGobSearchOverlay();
+    }
+}
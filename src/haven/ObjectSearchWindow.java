@@ -24,7 +24,7 @@ public class ObjectSearchWindow extends Window {
 
     public void updateOverlays() {
         if (ui != null && ui.gui != null) {
-            ui.sess.glob.oc.gobAction(Gob::setGobSearchOverlay);
+            ui.sess.glob.oc.search.search(objectSearchString);
         }
     }
 
@@ -2962,6 +2962,7 @@ public class OptWnd extends Window {
 	public static CheckBox enableQueuedMovementCheckBox;
     public static CheckBox walkWithPathFinderCheckBox;
     public static CheckBox drawPathfinderRouteCheckBox;
+    public static CheckBox pathfinderThetaStarCheckBox;
 
 	public class GameplayAutomationSettingsPanel extends Panel {
 
@@ -3216,6 +3217,14 @@ public class OptWnd extends Window {
                     Utils.setprefb("drawPathfinderRoute", val);
                 }
             }, prev.pos("bl").adds(12, 2));
+            prev = add(pathfinderThetaStarCheckBox = new CheckBox("Plan paths on the raster (Theta*)"){
+                {a = Utils.getprefb("pathfinderThetaStar", false);}
+                public void changed(boolean val) {
+                    Utils.setprefb("pathfinderThetaStar", val);
+                    haven.automated.pathfinder.Map.planner = val ? haven.automated.pathfinder.Map.Planner.THETA : haven.automated.pathfinder.Map.Planner.VISGRAPH;
+                }
+            }, prev.pos("bl").adds(0, 2));
+            pathfinderThetaStarCheckBox.tooltip = pathfinderThetaStarTooltip;
 
 			Widget backButton;
 			add(backButton = new PButton(UI.scale(200), "Back", 27, back, "Advanced Settings"), prev.pos("bl").adds(0, 18));
@@ -5138,6 +5147,7 @@ public class OptWnd extends Window {
     private static final Object walkWithPathfinderTooltip = RichText.render("You can use this to walk and avoid possible obstacles, for example, in your base. It's not perfect, and doesn't work with cliffs though." +
             "\n" +
             "\n$col[218,163,0]{Action Button:} $col[185,185,185]{This setting can also be turned on/off using an action button from the menu grid (Custom Client Extras → Toggles).}", UI.scale(300));
+    private static final Object pathfinderThetaStarTooltip = RichText.render("Searches the obstacle grid directly for an any-angle path, instead of connecting the corners of every nearby obstacle first. This is usually faster in dense bases, but the path may differ slightly.", UI.scale(300));
 
 	// Altered Gameplay Settings Tooltips
 	private static final Object overrideCursorItemWhenHoldingAltTooltip = RichText.render("Holding Alt while having an item on your cursor will allow you to left click to walk, or right click to interact with objects, rather than drop it on the ground." +
@@ -403,6 +403,18 @@ public abstract class PView extends Widget {
 	public void draw(GOut g, Pipe state);
     }
 
+    /* Render2D nodes drawing atlas labels, which a ScreenList queues
+     * so that consecutive ones are drawn in one call. */
+    public interface Label2D extends Render2D {
+	public void draw(GlyphAtlas.Batch batch, Pipe state);
+
+	public default void draw(GOut g, Pipe state) {
+	    GlyphAtlas.Batch batch = GlyphAtlas.labels.batch(g);
+	    draw(batch, state);
+	    batch.flush();
+	}
+    }
+
     public static class ScreenList implements RenderList<Render2D> {
 	private final Set<Slot<? extends Render2D>> cur = new HashSet<>();
 
@@ -411,9 +423,18 @@ public abstract class PView extends Widget {
 	    synchronized(cur) {
 		copy = new ArrayList<>(cur);
 	    }
+	    GlyphAtlas.Batch labels = GlyphAtlas.labels.batch(g);
 	    for(Slot<? extends Render2D> slot : copy) {
-		slot.obj().draw(g, slot.state());
+		Render2D obj = slot.obj();
+		if(obj instanceof Label2D) {
+		    ((Label2D)obj).draw(labels, slot.state());
+		} else {
+		    /* Keep the labels queued so far below it. */
+		    labels.flush();
+		    obj.draw(g, slot.state());
+		}
 	    }
+	    labels.flush();
 	}
 
 	public void add(Slot<? extends Render2D> slot) {
@@ -0,0 +1,455 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.zip.CRC32;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.nio.channels.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ * An append-only store of named blobs kept in a single file. Stored
+ * data is buffered in memory until flush(), which appends everything
+ * pending in one write and one sync. The latest record for a name
+ * supersedes all earlier ones; an in-memory index maps each name to
+ * its live record. Once superseded records take up more of the file
+ * than live ones, it is compacted by copying the live records to a
+ * new file.
+ *
+ * So that opening a pack need not scan all of it, a copy of the index
+ * is saved beside it now and then, and only records appended after
+ * that point are read back on open. Whatever is still pending when
+ * the client exits is flushed by a shutdown hook.
+ *
+ * Only one client at a time may write a pack. Others can open a
+ * read-only snapshot of it with snapshot(), which sees what had been
+ * flushed at the time it was opened.
+ */
+public class PackCache implements ResCache {
+    public static final int FLUSHSZ = 4 << 20;
+    public static final long COMPACTMIN = 32 << 20;
+    public static final int IDXINTERVAL = 4096;
+    private static final int MAGIC = 0x314b5048;
+    private static final int HDRSZ = 12, RECHDR = 10;
+    public final Path path;
+    public volatile Runnable dirtycb = null;
+    private final Path ipath;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object flushmon = new Object();
+    private final Map<String, Entry> index = new HashMap<>();
+    private final Map<String, byte[]> pending = new LinkedHashMap<>();
+    private final boolean rdonly;
+    private FileChannel fp;
+    private FileLock flock;
+    private long gen, end, live;
+    private int pendsz, unindexed;
+
+    private static class Entry {
+	final long rec;
+	final int rsz, len;
+
+	Entry(long rec, int rsz, int len) {
+	    this.rec = rec; this.rsz = rsz; this.len = len;
+	}
+
+	long off() {return(rec + rsz - len);}
+    }
+
+    public static class InUseException extends IOException {
+	public InUseException(Path path) {
+	    super("pack file is in use: " + path);
+	}
+    }
+
+    private PackCache(Path path, boolean rdonly) throws IOException {
+	this.path = path;
+	this.ipath = path.resolveSibling(path.getFileName() + ".idx");
+	this.rdonly = rdonly;
+	fp = rdonly ? FileChannel.open(path, READ) : FileChannel.open(path, READ, WRITE, CREATE);
+	try {
+	    if(!rdonly && ((flock = fp.tryLock()) == null))
+		throw(new InUseException(path));
+	    if(rdonly && (fp.size() < HDRSZ)) {
+		end = fp.size();
+	    } else if(fp.size() < HDRSZ) {
+		gen = new Random().nextLong();
+		writehdr(fp, gen);
+		fp.truncate(HDRSZ);
+		fp.force(true);
+		end = HDRSZ;
+	    } else {
+		ByteBuffer hdr = ByteBuffer.allocate(HDRSZ).order(ByteOrder.LITTLE_ENDIAN);
+		readfully(fp, hdr, 0);
+		hdr.flip();
+		if(hdr.getInt() != MAGIC)
+		    throw(new IOException("not a pack file: " + path));
+		gen = hdr.getLong();
+		scan(loadidx());
+	    }
+	} catch(IOException | RuntimeException e) {
+	    fp.close();
+	    throw(e);
+	}
+    }
+
+    private static final Map<Path, PackCache> current = new HashMap<>();
+    static {
+	Runtime.getRuntime().addShutdownHook(new HackThread(PackCache::flushall, "Pack cache flusher"));
+    }
+
+    private static void flushall() {
+	Collection<PackCache> packs;
+	synchronized(current) {
+	    packs = new ArrayList<>(current.values());
+	}
+	for(PackCache pack : packs) {
+	    try {
+		pack.flush();
+		synchronized(pack.flushmon) {
+		    boolean idx;
+		    synchronized(pack) {
+			idx = pack.unindexed > 0;
+		    }
+		    if(idx)
+			pack.saveidx();
+		}
+	    } catch(IOException e) {
+		new Warning(e, "could not flush " + pack).issue();
+	    }
+	}
+    }
+
+    public static PackCache get(Path path) throws IOException {
+	path = path.toAbsolutePath();
+	synchronized(current) {
+	    PackCache ret = current.get(path);
+	    if(ret == null)
+		current.put(path, ret = new PackCache(path, false));
+	    return(ret);
+	}
+    }
+
+    /* Opens a pack that another client may be writing to. The owner
+     * only ever appends, or replaces the whole file when compacting,
+     * so the records up to the first incomplete one are consistent. */
+    public static PackCache snapshot(Path path) throws IOException {
+	return(new PackCache(path.toAbsolutePath(), true));
+    }
+
+    private static void readfully(FileChannel fp, ByteBuffer buf, long pos) throws IOException {
+	while(buf.hasRemaining()) {
+	    int rv = fp.read(buf, pos);
+	    if(rv < 0)
+		throw(new EOFException());
+	    pos += rv;
+	}
+    }
+
+    private static void writefully(FileChannel fp, ByteBuffer buf, long pos) throws IOException {
+	while(buf.hasRemaining())
+	    pos += fp.write(buf, pos);
+    }
+
+    private static boolean readfully(InputStream in, byte[] buf) throws IOException {
+	for(int off = 0; off < buf.length;) {
+	    int rv = in.read(buf, off, buf.length - off);
+	    if(rv < 0)
+		return(false);
+	    off += rv;
+	}
+	return(true);
+    }
+
+    private static void writehdr(FileChannel fp, long gen) throws IOException {
+	ByteBuffer hdr = ByteBuffer.allocate(HDRSZ).order(ByteOrder.LITTLE_ENDIAN);
+	hdr.putInt(MAGIC).putLong(gen).flip();
+	writefully(fp, hdr, 0);
+    }
+
+    private void add(String name, Entry ent) {
+	Entry prev = index.put(name, ent);
+	if(prev != null)
+	    live -= prev.rsz;
+	live += ent.rsz;
+    }
+
+    private long loadidx() {
+	if(!Files.exists(ipath))
+	    return(HDRSZ);
+	try {
+	    Message in = new MessageBuf(Files.readAllBytes(ipath));
+	    if((in.int32() != MAGIC) || (in.int64() != gen))
+		return(HDRSZ);
+	    long covered = in.int64();
+	    if((covered < HDRSZ) || (covered > fp.size()))
+		return(HDRSZ);
+	    for(int i = 0, n = in.int32(); i < n; i++) {
+		String name = in.string();
+		long rec = in.int64();
+		int rsz = in.int32(), len = in.int32();
+		add(name, new Entry(rec, rsz, len));
+	    }
+	    return(covered);
+	} catch(IOException | Message.BinError e) {
+	    new Warning(e, "could not read pack index for " + path).issue();
+	    index.clear();
+	    live = 0;
+	    return(HDRSZ);
+	}
+    }
+
+    private void scan(long pos) throws IOException {
+	long size = fp.size();
+	InputStream in = new BufferedInputStream(Channels.newInputStream(fp.position(pos)), 1 << 20);
+	byte[] hbuf = new byte[RECHDR];
+	CRC32 crc = new CRC32();
+	while(pos < size) {
+	    if(!readfully(in, hbuf))
+		break;
+	    ByteBuffer h = ByteBuffer.wrap(hbuf).order(ByteOrder.LITTLE_ENDIAN);
+	    int nl = h.getShort() & 0xffff, dl = h.getInt(), sum = h.getInt();
+	    if((dl < 0) || (pos + RECHDR + nl + dl > size))
+		break;
+	    byte[] nm = new byte[nl], data = new byte[dl];
+	    if(!readfully(in, nm) || !readfully(in, data))
+		break;
+	    crc.reset();
+	    crc.update(nm);
+	    crc.update(data);
+	    if((int)crc.getValue() != sum)
+		break;
+	    add(new String(nm, Utils.utf8), new Entry(pos, RECHDR + nl + dl, dl));
+	    pos += RECHDR + nl + dl;
+	    unindexed++;
+	}
+	if((pos < size) && !rdonly) {
+	    /* Most likely a write that was cut short by a crash. */
+	    new Warning("truncating damaged pack file %s at %d of %d bytes", path, pos, size).issue();
+	    fp.truncate(pos);
+	}
+	end = pos;
+    }
+
+    private void saveidx() throws IOException {
+	MessageBuf buf = new MessageBuf();
+	synchronized(this) {
+	    buf.addint32(MAGIC).addint64(gen).addint64(end).addint32(index.size());
+	    for(Map.Entry<String, Entry> ent : index.entrySet()) {
+		Entry e = ent.getValue();
+		buf.addstring(ent.getKey()).addint64(e.rec).addint32(e.rsz).addint32(e.len);
+	    }
+	    unindexed = 0;
+	}
+	Path tmp = ipath.resolveSibling(ipath.getFileName() + ".new");
+	Files.write(tmp, buf.fin());
+	move(tmp, ipath);
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+	Utils.ioretry(() -> {
+		try {
+		    return(Files.move(from, to, StandardCopyOption.ATOMIC_MOVE));
+		} catch(AtomicMoveNotSupportedException e) {
+		    return(Files.move(from, to, StandardCopyOption.REPLACE_EXISTING));
+		}
+	    });
+    }
+
+    public synchronized boolean has(String name) {
+	return(pending.containsKey(name) || index.containsKey(name));
+    }
+
+    public synchronized boolean dirty() {
+	return(!pending.isEmpty());
+    }
+
+    public InputStream fetch(String name) throws IOException {
+	lock.readLock().lock();
+	try {
+	    Entry e;
+	    synchronized(this) {
+		byte[] data = pending.get(name);
+		if(data != null)
+		    return(new ByteArrayInputStream(data));
+		if((e = index.get(name)) == null)
+		    throw(new FileNotFoundException(name));
+	    }
+	    ByteBuffer buf = ByteBuffer.allocate(e.len);
+	    readfully(fp, buf, e.off());
+	    return(new ByteArrayInputStream(buf.array()));
+	} finally {
+	    lock.readLock().unlock();
+	}
+    }
+
+    private void put(String name, byte[] data) throws IOException {
+	boolean full;
+	synchronized(this) {
+	    byte[] prev = pending.put(name, data);
+	    pendsz += data.length - ((prev == null) ? 0 : prev.length);
+	    full = pendsz >= FLUSHSZ;
+	}
+	if(full) {
+	    flush();
+	} else {
+	    Runnable cb = dirtycb;
+	    if(cb != null)
+		cb.run();
+	}
+    }
+
+    public OutputStream store(String name) throws IOException {
+	if(rdonly)
+	    throw(new IOException("pack file is read-only: " + path));
+	if(name.getBytes(Utils.utf8).length > 0xffff)
+	    throw(new IOException("name too long: " + name));
+	return(new ByteArrayOutputStream() {
+		private boolean closed = false;
+
+		public void close() throws IOException {
+		    if(closed)
+			return;
+		    closed = true;
+		    put(name, toByteArray());
+		}
+	    });
+    }
+
+    public void flush() throws IOException {
+	synchronized(flushmon) {
+	    List<Map.Entry<String, byte[]>> batch;
+	    synchronized(this) {
+		if(pending.isEmpty())
+		    return;
+		batch = new ArrayList<>(pending.entrySet().size());
+		for(Map.Entry<String, byte[]> ent : pending.entrySet())
+		    batch.add(new AbstractMap.SimpleEntry<>(ent));
+	    }
+	    lock.readLock().lock();
+	    try {
+		byte[][] names = new byte[batch.size()][];
+		int sz = 0;
+		for(int i = 0; i < names.length; i++) {
+		    names[i] = batch.get(i).getKey().getBytes(Utils.utf8);
+		    sz += RECHDR + names[i].length + batch.get(i).getValue().length;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(sz).order(ByteOrder.LITTLE_ENDIAN);
+		CRC32 crc = new CRC32();
+		for(int i = 0; i < names.length; i++) {
+		    byte[] data = batch.get(i).getValue();
+		    crc.reset();
+		    crc.update(names[i]);
+		    crc.update(data);
+		    buf.putShort((short)names[i].length).putInt(data.length).putInt((int)crc.getValue());
+		    buf.put(names[i]).put(data);
+		}
+		buf.flip();
+		long start = end;
+		writefully(fp, buf, start);
+		fp.force(false);
+		synchronized(this) {
+		    long pos = start;
+		    for(int i = 0; i < names.length; i++) {
+			String name = batch.get(i).getKey();
+			byte[] data = batch.get(i).getValue();
+			int rsz = RECHDR + names[i].length + data.length;
+			add(name, new Entry(pos, rsz, data.length));
+			pos += rsz;
+			/* Keep anything stored again while writing. */
+			if(pending.get(name) == data) {
+			    pending.remove(name);
+			    pendsz -= data.length;
+			}
+		    }
+		    end = pos;
+		    unindexed += names.length;
+		}
+	    } finally {
+		lock.readLock().unlock();
+	    }
+	    long garbage;
+	    synchronized(this) {
+		garbage = end - HDRSZ - live;
+	    }
+	    if((garbage > COMPACTMIN) && (garbage > live))
+		compact();
+	    else if(unindexed >= IDXINTERVAL)
+		saveidx();
+	}
+    }
+
+    private void compact() throws IOException {
+	lock.writeLock().lock();
+	try {
+	    List<Map.Entry<String, Entry>> ents = new ArrayList<>(index.entrySet());
+	    ents.sort(Comparator.comparingLong(e -> e.getValue().rec));
+	    Map<String, Entry> nindex = new HashMap<>();
+	    long ngen = new Random().nextLong(), pos = HDRSZ;
+	    Path tmp = path.resolveSibling(path.getFileName() + ".new");
+	    try(FileChannel out = FileChannel.open(tmp, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+		writehdr(out, ngen);
+		out.position(HDRSZ);
+		for(Map.Entry<String, Entry> ent : ents) {
+		    Entry e = ent.getValue();
+		    for(long off = 0; off < e.rsz;)
+			off += fp.transferTo(e.rec + off, e.rsz - off, out);
+		    nindex.put(ent.getKey(), new Entry(pos, e.rsz, e.len));
+		    pos += e.rsz;
+		}
+		out.force(true);
+	    }
+	    flock.release();
+	    fp.close();
+	    try {
+		move(tmp, path);
+	    } finally {
+		fp = FileChannel.open(path, READ, WRITE);
+		if((flock = fp.tryLock()) == null)
+		    throw(new IOException("lost lock on pack file: " + path));
+	    }
+	    synchronized(this) {
+		index.clear();
+		index.putAll(nindex);
+		gen = ngen;
+		end = pos;
+		live = pos - HDRSZ;
+	    }
+	} finally {
+	    lock.writeLock().unlock();
+	}
+	saveidx();
+    }
+
+    public String toString() {
+	return("PackCache(" + path + ")");
+    }
+}
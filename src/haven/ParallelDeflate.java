@@ -0,0 +1,169 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.Future;
+import java.util.zip.*;
+import java.io.*;
+
+/*
+ * Writes one zlib stream, as ZMessage would, but compresses it in
+ * independent chunks on a thread pool. Each chunk is deflated on its
+ * own and ended with a sync flush, so the chunks can be concatenated
+ * as they are into a single valid stream that any Inflater, and thus
+ * any older client, reads as usual. At most a fixed number of chunks
+ * are held in memory at a time.
+ */
+public class ParallelDeflate {
+    private final Message out;
+    private final ExecutorService pool;
+    private final int window, level;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private final Adler32 sum = new Adler32();
+    private boolean started = false;
+
+    private static class Chunk {
+	final byte[] raw, z;
+
+	Chunk(byte[] raw, byte[] z) {
+	    this.raw = raw;
+	    this.z = z;
+	}
+    }
+
+    private static class Pending {
+	final Future<Chunk> chunk;
+	final Runnable done;
+
+	Pending(Future<Chunk> chunk, Runnable done) {
+	    this.chunk = chunk;
+	    this.done = done;
+	}
+    }
+
+    public ParallelDeflate(Message out, ExecutorService pool, int window, int level) {
+	this.out = out;
+	this.pool = pool;
+	this.window = window;
+	this.level = level;
+    }
+
+    public static byte[] deflate(byte[] raw, int level) {
+	Deflater z = new Deflater(level, true);
+	try {
+	    z.setInput(raw);
+	    ByteArrayOutputStream buf = new ByteArrayOutputStream((raw.length / 2) + 64);
+	    byte[] tmp = new byte[65536];
+	    while(true) {
+		int n = z.deflate(tmp, 0, tmp.length, Deflater.SYNC_FLUSH);
+		buf.write(tmp, 0, n);
+		if((n < tmp.length) && z.needsInput())
+		    break;
+	    }
+	    return(buf.toByteArray());
+	} finally {
+	    z.end();
+	}
+    }
+
+    public static <T> T get(Future<T> f) throws InterruptedException {
+	try {
+	    return(f.get());
+	} catch(ExecutionException e) {
+	    Throwable c = e.getCause();
+	    if(c instanceof RuntimeException)
+		throw((RuntimeException)c);
+	    if(c instanceof Error)
+		throw((Error)c);
+	    throw(new RuntimeException(c));
+	}
+    }
+
+    private void writehead() throws InterruptedException {
+	Pending p = pending.removeFirst();
+	Chunk c = get(p.chunk);
+	if(!started) {
+	    /* zlib header for maximum compression, as Deflater(9) writes it. */
+	    out.adduint8(0x78);
+	    out.adduint8(0xda);
+	    started = true;
+	}
+	sum.update(c.raw, 0, c.raw.length);
+	out.addbytes(c.z);
+	if(p.done != null)
+	    p.done.run();
+    }
+
+    /* Queues the chunk produced by src, which runs on the pool, and
+     * calls done on this thread once it has been written. */
+    public void submit(Callable<byte[]> src, Runnable done) throws InterruptedException {
+	while(pending.size() >= window)
+	    writehead();
+	pending.addLast(new Pending(pool.submit(() -> {
+			byte[] raw = src.call();
+			return(new Chunk(raw, deflate(raw, level)));
+		    }), done));
+    }
+
+    public void finish() throws InterruptedException {
+	while(!pending.isEmpty())
+	    writehead();
+	if(!started) {
+	    out.adduint8(0x78);
+	    out.adduint8(0xda);
+	}
+	/* An empty final block, then the checksum of everything. */
+	out.adduint8(0x03);
+	out.adduint8(0x00);
+	long s = sum.getValue();
+	out.adduint8((int)((s >>> 24) & 0xff));
+	out.adduint8((int)((s >>> 16) & 0xff));
+	out.adduint8((int)((s >>>  8) & 0xff));
+	out.adduint8((int)((s >>>  0) & 0xff));
+    }
+
+    public void cancel() {
+	for(Pending p : pending)
+	    p.chunk.cancel(true);
+	pending.clear();
+    }
+
+    public static int threads() {
+	return(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public static ExecutorService pool(String name, int n) {
+	return(Executors.newFixedThreadPool(n, tgt -> {
+		    Thread th = new HackThread(tgt, name);
+		    th.setDaemon(true);
+		    return(th);
+		}));
+    }
+}
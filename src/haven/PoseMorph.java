@@ -93,9 +93,18 @@ public class PoseMorph {
     private int lastseq;
     public Morphed state() {
 	if((last == null) || (lastseq != pose.seq)) {
-	    float[][] offs = new float[bperm.length][16];
-	    for(int i = 0; i < bperm.length; i++)
-		pose.boneoff(bperm[i], offs[i]);
+	    float[][] offs;
+	    Skeleton.Eval ev = pose.shared();
+	    if(ev != null) {
+		float[][] soffs = ev.boneoffs();
+		offs = new float[bperm.length][];
+		for(int i = 0; i < bperm.length; i++)
+		    offs[i] = soffs[bperm[i]];
+	    } else {
+		offs = new float[bperm.length][16];
+		for(int i = 0; i < bperm.length; i++)
+		    pose.boneoff(bperm[i], offs[i]);
+	    }
 	    last = new Morphed(offs);
 	    lastseq = pose.seq;
 	}
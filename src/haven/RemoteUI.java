@@ -86,55 +86,149 @@ public class RemoteUI implements UI.Receiver, UI.Runner {
 	this.sess.postuimsg(new Return(sess));
     }
 
+    /* One drained batch in Session.uiprof: how long its oldest message
+     * sat in the queue, then decoding, then submitting it to the UI. */
+    private static class Burst extends Profile.Part {
+	private final double f, t;
+
+	Burst(Object nm, double f, double t) {
+	    super(nm);
+	    this.f = f;
+	    this.t = t;
+	}
+
+	public double f() {return(f);}
+	public double t() {return(t);}
+    }
+
+    private static Burst burst(Object nm, long f, long t) {
+	return(new Burst(nm, f * 1e-9, t * 1e-9));
+    }
+
+    /* A message decoded off the session queue, waiting to be submitted. */
+    private static class Op {
+	int type, id, parent;
+	String name;
+	Object[] pargs, cargs;
+	Collection<Integer> deps, bars;
+
+	void decode(PMessage msg, Session sess) {
+	    type = msg.type;
+	    pargs = cargs = null;
+	    deps = bars = null;
+	    if(type == RMessage.RMSG_NEWWDG) {
+		id = msg.int32();
+		name = msg.string();
+		parent = msg.int32();
+		pargs = msg.list(sess.resmapper);
+		cargs = msg.list(sess.resmapper);
+	    } else if(type == RMessage.RMSG_WDGMSG) {
+		id = msg.int32();
+		name = msg.string();
+		cargs = msg.list(sess.resmapper);
+	    } else if(type == RMessage.RMSG_DSTWDG) {
+		id = msg.int32();
+	    } else if(type == RMessage.RMSG_ADDWDG) {
+		id = msg.int32();
+		parent = msg.int32();
+		pargs = msg.list(sess.resmapper);
+	    } else if(type == RMessage.RMSG_WDGBAR) {
+		deps = new ArrayList<>();
+		while(!msg.eom()) {
+		    int dep = msg.int32();
+		    if(dep == -1)
+			break;
+		    deps.add(dep);
+		}
+		bars = deps;
+		if(!msg.eom()) {
+		    bars = new ArrayList<>();
+		    while(!msg.eom()) {
+			int bar = msg.int32();
+			if(bar == -1)
+			    break;
+			bars.add(bar);
+		    }
+		}
+	    }
+	}
+
+	void submit(UI ui) throws InterruptedException {
+	    if(type == RMessage.RMSG_NEWWDG)
+		ui.newwidgetp(id, name, parent, pargs, cargs);
+	    else if(type == RMessage.RMSG_WDGMSG)
+		ui.uimsg(id, name, cargs);
+	    else if(type == RMessage.RMSG_DSTWDG)
+		ui.destroy(id);
+	    else if(type == RMessage.RMSG_ADDWDG)
+		ui.addwidget(id, parent, pargs);
+	    else if(type == RMessage.RMSG_WDGBAR)
+		ui.wdgbarrier(deps, bars);
+	}
+    }
+
+    private static final int BATCH = 256;
+    private static final long SLICE = 2000000;
+
+    /* Submits ops from off onwards inside one UI.batch() call, but
+     * lets go of the UI locks after each widget construction, or once
+     * the slice has run for SLICE nanoseconds, so that loaders and
+     * readers of the widget tree are never held up for a whole
+     * burst. Returns how far it got. */
+    private static int submit(UI ui, Op[] ops, int off, int n) throws InterruptedException {
+	int[] p = {off};
+	long st = System.nanoTime();
+	ui.batch(() -> {
+		while(p[0] < n) {
+		    Op op = ops[p[0]++];
+		    op.submit(ui);
+		    if((op.type == RMessage.RMSG_NEWWDG) || (System.nanoTime() - st >= SLICE))
+			break;
+		}
+	    });
+	return(p[0]);
+    }
+
     public UI.Runner run(UI ui) throws InterruptedException {
+	PMessage[] batch = new PMessage[BATCH];
+	long[] stamps = new long[BATCH];
+	Op[] ops = new Op[BATCH];
+	for(int i = 0; i < BATCH; i++)
+	    ops[i] = new Op();
 	try {
 	    ui.setreceiver(this);
 	    sendua(ui);
 	    while(true) {
-		PMessage msg = sess.getuimsg();
-		if(msg == null) {
+		int n = sess.getuimsgs(batch, stamps);
+		if(n == 0)
 		    return(null);
-		} else if(msg instanceof Return) {
+		long drained = System.nanoTime();
+		/* Decode the whole batch before taking any UI locks, and
+		 * stop short at a session switch. */
+		Return ret = null;
+		int nops = 0;
+		for(int i = 0; i < n; i++) {
+		    PMessage msg = batch[i];
+		    batch[i] = null;
+		    if(ret != null)
+			continue;
+		    if(msg instanceof Return)
+			ret = (Return)msg;
+		    else
+			ops[nops++].decode(msg, sess);
+		}
+		long decoded = System.nanoTime();
+		for(int i = 0; i < nops;)
+		    i = submit(ui, ops, i, nops);
+		long done = System.nanoTime();
+		Burst prof = burst(String.format("burst of %d", n), stamps[0], done);
+		prof.add(burst("queued", stamps[0], drained));
+		prof.add(burst("decode", drained, decoded));
+		prof.add(burst("submit", decoded, done));
+		sess.uiprof.add(prof);
+		if(ret != null) {
 		    sess.close();
-		    return(new RemoteUI(((Return)msg).ret));
-		} else if(msg.type == RMessage.RMSG_NEWWDG) {
-		    int id = msg.int32();
-		    String type = msg.string();
-		    int parent = msg.int32();
-		    Object[] pargs = msg.list(sess.resmapper);
-		    Object[] cargs = msg.list(sess.resmapper);
-		    ui.newwidgetp(id, type, parent, pargs, cargs);
-		} else if(msg.type == RMessage.RMSG_WDGMSG) {
-		    int id = msg.int32();
-		    String name = msg.string();
-		    ui.uimsg(id, name, msg.list(sess.resmapper));
-		} else if(msg.type == RMessage.RMSG_DSTWDG) {
-		    int id = msg.int32();
-		    ui.destroy(id);
-		} else if(msg.type == RMessage.RMSG_ADDWDG) {
-		    int id = msg.int32();
-		    int parent = msg.int32();
-		    Object[] pargs = msg.list(sess.resmapper);
-		    ui.addwidget(id, parent, pargs);
-		} else if(msg.type == RMessage.RMSG_WDGBAR) {
-		    Collection<Integer> deps = new ArrayList<>();
-		    while(!msg.eom()) {
-			int dep = msg.int32();
-			if(dep == -1)
-			    break;
-			deps.add(dep);
-		    }
-		    Collection<Integer> bars = deps;
-		    if(!msg.eom()) {
-			bars = new ArrayList<>();
-			while(!msg.eom()) {
-			    int bar = msg.int32();
-			    if(bar == -1)
-				break;
-			    bars.add(bar);
-			}
-		    }
-		    ui.wdgbarrier(deps, bars);
+		    return(new RemoteUI(ret.ret));
 		}
 	    }
 	} finally {
@@ -0,0 +1,231 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Classifies resources and poses by name once, so that gob updates
+ * can test bits instead of re-matching the same strings every time.
+ * Tag sets are memoized per distinct name; Resource.tags() further
+ * caches the result on each resource.
+ */
+public class ResTags {
+    public static final long TREE =		1L << 0;
+    public static final long TREELOG =		1L << 1;
+    public static final long BUSH =		1L << 2;
+    public static final long CROP =		1L << 3;
+    public static final long TRELLIS =		1L << 4;
+    public static final long BOULDER =		1L << 5;
+    public static final long WALL =		1L << 6;
+    public static final long HOUSE =		1L << 7;
+    public static final long STOCKPILE =	1L << 8;
+    public static final long BARREL =		1L << 9;
+    public static final long ICONSIGN =		1L << 10;
+    public static final long CHEESERACK =	1L << 11;
+    public static final long COOP =		1L << 12;
+    public static final long BEEHIVE =		1L << 13;
+    public static final long CONTAINER =	1L << 14;
+    public static final long WORKSTATION =	1L << 15;
+    public static final long BARTER =		1L << 16;
+    public static final long BODY =		1L << 17;
+    public static final long CRITTER =		1L << 18;
+    public static final long RABBIT =		1L << 19;
+    public static final long BEAST =		1L << 20;
+    public static final long CLUE =		1L << 21;
+    public static final long SMOKE =		1L << 22;
+    public static final long FLOATIMG =		1L << 23;
+    /* Trees and bushes that get the swaying animation. */
+    public static final long SWAYS =		1L << 24;
+    /* Set on every computed tag set, so that zero can mean "not yet". */
+    public static final long KNOWN =		1L << 63;
+
+    public static final long GROWS = TREE | BUSH | CROP;
+
+    public static final int P_KNOCK =		1 << 0;
+    public static final int P_DOWN =		1 << 1;
+    public static final int P_RIGOR =		1 << 2;
+    public static final int P_MANNEQUIN =	1 << 3;
+    public static final int P_SKELETON =	1 << 4;
+    public static final int P_DRINK =		1 << 5;
+    public static final int P_CORACLE =		1 << 6;
+    public static final int P_SKIS =		1 << 7;
+    public static final int P_RIDING =		1 << 8;
+    public static final int P_ONWATER =		1 << 9;
+    public static final int P_SPEAR =		1 << 10;
+    public static final int P_SLING =		1 << 11;
+    public static final int P_DRAWBOW =		1 << 12;
+    public static final int P_FISH =		1 << 13;
+    public static final int P_HOOKAH =		1 << 14;
+
+    private static final String[] onwater = {"coracleidle", "coraclerowan", "dugout", "rowboat", "rowing", "snekkja", "knarr"};
+    private static final Set<String> houses = new HashSet<>(Arrays.asList(Config.housesResPaths));
+    private static final Set<String> containers = new HashSet<>(Arrays.asList(Config.containersResPaths));
+    private static final Set<String> workstations = new HashSet<>(Arrays.asList(Config.workstationsResPaths));
+    private static final Set<String> critters = new HashSet<>(Arrays.asList(Config.critterResPaths));
+    private static final Map<String, Long> rescache = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> posecache = new ConcurrentHashMap<>();
+
+    private static boolean endsWithAny(String nm, String[] sfx) {
+	for(String s : sfx) {
+	    if(nm.endsWith(s))
+		return(true);
+	}
+	return(false);
+    }
+
+    private static long classify(String nm) {
+	long ret = KNOWN;
+	if(nm.startsWith("gfx/terobjs/trees")) {
+	    if(nm.endsWith("log") || nm.endsWith("oldtrunk")) {
+		ret |= TREELOG;
+	    } else {
+		ret |= TREE;
+		if(!nm.endsWith("trombonechantrelle") && !nm.endsWith("towercap"))
+		    ret |= SWAYS;
+	    }
+	}
+	if(nm.startsWith("gfx/terobjs/bushes"))
+	    ret |= BUSH | SWAYS;
+	if(nm.endsWith("trellis"))
+	    ret |= TRELLIS;
+	else if(nm.startsWith("gfx/terobjs/plants"))
+	    ret |= CROP;
+	if(nm.startsWith("gfx/terobjs/bumlings"))
+	    ret |= BOULDER;
+	if((nm.startsWith("gfx/terobjs/arch/palisade") || nm.startsWith("gfx/terobjs/arch/brickwall")) && !nm.endsWith("gate"))
+	    ret |= WALL;
+	if(houses.contains(nm))
+	    ret |= HOUSE;
+	if(nm.startsWith("gfx/terobjs/stockpile"))
+	    ret |= STOCKPILE;
+	if(nm.startsWith("gfx/terobjs/barrel"))
+	    ret |= BARREL;
+	if(nm.startsWith("gfx/terobjs/iconsign"))
+	    ret |= ICONSIGN;
+	if(nm.startsWith("gfx/terobjs/cheeserack"))
+	    ret |= CHEESERACK;
+	if(nm.equals("gfx/terobjs/chickencoop") || nm.equals("gfx/terobjs/rabbithutch"))
+	    ret |= COOP;
+	if(nm.equals("gfx/terobjs/beehive"))
+	    ret |= BEEHIVE;
+	if(containers.contains(nm))
+	    ret |= CONTAINER;
+	if(workstations.contains(nm))
+	    ret |= WORKSTATION;
+	if(nm.substring(nm.lastIndexOf('/') + 1).contains("barter"))
+	    ret |= BARTER;
+	if(nm.equals("gfx/borka/body"))
+	    ret |= BODY;
+	if(critters.contains(nm))
+	    ret |= CRITTER;
+	if(nm.endsWith("rabbit") || nm.endsWith("bunny"))
+	    ret |= RABBIT;
+	if(endsWithAny(nm, Config.beastResPaths))
+	    ret |= BEAST;
+	if(nm.equals("gfx/terobjs/clue"))
+	    ret |= CLUE;
+	if(nm.contains("ismoke"))
+	    ret |= SMOKE;
+	if(nm.equals("gfx/fx/floatimg"))
+	    ret |= FLOATIMG;
+	return(ret);
+    }
+
+    public static long of(String name) {
+	Long ret = rescache.get(name);
+	if(ret == null)
+	    rescache.put(name, ret = classify(name));
+	return(ret);
+    }
+
+    public static long of(Resource res) {
+	return((res == null) ? 0 : res.tags());
+    }
+
+    public static boolean is(Resource res, long tags) {
+	return((of(res) & tags) != 0);
+    }
+
+    private static int classpose(String nm) {
+	int ret = 0;
+	/* Some animals have their own names for these, like "chicken-knock". */
+	if(nm.contains("knock") || nm.contains("dead") || nm.contains("banzai"))
+	    ret |= P_KNOCK;
+	for(String s : onwater) {
+	    if(nm.contains(s)) {
+		ret |= P_ONWATER;
+		break;
+	    }
+	}
+	switch(nm) {
+	case "knock": case "drowned":
+	    ret |= P_DOWN; break;
+	case "rigormortis":
+	    ret |= P_RIGOR; break;
+	case "mannequinlift":
+	    ret |= P_MANNEQUIN; break;
+	case "deadskeletonpose":
+	    ret |= P_SKELETON; break;
+	case "drinkan":
+	    ret |= P_DRINK; break;
+	case "coracleidle": case "coraclerowan":
+	    ret |= P_CORACLE; break;
+	case "skian-idle": case "skian-walk": case "skian-run":
+	    ret |= P_SKIS; break;
+	case "riding-idle":
+	    ret |= P_RIDING; break;
+	case "spear-ready":
+	    ret |= P_SPEAR; break;
+	case "sling-aim":
+	    ret |= P_SLING; break;
+	case "drawbow":
+	    ret |= P_DRAWBOW; break;
+	case "fishidle": case "napp1":
+	    ret |= P_FISH; break;
+	case "hookah-sittan": case "hookah-puffin":
+	    ret |= P_HOOKAH; break;
+	}
+	return(ret);
+    }
+
+    public static int pose(String name) {
+	Integer ret = posecache.get(name);
+	if(ret == null)
+	    posecache.put(name, ret = classpose(name));
+	return(ret);
+    }
+
+    public static int poses(Collection<String> names) {
+	int ret = 0;
+	for(String nm : names)
+	    ret |= pose(nm);
+	return(ret);
+    }
+}
@@ -44,7 +44,6 @@ public class Resource implements Serializable {
     public static final Config.Variable<URI> resurl = Config.Variable.propu("haven.resurl", "");
     public static final Config.Variable<Path> resdir = Config.Variable.propp("haven.resdir", System.getenv("HAFEN_RESDIR"));
     private static ResCache prscache;
-    public static ThreadGroup loadergroup = null;
     private static Map<String, LayerFactory<?>> ltypes = new TreeMap<String, LayerFactory<?>>();
     public static Class<Image> imgc = Image.class;
     public static Class<Neg> negc = Neg.class;
@@ -62,6 +61,7 @@ public class Resource implements Serializable {
     public final transient Pool pool;
     protected Collection<Layer> layers = new LinkedList<Layer>();
     private boolean used = false;
+    private volatile long tags = 0;
 
     public abstract static class Named implements Indir<Resource>, Serializable {
 	public final String name;
@@ -266,6 +266,14 @@ public class Resource implements Serializable {
 	return(name.substring(p + 1));
     }
 
+    /* See ResTags; computed on first use. */
+    public long tags() {
+	long ret = tags;
+	if(ret == 0)
+	    tags = ret = ResTags.of(name);
+	return(ret);
+    }
+
     public static interface ResSource {
 	public InputStream get(String name) throws IOException;
     }
@@ -499,7 +507,7 @@ public class Resource implements Serializable {
 
     public static class Pool {
 	public int nloaders = 2;
-	private final Collection<Loader> loaders = new LinkedList<Loader>();
+	private int loaders = 0;
 	private final List<ResSource> sources = new LinkedList<ResSource>();
 	private final Map<String, Resource> cache = new CacheMap<String, Resource>();
 	private final PrioQueue<Queued> queue = new PrioQueue<Queued>();
@@ -706,65 +714,52 @@ public class Resource implements Serializable {
 	    return(dynres(id.bits));
 	}
 
+	/* Loads run as scheduler tasks, each loading the
+	 * highest-priority queued resource at the time it gets to run,
+	 * with at most nloaders of them queued or running at once. */
 	private void ckld() {
-	    int qsz;
+	    int n;
 	    synchronized(queue) {
-		qsz = queue.size();
-	    }
-	    synchronized(loaders) {
-		while(loaders.size() < Math.min(nloaders, qsz)) {
-		    final Loader n = new Loader();
-		    Thread th = new HackThread(loadergroup, n, "Haven resource loader");
-		    th.setDaemon(true);
-		    th.start();
-		    while(!n.added) {
-			try {
-			    loaders.wait();
-			} catch(InterruptedException e) {
-			    Thread.currentThread().interrupt();
-			    return;
-			}
-		    }
-		}
+		n = Math.min(nloaders, queue.size()) - loaders;
+		if(n > 0)
+		    loaders += n;
 	    }
+	    for(; n > 0; n--)
+		Scheduler.get().submit(loader);
 	}
 
-	public class Loader implements Runnable {
-	    private boolean added = false;
+	private final Scheduler.Task loader = new Scheduler.Task() {
+		public int priority() {
+		    synchronized(queue) {
+			Queued cur = queue.peek();
+			return((cur == null) ? 0 : cur.prio);
+		    }
+		}
 
-	    public void run() {
-		synchronized(loaders) {
-		    loaders.add(this);
-		    added = true;
-		    loaders.notifyAll();
+		public boolean blocking() {
+		    return(true);
 		}
-		boolean intd = false;
-		try {
-		    while(true) {
-			Queued cur;
+
+		public void run() {
+		    Queued cur;
+		    synchronized(queue) {
+			cur = queue.poll();
+		    }
+		    try {
+			if(cur != null)
+			    handle(cur);
+		    } finally {
 			synchronized(queue) {
-			    long start = System.currentTimeMillis(), now = start;
-			    while((cur = queue.poll()) == null) {
-				queue.wait(10000 - (now - start));
-				now = System.currentTimeMillis();
-				if(now - start >= 10000)
-				    return;
-			    }
+			    loaders--;
 			}
-			handle(cur);
-			cur = null;
-		    }
-		} catch(InterruptedException e) {
-		    intd = true;
-		} finally {
-		    synchronized(loaders) {
-			loaders.remove(this);
-		    }
-		    if(!intd)
 			ckld();
+		    }
 		}
-	    }
-	}
+
+		public String toString() {
+		    return("Haven resource loader");
+		}
+	    };
 
 	public int qdepth() {
 	    int ret = (parent == null)?0:parent.qdepth();
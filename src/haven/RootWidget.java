@@ -59,6 +59,8 @@ public class RootWidget extends ConsoleHost implements UI.Notice.Handler, Widget
 	    if(UIPanel.profile.get()) {
 		add(new Profwnd(guprof, "UI profile"), UI.scale(100, 100));
 		add(new Profwnd(grprof, "GL profile"), UI.scale(500, 100));
+		if(ui.sess != null)
+		    add(new Profwnd(ui.sess.uiprof, "UI message profile"), UI.scale(100, 400));
 		/* XXXRENDER
 		   GameUI gi = findchild(GameUI.class);
 		   if((gi != null) && (gi.map != null))
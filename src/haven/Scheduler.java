@@ -0,0 +1,380 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * The one pool of worker threads that Defer, Loader and the resource
+ * pools all run their tasks on, so that their priorities are weighed
+ * against each other. A task submitted from a worker goes to that
+ * worker's own queue, others to a shared queue. Workers take the
+ * highest-priority task of their own queue and the shared one, and
+ * steal from other workers when both are empty. Priorities are read
+ * anew whenever a task is chosen, since they may be boosted while
+ * queued.
+ *
+ * Tasks that declare themselves blocking, such as resource fetches,
+ * and workers waiting in Loading.waitfor let the pool start extra
+ * threads while they wait, so that neither idle CPUs nor tasks
+ * waiting on each other can stall it.
+ */
+public class Scheduler {
+    public static final int MAXEXTRA = 16;
+    public static ThreadGroup group = null;
+    private static volatile Scheduler global = null;
+    public final int nthreads;
+    private final ThreadGroup tg;
+    private final PrioQueue<Entry> queue = new PrioQueue<>();
+    private final List<Worker> pool = new ArrayList<>();
+    private final Map<Integer, Stats> stats = new TreeMap<>();
+    private final AtomicInteger busy = new AtomicInteger(0);
+    private int idle = 0, blocked = 0;
+    private long gen = 0;
+
+    public static interface Task extends Prioritized {
+	public void run();
+
+	public default boolean blocking() {
+	    return(false);
+	}
+    }
+
+    private static class Entry implements Prioritized {
+	final Task task;
+	final long qtime = System.nanoTime();
+
+	Entry(Task task) {
+	    this.task = task;
+	}
+
+	public int priority() {
+	    return(task.priority());
+	}
+    }
+
+    public static class Stats {
+	public final int prio;
+	public long started;
+	public double wsum, wmax;
+
+	private Stats(int prio) {
+	    this.prio = prio;
+	}
+    }
+
+    public Scheduler(ThreadGroup tg, int nthreads) {
+	this.tg = tg;
+	this.nthreads = nthreads;
+    }
+
+    public static Scheduler get() {
+	if(global == null) {
+	    synchronized(Scheduler.class) {
+		if(global == null) {
+		    ThreadGroup tg = new ThreadGroup((group != null) ? group : Thread.currentThread().getThreadGroup(), "Worker threads");
+		    global = new Scheduler(tg, Math.max(2, Runtime.getRuntime().availableProcessors() - 1));
+		}
+	    }
+	}
+	return(global);
+    }
+
+    private static final AtomicInteger threadno = new AtomicInteger(0);
+    private class Worker extends HackThread {
+	final PrioQueue<Entry> local = new PrioQueue<>();
+
+	Worker() {
+	    super(tg, null, "Worker thread #" + threadno.getAndIncrement());
+	    setDaemon(true);
+	    setPriority((Thread.NORM_PRIORITY + Thread.MIN_PRIORITY) / 2);
+	}
+
+	Scheduler owner() {
+	    return(Scheduler.this);
+	}
+
+	private Entry steal() {
+	    Worker[] victims;
+	    synchronized(queue) {
+		victims = pool.toArray(new Worker[0]);
+	    }
+	    for(int i = 0, o = (int)(Math.random() * victims.length); i < victims.length; i++) {
+		Worker v = victims[(i + o) % victims.length];
+		if(v == this)
+		    continue;
+		Entry e;
+		synchronized(v.local) {
+		    e = v.local.poll();
+		}
+		if(e != null)
+		    return(e);
+	    }
+	    return(null);
+	}
+
+	private Entry next() throws InterruptedException {
+	    double start = Utils.rtime();
+	    while(true) {
+		long cgen;
+		synchronized(queue) {
+		    cgen = gen;
+		}
+		Entry l, g;
+		synchronized(local) {
+		    l = local.peek();
+		}
+		synchronized(queue) {
+		    g = queue.peek();
+		    if((g != null) && ((l == null) || (g.priority() > l.priority()))) {
+			queue.removeid(g);
+			return(g);
+		    }
+		}
+		if(l != null) {
+		    synchronized(local) {
+			if(local.removeid(l))
+			    return(l);
+		    }
+		    continue;
+		}
+		Entry s = steal();
+		if(s != null)
+		    return(s);
+		synchronized(queue) {
+		    if(gen != cgen)
+			continue;
+		    if(Utils.rtime() - start > 5)
+			return(null);
+		    idle++;
+		    try {
+			queue.wait(1000);
+		    } finally {
+			idle--;
+		    }
+		}
+	    }
+	}
+
+	private void drain() {
+	    /* Hand anything left over to the others on exit. */
+	    List<Entry> left;
+	    synchronized(local) {
+		left = new ArrayList<>(local);
+		local.clear();
+	    }
+	    synchronized(queue) {
+		queue.addAll(left);
+		gen++;
+		queue.notifyAll();
+	    }
+	}
+
+	public void run() {
+	    try {
+		while(true) {
+		    Entry e;
+		    try {
+			if((e = next()) == null)
+			    return;
+		    } catch(InterruptedException exc) {
+			return;
+		    }
+		    Scheduler.this.run(e);
+		    Thread.interrupted();
+		}
+	    } finally {
+		synchronized(queue) {
+		    pool.remove(this);
+		}
+		drain();
+		ensure();
+	    }
+	}
+    }
+
+    private boolean pending() {
+	if(!queue.isEmpty())
+	    return(true);
+	for(Worker w : pool) {
+	    synchronized(w.local) {
+		if(!w.local.isEmpty())
+		    return(true);
+	    }
+	}
+	return(false);
+    }
+
+    private void ensure() {
+	synchronized(queue) {
+	    if((idle == 0) && (pool.size() < nthreads + Math.min(blocked, MAXEXTRA)) && pending()) {
+		Worker n = new Worker();
+		pool.add(n);
+		n.start();
+	    }
+	}
+    }
+
+    private void run(Entry e) {
+	double wait = (System.nanoTime() - e.qtime) / 1e9;
+	int prio = e.priority();
+	synchronized(stats) {
+	    Stats st = stats.get(prio);
+	    if(st == null)
+		stats.put(prio, st = new Stats(prio));
+	    st.started++;
+	    st.wsum += wait;
+	    st.wmax = Math.max(st.wmax, wait);
+	}
+	boolean blk = e.task.blocking();
+	if(blk)
+	    waiting(true);
+	busy.getAndIncrement();
+	try {
+	    e.task.run();
+	} catch(Throwable t) {
+	    Thread th = Thread.currentThread();
+	    th.getThreadGroup().uncaughtException(th, t);
+	} finally {
+	    busy.getAndDecrement();
+	    if(blk)
+		waiting(false);
+	}
+    }
+
+    /* Called by workers around waits on anything but the CPU. */
+    public static void waiting(boolean on) {
+	Thread th = Thread.currentThread();
+	if(th instanceof Worker) {
+	    Scheduler s = ((Worker)th).owner();
+	    synchronized(s.queue) {
+		s.blocked += on ? 1 : -1;
+	    }
+	    if(on)
+		s.ensure();
+	}
+    }
+
+    public void submit(Task task) {
+	Entry e = new Entry(task);
+	Thread th = Thread.currentThread();
+	if((th instanceof Worker) && (((Worker)th).owner() == this)) {
+	    Worker w = (Worker)th;
+	    synchronized(w.local) {
+		w.local.add(e);
+	    }
+	    synchronized(queue) {
+		gen++;
+		if(idle > 0)
+		    queue.notify();
+	    }
+	} else {
+	    synchronized(queue) {
+		queue.add(e);
+		gen++;
+		queue.notify();
+	    }
+	}
+	ensure();
+    }
+
+    /* Resubmits task once whatever l is waiting for is done, or
+     * right away if that cannot be waited for. */
+    public void requeue(Task task, Loading l) {
+	try {
+	    l.waitfor(() -> submit(task), wait -> {});
+	} catch(Loading.UnwaitableEvent e) {
+	    submit(task);
+	}
+    }
+
+    public Map<Integer, int[]> depths() {
+	Map<Integer, int[]> ret = new TreeMap<>(Collections.reverseOrder());
+	List<Entry> all = new ArrayList<>();
+	synchronized(queue) {
+	    all.addAll(queue);
+	}
+	Worker[] workers;
+	synchronized(queue) {
+	    workers = pool.toArray(new Worker[0]);
+	}
+	for(Worker w : workers) {
+	    synchronized(w.local) {
+		all.addAll(w.local);
+	    }
+	}
+	for(Entry e : all)
+	    ret.computeIfAbsent(e.priority(), p -> new int[1])[0]++;
+	return(ret);
+    }
+
+    public String stats() {
+	int q = 0;
+	for(int[] n : depths().values())
+	    q += n[0];
+	synchronized(queue) {
+	    return(String.format("%d %d/%d", q, busy.get(), pool.size()));
+	}
+    }
+
+    public void report(java.io.PrintWriter out) {
+	Map<Integer, int[]> depths = depths();
+	synchronized(queue) {
+	    out.printf("%d threads (%d idle, %d blocked), %d busy\n", pool.size(), idle, blocked, busy.get());
+	}
+	Set<Integer> prios = new TreeSet<>(Collections.reverseOrder());
+	prios.addAll(depths.keySet());
+	synchronized(stats) {
+	    prios.addAll(stats.keySet());
+	    for(int prio : prios) {
+		int[] d = depths.get(prio);
+		Stats st = stats.get(prio);
+		long n = (st == null) ? 0 : st.started;
+		out.printf("prio %3d: %5d queued, %8d run, wait %.2f ms avg, %.2f ms max\n", prio,
+			   (d == null) ? 0 : d[0], n,
+			   (n == 0) ? 0.0 : (st.wsum * 1000 / n), (st == null) ? 0.0 : (st.wmax * 1000));
+	    }
+	}
+    }
+
+    static {
+	Console.setscmd("sched", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    Scheduler s = get();
+		    if((args.length > 1) && args[1].equals("reset")) {
+			synchronized(s.stats) {
+			    s.stats.clear();
+			}
+		    } else {
+			s.report(cons.out);
+		    }
+		}
+	    });
+    }
+}
@@ -29,12 +29,16 @@ package haven;
 import java.net.*;
 import java.util.*;
 import java.util.function.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 import java.io.*;
 import java.nio.*;
+import java.nio.file.*;
 import java.lang.ref.*;
 
 public class Session implements Resource.Resolver {
     public static final int PVER = 29;
+    public static final Config.Variable<Path> recorddir = Config.Variable.propp("haven.sessrec", (Path)null);
 
     public static final int MSG_SESS = 0;
     public static final int MSG_REL = 1;
@@ -58,12 +62,12 @@ public class Session implements Resource.Resolver {
     public final Connection conn;
     public int connfailed = 0;
     public String connerror = null;
-    LinkedList<PMessage> uimsgs = new LinkedList<PMessage>();
+    final MsgQueue uimsgs = new MsgQueue();
+    public final Profile uiprof = new Profile(300);
     public final User user;
     final Map<Integer, CachedRes> rescache = new TreeMap<Integer, CachedRes>();
     public final Glob glob;
     public SignKey sesskey;
-    private boolean closed = false;
 	public UI ui;
 
     public static class User {
@@ -91,6 +95,114 @@ public class Session implements Resource.Resolver {
 	}
     }
 
+    /* Multiple-producer, single-consumer ring of UI messages, after
+     * Vyukov's bounded queue: producers claim a ticket and publish a
+     * slot through its sequence number, so posting never takes a
+     * lock. Only the consumer ever sleeps, and a producer wakes it
+     * only if it has said it is about to. When the ring is full, as
+     * when the UI thread stalls on a resource, messages spill into an
+     * unbounded list behind it instead of holding the connection
+     * thread back, and keep doing so until the consumer has emptied
+     * the list. */
+    static class MsgQueue {
+	static final int SZ = 1 << 14, MASK = SZ - 1;
+	private final PMessage[] slots = new PMessage[SZ];
+	private final long[] stamps = new long[SZ];
+	private final AtomicLongArray seq = new AtomicLongArray(SZ);
+	private final AtomicLong tail = new AtomicLong(0);
+	private long head = 0;
+	private final ArrayDeque<PMessage> spill = new ArrayDeque<>();
+	private final ArrayDeque<Long> spillstamps = new ArrayDeque<>();
+	private volatile boolean spilled = false;
+	private volatile Thread sleeper = null;
+	private volatile boolean closed = false;
+
+	MsgQueue() {
+	    for(int i = 0; i < SZ; i++)
+		seq.set(i, i);
+	}
+
+	private void wake() {
+	    Thread w = sleeper;
+	    if(w != null)
+		LockSupport.unpark(w);
+	}
+
+	void put(PMessage msg) {
+	    long now = System.nanoTime();
+	    while(!spilled) {
+		long t = tail.get();
+		int i = (int)(t & MASK);
+		long s = seq.get(i);
+		if(s == t) {
+		    if(!tail.compareAndSet(t, t + 1))
+			continue;
+		    slots[i] = msg;
+		    stamps[i] = now;
+		    seq.set(i, t + 1);
+		    wake();
+		    return;
+		} else if(s < t) {
+		    /* Still holding the message from one lap ago. */
+		    break;
+		}
+	    }
+	    synchronized(spill) {
+		spilled = true;
+		spill.add(msg);
+		spillstamps.add(now);
+	    }
+	    wake();
+	}
+
+	void close() {
+	    closed = true;
+	    wake();
+	}
+
+	private boolean ready() {
+	    return(seq.get((int)(head & MASK)) == head + 1);
+	}
+
+	int take(PMessage[] buf, long[] stamps) throws InterruptedException {
+	    while(true) {
+		int n = 0;
+		while((n < buf.length) && ready()) {
+		    int i = (int)(head & MASK);
+		    buf[n] = slots[i];
+		    stamps[n] = this.stamps[i];
+		    slots[i] = null;
+		    seq.set(i, head + SZ);
+		    head++;
+		    n++;
+		}
+		/* Spilled messages were all posted after those in the
+		 * ring, so they are only taken once the ring is empty. */
+		if((n < buf.length) && spilled) {
+		    synchronized(spill) {
+			while((n < buf.length) && !spill.isEmpty()) {
+			    buf[n] = spill.poll();
+			    stamps[n] = spillstamps.poll();
+			    n++;
+			}
+			if(spill.isEmpty())
+			    spilled = false;
+		    }
+		}
+		if(n > 0)
+		    return(n);
+		if(closed && (tail.get() == head) && !spilled)
+		    return(0);
+		sleeper = Thread.currentThread();
+		if(!ready() && !spilled && !closed)
+		    LockSupport.park(this);
+		sleeper = null;
+		if(Thread.interrupted())
+		    throw(new InterruptedException());
+	    }
+	}
+    }
+
     @SuppressWarnings("serial")
     public static class MessageException extends RuntimeException {
 	public Message msg;
@@ -245,10 +357,7 @@ public class Session implements Resource.Resolver {
 
     private final Connection.Callback conncb = new Connection.Callback() {
 	    public void closed() {
-		synchronized(uimsgs) {
-		    closed = true;
-		    uimsgs.notifyAll();
-		}
+		uimsgs.close();
 	    }
 
 	    public void handle(PMessage msg) {
@@ -269,11 +378,34 @@ public class Session implements Resource.Resolver {
 	this.user = user;
 	this.glob = new Glob(this);
 	conn.add(conncb);
+	record();
 	conn.connect((user.alias != null) ? user.alias : user.name, encrypt, cookie, args);
 	sesskey = SignKey.JWK.ES256.generate();
 	queuemsg((PMessage)new PMessage(RMessage.RMSG_SESSKEY).addtto(SignKey.JWK.format(sesskey, true)));
     }
 
+    /* A session without a server, fed through conn.callbacks(), as
+     * when replaying a recording. */
+    public Session(Connection conn, User user) {
+	this.conn = conn;
+	this.user = user;
+	this.glob = new Glob(this);
+	conn.add(conncb);
+    }
+
+    private void record() {
+	Path dir = recorddir.get();
+	if(dir == null)
+	    return;
+	try {
+	    Files.createDirectories(dir);
+	    String nm = String.format("%s-%tY%<tm%<td-%<tH%<tM%<tS.hrec", user.name, new Date());
+	    conn.add(new Connection.Callback.Recorder(Files.newOutputStream(dir.resolve(nm))));
+	} catch(IOException e) {
+	    new Warning(e, "could not start session recording").issue();
+	}
+    }
+
     public void close() {
 	conn.close();
     }
@@ -283,22 +415,21 @@ public class Session implements Resource.Resolver {
     }
 
     public void postuimsg(PMessage msg) {
-	synchronized(uimsgs) {
-	    uimsgs.add(msg);
-	    uimsgs.notifyAll();
-	}
+	uimsgs.put(msg);
+    }
+
+    /* Waits for incoming UI messages and takes as many as fit in buf,
+     * with the System.nanoTime() each was posted at in stamps. Returns
+     * zero once the session is closed and everything is taken. */
+    public int getuimsgs(PMessage[] buf, long[] stamps) throws InterruptedException {
+	return(uimsgs.take(buf, stamps));
     }
 
     public PMessage getuimsg() throws InterruptedException {
-	synchronized(uimsgs) {
-	    while(true) {
-		if(!uimsgs.isEmpty())
-		    return(uimsgs.remove());
-		if(closed)
-		    return(null);
-		uimsgs.wait();
-	    }
-	}
+	PMessage[] buf = {null};
+	if(uimsgs.take(buf, new long[1]) == 0)
+	    return(null);
+	return(buf[0]);
     }
 
     public void sendmsg(PMessage msg) {
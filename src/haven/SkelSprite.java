@@ -191,14 +191,16 @@ public class SkelSprite extends Sprite implements Sprite.CUpd, EquipTarget, Spri
     }
     
     private void rebuild() {
-	pose.reset();
-	for(PoseMod m : mods)
-	    m.apply(pose);
 	if(ipold > 0) {
+	    pose.reset();
+	    for(PoseMod m : mods)
+		m.apply(pose);
 	    float f = ipold * ipold * (3 - (2 * ipold));
 	    pose.blend(oldpose, f);
+	    pose.gbuild();
+	} else {
+	    pose.build(mods);
 	}
-	pose.gbuild();
     }
 
     private static final Map<MeshAnim.Res, MeshAnim.Animation> nomaids = new HashMap<>();
@@ -34,6 +34,15 @@ public class Skeleton {
     public final Map<String, Bone> bones = new HashMap<String, Bone>();
     public final Bone[] blist; /* Topologically sorted */
     public final Pose bindpose;
+    /* Animation time is rounded to this many seconds when posing,
+     * so that objects playing the same animation can share their
+     * evaluated poses. */
+    public static double evalquant = Utils.getprefd("poseevalquant", 1.0 / 30.0);
+    private final Map<List<Object>, Eval> evals = new LinkedHashMap<List<Object>, Eval>(16, 0.75f, true) {
+	    protected boolean removeEldestEntry(Map.Entry<List<Object>, Eval> eldest) {
+		return(size() > 128);
+	    }
+	};
 
     public Skeleton(Collection<Bone> bones) {
 	Set<Bone> bset = new HashSet<Bone>(bones);
@@ -101,6 +110,26 @@ public class Skeleton {
 	return(d);
     }
     
+    private static void qqmul(float[] d, int di, float[] a, int ai, float[] b, int bi) {
+	float aw = a[ai], ax = a[ai + 1], ay = a[ai + 2], az = a[ai + 3];
+	float bw = b[bi], bx = b[bi + 1], by = b[bi + 2], bz = b[bi + 3];
+	d[di    ] = (aw * bw) - (ax * bx) - (ay * by) - (az * bz);
+	d[di + 1] = (aw * bx) + (ax * bw) + (ay * bz) - (az * by);
+	d[di + 2] = (aw * by) - (ax * bz) + (ay * bw) + (az * bx);
+	d[di + 3] = (aw * bz) + (ax * by) - (ay * bx) + (az * bw);
+    }
+
+    private static void vqrot(float[] d, int di, float[] v, int vi, float[] q, int qi) {
+	float vx = v[vi], vy = v[vi + 1], vz = v[vi + 2];
+	float qw = q[qi], qx = q[qi + 1], qy = q[qi + 2], qz = q[qi + 3];
+	d[di    ] = (qw * qw * vx) + (2 * qw * qy * vz) - (2 * qw * qz * vy) + (qx * qx * vx) +
+	    (2 * qx * qy * vy) + (2 * qx * qz * vz) - (qz * qz * vx) - (qy * qy * vx);
+	d[di + 1] = (2 * qx * qy * vx) + (qy * qy * vy) + (2 * qy * qz * vz) + (2 * qw * qz * vx) -
+	    (qz * qz * vy) + (qw * qw * vy) - (2 * qw * qx * vz) - (qx * qx * vy);
+	d[di + 2] = (2 * qx * qz * vx) + (2 * qy * qz * vy) + (qz * qz * vz) - (2 * qw * qy * vx) -
+	    (qy * qy * vz) + (2 * qw * qx * vy) - (qx * qx * vz) + (qw * qw * vz);
+    }
+
     private static float[] vqrot(float[] d, float[] v, float[] q) {
 	float vx = v[0], vy = v[1], vz = v[2];
 	float qw = q[0], qx = q[1], qy = q[2], qz = q[3];
@@ -183,6 +212,31 @@ public class Skeleton {
 	return(d);
     }
 
+    private void boneoff(int bone, float[] gpos, float[] grot, float[] offtrans) {
+	/* It would be nice if these "new float"s get
+	 * stack-allocated. */
+	float[] rot = new float[4], xlate = new float[3];
+	rot = qqmul(rot, grot, qinv(rot, bindpose.grot[bone]));
+	xlate = vvadd(xlate, gpos, vqrot(xlate, vinv(xlate, bindpose.gpos[bone]), rot));
+	offtrans[3] = 0; offtrans[7] = 0; offtrans[11] = 0; offtrans[15] = 1;
+	offtrans[12] = xlate[0]; offtrans[13] = xlate[1]; offtrans[14] = xlate[2];
+	/* I must admit I don't /quite/ understand why the
+	 * rotation needs to be inverted... */
+	float w = -rot[0], x = rot[1], y = rot[2], z = rot[3];
+	float xw = x * w * 2, xx = x * x * 2, xy = x * y * 2, xz = x * z * 2;
+	float yw = y * w * 2, yy = y * y * 2, yz = y * z * 2;
+	float zw = z * w * 2, zz = z * z * 2;
+	offtrans[ 0] = 1 - (yy + zz);
+	offtrans[ 5] = 1 - (xx + zz);
+	offtrans[10] = 1 - (xx + yy);
+	offtrans[ 1] = xy - zw;
+	offtrans[ 2] = xz + yw;
+	offtrans[ 4] = xy + zw;
+	offtrans[ 6] = yz - xw;
+	offtrans[ 8] = xz - yw;
+	offtrans[ 9] = yz + xw;
+    }
+
     public Pose mkbindpose() {
 	Pose p = new Pose();
 	for(int i = 0; i < blist.length; i++) {
@@ -194,10 +248,101 @@ public class Skeleton {
 	return(p);
     }
 	
+    /* An evaluated pose, shared between all poses of this skeleton
+     * built from the same base pose by mods in the same state. Bones
+     * are stored flat, three floats per position and four per
+     * rotation, and must not be modified once evaluated. */
+    public class Eval {
+	public final float[] lpos, lrot, gpos, grot;
+	private float[][] offs = null;
+
+	private Eval(Pose from) {
+	    int nb = blist.length;
+	    lpos = new float[nb * 3];
+	    lrot = new float[nb * 4];
+	    gpos = new float[nb * 3];
+	    grot = new float[nb * 4];
+	    for(int i = 0; i < nb; i++) {
+		System.arraycopy(from.lpos[i], 0, lpos, i * 3, 3);
+		System.arraycopy(from.lrot[i], 0, lrot, i * 4, 4);
+	    }
+	}
+
+	private void gbuild() {
+	    int nb = blist.length;
+	    for(int i = 0; i < nb; i++) {
+		Bone b = blist[i];
+		if(b.parent == null) {
+		    System.arraycopy(lpos, i * 3, gpos, i * 3, 3);
+		    System.arraycopy(lrot, i * 4, grot, i * 4, 4);
+		} else {
+		    int pi = b.parent.idx;
+		    qqmul(grot, i * 4, grot, pi * 4, lrot, i * 4);
+		    vqrot(gpos, i * 3, lpos, i * 3, grot, pi * 4);
+		    gpos[(i * 3)    ] += gpos[(pi * 3)    ];
+		    gpos[(i * 3) + 1] += gpos[(pi * 3) + 1];
+		    gpos[(i * 3) + 2] += gpos[(pi * 3) + 2];
+		}
+	    }
+	}
+
+	private void copy(Pose p) {
+	    for(int i = 0; i < blist.length; i++) {
+		System.arraycopy(lpos, i * 3, p.lpos[i], 0, 3);
+		System.arraycopy(lrot, i * 4, p.lrot[i], 0, 4);
+		System.arraycopy(gpos, i * 3, p.gpos[i], 0, 3);
+		System.arraycopy(grot, i * 4, p.grot[i], 0, 4);
+	    }
+	}
+
+	/* The same as Pose.boneoff(), for every bone, computed once
+	 * for all sharing poses. */
+	public synchronized float[][] boneoffs() {
+	    if(offs == null) {
+		float[][] buf = new float[blist.length][16];
+		float[] pos = new float[3], rot = new float[4];
+		for(int i = 0; i < buf.length; i++) {
+		    System.arraycopy(gpos, i * 3, pos, 0, 3);
+		    System.arraycopy(grot, i * 4, rot, 0, 4);
+		    boneoff(i, pos, rot, buf[i]);
+		}
+		offs = buf;
+	    }
+	    return(offs);
+	}
+    }
+
+    /* Returns the shared evaluation of mods applied to from, or null
+     * if any of the mods cannot be shared. */
+    public Eval evaluate(Pose from, PoseMod[] mods) {
+	Object[] key = new Object[mods.length + 1];
+	key[0] = from;
+	for(int i = 0; i < mods.length; i++) {
+	    if((key[i + 1] = mods[i].evalkey()) == null)
+		return(null);
+	}
+	List<Object> lkey = Arrays.asList(key);
+	Eval ret;
+	synchronized(evals) {
+	    ret = evals.get(lkey);
+	}
+	if(ret == null) {
+	    ret = new Eval(from);
+	    for(PoseMod m : mods)
+		m.apply(ret);
+	    ret.gbuild();
+	    synchronized(evals) {
+		evals.put(lkey, ret);
+	    }
+	}
+	return(ret);
+    }
+
     public class Pose implements EquipTarget {
 	public float[][] lpos, gpos;
 	public float[][] lrot, grot;
 	private Pose from = null;
+	private Eval shared = null;
 	public int seq = 0;
 	
 	private Pose() {
@@ -245,8 +390,30 @@ public class Skeleton {
 		    vvadd(gpos[i], gpos[i], gpos[pi]);
 		}
 	    }
+	    shared = null;
 	    seq++;
 	}
+
+	/* Equivalent to reset(), applying mods and gbuild(), but
+	 * takes the result from the skeleton's shared evaluations
+	 * when the mods allow it. */
+	public void build(PoseMod[] mods) {
+	    Eval ev = evaluate(from, mods);
+	    if(ev == null) {
+		reset();
+		for(PoseMod m : mods)
+		    m.apply(this);
+		gbuild();
+		return;
+	    }
+	    ev.copy(this);
+	    shared = ev;
+	    seq++;
+	}
+
+	public Eval shared() {
+	    return(shared);
+	}
 	
 	public void blend(Pose o, float d) {
 	    for(int i = 0; i < blist.length; i++) {
@@ -335,28 +502,7 @@ public class Skeleton {
 	}
 
 	public void boneoff(int bone, float[] offtrans) {
-	    /* It would be nice if these "new float"s get
-	     * stack-allocated. */
-	    float[] rot = new float[4], xlate = new float[3];
-	    rot = qqmul(rot, grot[bone], qinv(rot, bindpose.grot[bone]));
-	    xlate = vvadd(xlate, gpos[bone], vqrot(xlate, vinv(xlate, bindpose.gpos[bone]), rot));
-	    offtrans[3] = 0; offtrans[7] = 0; offtrans[11] = 0; offtrans[15] = 1;
-	    offtrans[12] = xlate[0]; offtrans[13] = xlate[1]; offtrans[14] = xlate[2];
-	    /* I must admit I don't /quite/ understand why the
-	     * rotation needs to be inverted... */
-	    float w = -rot[0], x = rot[1], y = rot[2], z = rot[3];
-	    float xw = x * w * 2, xx = x * x * 2, xy = x * y * 2, xz = x * z * 2;
-	    float yw = y * w * 2, yy = y * y * 2, yz = y * z * 2;
-	    float zw = z * w * 2, zz = z * z * 2;
-	    offtrans[ 0] = 1 - (yy + zz);
-	    offtrans[ 5] = 1 - (xx + zz);
-	    offtrans[10] = 1 - (xx + yy);
-	    offtrans[ 1] = xy - zw;
-	    offtrans[ 2] = xz + yw;
-	    offtrans[ 4] = xy + zw;
-	    offtrans[ 6] = yz - xw;
-	    offtrans[ 8] = xz - yw;
-	    offtrans[ 9] = yz + xw;
+	    Skeleton.this.boneoff(bone, gpos[bone], grot[bone], offtrans);
 	}
 	
 	public class Debug implements RenderTree.Node, Rendered, TickList.Ticking, TickList.TickNode {
@@ -458,6 +604,21 @@ public class Skeleton {
 		qqmul(p.lrot[i], p.lrot[i], lrot[i]);
 	    }
 	}
+
+	public void apply(Eval ev) {
+	    for(int i = 0; i < blist.length; i++) {
+		ev.lpos[(i * 3)    ] += lpos[i][0];
+		ev.lpos[(i * 3) + 1] += lpos[i][1];
+		ev.lpos[(i * 3) + 2] += lpos[i][2];
+		qqmul(ev.lrot, i * 4, ev.lrot, i * 4, lrot[i], 0);
+	    }
+	}
+
+	/* Mods returning equal non-null keys must apply equal
+	 * transforms, so that their evaluations can be shared. */
+	public Object evalkey() {
+	    return(null);
+	}
 	
 	public boolean tick(float dt) {
 	    return(false);
@@ -483,10 +644,12 @@ public class Skeleton {
 	public abstract boolean done();
     }
 
+    private static final Object nilkey = new Object();
     public PoseMod nilmod() {
 	return(new PoseMod(ModOwner.nil) {
 		public boolean stat() {return(true);}
 		public boolean done() {return(false);}
+		public Object evalkey() {return(nilkey);}
 		public String toString() {return("#<nil-mod>");}
 	    });
     }
@@ -506,6 +669,20 @@ public class Skeleton {
 			m.apply(p);
 		}
 
+		public void apply(Eval ev) {
+		    for(PoseMod m : mods)
+			m.apply(ev);
+		}
+
+		public Object evalkey() {
+		    Object[] key = new Object[mods.length];
+		    for(int i = 0; i < mods.length; i++) {
+			if((key[i] = mods[i].evalkey()) == null)
+			    return(null);
+		    }
+		    return(Arrays.asList(key));
+		}
+
 		public boolean tick(float dt) {
 		    boolean ret = false;
 		    for(PoseMod m : mods) {
@@ -650,10 +827,14 @@ public class Skeleton {
 	public float scale = 1.0f;
 	protected boolean speedmod = false;
 	protected double nspeed = 0.0;
+	/* Identifies the animation for sharing evaluations. */
+	protected Object anim;
 	private boolean back = false;
+	private float etime;
 	
 	public TrackMod(ModOwner owner, Track[] tracks, FxTrack[] effects, float len, WrapMode mode) {
 	    super(owner);
+	    this.anim = tracks;
 	    this.tracks = tracks;
 	    this.effects = effects;
 	    this.len = len;
@@ -671,6 +852,7 @@ public class Skeleton {
 
 	
 	public void aupdate(float time) {
+	    etime = time;
 	    if(time > len)
 		time = len;
 	    reset();
@@ -775,7 +957,7 @@ public class Skeleton {
 	    float ot = this.time;
 	    this.time = nt;
 	    if(!stat) {
-		aupdate(this.time);
+		/* The pose itself is updated lazily when applied. */
 		if(!back)
 		    playfx(ot, nt);
 		else
@@ -804,6 +986,35 @@ public class Skeleton {
 	    aupdate(time);
 	}
 	
+	private float evaltime() {
+	    float q = (float)evalquant;
+	    if(q <= 0)
+		return(time);
+	    return(Math.min(Math.round(time / q) * q, len));
+	}
+
+	private void eupdate() {
+	    if(!stat) {
+		float et = evaltime();
+		if(et != etime)
+		    aupdate(et);
+	    }
+	}
+
+	public void apply(Pose p) {
+	    eupdate();
+	    super.apply(p);
+	}
+
+	public void apply(Eval ev) {
+	    eupdate();
+	    super.apply(ev);
+	}
+
+	public Object evalkey() {
+	    return(new TrackKey(anim, scale, stat ? 0.0f : evaltime()));
+	}
+
 	public boolean stat() {
 	    return(stat);
 	}
@@ -813,6 +1024,28 @@ public class Skeleton {
 	}
     }
 
+    private static class TrackKey {
+	final Object anim;
+	final float scale, time;
+
+	TrackKey(Object anim, float scale, float time) {
+	    this.anim = anim;
+	    this.scale = scale;
+	    this.time = time;
+	}
+
+	public int hashCode() {
+	    return((((System.identityHashCode(anim) * 31) + Float.floatToIntBits(scale)) * 31) + Float.floatToIntBits(time));
+	}
+
+	public boolean equals(Object o) {
+	    if(!(o instanceof TrackKey))
+		return(false);
+	    TrackKey that = (TrackKey)o;
+	    return((this.anim == that.anim) && (this.scale == that.scale) && (this.time == that.time));
+	}
+    }
+
     public static class Track {
 	public final String bone;
 	public final Frame[] frames;
@@ -1168,6 +1401,7 @@ public class Skeleton {
 	public class ResMod extends TrackMod {
 	    public ResMod(ModOwner owner, Skeleton skel, WrapMode mode) {
 		skel.super(owner, iaIaCthulhuFhtagn(skel), ResPose.this.effects, ResPose.this.len, mode);
+		this.anim = ResPose.this;
 		if(ResPose.this.nspeed > 0) {
 		    this.speedmod = true;
 		    this.nspeed = ResPose.this.nspeed;
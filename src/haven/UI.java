@@ -501,6 +501,24 @@ public class UI {
 	}
     }
 
+    public interface Batch<E extends Throwable> {
+	public void run() throws E;
+    }
+
+    /* Runs a sequence of newwidgetp/addwidget/destroy/uimsg/wdgbarrier
+     * calls holding the shadow tree and the command queue throughout,
+     * rather than taking them again for every call. The locks are
+     * taken in the same order addwidget() and destroy() take them.
+     * Everything else touching the widget tree waits for the whole
+     * batch, so callers should keep batches short. */
+    public <E extends Throwable> void batch(Batch<E> ops) throws E {
+	synchronized(shadowchildren) {
+	    synchronized(queue) {
+		ops.run();
+	    }
+	}
+    }
+
     public void newwidgetp(int id, Widget.Factory type, int parent, Object[] pargs, Object... cargs) {
 	newwidget(id, type, cargs);
 	if(parent != -1)
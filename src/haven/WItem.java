@@ -216,10 +216,14 @@ public class WItem extends Widget implements DTarget {
 	    g.defstate();
 	    if(rstate.get() != null)
 		g.usestate(rstate.get());
-		String itemName = item.getname().toLowerCase();
 		String searchKeyword = InventorySearchWindow.inventorySearchString.toLowerCase();
 		if (searchKeyword.length() > 1) {
-			if (Fuzzy.fuzzyContains(itemName, searchKeyword)) {
+			boolean found;
+			if (parent instanceof Inventory)
+				found = ((Inventory)parent).index.search(this, searchKeyword);
+			else
+				found = Fuzzy.fuzzyContains(item.getname().toLowerCase(), searchKeyword);
+			if (found) {
 				int fps = GLPanel.Loop.fps > 0 ? GLPanel.Loop.fps : 1;
 				int colorShiftSpeed = 800/fps;
 				if (searchItemColorShiftUp) {
@@ -95,47 +95,36 @@ public class AUtils {
         }
         synchronized (gui.map.glob.oc) {
             for (Gob gob : gui.map.glob.oc) {
-                if (gob.getres() != null && gob.getres().name != null){
-                    if (gob.id != gui.map.plgob) {
-                        if (potentialAggroTargets.contains(gob.getres().name)){
-                            gobs.put(gob.id, gob);
-                        } else if (gob.getres().name.equals("gfx/kritter/cattle/cattle")) { // ND: Special case for Aurochs
-                            for (GAttrib g : gob.attr.values()) {
-                                if (g instanceof Drawable) {
-                                    if (g instanceof Composite) {
-                                        Composite c = (Composite) g;
-                                        if (c.comp.cmod.size() > 0) {
-                                            for (Composited.MD item : c.comp.cmod) {
-                                                if (item.mod.get().basename().equals("aurochs")){
-                                                    gobs.put(gob.id, gob);
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        } else if (gob.getres().name.equals("gfx/kritter/sheep/sheep")) { // ND: Special case for Mouflon
-                            for (GAttrib g : gob.attr.values()) {
-                                if (g instanceof Drawable) {
-                                    if (g instanceof Composite) {
-                                        Composite c = (Composite) g;
-                                        if (c.comp.cmod.size() > 0) {
-                                            for (Composited.MD item : c.comp.cmod) {
-                                                if (item.mod.get().basename().equals("mouflon")){
-                                                    gobs.put(gob.id, gob);
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
+                if (isAttackable(gui, gob))
+                    gobs.put(gob.id, gob);
+            }
+        }
+        return gobs;
+    }
 
-                    }
+    public static boolean isAttackable(GameUI gui, Gob gob) {
+        if (gob.getres() == null || gob.getres().name == null || gob.id == gui.map.plgob)
+            return false;
+        if (potentialAggroTargets.contains(gob.getres().name))
+            return true;
+        if (gob.getres().name.equals("gfx/kritter/cattle/cattle")) // ND: Special case for Aurochs
+            return hasCompositeMod(gob, "aurochs");
+        if (gob.getres().name.equals("gfx/kritter/sheep/sheep")) // ND: Special case for Mouflon
+            return hasCompositeMod(gob, "mouflon");
+        return false;
+    }
+
+    private static boolean hasCompositeMod(Gob gob, String basename) {
+        for (GAttrib g : gob.attr.values()) {
+            if (g instanceof Composite) {
+                Composite c = (Composite) g;
+                for (Composited.MD item : c.comp.cmod) {
+                    if (item.mod.get().basename().equals(basename))
+                        return true;
                 }
             }
         }
-        return gobs;
+        return false;
     }
 
     public static void attackGob(GameUI gui, Gob gob) {
@@ -157,18 +146,18 @@ public class AUtils {
         }
         synchronized (gui.map.glob.oc) {
             for (Gob gob : gui.map.glob.oc) {
-                if (gob.getres() != null && gob.getres().name != null){
-                    if (gob.id != gui.map.plgob) {
-                        if (gob.getres().name.equals("gfx/borka/body")){
-                            gobs.put(gob.id, gob);
-                        }
-                    }
-                }
+                if (isAttackablePlayer(gui, gob))
+                    gobs.put(gob.id, gob);
             }
         }
         return gobs;
     }
 
+    public static boolean isAttackablePlayer(GameUI gui, Gob gob) {
+        return gob.getres() != null && gob.getres().name != null && gob.id != gui.map.plgob
+                && gob.getres().name.equals("gfx/borka/body");
+    }
+
     public static WItem findItemByPrefixInAllInventories(GameUI gui, final String resNamePrefix) {
         for(Inventory inventory : gui.getAllInventories()){
             for (Widget wdg = inventory.child; wdg != null; wdg = wdg.next) {
@@ -288,21 +277,10 @@ public class AUtils {
     }
 
     public static ArrayList<Gob> getGobsInSelectionStartingWith(String name, Coord start, Coord end, GameUI gui) {
-        ArrayList<Gob> selected = new ArrayList<>();
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
-                    try {
-                        Resource res = gob.getres();
-                        if (res != null && res.name.startsWith(name)) {
-                            selected.add(gob);
-                        }
-                    } catch (Loading l) {
-                    }
-                }
-            }
-        }
-        return selected;
+        return new ArrayList<>(gui.map.glob.oc.inArea(selection(start, end), gob -> {
+            Resource res = gob.getres();
+            return inSelection(gob, start, end) && res != null && res.name.startsWith(name);
+        }));
     }
 
     public static Gob getClosestCropInSelectionStartingWith(String name, Coord start, Coord end, GameUI gui, int stageP) {
@@ -310,27 +288,32 @@ public class AUtils {
         double minDist = Double.MAX_VALUE;
         Coord2d player = gui.map.player().rc;
 
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
-                    try {
-                        Resource res = gob.getres();
-                        if (res != null && res.name.equals(name)) {
-                            int stage = AUtils.getDrawState(gob);
-                            double dist = player.dist(gob.rc);
-                            if(dist < minDist && (stage >= stageP)) {
-                                minDist = dist;
-                                closestGob = gob;
-                            }
-                        }
-                    } catch (Loading l) {
+        for (Gob gob : gui.map.glob.oc.inArea(selection(start, end), g -> inSelection(g, start, end))) {
+            try {
+                Resource res = gob.getres();
+                if (res != null && res.name.equals(name)) {
+                    int stage = AUtils.getDrawState(gob);
+                    double dist = player.dist(gob.rc);
+                    if(dist < minDist && (stage >= stageP)) {
+                        minDist = dist;
+                        closestGob = gob;
                     }
                 }
+            } catch (Loading l) {
             }
         }
         return closestGob;
     }
 
+    // The area to search; the selection itself excludes its upper left edges as well.
+    private static Area selection(Coord start, Coord end) {
+        return Area.corn(start, end);
+    }
+
+    private static boolean inSelection(Gob gob, Coord start, Coord end) {
+        return gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y;
+    }
+
     public static int getDrawState(Gob gob) {
         try {
             return gob.getattr(ResDrawable.class).sdt.checkrbuf(0);
@@ -412,14 +395,14 @@ public class AUtils {
             int halfGridSize = gridSize / 2;
             for (int i = 0; i < gridSize; i++) {
                 for (int j = 0; j < gridSize; j++) {
-                    wholeGridHeight += grid.z[i * gridSize + j];
+                    wholeGridHeight += grid.data.z(i * gridSize + j);
                     int quarterIndex;
                     if(i < halfGridSize) {
                         quarterIndex = (j < halfGridSize) ? 0 : 1;
                     } else {
                         quarterIndex = (j < halfGridSize) ? 2 : 3;
                     }
-                    quarterHeights[quarterIndex] += grid.z[i * gridSize + j];
+                    quarterHeights[quarterIndex] += grid.data.z(i * gridSize + j);
                 }
             }
             String[] quarterNames = {"N-W", "N-E", "S-W", "S-E"};
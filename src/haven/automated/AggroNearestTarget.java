@@ -4,7 +4,6 @@ package haven.automated;
 import haven.GameUI;
 import haven.Gob;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.stream.Collectors;
 
@@ -22,8 +21,12 @@ public class AggroNearestTarget implements Runnable {
             if (gui.fv != null && gui.fv.lsrel.size() > 0) { // If we are in a fight already:
                 // Check type of fight - Are we fighting players or just animals?
                 HashSet<Long> fightgobs = gui.fv.lsrel.stream().map(rel -> rel.gobid).collect(Collectors.toCollection(HashSet::new));
-                HashMap<Long, Gob> allAttackableMap = AUtils.getAllAttackableMap(gui);
-                HashSet<Long> aggrodplayers = fightgobs.stream().filter(id -> allAttackableMap.get(id) != null && isPlayer(allAttackableMap.get(id))).collect(Collectors.toCollection(HashSet::new));
+                HashSet<Long> aggrodplayers = new HashSet<>();
+                for (Long id : fightgobs) {
+                    Gob gob = gui.map.glob.oc.getgob(id);
+                    if (gob != null && AUtils.isAttackable(gui, gob) && isPlayer(gob))
+                        aggrodplayers.add(id);
+                }
 
                 Gob player = gui.map.player();
                 if (player == null)
@@ -31,12 +34,12 @@ public class AggroNearestTarget implements Runnable {
 
                 // If we are fighting players don't attack animals
                 if (!aggrodplayers.isEmpty()) {
-                    attackNearestNonAttackedPlayer(allAttackableMap, aggrodplayers, player);
+                    attackNearestNonAttackedPlayer(aggrodplayers, player);
                     return;
                 } else if (attackClosestAttackablePlayer()){
                     return;
                 } else {
-                    attackNearestNonAttackedAnimal(fightgobs, allAttackableMap, player);
+                    attackNearestNonAttackedAnimal(fightgobs, player);
                     return;
                 }
             } else {//If we are not in a fight:
@@ -48,27 +51,10 @@ public class AggroNearestTarget implements Runnable {
         }
     }
 
-    private void attackNearestNonAttackedAnimal(HashSet<Long> fightgobs, HashMap<Long, Gob> allAttackableMap, Gob player) {
+    private void attackNearestNonAttackedAnimal(HashSet<Long> fightgobs, Gob player) {
         // If we are fighting animals, try to attack the second closest animal
-        Gob closestEnemy = null;
-        OUTER_LOOP: for (Gob gob : allAttackableMap.values()) {
-            // If friend, skip it... skip it
-            if (isPlayer(gob) && gob.isFriend())
-                continue;
-            if (gob.getres().name.equals("gfx/kritter/horse/horse") && gob.occupants.size() > 0){ // ND: Wild horse special case. Tamed horses are never attacked anyway
-                for (Gob occupant : gob.occupants) {
-                    if (occupant.isFriend() || occupant.isItMe()){
-                        continue OUTER_LOOP;
-                    }
-                }
-            }
-            if (!fightgobs.contains(gob.id)) {
-                if ((closestEnemy == null || gob.rc.dist(player.rc) < closestEnemy.rc.dist(player.rc))
-                        && (gob.knocked == null || (gob.knocked != null && !gob.knocked))) { // ND: Retarded workaround that I need to add, just like in Gob.java
-                    closestEnemy = gob;
-                }
-            }
-        }
+        Gob closestEnemy = gui.map.glob.oc.nearest(player.rc, gob ->
+                AUtils.isAttackable(gui, gob) && !fightgobs.contains(gob.id) && isFair(gob));
 
         if (closestEnemy != null) {
             AUtils.attackGob(gui, closestEnemy);
@@ -76,17 +62,10 @@ public class AggroNearestTarget implements Runnable {
         }
     }
 
-    private void attackNearestNonAttackedPlayer(HashMap<Long, Gob> allAttackableMap, HashSet<Long> aggrodplayers, Gob player) {
-        Gob closestEnemy = null;
-        for (Gob gob : allAttackableMap.values()) {
-            //if gob is an enemy player and not already aggroed
-            if (isPlayer(gob) && !aggrodplayers.contains(gob.id) && !gob.isFriend()) {
-                if ((closestEnemy == null || gob.rc.dist(player.rc) < closestEnemy.rc.dist(player.rc))
-                        && (gob.knocked == null || (gob.knocked != null && !gob.knocked))) { // ND: Retarded workaround that I need to add, just like in Gob.java
-                    closestEnemy = gob;
-                }
-            }
-        }
+    private void attackNearestNonAttackedPlayer(HashSet<Long> aggrodplayers, Gob player) {
+        //if gob is an enemy player and not already aggroed
+        Gob closestEnemy = gui.map.glob.oc.nearest(player.rc, gob ->
+                AUtils.isAttackable(gui, gob) && isPlayer(gob) && !aggrodplayers.contains(gob.id) && !gob.isFriend() && !isKnocked(gob));
 
         if (closestEnemy != null) {
             AUtils.attackGob(gui, closestEnemy);
@@ -98,19 +77,8 @@ public class AggroNearestTarget implements Runnable {
         Gob player = gui.map.player();
         if (player == null)
             return false;
-        HashMap<Long, Gob> allAttackableMap = AUtils.getAllAttackablePlayersMap(gui);
-
-        Gob closestEnemy = null;
-        for (Gob gob : allAttackableMap.values()) {
-            if (isPlayer(gob) && gob.isFriend()) {
-                continue;
-            }
-            //if gob is an enemy player and not already aggroed
-            if ((closestEnemy == null || gob.rc.dist(player.rc) < closestEnemy.rc.dist(player.rc))
-                    && (gob.knocked == null || (gob.knocked != null && !gob.knocked))) { // ND: Retarded workaround that I need to add, just like in Gob.java
-                closestEnemy = gob;
-            }
-        }
+        Gob closestEnemy = gui.map.glob.oc.nearest(player.rc, gob ->
+                AUtils.isAttackablePlayer(gui, gob) && !gob.isFriend() && !isKnocked(gob));
 
         if (closestEnemy != null) {
             AUtils.attackGob(gui, closestEnemy);
@@ -123,35 +91,34 @@ public class AggroNearestTarget implements Runnable {
         Gob player = gui.map.player();
         if (player == null)
             return;
-        HashMap<Long, Gob> allAttackableMap = AUtils.getAllAttackableMap(gui);
 
         //If there's no last attacked gob:
         // try and find the closest animal or player to attack
-        Gob closestEnemy = null;
-        OUTER_LOOP: for (Gob gob : allAttackableMap.values()) {
-            if (isPlayer(gob) && gob.isFriend()) {
-                continue;
-            }
-            if (gob.getres().name.equals("gfx/kritter/horse/horse") && gob.occupants.size() > 0){ // ND: Wild horse special case. Tamed horses are never attacked anyway
-                for (Gob occupant : gob.occupants) {
-                    if (occupant.isFriend() || occupant.isItMe()){
-                        continue OUTER_LOOP;
-                    }
-                }
-            }
-            //if gob is an enemy player and not already aggroed
-            if ((closestEnemy == null || gob.rc.dist(player.rc) < closestEnemy.rc.dist(player.rc))
-                    && (gob.knocked == null || (gob.knocked != null && !gob.knocked))) { // ND: Retarded workaround that I need to add, just like in Gob.java
-                closestEnemy = gob;
-            }
-        }
-        
+        Gob closestEnemy = gui.map.glob.oc.nearest(player.rc, gob -> AUtils.isAttackable(gui, gob) && isFair(gob));
+
         if (closestEnemy != null) {
             AUtils.attackGob(gui, closestEnemy);
             return;
         }
     }
 
+    // Not a friend, not a wild horse ridden by a friend or by us, and not knocked out
+    private boolean isFair(Gob gob) {
+        if (isPlayer(gob) && gob.isFriend())
+            return false;
+        if (gob.getres().name.equals("gfx/kritter/horse/horse") && gob.occupants.size() > 0) { // ND: Wild horse special case. Tamed horses are never attacked anyway
+            for (Gob occupant : gob.occupants) {
+                if (occupant.isFriend() || occupant.isItMe())
+                    return false;
+            }
+        }
+        return !isKnocked(gob);
+    }
+
+    private boolean isKnocked(Gob gob) {
+        return gob.knocked != null && gob.knocked; // ND: Retarded workaround that I need to add, just like in Gob.java
+    }
+
     private boolean isPlayer(Gob gob){
         return gob.getres() != null && gob.getres().name != null && gob.getres().name.equals("gfx/borka/body");
     }
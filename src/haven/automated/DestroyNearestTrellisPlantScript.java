@@ -23,20 +23,13 @@ public class DestroyNearestTrellisPlantScript implements Runnable {
 
     @Override
     public void run() {
-        Gob plant = null;
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                try {
-                    Resource res = gob.getres();
-                    if (res != null && plants.contains(res.name)) {
-                        Coord2d plc = gui.map.player().rc;
-                        if ((plant == null || gob.rc.dist(plc) < plant.rc.dist(plc)))
-                            plant = gob;
-                    }
-                } catch (Loading l) {
-                }
-            }
-        }
+        Gob pl = gui.map.player();
+        if (pl == null)
+            return;
+        Gob plant = gui.map.glob.oc.nearest(pl.rc, gob -> {
+            Resource res = gob.getres();
+            return res != null && plants.contains(res.name);
+        });
 
         if (plant == null)
             return;
@@ -23,7 +23,7 @@ public class EnterNearestVehicle implements Runnable {
         Coord3f raw = player.placed.getc();
         if(raw == null) // ND: This works for checking if the player's on foot.
             return;
-        for (Gob gob : Utils.getAllGobs(gui)) {
+        for (Gob gob : gui.map.glob.oc.within(player.rc, 20 * 20)) {
                 Resource res = null;
                 try {
                     res = gob.getres();
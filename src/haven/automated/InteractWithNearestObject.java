@@ -66,7 +66,7 @@ public class InteractWithNearestObject implements Runnable {
         if (player == null)
             return; // player is null, possibly taking a road, don't bother trying to do any of the below
         Coord2d plc = player.rc;
-        for (Gob gob : Utils.getAllGobs(gui)) {
+        for (Gob gob : gui.map.glob.oc.within(plc, maxDistance)) {
             double distFromPlayer = gob.rc.dist(plc);
             if (gob.id == gui.map.plgob || distFromPlayer >= maxDistance)
                 continue;
@@ -95,7 +95,7 @@ public class InteractWithNearestObject implements Runnable {
                 boolean isNonVisitorGate = isSmallGate || isReinforcedGate;
                 if ((isNonVisitorGate && Utils.getprefb("clickNearestObject_NonVisitorGates", true))
                 || ((res.name.startsWith("gfx/terobjs/herbs") || otherPickableObjects.contains(res.basename())) && Utils.getprefb("clickNearestObject_Forageables", true))
-                || (Arrays.stream(Config.critterResPaths).anyMatch(res.name::matches) || res.name.matches(".*(rabbit|bunny)$")) && Utils.getprefb("clickNearestObject_Critters", true)
+                || (res.tags() & (ResTags.CRITTER | ResTags.RABBIT)) != 0 && Utils.getprefb("clickNearestObject_Critters", true)
                 || (caves.contains(res.name) && Utils.getprefb("clickNearestObject_Caves", false))
                 || (mines.contains(res.name) && Utils.getprefb("clickNearestObject_MineholesAndLadders", false))) {
                     if (distFromPlayer < maxDistance && (theObject == null || distFromPlayer < theObject.rc.dist(plc))) {
@@ -150,7 +150,8 @@ public class InteractWithNearestObject implements Runnable {
         if (r <= 0) r = 1024.0;
         Coord2d plc = gui.map.player().rc;
         Target best = null;
-        for (Gob gob : Utils.getAllGobs(gui)) {
+        // A door can be up to DOOR_REACH from its building's origin
+        for (Gob gob : gui.map.glob.oc.within(plc, r + DOOR_REACH)) {
             try {
                 Resource res = gob.getres();
                 if (res == null) continue;
@@ -172,7 +173,7 @@ public class InteractWithNearestObject implements Runnable {
         Gob best = null;
         double bestd = Double.MAX_VALUE;
 
-        for (Gob gob : Utils.getAllGobs(gui)) {
+        for (Gob gob : gui.map.glob.oc.within(plc, r)) {
             try {
                 Resource res = gob.getres();
                 if (res == null) continue;
@@ -233,5 +234,10 @@ public class InteractWithNearestObject implements Runnable {
         BUILDINGS.put("gfx/terobjs/arch/stonehut", Arrays.asList(new Door(new Coord2d(20, 0), 16)));
     }
 
+    private static final double DOOR_REACH = BUILDINGS.values().stream()
+            .flatMap(List::stream)
+            .mapToDouble(d -> d.rc.abs())
+            .max().orElse(0);
+
 
 }
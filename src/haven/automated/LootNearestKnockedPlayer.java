@@ -16,22 +16,13 @@ public class LootNearestKnockedPlayer implements Runnable {
 
     @Override
     public void run() {
-        Gob player = null;
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                try {
-                    Resource res = gob.getres();
-                    if (res != null && res.name.startsWith("gfx/borka/body")) {
-                        if (gob.knocked) {
-                            Coord2d plc = gui.map.player().rc;
-                            if ((player == null || gob.rc.dist(plc) < player.rc.dist(plc)))
-                                player = gob;
-                        }
-                    }
-                } catch (Loading l) {
-                }
-            }
-        }
+        Gob pl = gui.map.player();
+        if (pl == null)
+            return;
+        Gob player = gui.map.glob.oc.nearest(pl.rc, gob -> {
+            Resource res = gob.getres();
+            return res != null && res.name.startsWith("gfx/borka/body") && Boolean.TRUE.equals(gob.knocked);
+        });
         if (player == null)
             return;
 
@@ -163,7 +163,7 @@ public class WagonNearestLiftable implements Runnable {
             boolean doLiftContainer = Utils.getprefb("wagonNearestLiftable_container", true);
             boolean doLiftLog = Utils.getprefb("wagonNearestLiftable_log", true);
 
-            for (Gob gob : Utils.getAllGobs(gui)) {
+            for (Gob gob : gui.map.glob.oc.within(player.rc, MAX_DISTANCE)) {
                 Resource res = null;
                 try {
                     res = gob.getres();
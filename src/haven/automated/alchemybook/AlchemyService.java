@@ -1,32 +1,28 @@
 package haven.automated.alchemybook;
 
 import haven.*;
+import haven.automated.uploader.Uploader;
 import org.json.JSONArray;
 
-import java.io.OutputStream;
-import java.io.InputStream;
 import java.math.BigInteger;
-import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.lang.reflect.Field;
 
 public class AlchemyService {
     private static final Map<String, ParsedAlchemyInfo> cachedItems = new ConcurrentHashMap<>();
     private static final Queue<HashedAlchemyInfo> sendQueue = new ConcurrentLinkedQueue<>();
-    public static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
 
     private static final boolean alchemyDebug = false;
 
     static {
-        scheduler.scheduleAtFixedRate(AlchemyService::sendItems, 10L, 10, TimeUnit.SECONDS);
+        Uploader.get().register("alchemybook", AlchemyService::target);
+        Uploader.get().scheduler().scheduleAtFixedRate(AlchemyService::sendItems, 10L, 10, TimeUnit.SECONDS);
     }
 
     // Główna metoda wywoływana z GItem
@@ -441,14 +437,23 @@ public class AlchemyService {
         return raw.length() >= 5;
     }
 
+    private static Uploader.Target target() {
+        if (!isValidEndpoint()) return null;
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", "H&H Client");
+        String token = OptWnd.alchemyBookTokenTextEntry.buf.line();
+        if (token != null && !(token = token.trim()).isEmpty()) {
+            headers.put("Authorization", "Bearer " + token);
+        }
+        return new Uploader.Target(OptWnd.alchemyBookEndpointTextEntry.buf.line().trim(), headers);
+    }
+
     private static void sendItems() {
         if (sendQueue.isEmpty()) {
             return;
         }
 
-        final String endpoint = OptWnd.alchemyBookEndpointTextEntry.buf.line();
-        if (endpoint == null || !isValidEndpoint()) return;
-        final java.net.URI apiBase = java.net.URI.create(endpoint.trim());
+        if (!isValidEndpoint()) return;
 
         List<ParsedAlchemyInfo> toSend = new ArrayList<>();
         while (!sendQueue.isEmpty()) {
@@ -457,63 +462,11 @@ public class AlchemyService {
         }
 
         if (!toSend.isEmpty()) {
-            HttpURLConnection connection = null;
-            try {
-                String jsonPayload = new JSONArray(toSend.toArray()).toString();
-
-                connection = (HttpURLConnection) apiBase.toURL().openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setRequestProperty("User-Agent", "H&H Client");
-                connection.setDoOutput(true);
-
-                String token = OptWnd.alchemyBookTokenTextEntry.buf.line();
-                if (token != null && !(token = token.trim()).isEmpty()) {
-                    connection.setRequestProperty("Authorization", "Bearer " + token);
-                }
-
-                try (OutputStream out = connection.getOutputStream()) {
-                    out.write(jsonPayload.getBytes(StandardCharsets.UTF_8));
-                }
-
-                int code = connection.getResponseCode();
-
-                if (alchemyDebug) {
-                    System.out.println("[Alchemy] Response code: " + code);
-
-                    try {
-                        InputStream is = (code == 200) ? connection.getInputStream() : connection.getErrorStream();
-                        if (is != null) {
-                            byte[] bytes = new byte[is.available()];
-                            is.read(bytes);
-                            String responseBody = new String(bytes, StandardCharsets.UTF_8);
-                            System.out.println("[Alchemy] Response: " + responseBody);
-                            is.close();
-                        }
-                    } catch (Exception e) {
-                        System.out.println("[Alchemy] Could not read response: " + e.getMessage());
-                    }
-                }
-
-                if (code != 200) {
-                    if (alchemyDebug) {
-                        String responseMessage = connection.getResponseMessage();
-                        System.out.println("[Alchemy] Failed to send alchemy items");
-                        System.out.println("  URL: " + apiBase);
-                        System.out.println("  HTTP " + code + " " + responseMessage);
-                        System.out.println("  Items: " + toSend.size());
-                    }
-                }
-            } catch (Exception ex) {
-                if (alchemyDebug) {
-                    System.out.println("[Alchemy] Exception while sending " + toSend.size() + " alchemy items to " + apiBase + ": " + ex);
-                    ex.printStackTrace(System.out);
-                }
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
-                }
+            String jsonPayload = new JSONArray(toSend.toArray()).toString();
+            if (alchemyDebug) {
+                System.out.println("[Alchemy] Queueing " + toSend.size() + " items, " + jsonPayload.length() + " bytes");
             }
+            Uploader.get().submit(Uploader.Job.json("alchemybook", "", jsonPayload));
         }
     }
 
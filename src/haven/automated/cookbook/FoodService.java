@@ -1,36 +1,34 @@
 package haven.automated.cookbook;
 
 import haven.*;
+import haven.automated.uploader.Uploader;
 import haven.res.ui.tt.q.qbuff.QBuff;
 import haven.resutil.FoodInfo;
 import org.json.JSONArray;
 
-import java.io.OutputStream;
 import java.math.BigInteger;
-import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class FoodService {
     private static final Map<String, ParsedFoodInfo> cachedItems = new ConcurrentHashMap<>();
     private static final Queue<HashedFoodInfo> sendQueue = new ConcurrentLinkedQueue<>();
-    public static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
 
     private static final boolean cookbookDebug = false;
 
     static {
-        scheduler.scheduleAtFixedRate(FoodService::sendItems, 10L, 10, TimeUnit.SECONDS);
+        Uploader.get().register("cookbook", FoodService::target);
+        Uploader.get().scheduler().scheduleAtFixedRate(FoodService::sendItems, 10L, 10, TimeUnit.SECONDS);
     }
 
     public static void checkFood(List<ItemInfo> ii, Resource res) {
@@ -106,14 +104,23 @@ public class FoodService {
         return raw.length() >= 5;
     }
 
+    private static Uploader.Target target() {
+        if (!isValidEndpoint()) return null;
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", "H&H Client");
+        String token = OptWnd.cookBookTokenTextEntry.buf.line();
+        if (token != null && !(token = token.trim()).isEmpty()) {
+            headers.put("Authorization", "Bearer " + token);
+        }
+        return new Uploader.Target(OptWnd.cookBookEndpointTextEntry.buf.line().trim(), headers);
+    }
+
     private static void sendItems() {
         if (sendQueue.isEmpty()) {
             return;
         }
 
-        final String endpoint = OptWnd.cookBookEndpointTextEntry.buf.line();
-        if (endpoint == null || !isValidEndpoint()) return;
-        final java.net.URI apiBase = java.net.URI.create(endpoint.trim());
+        if (!isValidEndpoint()) return;
 
         List<ParsedFoodInfo> toSend = new ArrayList<>();
         while (!sendQueue.isEmpty()) {
@@ -126,48 +133,11 @@ public class FoodService {
         }
 
         if (!toSend.isEmpty()) {
-            HttpURLConnection connection = null;
-            try {
-                String jsonPayload = new JSONArray(toSend.toArray()).toString();
-
-                connection = (HttpURLConnection) apiBase.toURL().openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setRequestProperty("User-Agent", "H&H Client");
-                connection.setDoOutput(true);
-
-                String token = OptWnd.cookBookTokenTextEntry.buf.line();
-                if (token != null && !(token = token.trim()).isEmpty()) {
-                    connection.setRequestProperty("Authorization", "Bearer " + token);
-                }
-
-                try (OutputStream out = connection.getOutputStream()) {
-                    out.write(jsonPayload.getBytes(StandardCharsets.UTF_8));
-                }
-
-                int code = connection.getResponseCode();
-
-                if (code != 200) {
-                    if (cookbookDebug) {
-                        String responseMessage = connection.getResponseMessage();
-
-                        System.out.println("[Cookbook] Failed to send food items");
-                        System.out.println("  URL: " + apiBase);
-                        System.out.println("  HTTP " + code + " " + responseMessage);
-                        System.out.println("  Items: " + toSend.size());
-                        System.out.println("  Payload size: " + jsonPayload.length() + " bytes");
-                    }
-                }
-            } catch (Exception ex) {
-                if (cookbookDebug) {
-                    System.out.println("[Cookbook] Exception while sending " + toSend.size() + " food items to " + apiBase + ": " + ex);
-                    ex.printStackTrace(System.out);
-                }
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
-                }
+            String jsonPayload = new JSONArray(toSend.toArray()).toString();
+            if (cookbookDebug) {
+                System.out.println("[Cookbook] Queueing " + toSend.size() + " items, " + jsonPayload.length() + " bytes");
             }
+            Uploader.get().submit(Uploader.Job.json("cookbook", "", jsonPayload));
         }
     }
 
@@ -2,6 +2,7 @@ package haven.automated.mapper;
 
 import haven.*;
 import haven.MCache.LoadingMap;
+import haven.automated.uploader.Uploader;
 import haven.res.ui.obj.buddy.Buddy;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -10,8 +11,6 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
@@ -21,8 +20,9 @@ import java.util.stream.Collectors;
 
 /** @author Vendan **/
 public class MappingClient {
-    private ExecutorService gridsUploader = Executors.newSingleThreadExecutor();
-    private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
+    private final ScheduledExecutorService scheduler = Uploader.get().scheduler();
+    private ScheduledFuture<?> positions;
+    private volatile boolean closed = false;
     
     private static volatile MappingClient INSTANCE = null;
     
@@ -43,8 +43,8 @@ public class MappingClient {
     public static void destroy() {
 	synchronized (MappingClient.class) {
 	    if(INSTANCE != null) {
-	        INSTANCE.gridsUploader.shutdown();
-	        INSTANCE.scheduler.shutdown();
+		INSTANCE.closed = true;
+		INSTANCE.positions.cancel(false);
 		INSTANCE = null;
 	    }
 	}
@@ -65,7 +65,15 @@ public class MappingClient {
     
     private MappingClient(Glob glob) {
 	this.glob = glob;
-	scheduler.scheduleAtFixedRate(pu, 2L, 2L, TimeUnit.SECONDS);
+	Uploader.get().register("mapper", MappingClient::target);
+	positions = scheduler.scheduleAtFixedRate(pu, 2L, 2L, TimeUnit.SECONDS);
+    }
+
+    private static Uploader.Target target() {
+	String endpoint = OptWnd.webmapEndpointTextEntry.buf.line();
+	if(endpoint == null || endpoint.trim().isEmpty())
+	    return null;
+	return new Uploader.Target(endpoint);
     }
 
     private String playerName;
@@ -196,61 +204,70 @@ public class MappingClient {
 		    Thread.sleep(50);
 		} catch (InterruptedException ex) { }
 	    }
-	    try {
-		scheduler.execute(new MarkerUpdate(new JSONArray(loadedMarkers.toArray())));
-	    } catch (Exception ex) {
-	    }
+	    uploadMarkers(new JSONArray(loadedMarkers.toArray()), null);
 	}
     }
 
-    private class MarkerUpdate implements Runnable {
-	JSONArray data;
-
-	MarkerUpdate(JSONArray data) {
-	    this.data = data;
-	}
-
-	@Override
-	public void run() {
-	    try {
-		HttpURLConnection connection =
-		    (HttpURLConnection) new URL(OptWnd.webmapEndpointTextEntry.buf.line() + "/markerUpdate").openConnection();
-		connection.setRequestMethod("POST");
-		connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
-		connection.setDoOutput(true);
-		try (DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
-		    final String json = data.toString();
-		    out.write(json.getBytes(StandardCharsets.UTF_8));
-		}
-		int code = connection.getResponseCode();
-		connection.disconnect();
-	    } catch (Exception ex) {
-		System.out.println(ex);
-	    }
-	}
+    /* Markers with a key replace a queued, unsent update of the same key. */
+    private void uploadMarkers(JSONArray data, String key) {
+	Uploader.get().submit(Uploader.Job.json("mapper", "/markerUpdate", data.toString()).key(key));
     }
     
+    /* Uploads only the entities that moved since the server last
+     * acknowledged them, written straight to a string rather than
+     * through a JSONObject tree. An entity counts as moved when it
+     * changed grids or moved at least MOVETHRES tiles. Each entry
+     * carries a per-entity sequence number, and every KEYFRAME-th
+     * upload carries every tracked entity, so that a server which
+     * lost its state catches up. */
     private class PositionUpdates implements Runnable {
+	private static final int KEYFRAME = 4;
+	private static final int MOVETHRES = 1;
+	
 	private class Tracking {
 	    public String name;
 	    public String type;
 	    public long gridId;
 	    public Coord2d coords;
+	    public long seq = 0;
+	    /* State last acknowledged by the server */
+	    public long ackseq = -1, ackgrid;
+	    public int ackx, acky;
+	    
+	    public int x() {return((int) (coords.x / 11));}
+	    public int y() {return((int) (coords.y / 11));}
+	    
+	    boolean moved() {
+		return((ackseq < 0) || (gridId != ackgrid) ||
+		       (Math.abs(x() - ackx) >= MOVETHRES) || (Math.abs(y() - acky) >= MOVETHRES));
+	    }
+	    
+	    void write(StringBuilder buf, long id) {
+		buf.append('"').append(id).append("\":{\"name\":").append(JSONObject.quote(name))
+		    .append(",\"type\":").append(JSONObject.quote(type))
+		    .append(",\"gridID\":\"").append(gridId)
+		    .append("\",\"coords\":{\"x\":").append(x()).append(",\"y\":").append(y())
+		    .append("},\"seq\":").append(seq).append('}');
+	    }
+	}
+	
+	private class Sent {
+	    final Tracking t;
+	    final long seq, grid;
+	    final int x, y;
 	    
-	    public JSONObject getJSON() {
-		JSONObject j = new JSONObject();
-		j.put("name", name);
-		j.put("type", type);
-		j.put("gridID", String.valueOf(gridId));
-		JSONObject c = new JSONObject();
-		c.put("x", (int) (coords.x / 11));
-		c.put("y", (int) (coords.y / 11));
-		j.put("coords", c);
-		return j;
+	    Sent(Tracking t) {
+		this.t = t;
+		this.seq = t.seq;
+		this.grid = t.gridId;
+		this.x = t.x();
+		this.y = t.y();
 	    }
 	}
 	
 	private Map<Long, Tracking> tracking = new ConcurrentHashMap<Long, Tracking>();
+	private final StringBuilder buf = new StringBuilder();
+	private int uploads = 0;
 	
 	private PositionUpdates() {
 	}
@@ -259,7 +276,6 @@ public class MappingClient {
 	    Tracking t = tracking.get(id);
 	    if(t == null) {
 		t = new Tracking();
-		tracking.put(id, t);
 		
 		if(id == glob.sess.ui.gui.map.plgob) {
 		    t.name = playerName;
@@ -278,8 +294,22 @@ public class MappingClient {
 		    }
 		}
 	    }
-	    t.gridId = gridId;
-	    t.coords = gridOffset(coordinates);
+	    synchronized(this) {
+		t.gridId = gridId;
+		t.coords = gridOffset(coordinates);
+		tracking.put(id, t);
+	    }
+	}
+	
+	private synchronized void ack(List<Sent> sent) {
+	    for(Sent s : sent) {
+		if(s.seq > s.t.ackseq) {
+		    s.t.ackseq = s.seq;
+		    s.t.ackgrid = s.grid;
+		    s.t.ackx = s.x;
+		    s.t.acky = s.y;
+		}
+	    }
 	}
 	
 	@Override
@@ -288,31 +318,38 @@ public class MappingClient {
 		spamCount = 0;
 		if(OptWnd.sendLiveLocationCheckBox.a) {
 		    Glob g = glob;
-		    Iterator<Map.Entry<Long, Tracking>> i = tracking.entrySet().iterator();
-		    JSONObject upload = new JSONObject();
-		    while (i.hasNext()) {
-			Map.Entry<Long, Tracking> e = i.next();
-			if(g.oc.getgob(e.getKey()) == null) {
-			    i.remove();
-			} else {
-			    upload.put(String.valueOf(e.getKey()), e.getValue().getJSON());
+		    List<Sent> sent = new ArrayList<>();
+		    String upload;
+		    synchronized(this) {
+			boolean keyframe = (uploads++ % KEYFRAME) == 0;
+			Iterator<Map.Entry<Long, Tracking>> i = tracking.entrySet().iterator();
+			buf.setLength(0);
+			buf.append('{');
+			while (i.hasNext()) {
+			    Map.Entry<Long, Tracking> e = i.next();
+			    Tracking t = e.getValue();
+			    if(g.oc.getgob(e.getKey()) == null) {
+				i.remove();
+			    } else if(keyframe || t.moved()) {
+				/* Unacknowledged entries go again, so one
+				 * that was coalesced away is not lost. */
+				t.seq++;
+				if(!sent.isEmpty())
+				    buf.append(',');
+				t.write(buf, e.getKey());
+				sent.add(new Sent(t));
+			    }
 			}
+			buf.append('}');
+			upload = buf.toString();
 		    }
+		    if(sent.isEmpty())
+			return;
 		    
-		    try {
-			final HttpURLConnection connection =
-			    (HttpURLConnection) new URL(OptWnd.webmapEndpointTextEntry.buf.line() + "/positionUpdate").openConnection();
-			connection.setRequestMethod("POST");
-			connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
-			connection.setDoOutput(true);
-			try (DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
-			    final String json = upload.toString();
-			    out.write(json.getBytes(StandardCharsets.UTF_8));
-			} catch (Exception e) {
-			}
-			connection.getResponseCode();
-		    } catch (final Exception ex) {
-		    }
+		    /* Only the latest positions matter, so these neither
+		     * survive a restart nor queue up behind each other. */
+		    Uploader.get().submit(Uploader.Job.json("mapper", "/positionUpdate", upload).ephemeral().key("mapper/position")
+					  .onresponse(rsp -> ack(sent)));
 		}
 	    } else {
 		spamCount++;
@@ -345,7 +382,7 @@ public class MappingClient {
 	
 	@Override
 	public void run() {
-	    if(OptWnd.uploadMapTilesCheckBox.a) {
+	    if(!closed && OptWnd.uploadMapTilesCheckBox.a) {
 		final String[][] gridMap = new String[3][3];
 		Map<String, WeakReference<MCache.Grid>> gridRefs = new HashMap<String, WeakReference<MCache.Grid>>();
 		try {
@@ -356,7 +393,7 @@ public class MappingClient {
 			    gridRefs.put(String.valueOf(subg.id), new WeakReference<MCache.Grid>(subg));
 			}
 		    }
-		    scheduler.execute(new UploadGridUpdateTask(new GridUpdate(gridMap, gridRefs)));
+		    uploadGridUpdate(new GridUpdate(gridMap, gridRefs));
 		} catch (LoadingMap lm) {
 		    retries--;
 		    if(retries >= 0) {
@@ -370,57 +407,35 @@ public class MappingClient {
 	}
     }
     
-    private class UploadGridUpdateTask implements Runnable {
-	private final GridUpdate gridUpdate;
-	
-	UploadGridUpdateTask(final GridUpdate gridUpdate) {
-	    this.gridUpdate = gridUpdate;
-	}
-	
-	@Override
-	public void run() {
-	    if(OptWnd.uploadMapTilesCheckBox.a) {
-		HashMap<String, Object> dataToSend = new HashMap<>();
-		
-		dataToSend.put("grids", this.gridUpdate.grids);
-		try {
-		    HttpURLConnection connection =
-			(HttpURLConnection) new URL(OptWnd.webmapEndpointTextEntry.buf.line() + "/gridUpdate").openConnection();
-		    connection.setRequestMethod("POST");
-		    connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
-		    connection.setDoOutput(true);
-		    try (DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
-			String json = new JSONObject(dataToSend).toString();
-			out.write(json.getBytes(StandardCharsets.UTF_8));
+    /* The response names the grids the server lacks, which are only
+     * renderable while they are still loaded, so grid updates are not
+     * kept across restarts. */
+    private void uploadGridUpdate(GridUpdate gridUpdate) {
+	if(!OptWnd.uploadMapTilesCheckBox.a)
+	    return;
+	HashMap<String, Object> dataToSend = new HashMap<>();
+	dataToSend.put("grids", gridUpdate.grids);
+	Uploader.Job job = Uploader.Job.json("mapper", "/gridUpdate", new JSONObject(dataToSend).toString())
+	    .ephemeral().key("mapper/gridUpdate/" + gridUpdate.grids[1][1])
+	    .onresponse(rsp -> {
+		    if(closed)
+			return;
+		    JSONObject jo = new JSONObject(new String(rsp, StandardCharsets.UTF_8));
+		    JSONArray reqs = jo.optJSONArray("gridRequests");
+		    synchronized (cache) {
+			cache.put(Long.valueOf(gridUpdate.grids[1][1]), new MapRef(jo.getLong("map"), new Coord(jo.getJSONObject("coords").getInt("x"), jo.getJSONObject("coords").getInt("y"))));
 		    }
-		    if(connection.getResponseCode() == 200) {
-			DataInputStream dio = new DataInputStream(connection.getInputStream());
-			int nRead;
-			byte[] data = new byte[1024];
-			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-			while ((nRead = dio.read(data, 0, data.length)) != -1) {
-			    buffer.write(data, 0, nRead);
-			}
-			buffer.flush();
-			String response = buffer.toString(StandardCharsets.UTF_8.name());
-			JSONObject jo = new JSONObject(response);
-			JSONArray reqs = jo.optJSONArray("gridRequests");
-			synchronized (cache) {
-			    cache.put(Long.valueOf(gridUpdate.grids[1][1]), new MapRef(jo.getLong("map"), new Coord(jo.getJSONObject("coords").getInt("x"), jo.getJSONObject("coords").getInt("y"))));
-			}
-			for (int i = 0; reqs != null && i < reqs.length(); i++) {
-			    gridsUploader.execute(new GridUploadTask(reqs.getString(i), gridUpdate.gridRefs.get(reqs.getString(i))));
-			}
+		    for (int i = 0; reqs != null && i < reqs.length(); i++) {
+			scheduler.execute(new GridUploadTask(reqs.getString(i), gridUpdate.gridRefs.get(reqs.getString(i))));
 		    }
-		    
-		} catch (Exception ignored) {}
-	    }
-	}
+		});
+	Uploader.get().submit(job);
     }
     
     private class GridUploadTask implements Runnable {
 	private final String gridID;
 	private final WeakReference<MCache.Grid> grid;
+	private int tries = 0;
 	
 	GridUploadTask(String gridID, WeakReference<MCache.Grid> grid) {
 	    this.gridID = gridID;
@@ -429,30 +444,32 @@ public class MappingClient {
 	
 	@Override
 	public void run() {
+	    if(closed || grid == null)
+		return;
 	    try {
 		MCache.Grid g = grid.get();
 		if(g != null && glob != null) {
-			BufferedImage image = MinimapImageGenerator.drawmap(glob.map, g);
+		    BufferedImage image = MinimapImageGenerator.drawmap(glob.map, g);
 		    if(image == null) {
 			throw new Loading();
 		    }
-		    try {
-			JSONObject extraData = new JSONObject();
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			ImageIO.write(image, "png", outputStream);
-			ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
-			MultipartUtility multipart = new MultipartUtility(OptWnd.webmapEndpointTextEntry.buf.line() + "/gridUpload", "utf-8");
-			multipart.addFormField("id", this.gridID);
-			multipart.addFilePart("file", inputStream, "minimap.png");
-			extraData.put("season", glob.ast.is);
-			multipart.addFormField("extraData", extraData.toString());
-			MultipartUtility.Response response = multipart.finish();
-		    } catch (IOException ignored) {}
+		    ByteArrayOutputStream png = new ByteArrayOutputStream();
+		    ImageIO.write(image, "png", png);
+		    JSONObject extraData = new JSONObject();
+		    extraData.put("season", glob.ast.is);
+		    Map<String, String> fields = new LinkedHashMap<>();
+		    fields.put("id", gridID);
+		    fields.put("extraData", extraData.toString());
+		    Uploader.get().submit(Uploader.Job.form("mapper", "/gridUpload", fields, "file", "minimap.png", "image/png", png.toByteArray())
+					  .key("mapper/gridUpload/" + gridID));
 		}
 	    } catch (Loading ex) {
-		gridsUploader.submit(this);
+		/* Wait for the grid to finish loading rather than
+		 * re-rendering it in a tight loop. */
+		long delay = Math.min(50L << Math.min(tries++, 10), 5000L);
+		scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+	    } catch (IOException ignored) {
 	    }
-	    
 	}
     }
     
@@ -497,7 +514,7 @@ public class MappingClient {
 			obj.put("id", marker.oid);
 			obj.put("image", marker.res.name);
 
-			scheduler.execute(new MarkerUpdate(new JSONArray(List.of(obj))));
+			uploadMarkers(new JSONArray(List.of(obj)), "mapper/marker/" + marker.oid);
 		} catch (Loading ignored) {
 		}
 	}
@@ -2,9 +2,10 @@ package haven.automated.pathfinder;
 
 
 import haven.*;
-import haven.automated.helpers.HitBoxes;
 
 import java.awt.*;
+import java.io.*;
+import java.nio.file.*;
 import java.util.List;
 import java.util.*;
 
@@ -20,10 +21,10 @@ public class Map {
     public final static int origin = origintile * 11;
     public final static int sz = origin * 2;
     public static int plbbox = 3;
-    private final static int way = plbbox + 2;
-    private final static int clr = way + 1;
+    final static int way = plbbox + 2;
+    final static int clr = way + 1;
     private final static int concaveclr = 2;
-    private final static int tomaxside = 33;
+    final static int tomaxside = 33;
     private final static int mapborder = 4;
 
     private final static int tbbax = -2;
@@ -31,12 +32,23 @@ public class Map {
     private final static int tbbbx = 2;
     private final static int tbbby = 2;
 
-    private final byte[][] map = new byte[sz][sz];
-    private final TraversableObstacle[][] pomap = new TraversableObstacle[sz][sz];
+    // The rasters are about a megabyte each, so ObstacleField keeps them
+    // around for the next query instead of allocating them anew.
+    static class Buffers {
+        final byte[][] map = new byte[sz][sz];
+        final TraversableObstacle[][] pomap = new TraversableObstacle[sz][sz];
+        ThetaStar theta;
+    }
+
+    private final Buffers buf;
+    private final byte[][] map;
+    private final TraversableObstacle[][] pomap;
     private final ArrayList<TraversableObstacle> tocandidates = new ArrayList<TraversableObstacle>(300);
+    private final ArrayList<TraversableObstacle> tos = new ArrayList<TraversableObstacle>();
     public Coord plc;
     private final Coord endc;
-    private final MCache mcache;
+    private final ObstacleField field;
+    private ObstacleField.Tiles tiles;
     private Vertex vxstart;
     private Vertex vxend;
 
@@ -44,15 +56,65 @@ public class Map {
     private final static boolean DEBUG = false;
     public final static boolean DEBUG_TIMINGS = false;
 
-    public Map(Coord plc, Coord endc, MCache mcache) {
+    public enum Planner {
+        // visibility graph over obstacle corners, routed with AStar
+        VISGRAPH,
+        // any-angle search over the raster itself, see ThetaStar
+        THETA,
+    }
+
+    public static volatile Planner planner = haven.Utils.getprefb("pathfinderThetaStar", false) ? Planner.THETA : Planner.VISGRAPH;
+    // Appends every prepared layout to this file, for PathBench.
+    public static final Config.Variable<Path> record = Config.Variable.propp("haven.pfrecord", (Path) null);
+
+    public Map(Coord plc, Coord endc, ObstacleField field) {
         this.plc = plc;
         this.endc = endc;
-        this.mcache = mcache;
+        this.field = field;
+        this.buf = field.buffers();
+        this.map = buf.map;
+        this.pomap = buf.pomap;
         dbg = new Dbg(DEBUG);
         dbg.init();
 
     }
 
+    // A map without live obstacle state, to be filled through plot() or load().
+    public Map(Coord endc) {
+        this.plc = Coord.z;
+        this.endc = endc;
+        this.field = null;
+        this.buf = new Buffers();
+        this.map = buf.map;
+        this.pomap = buf.pomap;
+        dbg = new Dbg(DEBUG);
+        dbg.init();
+    }
+
+    // Clears the rasters and hands them back to the field. The map
+    // must not be used afterwards.
+    public void release() {
+        for (byte[] col : map)
+            Arrays.fill(col, CELL_FREE);
+        for (TraversableObstacle sm : tocandidates) {
+            Utils.Raster r = sm.raster;
+            for (int i = 0; i < r.min.length; i++) {
+                for (int x = r.min[i]; x <= r.max[i]; x++)
+                    pomap[x + sm.rx][r.y0 + i + sm.ry] = null;
+            }
+        }
+        tocandidates.clear();
+        tos.clear();
+        if (field != null)
+            field.release(buf);
+    }
+
+    private boolean blocking(int tx, int ty) {
+        if (tiles == null || !tiles.contains(tx, ty))
+            tiles = field.tiles(tx, ty);
+        return tiles.blocking(tx, ty);
+    }
+
     private void initGeography() {
         Coord pltc = new Coord(plc.x / 11, plc.y / 11);
 
@@ -61,16 +123,7 @@ public class Map {
 
         for (int x = -origintile; x < origintile; x++) {
             for (int y = -origintile; y < origintile; y++) {
-                int t = mcache.gettile(pltc.sub(x, y));
-                Resource res = mcache.tilesetr(t);
-                if (res == null)
-                    continue;
-
-                String name = res.name;
-                if (!name.equals("gfx/tiles/deep") &&
-                        !name.equals("gfx/tiles/cave") &&
-                        !name.equals("gfx/tiles/nil") &&
-                        !name.startsWith("gfx/tiles/rocks/"))
+                if (!blocking(pltc.x - x, pltc.y - y))
                     continue;
 
                 int gcx = origin - (x * 11) - dx;
@@ -120,7 +173,9 @@ public class Map {
                 dbg.rect(ca.x, ca.y, cb.x, cb.y, cc.x, cc.y, cd.x, cd.y, Color.CYAN);
             }
         }
+    }
 
+    private void outline() {
         // outline map edges. FIXME
         for (int i = 0; i < sz; i++) {
             map[i][mapborder] = CELL_BLK;
@@ -135,111 +190,16 @@ public class Map {
         }
     }
 
-    public void analyzeGobHitBoxes(Gob gob) {
-        if (gob.getres() == null) {
-            return;
-        }
+    public void plot(ObstacleField.Obstacle ob) {
+        int gcx = origin - (plc.x - ob.x);
+        int gcy = origin - (plc.y - ob.y);
 
-        if (HitBoxes.collisionBoxMap.get(gob.getres().name) != null) {
-            HitBoxes.CollisionBoxSecondary[] collisionBoxSecondaries = HitBoxes.collisionBoxMap.get(gob.getres().name);
-            if (gob.getres().name.contains("/pow")) {
-                Resource res = gob.getres();
-                ResDrawable rd = gob.getattr(ResDrawable.class);
-                if (rd != null) {
-                    if (res.name.endsWith("/pow") && (rd.sdt.checkrbuf(0) != 33 && rd.sdt.checkrbuf(0) != 17)) {
-                        addGobToList(new Coord(-4, -4), new Coord(4, 4), gob);
-                    }
-                }
-            } else if (gob.getres().name.contains("gate")){
-                Resource res = gob.getres();
-                ResDrawable rd = gob.getattr(ResDrawable.class);
-                if (rd != null){
-                    if (res.name.contains("gate") && (rd.sdt.checkrbuf(0) != 1)){
-                        if(gob.getres().name.contains("big")){
-                            addGobToList(new Coord(-5, -16), new Coord(5, 16), gob);
-                        } else {
-                            addGobToList(new Coord(-5, -11), new Coord(5, 11), gob);
-                        }
-                    }
-                }
-            } else {
-                for (HitBoxes.CollisionBoxSecondary collisionBox : collisionBoxSecondaries) {
-                    if (!collisionBox.hitAble) {
-                        return;
-                    } else {
-                        if (collisionBox.coords == null || collisionBox.coords.length < 3) {
-                            return;
-                        }
-
-                        double minX = Double.MAX_VALUE;
-                        double minY = Double.MAX_VALUE;
-                        double maxX = Double.MIN_VALUE;
-                        double maxY = Double.MIN_VALUE;
-
-                        for (Coord2d coord : collisionBox.coords) {
-                            minX = Math.min(minX, coord.x);
-                            minY = Math.min(minY, coord.y);
-                            maxX = Math.max(maxX, coord.x);
-                            maxY = Math.max(maxY, coord.y);
-                        }
-                        addGobToList(new Coord2d(minX, minY).floor(), new Coord2d(maxX, maxY).floor(), gob);
-                    }
-                }
-            }
-        }
+        for (ObstacleField.Part p : ob.shape.parts)
+            plot(p, gcx, gcy);
     }
 
-    public void addGobToList(Coord topLeftPoint, Coord bottomRightPoint, Gob gob) {
-        int gcx = origin - (plc.x - gob.rc.floor().x);
-        int gcy = origin - (plc.y - gob.rc.floor().y);
-
-
-        int rotadj = 0;
-        if (gob.a != 0 && gob.a != Math.PI && gob.a != Math.PI / 2.0 && gob.a != (3 * Math.PI) / 2) {
-            rotadj = 1;
-        }
-        Coord ca, cb, cc, cd, wa, wb, wc, wd, clra, clrb, clrc, clrd;
-
-        if (Math.abs(topLeftPoint.x) + Math.abs(bottomRightPoint.x) == Math.abs(topLeftPoint.y) + Math.abs(bottomRightPoint.y) && rotadj == 0) {
-            // bounding box
-            ca = new Coord(gcx + topLeftPoint.x - plbbox, gcy + topLeftPoint.y - plbbox);
-            cb = new Coord(gcx + bottomRightPoint.x + plbbox, gcy + topLeftPoint.y - plbbox);
-            cc = new Coord(gcx + bottomRightPoint.x + plbbox, gcy + bottomRightPoint.y + plbbox);
-            cd = new Coord(gcx + topLeftPoint.x - plbbox, gcy + bottomRightPoint.y + plbbox);
-
-            // calculate waypoints located on the angular bisector of the corner
-            wa = new Coord(gcx + topLeftPoint.x - way, gcy + topLeftPoint.y - way);
-            wb = new Coord(gcx + bottomRightPoint.x + way, gcy + topLeftPoint.y - way);
-            wc = new Coord(gcx + bottomRightPoint.x + way, gcy + bottomRightPoint.y + way);
-            wd = new Coord(gcx + topLeftPoint.x - way, gcy + bottomRightPoint.y + way);
-
-            // calculate TO clearance vertices
-            clra = new Coord(gcx + topLeftPoint.x - clr, gcy + topLeftPoint.y - clr);
-            clrb = new Coord(gcx + bottomRightPoint.x + clr, gcy + topLeftPoint.y - clr);
-            clrc = new Coord(gcx + bottomRightPoint.x + clr, gcy + bottomRightPoint.y + clr);
-            clrd = new Coord(gcx + topLeftPoint.x - clr, gcy + bottomRightPoint.y + clr);
-        } else {
-            // rotate the bounding box.
-            // FIXME: should rotate around pixel's center
-            double cos = Math.cos(gob.a);
-            double sin = Math.sin(gob.a);
-            ca = Utils.rotate(gcx + topLeftPoint.x - plbbox, gcy + topLeftPoint.y - plbbox, gcx, gcy, cos, sin);
-            cb = Utils.rotate(gcx + bottomRightPoint.x + plbbox, gcy + topLeftPoint.y - plbbox, gcx, gcy, cos, sin);
-            cc = Utils.rotate(gcx + bottomRightPoint.x + plbbox, gcy + bottomRightPoint.y + plbbox, gcx, gcy, cos, sin);
-            cd = Utils.rotate(gcx + topLeftPoint.x - plbbox, gcy + bottomRightPoint.y + plbbox, gcx, gcy, cos, sin);
-
-            // calculate waypoints located on the angular bisector of the corner
-            wa = Utils.rotate(gcx + topLeftPoint.x - way - rotadj, gcy + topLeftPoint.y - way - rotadj, gcx, gcy, cos, sin);
-            wb = Utils.rotate(gcx + bottomRightPoint.x + way + rotadj, gcy + topLeftPoint.y - way - rotadj, gcx, gcy, cos, sin);
-            wc = Utils.rotate(gcx + bottomRightPoint.x + way + rotadj, gcy + bottomRightPoint.y + way + rotadj, gcx, gcy, cos, sin);
-            wd = Utils.rotate(gcx + topLeftPoint.x - way - rotadj, gcy + bottomRightPoint.y + way + rotadj, gcx, gcy, cos, sin);
-
-            // calculate TO clearance vertices
-            clra = Utils.rotate(gcx + topLeftPoint.x - clr - rotadj, gcy + topLeftPoint.y - clr - rotadj, gcx, gcy, cos, sin);
-            clrb = Utils.rotate(gcx + bottomRightPoint.x + clr - rotadj, gcy + topLeftPoint.y - clr - rotadj, gcx, gcy, cos, sin);
-            clrc = Utils.rotate(gcx + bottomRightPoint.x + clr + rotadj, gcy + bottomRightPoint.y + clr + rotadj, gcx, gcy, cos, sin);
-            clrd = Utils.rotate(gcx + topLeftPoint.x - clr - rotadj, gcy + bottomRightPoint.y + clr + rotadj, gcx, gcy, cos, sin);
-        }
+    public void plot(ObstacleField.Part p, int gcx, int gcy) {
+        Coord wa = p.wa.add(gcx, gcy), wb = p.wb.add(gcx, gcy), wc = p.wc.add(gcx, gcy), wd = p.wd.add(gcx, gcy);
 
         // exclude gobs near map edges so we won't need to do bounds checks all over the place
         if (wa.x - mapborder < 0 || wa.y - mapborder < 0 || wa.x + mapborder >= sz || wa.y + mapborder >= sz ||
@@ -258,37 +218,34 @@ public class Map {
             map[wd.x][wd.y] = CELL_WP;
 
         // plot bounding box
-        HashMap<Integer, Utils.MinMax> raster = Utils.plotRect(map, ca, cb, cc, cd, CELL_BLK);
+        p.raster.fill(map, gcx, gcy, CELL_BLK);
 
         // store traversable obstacles candidates
-        if (bottomRightPoint.x <= tomaxside && bottomRightPoint.y <= tomaxside)
-            tocandidates.add(new TraversableObstacle(wa, wb, wc, wd, clra, clrb, clrc, clrd, raster));
+        if (p.to)
+            tocandidates.add(new TraversableObstacle(wa, wb, wc, wd,
+                    p.clra.add(gcx, gcy), p.clrb.add(gcx, gcy), p.clrc.add(gcx, gcy), p.clrd.add(gcx, gcy),
+                    p.raster, gcx, gcy));
 
-        dbg.rect(ca.x, ca.y, cb.x, cb.y, cc.x, cc.y, cd.x, cd.y, Color.CYAN);
+        dbg.rect(p.ca.x + gcx, p.ca.y + gcy, p.cb.x + gcx, p.cb.y + gcy, p.cc.x + gcx, p.cc.y + gcy, p.cd.x + gcx, p.cd.y + gcy, Color.CYAN);
     }
 
-    public void excludeGob(Coord topLeftPoint, Coord bottomRightPoint, Gob gob) {
-        int gcx = origin - (plc.x - gob.rc.floor().x);
-        int gcy = origin - (plc.y - gob.rc.floor().y);
-
-        // rotate the bounding box.
-        // FIXME: should rotate around pixel's center
-        double cos = Math.cos(gob.a);
-        double sin = Math.sin(gob.a);
-        Coord ca = Utils.rotate(gcx + topLeftPoint.x - plbbox, gcy + topLeftPoint.y - plbbox, gcx, gcy, cos, sin);
-        Coord cb = Utils.rotate(gcx + bottomRightPoint.x + plbbox, gcy + topLeftPoint.y - plbbox, gcx, gcy, cos, sin);
-        Coord cc = Utils.rotate(gcx + bottomRightPoint.x + plbbox, gcy + bottomRightPoint.y + plbbox, gcx, gcy, cos, sin);
-        Coord cd = Utils.rotate(gcx + topLeftPoint.x - plbbox, gcy + bottomRightPoint.y + plbbox, gcx, gcy, cos, sin);
-
-        // exclude the gob if it's near map edges so we won't need to do bounds checks all later on
-        if (ca.x - mapborder < 0 || ca.y - mapborder < 0 || ca.x + mapborder >= sz || ca.y + mapborder >= sz ||
-                cb.x - mapborder < 0 || cb.y - mapborder < 0 || cb.x + mapborder >= sz || cb.y + mapborder >= sz ||
-                cc.x - mapborder < 0 || cc.y - mapborder < 0 || cc.x + mapborder >= sz || cc.y + mapborder >= sz ||
-                cd.x - mapborder < 0 || cd.y - mapborder < 0 || cd.x + mapborder >= sz || cd.y + mapborder >= sz)
-            return;
+    public void exclude(ObstacleField.Obstacle ob) {
+        int gcx = origin - (plc.x - ob.x);
+        int gcy = origin - (plc.y - ob.y);
+
+        for (ObstacleField.Part p : ob.shape.excl) {
+            Coord ca = p.ca.add(gcx, gcy), cb = p.cb.add(gcx, gcy), cc = p.cc.add(gcx, gcy), cd = p.cd.add(gcx, gcy);
+
+            // exclude the gob if it's near map edges so we won't need to do bounds checks all later on
+            if (ca.x - mapborder < 0 || ca.y - mapborder < 0 || ca.x + mapborder >= sz || ca.y + mapborder >= sz ||
+                    cb.x - mapborder < 0 || cb.y - mapborder < 0 || cb.x + mapborder >= sz || cb.y + mapborder >= sz ||
+                    cc.x - mapborder < 0 || cc.y - mapborder < 0 || cc.x + mapborder >= sz || cc.y + mapborder >= sz ||
+                    cd.x - mapborder < 0 || cd.y - mapborder < 0 || cd.x + mapborder >= sz || cd.y + mapborder >= sz)
+                continue;
 
-        Utils.plotRect(map, ca, cb, cc, cd, CELL_FREE);
-        dbg.rect(ca.x, ca.y, cb.x, cb.y, cc.x, cc.y, cd.x, cd.y, Color.PINK);
+            p.raster.fill(map, gcx, gcy, CELL_FREE);
+            dbg.rect(ca.x, ca.y, cb.x, cb.y, cc.x, cc.y, cd.x, cd.y, Color.PINK);
+        }
     }
 
     private void sanitizeWaypoints() {
@@ -327,12 +284,17 @@ public class Map {
             map[sm.wc.x][sm.wc.y] = CELL_FREE;
             map[sm.wd.x][sm.wd.y] = CELL_FREE;
 
-            for (int y : sm.raster.keySet()) {
-                Utils.MinMax mm = sm.raster.get(y);
-                for (int x = mm.min; x <= mm.max; x++) {
-                    map[x][y] = Map.CELL_TO;
-                    pomap[x][y] = sm;
-                }
+            settraversable(sm);
+            tos.add(sm);
+        }
+    }
+
+    private void settraversable(TraversableObstacle sm) {
+        Utils.Raster r = sm.raster;
+        for (int i = 0; i < r.min.length; i++) {
+            for (int x = r.min[i]; x <= r.max[i]; x++) {
+                map[x + sm.rx][r.y0 + i + sm.ry] = Map.CELL_TO;
+                pomap[x + sm.rx][r.y0 + i + sm.ry] = sm;
             }
         }
     }
@@ -448,8 +410,29 @@ public class Map {
     }
 
     public Iterable<Edge> main() {
+        prepare();
+        Path rec = record.get();
+        if (rec != null) {
+            try {
+                synchronized (Map.class) {
+                    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                            Files.newOutputStream(rec, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+                        save(out);
+                    }
+                }
+            } catch (IOException e) {
+                new Warning(e, "could not record pathfinder layout").issue();
+            }
+        }
+        return route(planner);
+    }
+
+    // Finishes the raster once all obstacles have been plotted.
+    public void prepare() {
         long start = System.nanoTime();
-        initGeography();
+        if (field != null)
+            initGeography();
+        outline();
         if (DEBUG_TIMINGS)
             System.out.println("            Geography: " + (double) (System.nanoTime() - start) / 1000000.0 + " ms.");
 
@@ -480,7 +463,10 @@ public class Map {
             map[origin][origin + 1] = CELL_FREE;
         if (map[origin + 1][origin + 1] == CELL_BLK)
             map[origin + 1][origin + 1] = CELL_FREE;
+    }
 
+    public Iterable<Edge> route(Planner planner) {
+        long start;
 
         // test if direct path is clear
         if (Utils.isVisible(map, dbg, origin, origin, endc.x, endc.y, (byte) (CELL_BLK | CELL_TO))) {
@@ -491,6 +477,16 @@ public class Map {
             return clearpath;
         }
 
+        if (planner == Planner.THETA) {
+            if (buf.theta == null)
+                buf.theta = new ThetaStar(sz);
+            start = System.nanoTime();
+            Iterable<Edge> path = buf.theta.route(map, dbg, origin, origin, endc.x, endc.y, (byte) (CELL_BLK | CELL_TO));
+            if (DEBUG_TIMINGS)
+                System.out.println("              Theta*: " + (double) (System.nanoTime() - start) / 1000000.0 + " ms.");
+            return path;
+        }
+
         // test if direct path blocked only by traversable obstacles
         if (Utils.isVisible(map, dbg, origin, origin, endc.x, endc.y, CELL_BLK)) {
             if (DEBUG_TIMINGS)
@@ -593,6 +589,58 @@ public class Map {
     }
 
 
+    // Layouts are stored as the prepared raster, run-length encoded, and
+    // the traversable obstacles it contains.
+    public void save(DataOutputStream out) throws IOException {
+        out.writeInt(endc.x);
+        out.writeInt(endc.y);
+        for (int x = 0; x < sz; x++) {
+            for (int y = 0; y < sz; ) {
+                byte v = map[x][y];
+                int n = 1;
+                while (y + n < sz && map[x][y + n] == v)
+                    n++;
+                out.writeByte(v);
+                out.writeShort(n);
+                y += n;
+            }
+        }
+        out.writeInt(tos.size());
+        for (TraversableObstacle sm : tos) {
+            for (Coord c : new Coord[] {sm.wa, sm.wb, sm.wc, sm.wd, sm.clra, sm.clrb, sm.clrc, sm.clrd}) {
+                out.writeInt(c.x);
+                out.writeInt(c.y);
+            }
+            out.writeInt(sm.rx);
+            out.writeInt(sm.ry);
+            sm.raster.write(out);
+        }
+    }
+
+    public static Map load(DataInputStream in) throws IOException {
+        Map m = new Map(new Coord(in.readInt(), in.readInt()));
+        for (int x = 0; x < sz; x++) {
+            for (int y = 0; y < sz; ) {
+                byte v = in.readByte();
+                int n = in.readUnsignedShort();
+                Arrays.fill(m.map[x], y, y + n, v);
+                y += n;
+            }
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            Coord[] c = new Coord[8];
+            for (int o = 0; o < c.length; o++)
+                c[o] = new Coord(in.readInt(), in.readInt());
+            int rx = in.readInt(), ry = in.readInt();
+            Utils.Raster r = Utils.Raster.read(in);
+            TraversableObstacle sm = new TraversableObstacle(c[0], c[1], c[2], c[3], c[4], c[5], c[6], c[7], r, rx, ry);
+            m.settraversable(sm);
+            m.tocandidates.add(sm);
+            m.tos.add(sm);
+        }
+        return m;
+    }
+
     public void dbgdump() {
         dbg.save();
         Dbg dbg = new Dbg(DEBUG);
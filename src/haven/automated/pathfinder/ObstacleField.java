@@ -0,0 +1,357 @@
+package haven.automated.pathfinder;
+
+import haven.*;
+import haven.automated.helpers.HitBoxes;
+
+import java.util.*;
+
+// Obstacle state kept between path queries. Gobs are tracked through
+// OCache callbacks and their hitbox shapes are rasterized once per
+// resource, angle and open/closed state, and tile blocking is kept per
+// map grid until the grid's data is replaced. A query then only stamps
+// the cached shapes into a reused Map buffer.
+public class ObstacleField implements OCache.ChangeCallback {
+    private static final int MAXSHAPES = 4096;
+    private static final int MAXGRIDS = 32;
+    private static final int MAXBUFFERS = 2;
+    private final OCache oc;
+    private final MCache mcache;
+    private final java.util.Map<Gob, Obstacle> gobs = new LinkedHashMap<>();
+    private final java.util.Map<ShapeKey, Shape> shapes = new HashMap<>();
+    private final java.util.Map<Coord, Tiles> grids = new HashMap<>();
+    private final ArrayDeque<Map.Buffers> buffers = new ArrayDeque<>();
+    private Resource.Spec[] tilespecs = new Resource.Spec[0];
+    private boolean[] tileblk = new boolean[0];
+
+    public ObstacleField(OCache oc, MCache mcache) {
+        this.oc = oc;
+        this.mcache = mcache;
+        synchronized (oc) {
+            oc.callback(this);
+            for (Gob gob : oc)
+                added(gob);
+        }
+    }
+
+    public static class Part {
+        public final Coord ca, cb, cc, cd;
+        public final Coord wa, wb, wc, wd;
+        public final Coord clra, clrb, clrc, clrd;
+        public final Utils.Raster raster;
+        public final boolean to;
+
+        Part(Coord ca, Coord cb, Coord cc, Coord cd, Coord wa, Coord wb, Coord wc, Coord wd,
+             Coord clra, Coord clrb, Coord clrc, Coord clrd, boolean to) {
+            this.ca = ca;
+            this.cb = cb;
+            this.cc = cc;
+            this.cd = cd;
+            this.wa = wa;
+            this.wb = wb;
+            this.wc = wc;
+            this.wd = wd;
+            this.clra = clra;
+            this.clrb = clrb;
+            this.clrc = clrc;
+            this.clrd = clrd;
+            this.raster = Utils.rasterRect(ca, cb, cc, cd);
+            this.to = to;
+        }
+    }
+
+    // Blocking and exclusion rectangles of a gob, relative to its center.
+    public static class Shape {
+        public final List<Part> parts = new ArrayList<>(1);
+        public final List<Part> excl = new ArrayList<>(1);
+        public double radius = 0;
+    }
+
+    private static class ShapeKey {
+        final String res;
+        final double a;
+        final int variant;
+
+        ShapeKey(String res, double a, int variant) {
+            this.res = res;
+            this.a = a;
+            this.variant = variant;
+        }
+
+        public int hashCode() {
+            return (res.hashCode() * 31 + Double.hashCode(a)) * 31 + variant;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof ShapeKey))
+                return false;
+            ShapeKey k = (ShapeKey) o;
+            return k.res.equals(res) && (Double.compare(k.a, a) == 0) && (k.variant == variant);
+        }
+    }
+
+    public class Obstacle {
+        public final Gob gob;
+        public int x, y;
+        public double a;
+        public Shape shape;
+        private String res;
+        private int variant;
+
+        Obstacle(Gob gob) {
+            this.gob = gob;
+        }
+
+        // Refreshes the position and shape from the gob, returning
+        // false if it has nothing to plot.
+        boolean update() {
+            Resource res = gob.getres();
+            if (res == null || HitBoxes.collisionBoxMap.get(res.name) == null) {
+                shape = null;
+                this.res = null;
+                return false;
+            }
+            double a = gob.a;
+            int variant = variant(gob, res);
+            if (shape == null || !res.name.equals(this.res) || a != this.a || variant != this.variant) {
+                this.res = res.name;
+                this.a = a;
+                this.variant = variant;
+                shape = shape(new ShapeKey(res.name, a, variant));
+            }
+            Coord2d rc = gob.rc;
+            x = (int) Math.floor(rc.x);
+            y = (int) Math.floor(rc.y);
+            return true;
+        }
+
+        public boolean contains(Coord c) {
+            double dx = c.x - x, dy = c.y - y;
+            if (shape.excl.isEmpty() || (dx * dx) + (dy * dy) > shape.radius * shape.radius)
+                return false;
+            return Pathfinder.isInsideBoundBox(Coord.of(x, y), a, res, c);
+        }
+    }
+
+    public synchronized void added(Gob gob) {
+        gobs.put(gob, new Obstacle(gob));
+    }
+
+    public synchronized void removed(Gob gob) {
+        gobs.remove(gob);
+    }
+
+    // Current obstacles, in the order their gobs were added.
+    public synchronized List<Obstacle> obstacles() {
+        List<Obstacle> ret = new ArrayList<>(gobs.size());
+        for (Obstacle ob : gobs.values()) {
+            if (ob.update())
+                ret.add(ob);
+        }
+        return ret;
+    }
+
+    public synchronized Obstacle obstacle(Gob gob) {
+        Obstacle ob = gobs.get(gob);
+        if (ob == null)
+            ob = new Obstacle(gob);
+        return ob.update() ? ob : null;
+    }
+
+    // Hitboxes of gates and power sources only block while closed or lit.
+    private static int variant(Gob gob, Resource res) {
+        if (!res.name.contains("/pow") && !res.name.contains("gate"))
+            return -1;
+        ResDrawable rd = gob.getattr(ResDrawable.class);
+        if (rd == null)
+            return 0;
+        int st = rd.sdt.checkrbuf(0);
+        if (res.name.contains("/pow"))
+            return (res.name.endsWith("/pow") && st != 33 && st != 17) ? 1 : 0;
+        return (st != 1) ? 1 : 0;
+    }
+
+    private Shape shape(ShapeKey key) {
+        Shape ret = shapes.get(key);
+        if (ret == null) {
+            if (shapes.size() >= MAXSHAPES)
+                shapes.clear();
+            shapes.put(key, ret = mkshape(key));
+        }
+        return ret;
+    }
+
+    private static Coord[] bbox(HitBoxes.CollisionBoxSecondary box) {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = Double.MIN_VALUE;
+        double maxY = Double.MIN_VALUE;
+
+        for (Coord2d coord : box.coords) {
+            minX = Math.min(minX, coord.x);
+            minY = Math.min(minY, coord.y);
+            maxX = Math.max(maxX, coord.x);
+            maxY = Math.max(maxY, coord.y);
+        }
+        return new Coord[] {new Coord2d(minX, minY).floor(), new Coord2d(maxX, maxY).floor()};
+    }
+
+    private static Shape mkshape(ShapeKey key) {
+        Shape shape = new Shape();
+        HitBoxes.CollisionBoxSecondary[] boxes = HitBoxes.collisionBoxMap.get(key.res);
+        if (key.res.contains("/pow")) {
+            if (key.variant == 1)
+                shape.parts.add(part(new Coord(-4, -4), new Coord(4, 4), key.a));
+        } else if (key.res.contains("gate")) {
+            if (key.variant == 1) {
+                if (key.res.contains("big"))
+                    shape.parts.add(part(new Coord(-5, -16), new Coord(5, 16), key.a));
+                else
+                    shape.parts.add(part(new Coord(-5, -11), new Coord(5, 11), key.a));
+            }
+        } else {
+            for (HitBoxes.CollisionBoxSecondary box : boxes) {
+                if (!box.hitAble || box.coords == null || box.coords.length < 3)
+                    break;
+                Coord[] bb = bbox(box);
+                shape.parts.add(part(bb[0], bb[1], key.a));
+            }
+        }
+        for (HitBoxes.CollisionBoxSecondary box : boxes) {
+            if (box.hitAble && box.coords != null && box.coords.length > 2) {
+                Coord[] bb = bbox(box);
+                shape.excl.add(exclusion(bb[0], bb[1], key.a));
+                double rx = Math.max(Math.abs(bb[0].x), Math.abs(bb[1].x)) + 1;
+                double ry = Math.max(Math.abs(bb[0].y), Math.abs(bb[1].y)) + 1;
+                shape.radius = Math.max(shape.radius, Math.hypot(rx, ry));
+            }
+        }
+        return shape;
+    }
+
+    public static Part part(Coord tl, Coord br, double a) {
+        int plbbox = Map.plbbox, way = Map.way, clr = Map.clr;
+        int rotadj = 0;
+        if (a != 0 && a != Math.PI && a != Math.PI / 2.0 && a != (3 * Math.PI) / 2) {
+            rotadj = 1;
+        }
+
+        if (Math.abs(tl.x) + Math.abs(br.x) == Math.abs(tl.y) + Math.abs(br.y) && rotadj == 0) {
+            return new Part(new Coord(tl.x - plbbox, tl.y - plbbox), new Coord(br.x + plbbox, tl.y - plbbox),
+                    new Coord(br.x + plbbox, br.y + plbbox), new Coord(tl.x - plbbox, br.y + plbbox),
+                    new Coord(tl.x - way, tl.y - way), new Coord(br.x + way, tl.y - way),
+                    new Coord(br.x + way, br.y + way), new Coord(tl.x - way, br.y + way),
+                    new Coord(tl.x - clr, tl.y - clr), new Coord(br.x + clr, tl.y - clr),
+                    new Coord(br.x + clr, br.y + clr), new Coord(tl.x - clr, br.y + clr),
+                    br.x <= Map.tomaxside && br.y <= Map.tomaxside);
+        }
+
+        // FIXME: should rotate around pixel's center
+        double cos = Math.cos(a);
+        double sin = Math.sin(a);
+        return new Part(Utils.rotate(tl.x - plbbox, tl.y - plbbox, 0, 0, cos, sin),
+                Utils.rotate(br.x + plbbox, tl.y - plbbox, 0, 0, cos, sin),
+                Utils.rotate(br.x + plbbox, br.y + plbbox, 0, 0, cos, sin),
+                Utils.rotate(tl.x - plbbox, br.y + plbbox, 0, 0, cos, sin),
+                Utils.rotate(tl.x - way - rotadj, tl.y - way - rotadj, 0, 0, cos, sin),
+                Utils.rotate(br.x + way + rotadj, tl.y - way - rotadj, 0, 0, cos, sin),
+                Utils.rotate(br.x + way + rotadj, br.y + way + rotadj, 0, 0, cos, sin),
+                Utils.rotate(tl.x - way - rotadj, br.y + way + rotadj, 0, 0, cos, sin),
+                Utils.rotate(tl.x - clr - rotadj, tl.y - clr - rotadj, 0, 0, cos, sin),
+                Utils.rotate(br.x + clr - rotadj, tl.y - clr - rotadj, 0, 0, cos, sin),
+                Utils.rotate(br.x + clr + rotadj, br.y + clr + rotadj, 0, 0, cos, sin),
+                Utils.rotate(tl.x - clr - rotadj, br.y + clr + rotadj, 0, 0, cos, sin),
+                br.x <= Map.tomaxside && br.y <= Map.tomaxside);
+    }
+
+    private static Part exclusion(Coord tl, Coord br, double a) {
+        int plbbox = Map.plbbox;
+        // FIXME: should rotate around pixel's center
+        double cos = Math.cos(a);
+        double sin = Math.sin(a);
+        Coord ca = Utils.rotate(tl.x - plbbox, tl.y - plbbox, 0, 0, cos, sin);
+        Coord cb = Utils.rotate(br.x + plbbox, tl.y - plbbox, 0, 0, cos, sin);
+        Coord cc = Utils.rotate(br.x + plbbox, br.y + plbbox, 0, 0, cos, sin);
+        Coord cd = Utils.rotate(tl.x - plbbox, br.y + plbbox, 0, 0, cos, sin);
+        return new Part(ca, cb, cc, cd, ca, cb, cc, cd, ca, cb, cc, cd, false);
+    }
+
+    // Blocking tiles of one map grid, valid for as long as the grid keeps its data.
+    public static class Tiles {
+        public final Coord ul;
+        private final MCache.Grid grid;
+        private final MCache.GridData data;
+        private final BitSet blk;
+        private final boolean complete;
+
+        Tiles(MCache.Grid grid, MCache.GridData data, BitSet blk, boolean complete) {
+            this.ul = grid.ul;
+            this.grid = grid;
+            this.data = data;
+            this.blk = blk;
+            this.complete = complete;
+        }
+
+        public boolean contains(int tx, int ty) {
+            return tx >= ul.x && ty >= ul.y && tx < ul.x + MCache.cmaps.x && ty < ul.y + MCache.cmaps.y;
+        }
+
+        public boolean blocking(int tx, int ty) {
+            return blk.get((tx - ul.x) + ((ty - ul.y) * MCache.cmaps.x));
+        }
+    }
+
+    public static boolean blocking(String name) {
+        return name.equals("gfx/tiles/deep") ||
+                name.equals("gfx/tiles/cave") ||
+                name.equals("gfx/tiles/nil") ||
+                name.startsWith("gfx/tiles/rocks/");
+    }
+
+    private boolean tileblocks(int t) {
+        if (t >= tilespecs.length) {
+            tilespecs = Arrays.copyOf(tilespecs, Math.max(t + 1, tilespecs.length * 2));
+            tileblk = Arrays.copyOf(tileblk, tilespecs.length);
+        }
+        Resource.Spec spec = mcache.tilesetn(t);
+        if (tilespecs[t] != spec) {
+            tilespecs[t] = spec;
+            tileblk[t] = (spec != null) && blocking(spec.name);
+        }
+        return tileblk[t];
+    }
+
+    public synchronized Tiles tiles(int tx, int ty) {
+        Coord gc = Coord.of(Math.floorDiv(tx, MCache.cmaps.x), Math.floorDiv(ty, MCache.cmaps.y));
+        MCache.Grid grid = mcache.getgrid(gc);
+        Tiles ret = grids.get(gc);
+        if (ret == null || ret.grid != grid || ret.data != grid.data || !ret.complete) {
+            MCache.GridData data = grid.data;
+            BitSet blk = new BitSet(MCache.cmaps.x * MCache.cmaps.y);
+            boolean complete = true;
+            for (int i = 0; i < MCache.cmaps.x * MCache.cmaps.y; i++) {
+                int t = data.tile(i);
+                if (tileblocks(t))
+                    blk.set(i);
+                else if (tilespecs[t] == null)
+                    complete = false;
+            }
+            if (grids.size() >= MAXGRIDS) {
+                grids.values().removeIf(g -> g.grid.removed);
+                if (grids.size() >= MAXGRIDS)
+                    grids.clear();
+            }
+            grids.put(gc, ret = new Tiles(grid, data, blk, complete));
+        }
+        return ret;
+    }
+
+    synchronized Map.Buffers buffers() {
+        Map.Buffers ret = buffers.poll();
+        return (ret != null) ? ret : new Map.Buffers();
+    }
+
+    synchronized void release(Map.Buffers buf) {
+        if (buffers.size() < MAXBUFFERS)
+            buffers.add(buf);
+    }
+}
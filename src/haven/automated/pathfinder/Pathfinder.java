@@ -76,38 +76,29 @@ public class Pathfinder implements Runnable {
 
     public void pathfind(Coord src) {
         long starttotal = System.nanoTime();
-        Map m = new Map(src, dest, map);
+        ObstacleField field = mv.glob.obstacles();
+        Map m = new Map(src, dest, field);
+        try {
+            pathfind(src, field, m, starttotal);
+        } finally {
+            m.release();
+        }
+    }
+
+    private void pathfind(Coord src, ObstacleField field, Map m, long starttotal) {
         Gob player = mv.player();
+        Coord plc = player.rc.floor();
 
         long start = System.nanoTime();
-        synchronized (oc) {
-            for (Gob gob : oc) {
-                if (gob.isPlgob(this.mv.ui.gui))
-                    continue;
-                if (this.gob != null && this.gob.id == gob.id)
-                    continue;
-                if (gob.getres() != null && isInsideBoundBox(gob.rc.floor(), gob.a, gob.getres().name, player.rc.floor())) {
-                    HitBoxes.CollisionBoxSecondary[] collisionBoxes = HitBoxes.collisionBoxMap.get(gob.getres().name);
-                    if (collisionBoxes != null) {
-                        for (HitBoxes.CollisionBoxSecondary collisionBox : collisionBoxes) {
-                            if (collisionBox.hitAble && collisionBox.coords.length > 2) {
-                                double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
-                                double maxX = Double.MIN_VALUE, maxY = Double.MIN_VALUE;
-                                for (Coord2d coord : collisionBox.coords) {
-                                    minX = Math.min(minX, coord.x);
-                                    minY = Math.min(minY, coord.y);
-                                    maxX = Math.max(maxX, coord.x);
-                                    maxY = Math.max(maxY, coord.y);
-                                }
-                                Coord2d topLeft = new Coord2d(minX, minY);
-                                Coord2d bottomRight = new Coord2d(maxX, maxY);
-                                m.excludeGob(topLeft.floor(), bottomRight.floor(), gob);
-                            }
-                        }
-                    }
-                }
-                m.analyzeGobHitBoxes(gob);
-            }
+        for (ObstacleField.Obstacle ob : field.obstacles()) {
+            Gob gob = ob.gob;
+            if (gob.isPlgob(this.mv.ui.gui))
+                continue;
+            if (this.gob != null && this.gob.id == gob.id)
+                continue;
+            if (ob.contains(plc))
+                m.exclude(ob);
+            m.plot(ob);
         }
 
         if (m.isOriginBlocked()) {
@@ -128,24 +119,9 @@ public class Pathfinder implements Runnable {
         }
 
         if (this.gob != null) {
-            HitBoxes.CollisionBoxSecondary[] collisionBoxes = HitBoxes.collisionBoxMap.get(this.gob.getres().name);
-            if (collisionBoxes != null) {
-                for (HitBoxes.CollisionBoxSecondary collisionBox : collisionBoxes) {
-                    if (collisionBox.hitAble && collisionBox.coords.length > 2) {
-                        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
-                        double maxX = Double.MIN_VALUE, maxY = Double.MIN_VALUE;
-                        for (Coord2d coord : collisionBox.coords) {
-                            minX = Math.min(minX, coord.x);
-                            minY = Math.min(minY, coord.y);
-                            maxX = Math.max(maxX, coord.x);
-                            maxY = Math.max(maxY, coord.y);
-                        }
-                        Coord2d topLeft = new Coord2d(minX, minY);
-                        Coord2d bottomRight = new Coord2d(maxX, maxY);
-                        m.excludeGob(topLeft.floor(), bottomRight.floor(), this.gob);
-                    }
-                }
-            }
+            ObstacleField.Obstacle ob = field.obstacle(this.gob);
+            if (ob != null)
+                m.exclude(ob);
         }
 
         if (Map.DEBUG_TIMINGS)
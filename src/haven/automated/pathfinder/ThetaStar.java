@@ -0,0 +1,216 @@
+package haven.automated.pathfinder;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+// Lazy Theta* over the obstacle raster. Every cell is a node and a
+// node's parent may be any cell it has line of sight to, so paths come
+// out any-angle without first collecting corner vertices and testing
+// every pair of them for visibility. All per-cell state lives in
+// primitive arrays that are reused across queries, with a query stamp
+// in place of clearing them.
+public class ThetaStar {
+    private static final int[] DX = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] DY = {0, 0, 1, -1, 1, -1, 1, -1};
+    private static final int FILLMAX = 1 << 16;
+    private final int sz;
+    private final float[] g;
+    private final int[] parent;
+    private final int[] mark;
+    private long[] heap = new long[4096];
+    private int[] queue = new int[4096];
+    private int heapn;
+    private int stamp = 0;
+    public int expanded, lostests;
+
+    public ThetaStar(int sz) {
+        this.sz = sz;
+        g = new float[sz * sz];
+        parent = new int[sz * sz];
+        mark = new int[sz * sz];
+    }
+
+    // mark[i] is (stamp << 1) once a cell has been reached this query, with the low bit set once it is closed.
+    private boolean seen(int i) {
+        return (mark[i] >>> 1) == stamp;
+    }
+
+    private boolean closed(int i) {
+        return mark[i] == ((stamp << 1) | 1);
+    }
+
+    // Heap entries pack the f value above the cell index; f is never
+    // negative, so its float bits order the same as the value itself.
+    private void push(int i, float f) {
+        if (heapn == heap.length)
+            heap = Arrays.copyOf(heap, heap.length * 2);
+        long e = ((long) Float.floatToIntBits(f) << 32) | i;
+        int n = heapn++;
+        while (n > 0) {
+            int p = (n - 1) >> 1;
+            if (heap[p] <= e)
+                break;
+            heap[n] = heap[p];
+            n = p;
+        }
+        heap[n] = e;
+    }
+
+    private long pop() {
+        long ret = heap[0];
+        long e = heap[--heapn];
+        int n = 0;
+        while (true) {
+            int c = (n << 1) + 1;
+            if (c >= heapn)
+                break;
+            if (c + 1 < heapn && heap[c + 1] < heap[c])
+                c++;
+            if (e <= heap[c])
+                break;
+            heap[n] = heap[c];
+            n = c;
+        }
+        heap[n] = e;
+        return ret;
+    }
+
+    private static float dist(int ax, int ay, int bx, int by) {
+        int dx = ax - bx, dy = ay - by;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private boolean los(byte[][] map, Dbg dbg, int a, int b, byte block) {
+        lostests++;
+        return Utils.isVisible(map, dbg, a / sz, a % sz, b / sz, b % sz, block);
+    }
+
+    private void nextstamp() {
+        if (++stamp >= (1 << 30)) {
+            Arrays.fill(mark, 0);
+            stamp = 1;
+        }
+    }
+
+    // Fills outward from the goal for a bounded number of cells. A goal
+    // walled into a small region without the start in it is rejected
+    // here instead of by exhausting the whole raster from the start.
+    private boolean enclosed(byte[][] map, int start, int goal, byte block) {
+        int qh = 0, qt = 0;
+        queue[qt++] = goal;
+        mark[goal] = stamp << 1;
+        while (qh < qt) {
+            if (qt >= FILLMAX)
+                return false;
+            int c = queue[qh++];
+            int x = c / sz, y = c % sz;
+            for (int d = 0; d < 8; d++) {
+                int nx = x + DX[d], ny = y + DY[d];
+                if (nx < 0 || ny < 0 || nx >= sz || ny >= sz)
+                    continue;
+                int n = (nx * sz) + ny;
+                if (n == start)
+                    return false;
+                if (seen(n) || (map[nx][ny] & block) != 0)
+                    continue;
+                if (d >= 4 && ((map[nx][y] & block) != 0 || (map[x][ny] & block) != 0))
+                    continue;
+                mark[n] = stamp << 1;
+                if (qt == queue.length)
+                    queue = Arrays.copyOf(queue, queue.length * 2);
+                queue[qt++] = n;
+            }
+        }
+        return true;
+    }
+
+    public Iterable<Edge> route(byte[][] map, Dbg dbg, int sx, int sy, int ex, int ey, byte block) {
+        expanded = lostests = 0;
+        int start = (sx * sz) + sy, goal = (ex * sz) + ey;
+        nextstamp();
+        if (enclosed(map, start, goal, block))
+            return new LinkedList<Edge>();
+        nextstamp();
+        heapn = 0;
+        g[start] = 0;
+        parent[start] = start;
+        mark[start] = stamp << 1;
+        push(start, dist(sx, sy, ex, ey));
+
+        while (heapn > 0) {
+            long e = pop();
+            int s = (int) e;
+            if (closed(s) || Float.intBitsToFloat((int) (e >>> 32)) > g[s] + dist(s / sz, s % sz, ex, ey))
+                continue;
+            int x = s / sz, y = s % sz;
+
+            // Lazy Theta*: the parent was assumed visible when s was
+            // reached, so settle that now, falling back to the best
+            // closed neighbour.
+            int p = parent[s];
+            if (p != s && !los(map, dbg, p, s, block)) {
+                float best = Float.POSITIVE_INFINITY;
+                for (int d = 0; d < 8; d++) {
+                    int nx = x + DX[d], ny = y + DY[d];
+                    int n = (nx * sz) + ny;
+                    if (nx < 0 || ny < 0 || nx >= sz || ny >= sz || !closed(n))
+                        continue;
+                    if (d >= 4 && ((map[nx][y] & block) != 0 || (map[x][ny] & block) != 0))
+                        continue;
+                    float ng = g[n] + ((d < 4) ? 1.0f : (float) Math.sqrt(2));
+                    if (ng < best) {
+                        best = ng;
+                        parent[s] = n;
+                    }
+                }
+                g[s] = best;
+            }
+            mark[s] |= 1;
+            if (g[s] == Float.POSITIVE_INFINITY)
+                continue;
+            expanded++;
+            if (s == goal)
+                return path(s);
+
+            p = parent[s];
+            int px = p / sz, py = p % sz;
+            for (int d = 0; d < 8; d++) {
+                int nx = x + DX[d], ny = y + DY[d];
+                if (nx < 0 || ny < 0 || nx >= sz || ny >= sz)
+                    continue;
+                int n = (nx * sz) + ny;
+                if (closed(n))
+                    continue;
+                if (n != goal && (map[nx][ny] & block) != 0)
+                    continue;
+                // never cut past the corner of a blocked cell
+                if (d >= 4 && ((map[nx][y] & block) != 0 || (map[x][ny] & block) != 0))
+                    continue;
+                if (!seen(n)) {
+                    mark[n] = stamp << 1;
+                    g[n] = Float.POSITIVE_INFINITY;
+                }
+                float ng = g[p] + dist(px, py, nx, ny);
+                if (ng < g[n]) {
+                    g[n] = ng;
+                    parent[n] = p;
+                    push(n, ng + dist(nx, ny, ex, ey));
+                }
+            }
+        }
+        return new LinkedList<Edge>();
+    }
+
+    private Iterable<Edge> path(int s) {
+        LinkedList<Edge> path = new LinkedList<Edge>();
+        Vertex dest = new Vertex(s / sz, s % sz);
+        while (parent[s] != s) {
+            int p = parent[s];
+            Vertex src = new Vertex(p / sz, p % sz);
+            path.addFirst(new Edge(src, dest, g[s] - g[p]));
+            dest = src;
+            s = p;
+        }
+        return path;
+    }
+}
@@ -2,15 +2,14 @@ package haven.automated.pathfinder;
 
 import haven.Coord;
 
-import java.util.HashMap;
-
 public class TraversableObstacle {
     public Coord wa, wb, wc, wd;
     public Coord clra, clrb, clrc, clrd;
-    public HashMap<Integer, Utils.MinMax> raster;
+    public Utils.Raster raster;
+    public int rx, ry;
 
     public TraversableObstacle(Coord wa, Coord wb, Coord wc, Coord wd,
-                               Coord clra, Coord clrb, Coord clrc, Coord clrd, HashMap<Integer, Utils.MinMax> raster) {
+                               Coord clra, Coord clrb, Coord clrc, Coord clrd, Utils.Raster raster, int rx, int ry) {
         this.wa = wa;
         this.wb = wb;
         this.wc = wc;
@@ -20,5 +19,7 @@ public class TraversableObstacle {
         this.clrc = clrc;
         this.clrd = clrd;
         this.raster = raster;
+        this.rx = rx;
+        this.ry = ry;
     }
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ package haven.automated.pathfinder;
 import haven.Coord;
 
 import java.awt.*;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -43,6 +44,96 @@ public class Utils {
         return raster;
     }
 
+    // Row spans of a filled quadrilateral, relative to wherever it is later plotted.
+    // Covers the same cells as plotRect() would for the same corners.
+    public static class Raster {
+        public final int y0;
+        public final int[] min, max;
+
+        private Raster(int y0, int n) {
+            this.y0 = y0;
+            this.min = new int[n];
+            this.max = new int[n];
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, Integer.MIN_VALUE);
+        }
+
+        public static Raster read(java.io.DataInput in) throws java.io.IOException {
+            int y0 = in.readInt();
+            Raster r = new Raster(y0, in.readInt());
+            for (int i = 0; i < r.min.length; i++) {
+                r.min[i] = in.readInt();
+                r.max[i] = in.readInt();
+            }
+            return r;
+        }
+
+        public void write(java.io.DataOutput out) throws java.io.IOException {
+            out.writeInt(y0);
+            out.writeInt(min.length);
+            for (int i = 0; i < min.length; i++) {
+                out.writeInt(min[i]);
+                out.writeInt(max[i]);
+            }
+        }
+
+        public void fill(byte[][] map, int ox, int oy, byte celltype) {
+            for (int i = 0; i < min.length; i++) {
+                for (int x = min[i]; x <= max[i]; x++)
+                    map[x + ox][y0 + i + oy] = celltype;
+            }
+        }
+
+        private void line(int x1, int y1, int x2, int y2) {
+            int d = 0;
+            int dy = Math.abs(y2 - y1);
+            int dx = Math.abs(x2 - x1);
+            int dy2 = (dy << 1);
+            int dx2 = (dx << 1);
+            int ex = x1 < x2 ? 1 : -1;
+            int ey = y1 < y2 ? 1 : -1;
+
+            for (; ; ) {
+                int i = y1 - y0;
+                if (x1 < min[i])
+                    min[i] = x1;
+                if (x1 > max[i])
+                    max[i] = x1;
+                if (dy <= dx) {
+                    if (x1 == x2)
+                        break;
+                    x1 += ex;
+                    d += dy2;
+                    if (d > dx) {
+                        y1 += ey;
+                        d -= dx2;
+                    }
+                } else {
+                    if (y1 == y2)
+                        break;
+                    y1 += ey;
+                    d += dx2;
+                    if (d > dy) {
+                        x1 += ex;
+                        d -= dy2;
+                    }
+                }
+            }
+        }
+    }
+
+    public static Raster rasterRect(Coord ca, Coord cb, Coord cc, Coord cd) {
+        int y0 = Math.min(Math.min(ca.y, cb.y), Math.min(cc.y, cd.y));
+        int y1 = Math.max(Math.max(ca.y, cb.y), Math.max(cc.y, cd.y));
+        Raster raster = new Raster(y0, y1 - y0 + 1);
+        // same lines, in the same directions, as plotRect()
+        raster.line(ca.x, ca.y, cb.x, cb.y);
+        raster.line(cb.x, cb.y, cc.x, cc.y);
+        raster.line(cd.x, cd.y, cc.x, cc.y);
+        raster.line(ca.x, ca.y, cd.x, cd.y);
+        return raster;
+    }
+
     public static HashMap<Integer, MinMax> plotRotRect(byte[][] map, Dbg dbg, Coord a, Coord b, int gcx, int gcy, double cos, double sin) {
         HashMap<Integer, MinMax> raster = new HashMap<Integer, MinMax>();
 
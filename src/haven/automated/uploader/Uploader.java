@@ -0,0 +1,505 @@
+package haven.automated.uploader;
+
+import haven.HashDirCache;
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+// One upload pipeline for the map, cookbook and alchemy services. Jobs
+// are queued here instead of each service opening its own connection
+// and forgetting the data on the first failure:
+//  - persistent jobs are written to an outbox directory and replayed on
+//    the next start until the server accepts them;
+//  - failures back off exponentially with jitter instead of retrying in
+//    a tight loop or not at all;
+//  - a queued job is replaced by a newer one with the same key, so a
+//    grid or marker that changes twice before it is sent goes once;
+//  - JSON bodies are gzipped, and all requests share one HttpClient so
+//    connections are kept alive between them;
+//  - at most a fixed number of requests are in flight at once.
+// The endpoint and headers of a service are looked up when a job is
+// sent, so tokens are never written to disk and a job queued before an
+// endpoint was configured waits for one.
+public class Uploader {
+    public static final int MAXQUEUE = 4096;
+    public static final int MAXATTEMPTS = 16;
+    private static final long MAXDELAY = 10 * 60 * 1000;
+    private static final long IDLEDELAY = 10 * 1000;
+    private static final int MAGIC = 0x48554a31;
+    private static Uploader instance = null;
+
+    private final Path outbox;
+    private final long basedelay;
+    private final HttpClient http;
+    private final Thread[] workers;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, TargetSource> targets = new ConcurrentHashMap<>();
+    private final Set<String> nogzip = ConcurrentHashMap.newKeySet();
+    private final PriorityQueue<Job> queue = new PriorityQueue<>(Comparator.comparingLong((Job j) -> j.due).thenComparingLong(j -> j.seq));
+    private final Map<String, Job> bykey = new HashMap<>();
+    private final Random rnd = new Random();
+    private long seq;
+    private int inflight = 0;
+    private boolean closed = false;
+    public volatile long sent, failed, dropped, coalesced;
+
+    public static class Target {
+        public final String base;
+        public final Map<String, String> headers;
+
+        public Target(String base, Map<String, String> headers) {
+            this.base = base;
+            this.headers = headers;
+        }
+
+        public Target(String base) {
+            this(base, Collections.emptyMap());
+        }
+    }
+
+    // Returns null while the service has no usable endpoint.
+    public interface TargetSource {
+        Target get();
+    }
+
+    public static class Job {
+        public final String service, path, type;
+        public final byte[] body;
+        String key = null;
+        boolean persist = true, compress = true;
+        Consumer<byte[]> onresponse = null;
+        long seq, due;
+        int attempts;
+
+        public Job(String service, String path, String type, byte[] body) {
+            this.service = service;
+            this.path = path;
+            this.type = type;
+            this.body = body;
+        }
+
+        public static Job json(String service, String path, String json) {
+            return new Job(service, path, "application/json;charset=UTF-8", json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // A multipart/form-data body with plain fields and one file part.
+        public static Job form(String service, String path, Map<String, String> fields, String filefield, String filename, String filetype, byte[] data) {
+            String boundary = "===" + Long.toHexString(System.nanoTime()) + "===";
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length + 512);
+            try {
+                for (Map.Entry<String, String> f : fields.entrySet()) {
+                    buf.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + f.getKey() + "\"\r\n" +
+                            "Content-Type: text/plain; charset=utf-8\r\n\r\n" + f.getValue() + "\r\n").getBytes(StandardCharsets.UTF_8));
+                }
+                buf.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + filefield + "\"; filename=\"" + filename + "\"\r\n" +
+                        "Content-Type: " + filetype + "\r\nContent-Transfer-Encoding: binary\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                buf.write(data);
+                buf.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return new Job(service, path, "multipart/form-data; boundary=" + boundary, buf.toByteArray()).raw();
+        }
+
+        // Replaces any queued, not yet sent job with the same key.
+        public Job key(String key) {
+            this.key = key;
+            return this;
+        }
+
+        // Not written to the outbox; lost if the client exits first.
+        public Job ephemeral() {
+            this.persist = false;
+            return this;
+        }
+
+        // Sent as is, for bodies that do not compress.
+        public Job raw() {
+            this.compress = false;
+            return this;
+        }
+
+        // Called with the response body once the server accepts the job.
+        public Job onresponse(Consumer<byte[]> cb) {
+            this.onresponse = cb;
+            return this;
+        }
+    }
+
+    public Uploader(Path outbox, int concurrency, long basedelay) {
+        this.outbox = outbox;
+        this.basedelay = basedelay;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread th = new Thread(r, "Uploader scheduler");
+            th.setDaemon(true);
+            return th;
+        });
+        // Outbox names start from the clock, so that clients sharing
+        // one outbox do not pick the same ones.
+        this.seq = (System.currentTimeMillis() << 16) | rnd.nextInt(1 << 16);
+        if (outbox != null)
+            load();
+        workers = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            workers[i] = new Thread(this::work, "Uploader worker " + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    public static synchronized Uploader get() {
+        if (instance == null) {
+            Path outbox = null;
+            try {
+                outbox = HashDirCache.findbase().getParent().resolve("outbox");
+                Files.createDirectories(outbox);
+            } catch (Exception e) {
+                System.out.println("[Uploader] No outbox directory, queued uploads will not survive a restart: " + e);
+                outbox = null;
+            }
+            instance = new Uploader(outbox, 2, 2000);
+        }
+        return instance;
+    }
+
+    // For the periodic batching and rendering work of the services, so
+    // they do not each keep their own thread pools.
+    public ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    public void register(String service, TargetSource target) {
+        targets.put(service, target);
+        synchronized (this) {
+            // Jobs of a service that had no target may go right away.
+            long now = System.currentTimeMillis();
+            List<Job> held = new ArrayList<>();
+            for (Job j : queue) {
+                if (j.service.equals(service) && j.due > now)
+                    held.add(j);
+            }
+            for (Job j : held) {
+                queue.remove(j);
+                j.due = now;
+                queue.add(j);
+            }
+            notifyAll();
+        }
+    }
+
+    public void submit(Job job) {
+        synchronized (this) {
+            if (closed)
+                return;
+            job.seq = seq++;
+        }
+        if (job.persist)
+            store(job);
+        Job old;
+        synchronized (this) {
+            if (queue.size() >= MAXQUEUE && (job.key == null || !bykey.containsKey(job.key)))
+                old = job;
+            else {
+                job.due = System.currentTimeMillis();
+                old = (job.key == null) ? null : bykey.put(job.key, job);
+                if (old != null) {
+                    queue.remove(old);
+                    coalesced++;
+                }
+                queue.add(job);
+                notifyAll();
+            }
+        }
+        if (old == job) {
+            dropped++;
+            System.out.println("[Uploader] Queue full, dropping upload to " + job.service + job.path);
+        }
+        if (old != null)
+            unlink(old);
+    }
+
+    // Jobs queued or in flight.
+    public synchronized int pending() {
+        return queue.size() + inflight;
+    }
+
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        for (Thread th : workers)
+            th.interrupt();
+        scheduler.shutdownNow();
+    }
+
+    private Job take() throws InterruptedException {
+        synchronized (this) {
+            while (true) {
+                if (closed)
+                    return null;
+                Job j = queue.peek();
+                if (j == null) {
+                    wait();
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (j.due > now) {
+                    wait(j.due - now);
+                    continue;
+                }
+                queue.poll();
+                // Once in flight a job can no longer be replaced; a newer
+                // one with the same key is queued behind it instead.
+                if (j.key != null && bykey.get(j.key) == j)
+                    bykey.remove(j.key);
+                inflight++;
+                return j;
+            }
+        }
+    }
+
+    private void requeue(Job j, long delay) {
+        synchronized (this) {
+            if (!closed && (j.key == null || !bykey.containsKey(j.key))) {
+                j.due = System.currentTimeMillis() + delay;
+                if (j.key != null)
+                    bykey.put(j.key, j);
+                queue.add(j);
+                notifyAll();
+                return;
+            }
+        }
+        // Superseded while it was in flight, or shutting down.
+        if (!closed)
+            unlink(j);
+    }
+
+    private long backoff(int attempts) {
+        long delay = Math.min(basedelay << Math.min(attempts - 1, 20), MAXDELAY);
+        synchronized (rnd) {
+            return delay / 2 + (long) (rnd.nextDouble() * (delay / 2));
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Job j;
+            try {
+                j = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (j == null)
+                return;
+            try {
+                send(j);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                drop(j, e.toString());
+            } finally {
+                synchronized (this) {
+                    inflight--;
+                }
+            }
+        }
+    }
+
+    private void send(Job j) {
+        TargetSource src = targets.get(j.service);
+        Target t = (src == null) ? null : src.get();
+        if (t == null) {
+            requeue(j, IDLEDELAY);
+            return;
+        }
+        boolean gz = j.compress && !nogzip.contains(j.service);
+        HttpResponse<byte[]> rsp;
+        try {
+            HttpRequest.Builder rq = HttpRequest.newBuilder(URI.create(t.base.trim() + j.path))
+                    .timeout(Duration.ofSeconds(60))
+                    .header("Content-Type", j.type);
+            for (Map.Entry<String, String> h : t.headers.entrySet())
+                rq.header(h.getKey(), h.getValue());
+            byte[] body = j.body;
+            if (gz) {
+                body = gzip(body);
+                rq.header("Content-Encoding", "gzip");
+            }
+            rsp = http.send(rq.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IllegalArgumentException e) {
+            // A malformed endpoint; wait for it to be fixed.
+            requeue(j, IDLEDELAY);
+            return;
+        } catch (IOException e) {
+            retry(j, e.toString());
+            return;
+        } catch (InterruptedException e) {
+            requeue(j, 0);
+            return;
+        }
+        int code = rsp.statusCode();
+        if (code >= 200 && code < 300) {
+            sent++;
+            unlink(j);
+            if (j.onresponse != null) {
+                try {
+                    j.onresponse.accept(rsp.body());
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        } else if (gz && (code == 415 || (code == 400 && encodingerror(rsp.body())))) {
+            // A server that does not take compressed bodies; everything
+            // to this service goes uncompressed from now on.
+            nogzip.add(j.service);
+            retry(j, "HTTP " + code + " to a compressed body");
+        } else if (code == 408 || code == 429 || code >= 500) {
+            retry(j, "HTTP " + code);
+        } else {
+            drop(j, "HTTP " + code);
+        }
+    }
+
+    // Whether a 400 response says that the body's encoding was the
+    // problem, as opposed to anything else being wrong with it.
+    private static boolean encodingerror(byte[] body) {
+        String msg = new String(body, 0, Math.min(body.length, 1024), StandardCharsets.UTF_8).toLowerCase(Locale.ROOT);
+        return msg.contains("gzip") || msg.contains("encoding");
+    }
+
+    private void retry(Job j, String why) {
+        failed++;
+        if (++j.attempts >= MAXATTEMPTS) {
+            drop(j, why + " after " + j.attempts + " attempts");
+            return;
+        }
+        requeue(j, backoff(j.attempts));
+    }
+
+    private void drop(Job j, String why) {
+        dropped++;
+        System.out.println("[Uploader] Dropping upload to " + j.service + j.path + ": " + why);
+        unlink(j);
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(buf)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return buf.toByteArray();
+    }
+
+    private Path file(long seq) {
+        return outbox.resolve(String.format("%016x.job", seq));
+    }
+
+    private void store(Job j) {
+        if (outbox == null)
+            return;
+        Path tmp = outbox.resolve(String.format("%016x.tmp", j.seq));
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(j.service);
+                out.writeUTF(j.path);
+                out.writeUTF(j.type);
+                out.writeUTF((j.key == null) ? "" : j.key);
+                out.writeBoolean(j.compress);
+                out.writeInt(j.body.length);
+                out.write(j.body);
+            }
+            Files.move(tmp, file(j.seq), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("[Uploader] Could not save upload to outbox: " + e);
+        }
+    }
+
+    private void unlink(Job j) {
+        if (outbox == null || !j.persist)
+            return;
+        try {
+            Files.deleteIfExists(file(j.seq));
+        } catch (IOException e) {
+        }
+    }
+
+    private void load() {
+        List<Job> loaded = new ArrayList<>();
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(outbox)) {
+            for (Path p : dir)
+                entries.add(p);
+        } catch (IOException e) {
+            System.out.println("[Uploader] Could not read outbox: " + e);
+        }
+        Collections.sort(entries);
+        try {
+            for (Path p : entries) {
+                String nm = p.getFileName().toString();
+                if (nm.endsWith(".tmp")) {
+                    Files.deleteIfExists(p);
+                    continue;
+                }
+                if (!nm.endsWith(".job"))
+                    continue;
+                // Claim the entry under a new name first, so that two
+                // clients started on the same outbox do not both send it.
+                long id = seq++;
+                try {
+                    Files.move(p, file(id), StandardCopyOption.ATOMIC_MOVE);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                p = file(id);
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p)))) {
+                    if (in.readInt() != MAGIC)
+                        throw new IOException("bad magic");
+                    String service = in.readUTF(), path = in.readUTF(), type = in.readUTF(), key = in.readUTF();
+                    boolean compress = in.readBoolean();
+                    byte[] body = new byte[in.readInt()];
+                    in.readFully(body);
+                    Job j = new Job(service, path, type, body);
+                    j.key = key.isEmpty() ? null : key;
+                    j.compress = compress;
+                    j.seq = id;
+                    loaded.add(j);
+                } catch (IOException e) {
+                    System.out.println("[Uploader] Discarding unreadable outbox entry " + nm + ": " + e);
+                    Files.deleteIfExists(p);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("[Uploader] Could not read outbox: " + e);
+        }
+        long now = System.currentTimeMillis();
+        for (Job j : loaded) {
+            j.due = now;
+            if (j.key != null) {
+                Job old = bykey.put(j.key, j);
+                if (old != null) {
+                    queue.remove(old);
+                    unlink(old);
+                }
+            }
+            queue.add(j);
+        }
+    }
+}
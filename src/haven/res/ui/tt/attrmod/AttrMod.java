@@ -10,7 +10,7 @@ import java.util.stream.Collectors;
 
 @Resource.PublishedCode(name = "attrmod")
 @haven.FromResource(name = "ui/tt/attrmod", version = 12)
-public class AttrMod extends ItemInfo.Tip {
+public class AttrMod extends ItemInfo.Tip implements ItemInfo.Shareable {
     public final Collection<Entry> tab;
 
     public AttrMod(Owner owner, Collection<Entry> tab) {
@@ -18,6 +18,10 @@ public class AttrMod extends ItemInfo.Tip {
 	this.tab = tab.stream().sorted(this::BY_PRIORITY).collect(Collectors.toList());
     }
 
+    public ItemInfo rebind(Owner owner) {
+	return(new AttrMod(owner, tab));
+    }
+
     public static class Fac implements InfoFactory {
 	public ItemInfo build(Owner owner, Raw raw, Object... args) {
 	    Resource.Resolver rr = owner.context(Resource.Resolver.class);
@@ -34,7 +34,7 @@ public abstract class BaseTest implements Runnable {
     
     public BaseTest() {
 	tg = new ThreadGroup("Test process");
-	Resource.loadergroup = tg;
+	Scheduler.group = tg;
 	Audio.enabled = false;
 	Runtime.getRuntime().addShutdownHook(new Thread() {
 		public void run() {
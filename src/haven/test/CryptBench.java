@@ -0,0 +1,163 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.nio.*;
+import java.security.*;
+import javax.crypto.*;
+import javax.crypto.spec.*;
+
+/*
+ * Compares packets per second through Connection.Crypto against the
+ * previous implementation, which allocated fresh arrays per packet and
+ * kept its replay state in a TreeSet.
+ */
+public class CryptBench {
+    /* The previous implementation, kept here for comparison. */
+    static class OldCrypto {
+	final Cipher cipher;
+	final Key tkey, rkey;
+	final NavigableSet<Long> rseqs = new TreeSet<>();
+	long tseq;
+
+	OldCrypto(byte[] cookie, byte[] salt, boolean peer) throws GeneralSecurityException {
+	    cipher = Cipher.getInstance("AES/GCM/NoPadding");
+	    rseqs.add(-1L);
+	    Key ckey = new SecretKeySpec(Digest.hkdf(Digest.SHA256, salt, cookie, "client".getBytes(Utils.ascii), 16), "AES");
+	    Key skey = new SecretKeySpec(Digest.hkdf(Digest.SHA256, salt, cookie, "server".getBytes(Utils.ascii), 16), "AES");
+	    tkey = peer ? skey : ckey;
+	    rkey = peer ? ckey : skey;
+	}
+
+	synchronized byte[] encrypt(byte[] msg) throws GeneralSecurityException {
+	    long seq = tseq++;
+	    byte[] iv = new byte[8];
+	    Utils.int64e(seq, iv, 0);
+	    cipher.init(Cipher.ENCRYPT_MODE, tkey, new GCMParameterSpec(128, iv));
+	    byte[] ct = cipher.doFinal(msg);
+	    byte[] ret = new byte[ct.length + 3];
+	    System.arraycopy(ct, 0, ret, 3, ct.length);
+	    ret[0] = (byte)((seq >>  0) & 0xff);
+	    ret[1] = (byte)((seq >>  8) & 0xff);
+	    ret[2] = (byte)((seq >> 16) & 0xff);
+	    return(ret);
+	}
+
+	synchronized byte[] decrypt(byte[] msg) throws GeneralSecurityException {
+	    long mseq = rseqs.last();
+	    long loseq = (msg[0] & 0xff) | ((msg[1] & 0xff) << 8) | ((msg[2] & 0xff) << 16);
+	    long seq = (mseq & ~0xffffffL) | loseq;
+	    if((Utils.sb(seq - mseq, 24) > 0) && (seq < mseq))
+		seq += 0x1000000L;
+	    else if((Utils.sb(loseq - mseq, 24) < 0) && (seq > mseq))
+		seq -= 0x1000000L;
+	    if(seq <= rseqs.first())
+		throw(new GeneralSecurityException("duplicated packet"));
+	    byte[] iv = new byte[8];
+	    Utils.int64e(seq, iv, 0);
+	    cipher.init(Cipher.DECRYPT_MODE, rkey, new GCMParameterSpec(128, iv));
+	    byte[] ret = cipher.doFinal(msg, 3, msg.length - 3);
+	    if(!rseqs.add(seq))
+		throw(new GeneralSecurityException("duplicated packet"));
+	    while(rseqs.size() > 128)
+		rseqs.pollFirst();
+	    return(ret);
+	}
+
+	PMessage encrypt(PMessage msg) throws GeneralSecurityException {
+	    byte[] buf = new byte[1 + msg.size()];
+	    buf[0] = (byte)msg.type;
+	    msg.fin(buf, 1);
+	    PMessage ret = new PMessage(Session.MSG_CRYPT);
+	    ret.addbytes(encrypt(buf));
+	    return(ret);
+	}
+
+	PMessage decrypt(MessageBuf msg) throws GeneralSecurityException {
+	    byte[] dec = decrypt(msg.bytes());
+	    return(new PMessage(dec[0], dec, 1, dec.length - 1));
+	}
+    }
+
+    static PMessage payload(int size) {
+	PMessage ret = new PMessage(RMessage.RMSG_WDGMSG);
+	byte[] buf = new byte[size];
+	new Random(size).nextBytes(buf);
+	ret.addbytes(buf);
+	return(ret);
+    }
+
+    static double runold(PMessage msg, int n) throws Exception {
+	byte[] cookie = new byte[32], salt = new byte[16];
+	OldCrypto cl = new OldCrypto(cookie, salt, false), sv = new OldCrypto(cookie, salt, true);
+	double st = Utils.rtime();
+	for(int i = 0; i < n; i++) {
+	    PMessage enc = cl.encrypt(msg);
+	    /* Mirrors Connection.send() and recv() around the cipher. */
+	    ByteBuffer pkt = ByteBuffer.allocate(enc.size() + 1);
+	    pkt.put((byte)enc.type);
+	    enc.fin(pkt);
+	    byte[] rbuf = new byte[pkt.position() - 1];
+	    System.arraycopy(pkt.array(), 1, rbuf, 0, rbuf.length);
+	    sv.decrypt(new PMessage(Session.MSG_CRYPT, rbuf));
+	}
+	return(n / (Utils.rtime() - st));
+    }
+
+    static double runnew(PMessage msg, int n) throws Exception {
+	byte[] cookie = new byte[32], salt = new byte[16];
+	Connection.Crypto cl = new Connection.Crypto(cookie, salt, false), sv = new Connection.Crypto(cookie, salt, true);
+	byte[] rbuf = new byte[65536];
+	PMessage rmsg = new PMessage(Session.MSG_CRYPT);
+	double st = Utils.rtime();
+	for(int i = 0; i < n; i++) {
+	    int len;
+	    synchronized(cl.txlock()) {
+		ByteBuffer pkt = cl.encrypt(msg);
+		len = pkt.remaining();
+		pkt.get(rbuf, 0, len);
+	    }
+	    rmsg.reset(rbuf, 1, len - 1);
+	    sv.decrypt(rmsg);
+	}
+	return(n / (Utils.rtime() - st));
+    }
+
+    public static void main(String[] args) throws Exception {
+	int n = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+	for(int size : new int[] {16, 128, 1000}) {
+	    PMessage msg = payload(size);
+	    /* Warm up both paths before measuring. */
+	    runold(msg, n / 4);
+	    runnew(msg, n / 4);
+	    double o = runold(msg, n), p = runnew(msg, n);
+	    System.out.printf("%5d bytes: old %.0f pkt/s, new %.0f pkt/s (%.2fx)\n", size, o, p, p / o);
+	}
+    }
+}
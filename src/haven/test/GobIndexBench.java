@@ -0,0 +1,173 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.util.function.*;
+
+/*
+ * Compares the radius, nearest and area queries of the grid index
+ * OCache keeps against the full scan they replaced, over synthetic
+ * objects spread across a loaded 3x3 map grid area the way animals,
+ * trees and stockpiles are, and the cost of keeping it updated as a
+ * fraction of them move.
+ */
+public class GobIndexBench {
+    static class Obj {
+	final int kind;
+	Coord2d c;
+
+	Obj(int kind, Coord2d c) {
+	    this.kind = kind;
+	    this.c = c;
+	}
+    }
+
+    static final double EXT = 300 * 11;
+
+    static List<Obj> synth(Random rnd, int n) {
+	List<Obj> ret = new ArrayList<>();
+	while(ret.size() < n) {
+	    /* Clustered, like herds and stockpile yards. */
+	    Coord2d cc = Coord2d.of(rnd.nextDouble() * EXT, rnd.nextDouble() * EXT);
+	    for(int i = 0, cn = 1 + rnd.nextInt(40); (i < cn) && (ret.size() < n); i++)
+		ret.add(new Obj(rnd.nextInt(50), cc.add(rnd.nextGaussian() * 60, rnd.nextGaussian() * 60)));
+	}
+	return(ret);
+    }
+
+    static List<Obj> scanwithin(List<Obj> objs, Coord2d c, double r, Predicate<Obj> p) {
+	List<Obj> ret = new ArrayList<>();
+	for(Obj o : objs) {
+	    if((o.c.dist(c) <= r) && p.test(o))
+		ret.add(o);
+	}
+	return(ret);
+    }
+
+    static Obj scannearest(List<Obj> objs, Coord2d c, Predicate<Obj> p) {
+	Obj best = null;
+	for(Obj o : objs) {
+	    if(p.test(o) && ((best == null) || (o.c.dist(c) < best.c.dist(c))))
+		best = o;
+	}
+	return(best);
+    }
+
+    /* The ring-by-ring search OCache.nearest() does over the index. */
+    static Obj idxnearest(GridIndex<Obj> idx, Coord2d c, Predicate<Obj> p) {
+	List<Obj> cand = new ArrayList<>();
+	Obj best = null;
+	double bestd = Double.POSITIVE_INFINITY;
+	for(int k = 0; true; k++) {
+	    if((best != null) && (idx.ringdist(k) >= bestd))
+		break;
+	    cand.clear();
+	    boolean more = idx.ring(c, k, cand);
+	    for(Obj o : cand) {
+		double d = o.c.dist(c);
+		if((d < bestd) && p.test(o)) {
+		    best = o;
+		    bestd = d;
+		}
+	    }
+	    if(!more)
+		break;
+	}
+	return(best);
+    }
+
+    static List<Obj> scanarea(List<Obj> objs, Area a) {
+	List<Obj> ret = new ArrayList<>();
+	for(Obj o : objs) {
+	    if((o.c.x >= a.ul.x) && (o.c.y >= a.ul.y) && (o.c.x < a.br.x) && (o.c.y < a.br.y))
+		ret.add(o);
+	}
+	return(ret);
+    }
+
+    static double time(int n, IntConsumer q) {
+	double st = Utils.rtime();
+	for(int i = 0; i < n; i++)
+	    q.accept(i);
+	return((Utils.rtime() - st) * 1e6 / n);
+    }
+
+    public static void main(String[] args) {
+	int n = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+	int nq = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+	Random rnd = new Random(4711);
+	List<Obj> objs = synth(rnd, n);
+	GridIndex<Obj> idx = new GridIndex<>(MCache.tilesz.x * 10);
+	Map<Obj, GridIndex.Entry<Obj>> ents = new IdentityHashMap<>();
+	for(Obj o : objs)
+	    ents.put(o, idx.add(o, o.c));
+	Coord2d[] qc = new Coord2d[nq];
+	Area[] qa = new Area[nq];
+	for(int i = 0; i < nq; i++) {
+	    qc[i] = Coord2d.of(rnd.nextDouble() * EXT, rnd.nextDouble() * EXT);
+	    Coord ul = qc[i].floor();
+	    qa[i] = Area.sized(ul, Coord.of(20 + rnd.nextInt(200), 20 + rnd.nextInt(200)));
+	}
+	Predicate<Obj> any = o -> true, rare = o -> o.kind == 0;
+
+	/* Check that the index agrees with the scan before timing it. */
+	for(int i = 0; i < 1000; i++) {
+	    if(scanwithin(objs, qc[i], 132, any).size() != idx.within(qc[i], 132, any, new ArrayList<>()).size())
+		throw(new AssertionError("within"));
+	    Obj a = scannearest(objs, qc[i], rare), b = idxnearest(idx, qc[i], rare);
+	    if((a != b) && ((a == null) || (b == null) || (a.c.dist(qc[i]) != b.c.dist(qc[i]))))
+		throw(new AssertionError("nearest"));
+	    if(scanarea(objs, qa[i]).size() != idx.inArea(qa[i], any, new ArrayList<>()).size())
+		throw(new AssertionError("area"));
+	}
+
+	for(int round = 0; round < 2; round++) {
+	    boolean show = round > 0;
+	    double sw = time(nq, i -> scanwithin(objs, qc[i], 132, any));
+	    double iw = time(nq, i -> idx.within(qc[i], 132, any, new ArrayList<>()));
+	    double sn = time(nq, i -> scannearest(objs, qc[i], rare));
+	    double in = time(nq, i -> idxnearest(idx, qc[i], rare));
+	    double sa = time(nq, i -> scanarea(objs, qa[i]));
+	    double ia = time(nq, i -> idx.inArea(qa[i], any, new ArrayList<>()));
+	    double mv = time(nq, i -> {
+		    Obj o = objs.get(i % objs.size());
+		    o.c = o.c.add(rnd.nextGaussian() * 3, rnd.nextGaussian() * 3);
+		    idx.move(ents.get(o), o.c);
+		});
+	    if(show) {
+		System.out.printf("%d objects, %d queries each\n", n, nq);
+		System.out.printf("within 12 tiles:  scan %8.2f us, index %8.2f us (%.1fx)\n", sw, iw, sw / iw);
+		System.out.printf("nearest, 1 in 50: scan %8.2f us, index %8.2f us (%.1fx)\n", sn, in, sn / in);
+		System.out.printf("in area:          scan %8.2f us, index %8.2f us (%.1fx)\n", sa, ia, sa / ia);
+		System.out.printf("index move:       %8.2f us\n", mv);
+	    }
+	}
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/*
+ * Simulates a bot sweeping a storage room of 100 open cupboards, asking
+ * each for items by exact and partial name and for free space, and
+ * compares the InventoryIndex lookups against the child-list walks
+ * they replaced. A few items get new tooltips between sweeps, as
+ * meters and stacks change, so the index also pays for re-resolving
+ * their names.
+ */
+public class InvIndexBench {
+    static final String[] names = {
+	"Flax Fibres", "Hemp Fibres", "Wood Block", "Board", "Birch Bark",
+	"Linen Cloth", "Hemp Cloth", "Wool", "String", "Bone Material",
+	"Carrot Seed", "Turnip Seed", "Pumpkin Seed", "Beetroot", "Onion",
+	"Clay", "Brick", "Stone", "Coal", "Cured Hide",
+    };
+
+    /* Stands in for a GItem whose info has already been built, so that
+     * getname() costs what ItemInfo.find() over it does. */
+    static class Item extends GItem {
+	final Object[] info;
+	String name;
+
+	Item(Random rnd, String name) {
+	    super(null);
+	    this.name = name;
+	    info = new Object[6 + rnd.nextInt(6)];
+	    for(int i = 0; i < info.length; i++)
+		info[i] = Integer.valueOf(i);
+	    info[rnd.nextInt(info.length)] = new StringBuilder(name);
+	}
+
+	public String getname() {
+	    for(Object inf : info) {
+		if(inf instanceof CharSequence)
+		    return(name);
+	    }
+	    return("exception");
+	}
+    }
+
+    /* The previous implementations, kept here for comparison. */
+    static List<WItem> oldexact(Inventory inv, String... names) {
+	List<WItem> items = new ArrayList<WItem>();
+	for(Widget wdg = inv.child; wdg != null; wdg = wdg.next) {
+	    if(wdg instanceof WItem) {
+		String wdgname = ((WItem)wdg).item.getname();
+		for(String name : names) {
+		    if(wdgname.equals(name)) {
+			items.add((WItem)wdg);
+			break;
+		    }
+		}
+	    }
+	}
+	return(items);
+    }
+
+    static WItem oldpartial(Inventory inv, String name) {
+	for(Widget wdg = inv.child; wdg != null; wdg = wdg.next) {
+	    if((wdg instanceof WItem) && ((WItem)wdg).item.getname().contains(name))
+		return((WItem)wdg);
+	}
+	return(null);
+    }
+
+    static Coord oldroom(Inventory inv, int x, int y) {
+	Coord isz = inv.isz, sqsz = Inventory.sqsz;
+	boolean[][] occumap = new boolean[isz.x][isz.y];
+	for(Widget wdg = inv.child; wdg != null; wdg = wdg.next) {
+	    if(wdg instanceof WItem) {
+		for(int i = 0; i < wdg.sz.x; i++) {
+		    for(int j = 0; j < wdg.sz.y; j++)
+			occumap[(wdg.c.x / sqsz.x + i / sqsz.x)][(wdg.c.y / sqsz.y + j / sqsz.y)] = true;
+		}
+	    }
+	}
+	for(int i = 0; i < isz.x; i++) {
+	    spot: for(int j = 0; j < isz.y; j++) {
+		for(int k = 0; k < x; k++) {
+		    for(int l = 0; l < y; l++) {
+			if((i + k >= isz.x) || (j + l >= isz.y) || occumap[i + k][j + l])
+			    continue spot;
+		    }
+		}
+		return(Coord.of(i, j));
+	    }
+	}
+	return(null);
+    }
+
+    static int oldfree(Inventory inv) {
+	int ret = inv.isz.x * inv.isz.y;
+	for(Widget wdg = inv.child; wdg != null; wdg = wdg.next) {
+	    if(wdg instanceof WItem)
+		ret -= (wdg.sz.x * wdg.sz.y) / (Inventory.sqsz.x * Inventory.sqsz.y);
+	}
+	return(ret);
+    }
+
+    static int sweepold(List<Inventory> invs, Random rnd) {
+	int h = 0;
+	for(Inventory inv : invs) {
+	    String nm = names[rnd.nextInt(names.length)];
+	    h += oldexact(inv, nm).size();
+	    h += oldexact(inv, "Flax Fibres", "Hemp Fibres").size();
+	    h += (oldpartial(inv, "Seed") != null) ? 1 : 0;
+	    h += (oldpartial(inv, "Cloth") != null) ? 1 : 0;
+	    h += oldfree(inv);
+	    Coord c = oldroom(inv, 2, 2);
+	    h += (c == null) ? 0 : c.x + c.y;
+	}
+	return(h);
+    }
+
+    static int sweepnew(List<Inventory> invs, Random rnd) {
+	int h = 0;
+	for(Inventory inv : invs) {
+	    String nm = names[rnd.nextInt(names.length)];
+	    h += inv.getItemsExact(nm).size();
+	    h += inv.getItemsExact("Flax Fibres", "Hemp Fibres").size();
+	    h += (inv.getItemPartial("Seed") != null) ? 1 : 0;
+	    h += (inv.getItemPartial("Cloth") != null) ? 1 : 0;
+	    h += inv.getFreeSpace();
+	    Coord c = inv.isRoom(2, 2);
+	    h += (c == null) ? 0 : c.x + c.y;
+	}
+	return(h);
+    }
+
+    /* Renames a few items through the same message the server sends. */
+    static void churn(List<Item> items, Random rnd, int n) {
+	for(int i = 0; i < n; i++) {
+	    Item it = items.get(rnd.nextInt(items.size()));
+	    it.name = names[rnd.nextInt(names.length)];
+	    it.uimsg("tt");
+	}
+    }
+
+    public static void main(String[] args) {
+	int ncup = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+	int nsweep = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+	Random rnd = new Random(4711);
+	List<Inventory> invs = new ArrayList<>();
+	List<Item> items = new ArrayList<>();
+	for(int i = 0; i < ncup; i++) {
+	    /* 32-slot inventories, rarely quite full. */
+	    Inventory inv = new Inventory(Coord.of(4, 8));
+	    int fill = 16 + rnd.nextInt(17);
+	    for(int s = 0; s < fill; s++) {
+		Item it = new Item(rnd, names[rnd.nextInt(names.length)]);
+		inv.addchild(it, Coord.of(s % 4, s / 4));
+		items.add(it);
+	    }
+	    invs.add(inv);
+	}
+
+	/* Check that the index agrees with the walks before timing it. */
+	for(int i = 0; i < 200; i++) {
+	    churn(items, rnd, 20);
+	    long seed = rnd.nextLong();
+	    if(sweepold(invs, new Random(seed)) != sweepnew(invs, new Random(seed)))
+		throw(new AssertionError());
+	}
+
+	for(int round = 0; round < 2; round++) {
+	    double ot = 0, nt = 0;
+	    for(int i = 0; i < nsweep; i++) {
+		churn(items, rnd, 10);
+		long seed = rnd.nextLong();
+		double st = Utils.rtime();
+		sweepold(invs, new Random(seed));
+		ot += Utils.rtime() - st;
+		st = Utils.rtime();
+		sweepnew(invs, new Random(seed));
+		nt += Utils.rtime() - st;
+	    }
+	    if(round > 0) {
+		System.out.printf("%d cupboards, %d items, %d sweeps\n", ncup, items.size(), nsweep);
+		System.out.printf("sweep: walk %8.1f us, index %8.1f us (%.1fx)\n",
+				  ot * 1e6 / nsweep, nt * 1e6 / nsweep, ot / nt);
+	    }
+	}
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.io.*;
+import static haven.MCache.cmaps;
+
+/*
+ * Times overlay lookups over visible areas spanning up to 3x3 grids,
+ * as done by MapView and MapMesh, through MCache.getol and
+ * MCache.getols on packed grid data. The previous one-boolean-per-tile
+ * layout is kept here as a reference, both to check the results
+ * against and to time against.
+ */
+public class MapGridBench {
+    public static final int NOL = 4;
+
+    /* A resource holding nothing but an empty overlay layer. */
+    static byte[] olres() {
+	MessageBuf buf = new MessageBuf();
+	buf.addbytes("Haven Resource 1".getBytes(Utils.ascii));
+	buf.adduint16(1);
+	buf.addstring("overlay");
+	buf.addint32(1);
+	buf.adduint8(1);
+	return(buf.fin());
+    }
+
+    static void section(MessageBuf buf, String name, MessageBuf data) {
+	byte[] b = data.fin();
+	buf.addstring(name);
+	buf.adduint8(0x80);
+	buf.addint32(b.length);
+	buf.addbytes(b);
+    }
+
+    /* A grid payload as a server sends it, with each overlay as one
+     * plot masking the whole grid, fragmented into a single piece. */
+    static MessageBuf payload(int pktid, Coord gc, long id, boolean[][] ol) {
+	MessageBuf buf = new MessageBuf();
+	buf.addcoord(gc);
+	buf.adduint8(1);
+	MessageBuf mid = new MessageBuf();
+	mid.addint64(id);
+	section(buf, "m", mid);
+	MessageBuf pi = new MessageBuf();
+	for(int o = 0; o < ol.length; o++)
+	    pi.adduint8(o).adduint16(o);
+	pi.adduint8(255);
+	section(buf, "pi", pi);
+	MessageBuf p = new MessageBuf();
+	for(int o = 0; o < ol.length; o++) {
+	    p.adduint8(o).adduint8(1);
+	    p.adduint8(0).adduint8(0).adduint8(cmaps.x).adduint8(cmaps.y);
+	    for(int i = 0; i < ol[o].length; i += 8) {
+		int m = 0;
+		for(int b = 0; (b < 8) && (i + b < ol[o].length); b++) {
+		    if(ol[o][i + b])
+			m |= 1 << b;
+		}
+		p.adduint8(m);
+	    }
+	}
+	p.adduint8(255);
+	section(buf, "p", p);
+	byte[] data = buf.fin();
+	MessageBuf frag = new MessageBuf();
+	frag.addint32(pktid).adduint16(0).adduint16(data.length);
+	frag.addbytes(data);
+	return(new MessageBuf(frag.fin()));
+    }
+
+    static boolean[][] synth(Random rnd) {
+	boolean[][] ret = new boolean[NOL][cmaps.x * cmaps.y];
+	for(int o = 0; o < NOL; o++) {
+	    /* A few rectangular plots per overlay, as claims and
+	     * fields tend to be. */
+	    for(int n = rnd.nextInt(3); n > 0; n--) {
+		int x = rnd.nextInt(cmaps.x), y = rnd.nextInt(cmaps.y);
+		int w = 1 + rnd.nextInt(40), h = 1 + rnd.nextInt(40);
+		for(int ty = y; ty < Math.min(y + h, cmaps.y); ty++) {
+		    for(int tx = x; tx < Math.min(x + w, cmaps.x); tx++)
+			ret[o][tx + (ty * cmaps.x)] = true;
+		}
+	    }
+	}
+	return(ret);
+    }
+
+    /* The previous MCache.getol, copying each grid's part of the
+     * area through a temporary buffer. */
+    static void oldgetol(boolean[][][] grids, int o, Area a, boolean[] buf) {
+	Area ga = a.div(cmaps);
+	for(Coord gc : ga) {
+	    boolean[] ol = grids[gc.x + (gc.y * 3)][o];
+	    Coord gul = gc.mul(cmaps);
+	    Area gla = a.overlap(Area.sized(gul, cmaps)).xl(gul.inv());
+	    boolean[] gbuf = new boolean[gla.area()];
+	    int i = 0;
+	    for(Coord c : gla)
+		gbuf[i++] = ol[c.x + (c.y * cmaps.x)];
+	    for(Coord c : gla)
+		buf[a.ri(c.add(gul))] = gbuf[gla.ri(c)];
+	}
+    }
+
+    static boolean oldolin(boolean[] ol, Area a) {
+	for(Coord c : a) {
+	    if(ol[c.x + (c.y * cmaps.x)])
+		return(true);
+	}
+	return(false);
+    }
+
+    /* The overlays covering some part of the area, found by scanning
+     * the old layout tile by tile. */
+    static Collection<Integer> oldgetols(boolean[][][] grids, Area a) {
+	Collection<Integer> ret = new ArrayList<>();
+	for(Coord gc : a.div(cmaps)) {
+	    Coord gul = gc.mul(cmaps);
+	    Area gla = a.overlap(Area.sized(gul, cmaps)).xl(gul.inv());
+	    for(int o = 0; o < NOL; o++) {
+		if(!ret.contains(o) && oldolin(grids[gc.x + (gc.y * 3)][o], gla))
+		    ret.add(o);
+	    }
+	}
+	return(ret);
+    }
+
+    public static void main(String[] args) {
+	int n = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+	Random rnd = new Random(4711);
+	Resource.Pool pool = new Resource.Pool(name -> new ByteArrayInputStream(olres()));
+	@SuppressWarnings("unchecked") Indir<Resource>[] ols = new Indir[NOL];
+	MCache.OverlayInfo[] ids = new MCache.OverlayInfo[NOL];
+	for(int o = 0; o < NOL; o++) {
+	    Resource res = pool.loadwait("bench/ol/" + o);
+	    ols[o] = res.indir();
+	    ids[o] = res.flayer(MCache.ResOverlay.class);
+	}
+	/* The grids are requested and delivered through an offline
+	 * session, as a replayed recording would be, but with its
+	 * resource IDs resolved to the overlays above. */
+	Session sess = new Session(Connection.offline(), new Session.User("bench")) {
+		public Indir<Resource> getres(int id, int prio) {
+		    return(ols[id]);
+		}
+	    };
+	Connection.Callback cb = sess.conn.callbacks();
+	MCache map = sess.glob.map;
+	boolean[][][] old = new boolean[9][][];
+	for(int i = 0; i < 9; i++) {
+	    Coord gc = Coord.of(i % 3, i / 3);
+	    old[i] = synth(rnd);
+	    map.request(gc);
+	    cb.mapdata(payload(i, gc, i + 1, old[i]));
+	}
+	for(int i = 0; i < 9; i++) {
+	    Coord gc = Coord.of(i % 3, i / 3);
+	    Loading.waitfor(() -> map.getgrid(gc));
+	}
+	System.out.printf("storage per grid: old %d bytes, new %d bytes (overlays only)\n",
+			  NOL * cmaps.x * cmaps.y, NOL * MCache.GridData.OLWORDS * 8);
+	/* All areas lie within the 3x3 grids, since anything outside
+	 * them would have to be requested from a server. */
+	Area[] areas = new Area[64];
+	for(int i = 0; i < areas.length; i++) {
+	    Coord ul = Coord.of(rnd.nextInt(cmaps.x * 2), rnd.nextInt(cmaps.y * 2));
+	    areas[i] = Area.sized(ul, Coord.of(1 + rnd.nextInt(cmaps.x), 1 + rnd.nextInt(cmaps.y)));
+	}
+	boolean[] b1 = new boolean[cmaps.x * cmaps.y], b2 = new boolean[cmaps.x * cmaps.y];
+	/* Check that both agree before timing anything. */
+	for(Area a : areas) {
+	    for(int o = 0; o < NOL; o++) {
+		oldgetol(old, o, a, b1);
+		map.getol(ids[o], a, b2);
+		if(!Arrays.equals(b1, 0, a.area(), b2, 0, a.area()))
+		    throw(new AssertionError("getol mismatch in " + a));
+	    }
+	    Collection<MCache.OverlayInfo> exp = new ArrayList<>();
+	    for(int o : oldgetols(old, a))
+		exp.add(ids[o]);
+	    if(!new HashSet<>(exp).equals(new HashSet<>(map.getols(a))))
+		throw(new AssertionError("getols mismatch in " + a));
+	}
+	for(int pass = 0; pass < 2; pass++) {
+	    double st = Utils.rtime();
+	    for(int r = 0; r < n; r++) {
+		for(Area a : areas) {
+		    for(int o = 0; o < NOL; o++)
+			oldgetol(old, o, a, b1);
+		}
+	    }
+	    double ot = Utils.rtime() - st;
+	    st = Utils.rtime();
+	    for(int r = 0; r < n; r++) {
+		for(Area a : areas) {
+		    for(int o = 0; o < NOL; o++)
+			map.getol(ids[o], a, b2);
+		}
+	    }
+	    double nt = Utils.rtime() - st;
+	    int m = 0;
+	    st = Utils.rtime();
+	    for(int r = 0; r < n; r++) {
+		for(Area a : areas)
+		    m += oldgetols(old, a).size();
+	    }
+	    double oi = Utils.rtime() - st;
+	    st = Utils.rtime();
+	    for(int r = 0; r < n; r++) {
+		for(Area a : areas)
+		    m -= map.getols(a).size();
+	    }
+	    double ni = Utils.rtime() - st;
+	    if(m != 0)
+		throw(new AssertionError("getols mismatch"));
+	    if(pass > 0) {
+		System.out.printf("getol:  old %.2f ms, new %.2f ms (%.2fx)\n", ot * 1000, nt * 1000, ot / nt);
+		System.out.printf("getols: old %.2f ms, new %.2f ms (%.2fx)\n", oi * 1000, ni * 1000, oi / ni);
+	    }
+	}
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.awt.Color;
+import java.awt.image.*;
+import static haven.MCache.cmaps;
+
+/*
+ * Times MapFile.DataGrid.rasterize and olblend against the previous
+ * per-pixel getRGB/setSample renderer over a synthetic segment of
+ * grids, serially and spread over all cores, and checks that both
+ * produce the same pixels.
+ */
+public class MapRenderBench {
+    public static final int NSETS = 8, NOL = 3;
+
+    static class Grid {
+	final int[] tiles = new int[cmaps.x * cmaps.y];
+	final boolean[][] ols = new boolean[NOL][cmaps.x * cmaps.y];
+	final Coord off;
+
+	Grid(Random rnd, Coord gc) {
+	    off = gc.mul(cmaps);
+	    /* Blobby terrain: each tile takes the set of its nearest seed. */
+	    int ns = 12;
+	    int[] sx = new int[ns], sy = new int[ns], st = new int[ns];
+	    for(int i = 0; i < ns; i++) {
+		sx[i] = rnd.nextInt(cmaps.x); sy[i] = rnd.nextInt(cmaps.y); st[i] = rnd.nextInt(NSETS);
+	    }
+	    for(int y = 0, i = 0; y < cmaps.y; y++) {
+		for(int x = 0; x < cmaps.x; x++, i++) {
+		    int best = 0, bd = Integer.MAX_VALUE;
+		    for(int s = 0; s < ns; s++) {
+			int d = ((x - sx[s]) * (x - sx[s])) + ((y - sy[s]) * (y - sy[s]));
+			if(d < bd) {bd = d; best = s;}
+		    }
+		    tiles[i] = st[best];
+		    for(int o = 0; o < NOL; o++)
+			ols[o][i] = ((x / (8 + o)) + (y / (5 + o))) % 4 == 0;
+		}
+	    }
+	}
+    }
+
+    /* The previous implementation, kept here for comparison. */
+    static BufferedImage oldrender(Grid g, int[] prio, BufferedImage[] texes) {
+	WritableRaster buf = PUtils.imgraster(cmaps);
+	Coord c = new Coord(), off = g.off;
+	for(c.y = 0; c.y < cmaps.y; c.y++) {
+	    for(c.x = 0; c.x < cmaps.x; c.x++) {
+		BufferedImage tex = texes[g.tiles[c.x + (c.y * cmaps.x)]];
+		int rgb = 0;
+		if(tex != null)
+		    rgb = tex.getRGB(Utils.floormod(c.x + off.x, tex.getWidth()),
+				     Utils.floormod(c.y + off.y, tex.getHeight()));
+		buf.setSample(c.x, c.y, 0, (rgb & 0x00ff0000) >>> 16);
+		buf.setSample(c.x, c.y, 1, (rgb & 0x0000ff00) >>>  8);
+		buf.setSample(c.x, c.y, 2, (rgb & 0x000000ff) >>>  0);
+		buf.setSample(c.x, c.y, 3, (rgb & 0xff000000) >>> 24);
+	    }
+	}
+	for(c.y = 1; c.y < cmaps.y - 1; c.y++) {
+	    for(c.x = 1; c.x < cmaps.x - 1; c.x++) {
+		int i = c.x + (c.y * cmaps.x);
+		int p = prio[g.tiles[i]];
+		if((prio[g.tiles[i - 1]] > p) || (prio[g.tiles[i + 1]] > p) ||
+		   (prio[g.tiles[i - cmaps.x]] > p) || (prio[g.tiles[i + cmaps.x]] > p))
+		{
+		    buf.setSample(c.x, c.y, 0, 0);
+		    buf.setSample(c.x, c.y, 1, 0);
+		    buf.setSample(c.x, c.y, 2, 0);
+		    buf.setSample(c.x, c.y, 3, 255);
+		}
+	    }
+	}
+	return(PUtils.rasterimg(buf));
+    }
+
+    /* As the previous olrender, though blending red against red
+     * where it read the green channel. */
+    static BufferedImage oldolrender(Grid g, Color[] cols) {
+	WritableRaster buf = PUtils.imgraster(cmaps);
+	for(int o = 0; o < NOL; o++) {
+	    Color col = cols[o];
+	    Coord c = new Coord();
+	    for(c.y = 0; c.y < cmaps.y; c.y++) {
+		for(c.x = 0; c.x < cmaps.x; c.x++) {
+		    if(g.ols[o][c.x + (c.y * cmaps.x)]) {
+			buf.setSample(c.x, c.y, 0, ((col.getRed()   * col.getAlpha()) + (buf.getSample(c.x, c.y, 0) * (255 - col.getAlpha()))) / 255);
+			buf.setSample(c.x, c.y, 1, ((col.getGreen() * col.getAlpha()) + (buf.getSample(c.x, c.y, 1) * (255 - col.getAlpha()))) / 255);
+			buf.setSample(c.x, c.y, 2, ((col.getBlue()  * col.getAlpha()) + (buf.getSample(c.x, c.y, 2) * (255 - col.getAlpha()))) / 255);
+			buf.setSample(c.x, c.y, 3, Math.max(buf.getSample(c.x, c.y, 3), col.getAlpha()));
+		    }
+		}
+	    }
+	}
+	return(PUtils.rasterimg(buf));
+    }
+
+    static BufferedImage newrender(Grid g, int[] prio, BufferedImage[] texes) {
+	WritableRaster buf = PUtils.imgraster(cmaps);
+	MapFile.DataGrid.rasterize(((DataBufferByte)buf.getDataBuffer()).getData(), g.tiles, prio, texes, g.off);
+	return(PUtils.rasterimg(buf));
+    }
+
+    static BufferedImage newolrender(Grid g, Color[] cols) {
+	WritableRaster buf = PUtils.imgraster(cmaps);
+	MapFile.DataGrid.olblend(((DataBufferByte)buf.getDataBuffer()).getData(), g.ols, cols);
+	return(PUtils.rasterimg(buf));
+    }
+
+    static byte[] data(BufferedImage img) {
+	return(((DataBufferByte)img.getRaster().getDataBuffer()).getData());
+    }
+
+    interface Renderer {
+	BufferedImage render(Grid g);
+    }
+
+    static double run(Grid[] grids, Renderer r, boolean par, int rounds) {
+	double st = Utils.rtime();
+	for(int i = 0; i < rounds; i++) {
+	    if(par)
+		Arrays.stream(grids).parallel().forEach(r::render);
+	    else
+		Arrays.stream(grids).forEach(r::render);
+	}
+	return((grids.length * rounds) / (Utils.rtime() - st));
+    }
+
+    public static void main(String[] args) {
+	int ng = (args.length > 0) ? Integer.parseInt(args[0]) : 64;
+	Random rnd = new Random(1);
+	BufferedImage[] texes = new BufferedImage[NSETS];
+	int[] prio = new int[NSETS];
+	for(int t = 0; t < NSETS; t++) {
+	    int sz = 32 << rnd.nextInt(3);
+	    texes[t] = new BufferedImage(sz, sz, BufferedImage.TYPE_4BYTE_ABGR);
+	    for(int y = 0; y < sz; y++) {
+		for(int x = 0; x < sz; x++)
+		    texes[t].setRGB(x, y, rnd.nextInt() | 0xff000000);
+	    }
+	    prio[t] = rnd.nextInt(NSETS);
+	}
+	Color[] cols = {new Color(255, 0, 0, 255), new Color(0, 0, 255, 128), new Color(0, 255, 0, 64)};
+	Grid[] grids = new Grid[ng];
+	int side = (int)Math.ceil(Math.sqrt(ng));
+	for(int i = 0; i < ng; i++)
+	    grids[i] = new Grid(rnd, Coord.of(i % side, i / side));
+	for(Grid g : grids) {
+	    if(!Arrays.equals(data(oldrender(g, prio, texes)), data(newrender(g, prio, texes))))
+		throw(new AssertionError("tile output differs"));
+	    if(!Arrays.equals(data(oldolrender(g, cols)), data(newolrender(g, cols))))
+		throw(new AssertionError("overlay output differs"));
+	}
+	Renderer[][] rs = {
+	    {g -> oldrender(g, prio, texes), g -> newrender(g, prio, texes)},
+	    {g -> oldolrender(g, cols), g -> newolrender(g, cols)},
+	};
+	String[] nms = {"tiles", "overlays"};
+	for(int k = 0; k < rs.length; k++) {
+	    /* Warm up both paths before measuring. */
+	    run(grids, rs[k][0], false, 5);
+	    run(grids, rs[k][1], false, 5);
+	    double o = run(grids, rs[k][0], false, 20), n = run(grids, rs[k][1], false, 20);
+	    double op = run(grids, rs[k][0], true, 20), np = run(grids, rs[k][1], true, 20);
+	    System.out.printf("%-8s: old %.0f grids/s, new %.0f grids/s (%.2fx); on %d cores: old %.0f, new %.0f grids/s\n",
+			      nms[k], o, n, n / o, Runtime.getRuntime().availableProcessors(), op, np);
+	}
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import haven.automated.pathfinder.Edge;
+import haven.automated.pathfinder.Map;
+import haven.automated.pathfinder.ObstacleField;
+import java.util.*;
+import java.io.*;
+
+/*
+ * Runs both pathfinder planners over the same obstacle layouts and
+ * compares planning time and path length. Layouts are read from files
+ * recorded with -Dhaven.pfrecord=FILE, or synthesized as base-like
+ * clutter of fences, buildings and small objects when none are given.
+ */
+public class PathBench {
+    public final List<byte[]> layouts = new ArrayList<>();
+
+    public void load(File file) throws IOException {
+	try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+	    while(true) {
+		Map m;
+		try {
+		    m = Map.load(in);
+		} catch(EOFException e) {
+		    break;
+		}
+		add(m);
+	    }
+	}
+    }
+
+    private void add(Map m) throws IOException {
+	ByteArrayOutputStream buf = new ByteArrayOutputStream();
+	m.save(new DataOutputStream(buf));
+	layouts.add(buf.toByteArray());
+    }
+
+    private static void obst(Map m, int x, int y, int w, int h, double a) {
+	if((Math.abs(x - Map.origin) < 20) && (Math.abs(y - Map.origin) < 20))
+	    return;
+	m.plot(ObstacleField.part(Coord.of(-w, -h), Coord.of(w, h), a), x, y);
+    }
+
+    public void synth(int n) throws IOException {
+	Random rnd = new Random(4711);
+	int lo = 40, hi = Map.sz - 40;
+	for(int i = 0; i < n; i++) {
+	    Coord end;
+	    do {
+		end = Coord.of(lo + rnd.nextInt(hi - lo), lo + rnd.nextInt(hi - lo));
+	    } while(end.dist(Coord.of(Map.origin, Map.origin)) < 100);
+	    Map m = new Map(end);
+	    int nfence = rnd.nextInt(12), nbuild = rnd.nextInt(20), nsmall = 50 + rnd.nextInt(400);
+	    for(int o = 0; o < nfence; o++) {
+		/* Fence runs, axis-aligned with a gap somewhere. */
+		int x = lo + rnd.nextInt(hi - lo), y = lo + rnd.nextInt(hi - lo), len = 5 + rnd.nextInt(15);
+		boolean vert = rnd.nextBoolean();
+		int gap = rnd.nextInt(len);
+		for(int s = 0; s < len; s++) {
+		    if(s == gap)
+			continue;
+		    obst(m, vert ? x : x + s * 11, vert ? y + s * 11 : y, 5, 1, vert ? Math.PI / 2 : 0);
+		}
+	    }
+	    for(int o = 0; o < nbuild; o++)
+		obst(m, lo + rnd.nextInt(hi - lo), lo + rnd.nextInt(hi - lo), 8 + rnd.nextInt(20), 8 + rnd.nextInt(20), (rnd.nextInt(4) * Math.PI) / 2);
+	    for(int o = 0; o < nsmall; o++)
+		obst(m, lo + rnd.nextInt(hi - lo), lo + rnd.nextInt(hi - lo), 1 + rnd.nextInt(5), 1 + rnd.nextInt(5), rnd.nextDouble() * Math.PI * 2);
+	    m.prepare();
+	    add(m);
+	}
+    }
+
+    public static class Result {
+	public double time;
+	public double len;
+	public boolean found;
+    }
+
+    public Result run(byte[] layout, Map.Planner planner) throws IOException {
+	Map m = Map.load(new DataInputStream(new ByteArrayInputStream(layout)));
+	Result ret = new Result();
+	double st = Utils.rtime();
+	Iterable<Edge> path = m.route(planner);
+	ret.time = Utils.rtime() - st;
+	for(Edge e : path) {
+	    ret.found = true;
+	    ret.len += Math.hypot(e.dest.x - e.src.x, e.dest.y - e.src.y);
+	}
+	m.release();
+	return(ret);
+    }
+
+    public void run(int passes) throws IOException {
+	Map.Planner[] planners = Map.Planner.values();
+	double[] time = new double[planners.length], len = new double[planners.length];
+	double[] worst = new double[planners.length];
+	int[] found = new int[planners.length];
+	int both = 0;
+	for(int pass = 0; pass < passes; pass++) {
+	    /* Treat the first pass as warmup. */
+	    boolean count = (pass > 0) || (passes == 1);
+	    for(byte[] layout : layouts) {
+		Result[] res = new Result[planners.length];
+		boolean all = true;
+		for(int i = 0; i < planners.length; i++) {
+		    res[i] = run(layout, planners[i]);
+		    all &= res[i].found;
+		}
+		if(!count)
+		    continue;
+		if(all)
+		    both++;
+		for(int i = 0; i < planners.length; i++) {
+		    time[i] += res[i].time;
+		    worst[i] = Math.max(worst[i], res[i].time);
+		    if(res[i].found)
+			found[i]++;
+		    if(all)
+			len[i] += res[i].len;
+		}
+	    }
+	}
+	int nrun = layouts.size() * Math.max(passes - 1, 1);
+	System.out.printf("%d layouts, %d passes\n", layouts.size(), passes);
+	for(int i = 0; i < planners.length; i++) {
+	    System.out.printf("%-8s: %.2f ms mean, %.2f ms worst, %d/%d found, %.1f mean length where all found\n",
+			      planners[i], (time[i] * 1000) / nrun, worst[i] * 1000, found[i], nrun, len[i] / Math.max(both, 1));
+	}
+    }
+
+    public static void main(String[] args) throws IOException {
+	PathBench bench = new PathBench();
+	for(String arg : args)
+	    bench.load(new File(arg));
+	if(bench.layouts.isEmpty())
+	    bench.synth(200);
+	bench.run(3);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import haven.Skeleton.*;
+import java.util.*;
+
+/*
+ * Compares the per-tick cost of posing a herd of identically
+ * animated objects each on its own, as SkelSprite used to, against
+ * building the poses through the skeleton's shared evaluations,
+ * including the bone matrices PoseMorph derives from them.
+ */
+public class PoseBench {
+    static Skeleton synthskel(Random rnd, int nb) {
+	List<Bone> bones = new ArrayList<>();
+	for(int i = 0; i < nb; i++) {
+	    Coord3f ax = Coord3f.of(rnd.nextFloat() - 0.5f, rnd.nextFloat() - 0.5f, rnd.nextFloat() - 0.5f).norm();
+	    Bone b = new Bone("b" + i, Coord3f.of(rnd.nextFloat(), rnd.nextFloat(), rnd.nextFloat()), ax, rnd.nextFloat() * 3);
+	    if(i > 0)
+		b.parent = bones.get(Math.max(0, i - 1 - rnd.nextInt(3)));
+	    bones.add(b);
+	}
+	return(new Skeleton(bones));
+    }
+
+    static float[] rot(Random rnd) {
+	float a = rnd.nextFloat() * 0.5f, x = rnd.nextFloat() - 0.5f, y = rnd.nextFloat() - 0.5f, z = rnd.nextFloat() - 0.5f;
+	float n = (float)Math.sqrt((x * x) + (y * y) + (z * z));
+	float s = (float)Math.sin(a / 2);
+	return(new float[] {(float)Math.cos(a / 2), s * x / n, s * y / n, s * z / n});
+    }
+
+    static Track[] synthanim(Random rnd, Skeleton skel, float len, int nf) {
+	Track[] ret = new Track[skel.blist.length];
+	for(int i = 0; i < ret.length; i++) {
+	    Track.Frame[] frames = new Track.Frame[nf];
+	    for(int o = 0; o < nf; o++)
+		frames[o] = new Track.Frame(len * o / nf, new float[] {rnd.nextFloat() * 0.1f, rnd.nextFloat() * 0.1f, 0}, rot(rnd));
+	    ret[i] = new Track(skel.blist[i].name, frames);
+	}
+	return(ret);
+    }
+
+    static class Cow {
+	final Pose pose;
+	final PoseMod[] mods;
+	float[][] offs;
+
+	Cow(Skeleton skel, PoseMod mod) {
+	    this.pose = skel.new Pose(skel.bindpose);
+	    this.mods = new PoseMod[] {mod};
+	}
+
+	void tick(float dt, boolean shared) {
+	    for(PoseMod m : mods)
+		m.tick(dt);
+	    int nb = pose.lpos.length;
+	    if(shared) {
+		pose.build(mods);
+		float[][] soffs = pose.shared().boneoffs();
+		offs = new float[nb][];
+		for(int i = 0; i < nb; i++)
+		    offs[i] = soffs[i];
+	    } else {
+		pose.reset();
+		for(PoseMod m : mods)
+		    m.apply(pose);
+		pose.gbuild();
+		offs = new float[nb][16];
+		for(int i = 0; i < nb; i++)
+		    pose.boneoff(i, offs[i]);
+	    }
+	}
+    }
+
+    static double run(List<Cow> herd, int ticks, boolean shared) {
+	float dt = 1.0f / 60.0f;
+	double st = Utils.rtime();
+	for(int t = 0; t < ticks; t++) {
+	    for(Cow c : herd)
+		c.tick(dt, shared);
+	}
+	return((Utils.rtime() - st) * 1000 / ticks);
+    }
+
+    public static void main(String[] args) {
+	int n = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+	int ticks = (args.length > 1) ? Integer.parseInt(args[1]) : 600;
+	Random rnd = new Random(4711);
+	Skeleton skel = synthskel(rnd, 32);
+	/* Idling, grazing and walking. */
+	float[] lens = {3.0f, 4.0f, 1.0f};
+	Track[][] anims = new Track[lens.length][];
+	for(int i = 0; i < lens.length; i++)
+	    anims[i] = synthanim(rnd, skel, lens[i], (int)(lens[i] * 8));
+	List<Cow> herd = new ArrayList<>();
+	for(int i = 0; i < n; i++) {
+	    int a = rnd.nextInt(anims.length);
+	    PoseMod mod = skel.new TrackMod(Skeleton.ModOwner.nil, anims[a], new FxTrack[0], lens[a], WrapMode.LOOP);
+	    mod.age();
+	    herd.add(new Cow(skel, mod));
+	}
+	double q = Skeleton.evalquant;
+
+	/* Check that the shared poses match those built separately
+	 * at the same animation time before timing them. */
+	for(Cow c : herd) {
+	    c.tick(0, true);
+	    float[][] sh = c.offs;
+	    c.tick(0, false);
+	    for(int i = 0; i < sh.length; i++) {
+		if(!Arrays.equals(sh[i], c.offs[i]))
+		    throw(new AssertionError("pose mismatch"));
+	    }
+	}
+
+	for(int round = 0; round < 2; round++) {
+	    boolean show = round > 0;
+	    Skeleton.evalquant = 0;
+	    double sep = run(herd, ticks, false);
+	    Skeleton.evalquant = q;
+	    double sh = run(herd, ticks, true);
+	    if(show) {
+		Set<Skeleton.Eval> evs = Collections.newSetFromMap(new IdentityHashMap<>());
+		for(Cow c : herd)
+		    evs.add(c.pose.shared());
+		System.out.printf("%d objects, %d bones, %d ticks, quantum %.1f ms\n", n, skel.blist.length, ticks, q * 1000);
+		System.out.printf("separate: %8.3f ms/tick\n", sep);
+		System.out.printf("shared:   %8.3f ms/tick (%.1fx), %d distinct poses in last tick\n", sh, sep / sh, evs.size());
+	    }
+	}
+    }
+}
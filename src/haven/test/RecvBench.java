@@ -0,0 +1,193 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.io.*;
+import java.lang.management.*;
+
+/*
+ * Replays a packet stream through the receive path of an offline
+ * Connection and reports the heap allocated per packet. The stream
+ * is either rebuilt from a Connection.Callback.Dumper log, or
+ * synthesized when no log is given.
+ */
+public class RecvBench {
+    public static final int MTU = 1000;
+    public final List<byte[]> packets = new ArrayList<>();
+    private int seq = 0;
+
+    private void packet(int type, MessageBuf body) {
+	byte[] data = body.fin();
+	byte[] pkt = new byte[data.length + 1];
+	pkt[0] = (byte)type;
+	System.arraycopy(data, 0, pkt, 1, data.length);
+	packets.add(pkt);
+    }
+
+    public void rel(int type, byte[] data) {
+	if(data.length + 3 <= MTU) {
+	    MessageBuf pkt = new MessageBuf();
+	    pkt.adduint16(seq++ & 0xffff).adduint8(type).addbytes(data);
+	    packet(Session.MSG_REL, pkt);
+	    return;
+	}
+	int fl = MTU - 8;
+	for(int off = 0; off < data.length; off += fl) {
+	    int len = Math.min(fl, data.length - off);
+	    MessageBuf pkt = new MessageBuf();
+	    pkt.adduint16(seq++ & 0xffff).adduint8(RMessage.RMSG_FRAGMENT);
+	    if(off == 0)
+		pkt.adduint8(type);
+	    else
+		pkt.adduint8((off + len < data.length) ? 0x80 : 0x81);
+	    pkt.addbytes(data, off, len);
+	    packet(Session.MSG_REL, pkt);
+	}
+    }
+
+    public void mapdata(byte[] data) {
+	MessageBuf pkt = new MessageBuf();
+	pkt.addbytes(data);
+	packet(Session.MSG_MAPDATA, pkt);
+    }
+
+    public void objdata(int fl, long id, int frame, int initframe, int[] types, byte[][] attrs) {
+	MessageBuf pkt = new MessageBuf();
+	pkt.adduint8(fl).adduint32(id).addint32(frame);
+	if((fl & 8) != 0)
+	    pkt.addint32(initframe);
+	for(int i = 0; i < types.length; i++) {
+	    pkt.adduint8(0x80 | types[i]);
+	    pkt.adduint8(0x80);
+	    pkt.adduint16(attrs[i].length);
+	    pkt.addbytes(attrs[i]);
+	}
+	pkt.adduint8(OCache.OD_END);
+	packet(Session.MSG_OBJDATA, pkt);
+    }
+
+    public void load(BufferedReader in) throws IOException {
+	String ln;
+	while((ln = in.readLine()) != null) {
+	    String[] w = ln.split(" ");
+	    if(w.length < 2)
+		continue;
+	    if(w[1].equals("rmsg")) {
+		rel(Integer.parseInt(w[2]), Utils.bprint.dec(w[3]));
+	    } else if(w[1].equals("map")) {
+		mapdata(Utils.b64.dec(w[2]));
+	    } else if(w[1].equals("objd")) {
+		int fl = 0, a = 5;
+		if(w[2].indexOf('v') >= 0) fl |= 2;
+		if(w[2].indexOf('o') >= 0) fl |= 4;
+		if(w[2].indexOf('i') >= 0) {fl |= 8; a++;}
+		int n = w.length - a;
+		int[] types = new int[n];
+		byte[][] attrs = new byte[n][];
+		for(int i = 0; i < n; i++) {
+		    int p = w[a + i].indexOf(':');
+		    types[i] = Integer.parseInt(w[a + i].substring(0, p));
+		    attrs[i] = Utils.bprint.dec(w[a + i].substring(p + 1));
+		}
+		objdata(fl, Long.parseLong(w[3]), Integer.parseInt(w[4]), ((fl & 8) != 0) ? Integer.parseInt(w[5]) : 0, types, attrs);
+	    }
+	}
+    }
+
+    public void synth(int n) {
+	Random rnd = new Random(4711);
+	for(int i = 0; i < n; i++) {
+	    int k = rnd.nextInt(100);
+	    if(k < 50) {
+		byte[] buf = new byte[8 + rnd.nextInt(64)];
+		rnd.nextBytes(buf);
+		rel(RMessage.RMSG_WDGMSG, buf);
+	    } else if(k < 52) {
+		byte[] buf = new byte[4000 + rnd.nextInt(60000)];
+		rnd.nextBytes(buf);
+		rel(RMessage.RMSG_WDGMSG, buf);
+	    } else if(k < 60) {
+		byte[] buf = new byte[MTU - 16];
+		rnd.nextBytes(buf);
+		mapdata(buf);
+	    } else {
+		int na = 1 + rnd.nextInt(4);
+		int[] types = new int[na];
+		byte[][] attrs = new byte[na][];
+		for(int o = 0; o < na; o++) {
+		    types[o] = 1 + rnd.nextInt(30);
+		    attrs[o] = new byte[rnd.nextInt(24)];
+		    rnd.nextBytes(attrs[o]);
+		}
+		objdata(0, rnd.nextInt(2000), i, 0, types, attrs);
+	    }
+	}
+    }
+
+    private static long allocated() {
+	return(((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes());
+    }
+
+    public void run(int passes) {
+	PMessage view = new PMessage(0);
+	long bytes = 0, time = 0, npkt = 0;
+	for(int pass = 0; pass < passes; pass++) {
+	    Connection conn = Connection.offline();
+	    conn.add(new Connection.Callback() {});
+	    conn.feed(new PMessage(Session.MSG_BEAT));
+	    long a0 = allocated(), t0 = System.nanoTime();
+	    for(byte[] pkt : packets) {
+		view.type = pkt[0];
+		view.reset(pkt, 1, pkt.length - 1);
+		conn.feed(view);
+	    }
+	    long t1 = System.nanoTime(), a1 = allocated();
+	    /* Treat the first half of the passes as warmup. */
+	    if(pass >= passes / 2) {
+		bytes += a1 - a0;
+		time += t1 - t0;
+		npkt += packets.size();
+	    }
+	}
+	System.out.printf("%d packets, %.1f bytes allocated/packet, %.0f ns/packet\n",
+			  packets.size(), (double)bytes / npkt, (double)time / npkt);
+    }
+
+    public static void main(String[] args) throws IOException {
+	RecvBench bench = new RecvBench();
+	if(args.length > 0) {
+	    try(BufferedReader in = new BufferedReader(new FileReader(args[0]))) {
+		bench.load(in);
+	    }
+	} else {
+	    bench.synth(100000);
+	}
+	bench.run(20);
+    }
+}
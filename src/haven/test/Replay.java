@@ -0,0 +1,107 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.*;
+import java.io.*;
+import java.nio.file.*;
+import java.lang.management.*;
+
+/*
+ * Feeds a session recorded with -Dhaven.sessrec back through Session,
+ * RemoteUI, OCache and MCache, with neither a server nor a GL
+ * context, and reports the throughput and heap growth of the
+ * client's message processing. Playback follows the recorded timing
+ * scaled by the given speed, or runs as fast as possible when the
+ * speed is zero or left out.
+ */
+public class Replay implements UI.Context {
+    public void setmousepos(Coord c) {
+    }
+
+    private static long heapused() {
+	System.gc();
+	MemoryUsage mem = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+	return(mem.getUsed());
+    }
+
+    private static long allocated() {
+	return(((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes());
+    }
+
+    public void run(Path file, double speed) throws IOException, InterruptedException {
+	Audio.enabled = false;
+	Session sess = new Session(Connection.offline(), new Session.User("replay"));
+	RemoteUI rui = new RemoteUI(sess);
+	UI ui = new UI(this, new Coord(800, 600), rui);
+	Thread uithread = new HackThread(() -> {
+		try {
+		    rui.run(ui);
+		} catch(InterruptedException e) {
+		} catch(Throwable t) {
+		    System.err.println("UI processing failed; continuing with objects and map only");
+		    t.printStackTrace();
+		}
+	}, "Replay UI");
+	Connection.Callback cb = sess.conn.callbacks();
+	long h0 = heapused();
+	long a0 = allocated();
+	double st = Utils.rtime(), lastrep = st;
+	uithread.start();
+	try(InputStream in = Files.newInputStream(file)) {
+	    Connection.Callback.Player pl = new Connection.Callback.Player(in, speed);
+	    while(pl.step(cb)) {
+		double now = Utils.rtime();
+		if(now - lastrep > 5) {
+		    System.err.printf("%.0fs of recording replayed\n", pl.time);
+		    lastrep = now;
+		}
+	    }
+	    double fed = Utils.rtime() - st;
+	    long a1 = allocated();
+	    cb.closed();
+	    uithread.join();
+	    double el = Utils.rtime() - st;
+	    long h1 = heapused();
+	    System.out.printf("%d messages, %d objdeltas, %d mapdata blobs of %.1fs recorded\n", pl.nrel, pl.nobjd, pl.nmap, pl.time);
+	    System.out.printf("fed in %.2fs, UI drained after %.2fs: %.0f msg/s, %.0f objdelta/s\n", fed, el, pl.nrel / el, pl.nobjd / fed);
+	    System.out.printf("%.1f MB allocated by the feed thread, live heap %.1f MB -> %.1f MB\n",
+			      (a1 - a0) / 1048576.0, h0 / 1048576.0, h1 / 1048576.0);
+	}
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+	if(args.length < 1) {
+	    System.err.println("usage: Replay RECORDING [SPEED]");
+	    System.exit(1);
+	}
+	double speed = (args.length > 1) ? Double.parseDouble(args[1]) : 0;
+	new Replay().run(Paths.get(args[0]), speed);
+	System.exit(0);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.automated.uploader.Uploader;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.GZIPInputStream;
+import com.sun.net.httpserver.*;
+
+/*
+ * Runs the uploader against a local stub server that fails part of
+ * its requests, and checks that everything submitted arrives once,
+ * decompressed, with queued duplicates coalesced, and that jobs left
+ * in the outbox by one uploader are sent by the next. Failures are
+ * both 500 and 503, neither of which may turn compression off, while
+ * a service answering 415 to compressed bodies gets them plain.
+ */
+public class UploaderStub {
+    static final Map<String, Integer> got = new ConcurrentHashMap<>();
+    static final AtomicInteger requests = new AtomicInteger(), failures = new AtomicInteger(), gzipped = new AtomicInteger();
+    static final AtomicInteger plain = new AtomicInteger(), refused = new AtomicInteger();
+    static final Set<String> conns = ConcurrentHashMap.newKeySet();
+    static volatile double failrate = 0.3;
+    static final Random rnd = new Random(1);
+
+    static void handle(HttpExchange ex) throws IOException {
+	requests.incrementAndGet();
+	conns.add(ex.getRemoteAddress().toString());
+	InputStream in = ex.getRequestBody();
+	if("gzip".equals(ex.getRequestHeaders().getFirst("Content-Encoding"))) {
+	    gzipped.incrementAndGet();
+	    in = new GZIPInputStream(in);
+	}
+	String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+	boolean fail;
+	int code;
+	synchronized(rnd) {
+	    fail = rnd.nextDouble() < failrate;
+	    code = fail ? (rnd.nextBoolean() ? 500 : 503) : 200;
+	}
+	if(fail)
+	    failures.incrementAndGet();
+	else
+	    got.merge(body, 1, Integer::sum);
+	byte[] rsp = "{}".getBytes(StandardCharsets.UTF_8);
+	ex.sendResponseHeaders(code, rsp.length);
+	try(OutputStream out = ex.getResponseBody()) {
+	    out.write(rsp);
+	}
+    }
+
+    static void noenc(HttpExchange ex) throws IOException {
+	int code = 200;
+	if(ex.getRequestHeaders().getFirst("Content-Encoding") != null) {
+	    refused.incrementAndGet();
+	    code = 415;
+	} else {
+	    plain.incrementAndGet();
+	}
+	ex.getRequestBody().readAllBytes();
+	ex.sendResponseHeaders(code, -1);
+	ex.close();
+    }
+
+    static void await(Uploader up, int timeout) throws InterruptedException {
+	long st = System.currentTimeMillis();
+	while((up.pending() > 0) && (System.currentTimeMillis() - st < timeout))
+	    Thread.sleep(50);
+    }
+
+    static void check(boolean c, String msg) {
+	if(!c) {
+	    System.out.println("FAIL: " + msg);
+	    System.exit(1);
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	HttpServer srv = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+	srv.createContext("/", UploaderStub::handle);
+	srv.createContext("/noenc/", UploaderStub::noenc);
+	srv.setExecutor(Executors.newFixedThreadPool(4));
+	srv.start();
+	String base = "http://127.0.0.1:" + srv.getAddress().getPort();
+	Path outbox = Files.createTempDirectory("outbox");
+	try {
+	    /* Retries, compression and coalescing. */
+	    Uploader up = new Uploader(outbox, 2, 20);
+	    up.register("test", () -> new Uploader.Target(base));
+	    Set<String> expect = new HashSet<>();
+	    for(int i = 0; i < 200; i++) {
+		String body = "{\"n\":" + i + ",\"pad\":\"" + "x".repeat(200) + "\"}";
+		up.submit(Uploader.Job.json("test", "/data", body));
+		expect.add(body);
+	    }
+	    for(int i = 0; i < 50; i++)
+		up.submit(Uploader.Job.json("test", "/grid", "{\"grid\":1,\"v\":" + i + "}").key("grid/1"));
+	    expect.add("{\"grid\":1,\"v\":49}");
+	    await(up, 60000);
+	    for(String b : expect)
+		check(got.getOrDefault(b, 0) >= 1, "delivered " + b.substring(0, Math.min(b.length(), 20)));
+	    System.out.printf("ok: all %d distinct bodies delivered\n", expect.size());
+	    int grids = 0;
+	    for(String b : got.keySet()) {
+		if(b.startsWith("{\"grid\""))
+		    grids++;
+	    }
+	    check(grids < 50, "grid updates not coalesced");
+	    check(gzipped.get() == requests.get(), "uncompressed bodies sent");
+	    System.out.printf("ok: %d requests, %d failed, %d connections, %d grid updates coalesced into %d\n", requests.get(), failures.get(), conns.size(), 50, grids);
+
+	    /* A service that takes no compressed bodies. */
+	    up.register("noenc", () -> new Uploader.Target(base + "/noenc"));
+	    for(int i = 0; i < 10; i++)
+		up.submit(Uploader.Job.json("noenc", "/data", "{\"n\":" + i + "}"));
+	    await(up, 30000);
+	    check(plain.get() == 10, String.format("only %d of 10 uncompressed bodies delivered", plain.get()));
+	    check(refused.get() <= 2, String.format("%d compressed bodies refused", refused.get()));
+	    System.out.printf("ok: %d compressed bodies refused, then %d sent plain\n", refused.get(), plain.get());
+	    up.close();
+
+	    /* Persistence across restarts. */
+	    got.clear();
+	    Uploader a = new Uploader(outbox, 1, 20);
+	    for(int i = 0; i < 20; i++)
+		a.submit(Uploader.Job.json("held", "/data", "{\"held\":" + i + "}"));
+	    a.submit(Uploader.Job.json("held", "/data", "{\"gone\":0}").ephemeral());
+	    Thread.sleep(200);
+	    a.close();
+	    failrate = 0;
+	    Uploader b = new Uploader(outbox, 2, 20);
+	    b.register("held", () -> new Uploader.Target(base));
+	    await(b, 30000);
+	    int held = 0;
+	    for(String s : got.keySet()) {
+		if(s.startsWith("{\"held\""))
+		    held++;
+	    }
+	    check(held == 20, String.format("only %d of 20 jobs replayed from the outbox", held));
+	    check(!got.containsKey("{\"gone\":0}"), "ephemeral job replayed");
+	    try(DirectoryStream<Path> dir = Files.newDirectoryStream(outbox)) {
+		check(!dir.iterator().hasNext(), "outbox not emptied");
+	    }
+	    System.out.printf("ok: %d jobs replayed from the outbox\n", held);
+	    b.close();
+	} finally {
+	    srv.stop(0);
+	    ((ExecutorService)srv.getExecutor()).shutdown();
+	}
+    }
+}